@@ -0,0 +1,128 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.mapper.UserMapper;
+import io.vokumas.jitpayassignment.back.model.mapper.UserMapperImpl;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the mapped range response - BSON decoded into a Document, read into a User by MappingMongoConverter,
+ * copied into LocationTimedDtos by UserMapper and serialized by Jackson - with LocationJsonCodec writing the same
+ * JSON straight from BSON. Both start from the raw bytes of the aggregation result. Run with ./gradlew jmh,
+ * allocations per point are gc.alloc.rate.norm divided by points.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocationJsonBenchmark {
+
+    @Param({"1000"})
+    private int points;
+
+    private final UUID userId = UUID.randomUUID();
+    private final LocalDateTime from = LocalDateTime.of(2022, 11, 25, 0, 0);
+    private final LocalDateTime to = LocalDateTime.of(2022, 11, 26, 0, 0);
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+
+    private ObjectMapper mapper;
+    private Codec<Document> documentCodec;
+    private MappingMongoConverter converter;
+    private UserMapper userMapper;
+    private byte[] bson;
+
+    @Setup
+    public void setUp() {
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+        documentCodec = new DocumentCodec().withUuidRepresentation(UuidRepresentation.STANDARD);
+        converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        userMapper = new UserMapperImpl();
+
+        Random random = new Random(42);
+        LocalDateTime createdOn = LocalDateTime.of(2022, 11, 25, 10, 0);
+        double latitude = 52.52;
+        double longitude = 13.405;
+        List<Document> locations = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            createdOn = createdOn.plusNanos((2_000 + random.nextInt(3_000)) * 1_000_000L);
+            latitude += (random.nextDouble() - 0.5) / 1_000;
+            longitude += (random.nextDouble() - 0.5) / 1_000;
+            locations.add(new Document("latitude", latitude)
+                    .append("longitude", longitude)
+                    .append("createdOn", LocationDocuments.toDate(createdOn)));
+        }
+        Document user = new Document("_id", userId)
+                .append("email", "some@email.com")
+                .append("firstName", "firstName")
+                .append("secondName", "secondName")
+                .append("locations", locations);
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        documentCodec.encode(new BsonBinaryWriter(buffer), user, EncoderContext.builder().build());
+        bson = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] mapped() throws IOException {
+        Document document = documentCodec.decode(reader(), decoderContext);
+        User user = converter.read(User.class, document);
+        List<LocationTimedDto> locations = userMapper.entityLocationsToDtoLocations(user.getLocations());
+
+        return mapper.writeValueAsBytes(new GetUserLocationRangeResponseDto(user.getUserId(), locations));
+    }
+
+    @Benchmark
+    public byte[] passthrough() throws IOException {
+        ByteArrayBuilder output = new ByteArrayBuilder();
+        try (JsonGenerator generator = mapper.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.writeObjectField("userId", userId);
+            generator.writeFieldName("locations");
+            generator.writeStartArray();
+            new LocationJsonCodec(generator, from, to).decode(reader(), decoderContext);
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        return output.toByteArray();
+    }
+
+    private BsonBinaryReader reader() {
+        return new BsonBinaryReader(ByteBuffer.wrap(bson));
+    }
+
+}
@@ -0,0 +1,127 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.mapper.UserMapper;
+import io.vokumas.jitpayassignment.back.model.mapper.UserMapperImpl;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.util.TrajectorySimplifier;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the object model of a range - a User with a List of Locations decoded by UserCodec and copied into
+ * LocationTimedDtos by UserMapper - with a LocationSeries decoded by LocationSeriesCodec, both from the raw bytes
+ * of the same User document. decode* measure loading the range alone, so their gc.alloc.rate.norm is close
+ * to the heap the range takes. simplified* add sorting, Douglas-Peucker and serialization of the response,
+ * the way the simplified range endpoint does. Run with ./gradlew jmh, the gc profiler also reports gc.count
+ * and gc.time per benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LocationSeriesBenchmark {
+
+    @Param({"5000", "50000"})
+    private int points;
+
+    private final UUID userId = UUID.randomUUID();
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+
+    private ObjectMapper mapper;
+    private UserCodec userCodec;
+    private UserMapper userMapper;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private byte[] bson;
+
+    @Setup
+    public void setUp() {
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+        userCodec = new UserCodec(EntityCodecs.LOCATION);
+        userMapper = new UserMapperImpl();
+
+        // random walk of a vehicle pinging every second, roughly 10 meters per ping
+        Random random = new Random(42);
+        LocalDateTime createdOn = LocalDateTime.of(2022, 11, 1, 0, 0);
+        double latitude = 52.25742342295784;
+        double longitude = 10.540583401747602;
+        double heading = 0;
+        List<Location> locations = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            heading += random.nextGaussian() * 0.2;
+            latitude += Math.cos(heading) * 0.00009;
+            longitude += Math.sin(heading) * 0.00015;
+            locations.add(new Location(latitude, longitude, createdOn.plusSeconds(i)));
+        }
+        from = locations.get(0).getCreatedOn();
+        to = locations.get(points - 1).getCreatedOn();
+
+        User user = new User(userId, "some@email.com", "firstName", "secondName");
+        user.setLocations(locations);
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        userCodec.encode(new BsonBinaryWriter(buffer), user, EncoderContext.builder().build());
+        bson = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public List<LocationTimedDto> decodeObjects() {
+        User user = userCodec.decode(reader(), decoderContext);
+
+        return userMapper.entityLocationsToDtoLocations(user.getLocations());
+    }
+
+    @Benchmark
+    public LocationSeries decodeSeries() {
+        return new LocationSeriesCodec(from, to).decode(reader(), decoderContext);
+    }
+
+    @Benchmark
+    public byte[] simplifiedObjects() throws IOException {
+        List<LocationTimedDto> track = new ArrayList<>(decodeObjects());
+        track.sort(Comparator.comparing(LocationTimedDto::createdOn));
+        List<LocationTimedDto> simplified = TrajectorySimplifier.douglasPeucker(track, 5);
+
+        return mapper.writeValueAsBytes(new GetUserLocationRangeResponseDto(userId, simplified, null,
+                track.size() - simplified.size()));
+    }
+
+    @Benchmark
+    public byte[] simplifiedSeries() throws IOException {
+        LocationSeries track = decodeSeries().sortByCreatedOn();
+        LocationSeries simplified = TrajectorySimplifier.douglasPeucker(track, 5);
+
+        return mapper.writeValueAsBytes(new GetUserLocationRangeResponseDto(userId, simplified, null,
+                track.size() - simplified.size()));
+    }
+
+    private BsonBinaryReader reader() {
+        return new BsonBinaryReader(ByteBuffer.wrap(bson));
+    }
+
+}
@@ -0,0 +1,70 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the range pipeline from JSON text, the way it was done per request before,
+ * with binding the precompiled template. Run with ./gradlew jmh, allocation per call is reported by the gc profiler
+ * as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RangePipelineBenchmark {
+
+    private final UUID userId = UUID.randomUUID();
+    private final LocalDateTime from = LocalDateTime.of(2022, 11, 1, 10, 0);
+    private final LocalDateTime to = LocalDateTime.of(2022, 11, 30, 10, 0);
+
+    @Benchmark
+    public List<Document> jsonText() {
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        String projectionQuery = String.format("""
+                    { $project: {
+                        _id: 1,
+                        email: 1,
+                        firstName: 1,
+                        secondName: 1,
+                        locations: {$filter: {
+                            input: '$locations',
+                            as: 'item',
+                            cond: { $and:[
+                                        {$gte: ['$$item.createdOn', ISODate("%sZ")]},
+                                        {$lte: ['$$item.createdOn', ISODate("%sZ")]}
+                                     ] }
+                        }}
+                    }}""", atUtc(from), atUtc(to));
+
+        return Aggregation.newAggregation(
+                        Aggregation.match(new Criteria("_id").is(binary)),
+                        context -> context.getMappedObject(Document.parse(projectionQuery)))
+                .toPipeline(Aggregation.DEFAULT_CONTEXT);
+    }
+
+    @Benchmark
+    public List<Document> template() {
+        return LocationPipelines.range(new BsonBinary(userId, UuidRepresentation.STANDARD), from, to)
+                .toPipeline(Aggregation.DEFAULT_CONTEXT);
+    }
+
+    private static LocalDateTime atUtc(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC")).toLocalDateTime();
+    }
+
+}
@@ -0,0 +1,82 @@
+package io.vokumas.jitpayassignment.back.service.geofence;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Geofence;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofencePoint;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Points evaluated per second against 10k customer sites spread over Germany, half of them 16 vertex polygons
+ * and half circles, both a few hundred meters across.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GeofenceMatcherBenchmark {
+
+    private static final double MIN_LATITUDE = 47.3;
+    private static final double MIN_LONGITUDE = 5.9;
+    private static final double LATITUDE_SPAN = 7.7;
+    private static final double LONGITUDE_SPAN = 9.1;
+
+    @Param({"10000"})
+    private int fences;
+
+    @Param({"0.05", "0.1", "0.5"})
+    private double cellSize;
+
+    private GeofenceMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Geofence> geofences = new ArrayList<>(fences);
+        for (int i = 0; i < fences; i++) {
+            double latitude = MIN_LATITUDE + random.nextDouble() * LATITUDE_SPAN;
+            double longitude = MIN_LONGITUDE + random.nextDouble() * LONGITUDE_SPAN;
+            Geofence geofence = new Geofence();
+            geofence.setGeofenceId(UUID.randomUUID());
+            geofence.setName("site " + i);
+            if (i % 2 == 0) {
+                geofence.setType(GeofenceType.CIRCLE);
+                geofence.setCenter(new GeofencePoint(latitude, longitude));
+                geofence.setRadius(100 + random.nextDouble() * 400);
+            } else {
+                List<GeofencePoint> vertices = new ArrayList<>();
+                for (int vertex = 0; vertex < 16; vertex++) {
+                    double angle = 2 * Math.PI * vertex / 16;
+                    double distance = 0.002 + random.nextDouble() * 0.003;
+                    vertices.add(new GeofencePoint(latitude + Math.sin(angle) * distance,
+                            longitude + Math.cos(angle) * distance * 1.6));
+                }
+                geofence.setType(GeofenceType.POLYGON);
+                geofence.setVertices(vertices);
+            }
+            geofences.add(geofence);
+        }
+        matcher = GeofenceMatcher.of(geofences, cellSize);
+    }
+
+    @Benchmark
+    public Set<UUID> containing() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return matcher.containing(MIN_LATITUDE + random.nextDouble() * LATITUDE_SPAN,
+                MIN_LONGITUDE + random.nextDouble() * LONGITUDE_SPAN);
+    }
+
+}
@@ -0,0 +1,89 @@
+package io.vokumas.jitpayassignment.back.service.spatial;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.config.SpatialIndexProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of dispatch style lookups against the grid, with users spread over a metropolitan area
+ * the size of Berlin or over the whole globe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LatestPositionIndexBenchmark {
+
+    private static final LocalDateTime CREATED_ON = LocalDateTime.of(2022, 11, 1, 0, 0);
+
+    @Param({"10000", "1000000"})
+    private int users;
+
+    @Param({"0.01", "0.05"})
+    private double cellSize;
+
+    @Param({"metropolitan", "global"})
+    private String spread;
+
+    private LatestPositionIndex index;
+    private UUID[] userIds;
+
+    @Setup
+    public void setUp() {
+        SpatialIndexProperties properties = new SpatialIndexProperties();
+        properties.setEnabled(true);
+        properties.setCellSize(cellSize);
+        index = new LatestPositionIndex(properties, new SimpleMeterRegistry());
+
+        Random random = new Random(42);
+        userIds = new UUID[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = UUID.randomUUID();
+            index.update(userIds[i], new Location(latitude(random), longitude(random), CREATED_ON));
+        }
+    }
+
+    @Benchmark
+    public List<LatestPositionIndex.Position> nearest10() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return index.nearest(latitude(random), longitude(random), 10, LatestPositionIndex.MAX_DISTANCE_METERS);
+    }
+
+    @Benchmark
+    public List<LatestPositionIndex.Position> within1km() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double latitude = latitude(random);
+        double longitude = Math.min(longitude(random), 179.985);
+        return index.within(latitude, longitude, latitude + 0.009, longitude + 0.015, 1_000);
+    }
+
+    @Benchmark
+    public void update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        index.update(userIds[random.nextInt(users)], new Location(latitude(random), longitude(random),
+                CREATED_ON.plusSeconds(random.nextInt(1_000_000))));
+    }
+
+    private double latitude(Random random) {
+        return "global".equals(spread) ? -85 + random.nextDouble() * 170 : 52.35 + random.nextDouble() * 0.35;
+    }
+
+    private double longitude(Random random) {
+        return "global".equals(spread) ? -180 + random.nextDouble() * 360 : 13.1 + random.nextDouble() * 0.6;
+    }
+
+}
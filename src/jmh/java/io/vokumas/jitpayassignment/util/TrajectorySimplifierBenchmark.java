@@ -0,0 +1,88 @@
+package io.vokumas.jitpayassignment.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of simplifying and serializing a large range compared to serializing it as it is.
+ * Response size is reported as the payloadBytes secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrajectorySimplifierBenchmark {
+
+    @Param({"10000", "100000"})
+    private int points;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private List<LocationTimedDto> track;
+
+    @Setup
+    public void setUp() {
+        // random walk of a vehicle pinging every second, roughly 10 meters per ping
+        Random random = new Random(42);
+        LocalDateTime createdOn = LocalDateTime.of(2022, 11, 1, 0, 0);
+        double latitude = 52.25742342295784;
+        double longitude = 10.540583401747602;
+        double heading = 0;
+        track = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            heading += random.nextGaussian() * 0.2;
+            latitude += Math.cos(heading) * 0.00009;
+            longitude += Math.sin(heading) * 0.00015;
+            track.add(new LocationTimedDto(createdOn.plusSeconds(i), new LocationDto(latitude, longitude)));
+        }
+    }
+
+    @Benchmark
+    public byte[] unsimplified(Payload payload) throws Exception {
+        return payload.record(objectMapper.writeValueAsBytes(track));
+    }
+
+    @Benchmark
+    public byte[] douglasPeucker5m(Payload payload) throws Exception {
+        return payload.record(objectMapper.writeValueAsBytes(TrajectorySimplifier.douglasPeucker(track, 5)));
+    }
+
+    @Benchmark
+    public byte[] visvalingam1000(Payload payload) throws Exception {
+        return payload.record(objectMapper.writeValueAsBytes(TrajectorySimplifier.visvalingam(track, 1000)));
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadBytes = 0;
+        }
+
+        byte[] record(byte[] body) {
+            payloadBytes = body.length;
+            return body;
+        }
+
+    }
+
+}
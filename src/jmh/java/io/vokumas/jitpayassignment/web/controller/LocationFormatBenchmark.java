@@ -0,0 +1,94 @@
+package io.vokumas.jitpayassignment.web.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a range response in every supported format: serialization time per response, and size, which is reported
+ * as the payloadBytes and bytesPerPoint secondary results. The track is a single user driving through Berlin
+ * with a location every few seconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocationFormatBenchmark {
+
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    @Param({"1000"})
+    private int points;
+
+    private ObjectMapper mapper;
+    private GetUserLocationRangeResponseDto response;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = switch (format) {
+            case "cbor" -> Jackson2ObjectMapperBuilder.cbor().build();
+            case "smile" -> Jackson2ObjectMapperBuilder.smile().build();
+            default -> Jackson2ObjectMapperBuilder.json().build();
+        };
+
+        Random random = new Random(42);
+        LocalDateTime createdOn = LocalDateTime.of(2022, 11, 25, 10, 0);
+        double latitude = 52.52;
+        double longitude = 13.405;
+        List<LocationTimedDto> locations = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            createdOn = createdOn.plusNanos((2_000 + random.nextInt(3_000)) * 1_000_000L);
+            latitude += (random.nextDouble() - 0.5) / 1_000;
+            longitude += (random.nextDouble() - 0.5) / 1_000;
+            locations.add(new LocationTimedDto(createdOn, new LocationDto(latitude, longitude)));
+        }
+        response = new GetUserLocationRangeResponseDto(UUID.randomUUID(), locations);
+    }
+
+    @Benchmark
+    public byte[] serialize(Payload payload) throws IOException {
+        return payload.record(mapper.writeValueAsBytes(response), points);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+
+        public long payloadBytes;
+        public double bytesPerPoint;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadBytes = 0;
+            bytesPerPoint = 0;
+        }
+
+        byte[] record(byte[] body, int points) {
+            payloadBytes = body.length;
+            bytesPerPoint = (double) body.length / points;
+            return body;
+        }
+
+    }
+
+}
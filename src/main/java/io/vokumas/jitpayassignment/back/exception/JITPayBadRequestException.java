@@ -0,0 +1,13 @@
+package io.vokumas.jitpayassignment.back.exception;
+
+public class JITPayBadRequestException extends JITPayException {
+
+    public JITPayBadRequestException(String message) {
+        super(message);
+    }
+
+    public JITPayBadRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
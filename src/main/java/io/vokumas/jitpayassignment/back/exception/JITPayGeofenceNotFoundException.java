@@ -0,0 +1,17 @@
+package io.vokumas.jitpayassignment.back.exception;
+
+import lombok.Getter;
+
+import java.util.UUID;
+
+@Getter
+public class JITPayGeofenceNotFoundException extends JITPayException {
+
+    private final UUID geofenceId;
+
+    public JITPayGeofenceNotFoundException(String message, UUID geofenceId) {
+        super(message);
+        this.geofenceId = geofenceId;
+    }
+
+}
@@ -0,0 +1,17 @@
+package io.vokumas.jitpayassignment.back.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class JITPayIngestionOverloadedException extends JITPayException {
+
+    private final Duration retryAfter;
+
+    public JITPayIngestionOverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+}
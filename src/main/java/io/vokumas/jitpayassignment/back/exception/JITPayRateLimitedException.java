@@ -0,0 +1,21 @@
+package io.vokumas.jitpayassignment.back.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown on the hot path for every rejected write of a client that is over its limit,
+ * so it is created without a stack trace.
+ */
+@Getter
+public class JITPayRateLimitedException extends JITPayException {
+
+    private final Duration retryAfter;
+
+    public JITPayRateLimitedException(String message, Duration retryAfter) {
+        super(message, null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+}
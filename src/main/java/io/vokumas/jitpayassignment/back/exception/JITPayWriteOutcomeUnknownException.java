@@ -0,0 +1,13 @@
+package io.vokumas.jitpayassignment.back.exception;
+
+/**
+ * Thrown when a write has been sent, but was not confirmed in time. It might still be stored,
+ * so unlike JITPayIngestionOverloadedException it is not answered as safe to retry.
+ */
+public class JITPayWriteOutcomeUnknownException extends JITPayException {
+
+    public JITPayWriteOutcomeUnknownException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,32 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceType;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * POLYGON fences need at least three vertices, CIRCLE fences need center and radius in meters.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record GeofenceDto(
+        @NotNull(message = "geofenceId cannot be empty")
+        UUID geofenceId,
+
+        @NotBlank(message = "name cannot be empty")
+        String name,
+
+        @NotNull(message = "type cannot be empty")
+        GeofenceType type,
+
+        List<@NotNull @Valid LocationDto> vertices,
+
+        @Valid
+        LocationDto center,
+
+        Double radius) {
+}
@@ -0,0 +1,19 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceTransition;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public record GeofenceEventDto(
+        UUID userId,
+        UUID geofenceId,
+        GeofenceTransition transition,
+        @JsonFormat(pattern = ValidationConstants.TIMESTAMP_DTO_PATTERN,
+                timezone = ValidationConstants.TIMESTAMP_DEFAULT_REGION)
+        LocalDateTime createdOn,
+        LocationDto location
+        ) {
+}
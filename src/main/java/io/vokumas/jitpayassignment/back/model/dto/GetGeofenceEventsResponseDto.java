@@ -0,0 +1,11 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import java.util.List;
+
+/**
+ * @param events events ordered by createdOn.
+ */
+public record GetGeofenceEventsResponseDto(
+        List<GeofenceEventDto> events
+        ) {
+}
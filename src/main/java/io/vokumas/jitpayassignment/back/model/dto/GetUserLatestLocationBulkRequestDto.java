@@ -0,0 +1,16 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+import java.util.UUID;
+
+public record GetUserLatestLocationBulkRequestDto(
+        @NotEmpty(message = "userIds cannot be empty")
+        @Size(max = ValidationConstants.LATEST_LOCATION_BULK_MAX_SIZE,
+                message = "userIds cannot contain more than " + ValidationConstants.LATEST_LOCATION_BULK_MAX_SIZE + " items")
+        List<@NotNull(message = "userId cannot be empty") UUID> userIds) {
+}
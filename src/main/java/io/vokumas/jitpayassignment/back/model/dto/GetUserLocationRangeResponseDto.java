@@ -1,7 +1,29 @@
 package io.vokumas.jitpayassignment.back.model.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 import java.util.UUID;
 
-public record GetUserLocationRangeResponseDto(UUID userId, List<LocationTimedDto> locations) {
+/**
+ * @param nextCursor continuation cursor of a paged response, absent on the last page and on unpaged responses.
+ * @param droppedPoints number of locations removed by simplification, absent when no simplification was requested.
+ */
+public record GetUserLocationRangeResponseDto(
+        UUID userId,
+        List<LocationTimedDto> locations,
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String nextCursor,
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        Integer droppedPoints
+        ) {
+
+    public GetUserLocationRangeResponseDto(UUID userId, List<LocationTimedDto> locations) {
+        this(userId, locations, null, null);
+    }
+
+    public GetUserLocationRangeResponseDto(UUID userId, List<LocationTimedDto> locations, String nextCursor) {
+        this(userId, locations, nextCursor, null);
+    }
+
 }
@@ -0,0 +1,16 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @param summaries one per window with at least one location, ordered by windowStart.
+ */
+public record GetUserLocationSummaryResponseDto(
+        UUID userId,
+        TimeGranularity granularity,
+        List<LocationSummaryDto> summaries
+        ) {
+}
@@ -0,0 +1,8 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import java.util.List;
+
+public record GetUserPositionsResponseDto(
+        List<UserPositionDto> users
+        ) {
+}
@@ -0,0 +1,11 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import java.util.List;
+
+/**
+ * @param users users ordered by distance, nearest first.
+ */
+public record GetUsersNearLocationResponseDto(
+        List<UserNearLocationDto> users
+        ) {
+}
@@ -1,5 +1,7 @@
 package io.vokumas.jitpayassignment.back.model.dto;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotNull;
 
 /**
@@ -14,8 +16,12 @@ import javax.validation.constraints.NotNull;
  */
 public record LocationDto(
         @NotNull(message = "latitude cannot be empty")
+        @DecimalMin(value = "-90", message = "latitude should be between -90 and 90")
+        @DecimalMax(value = "90", message = "latitude should be between -90 and 90")
         Double latitude,
         @NotNull(message = "longitude cannot be empty")
+        @DecimalMin(value = "-180", message = "longitude should be between -180 and 180")
+        @DecimalMax(value = "180", message = "longitude should be between -180 and 180")
         Double longitude
         ) {
 
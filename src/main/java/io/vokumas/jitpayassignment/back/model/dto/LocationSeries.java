@@ -0,0 +1,186 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Preconditions;
+import lombok.val;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Track of locations held column by column in primitive arrays: latitudes, longitudes and createdOn as epoch millis.
+ * A location costs 24 bytes instead of a Location or a LocationTimedDto with two boxed Doubles and a LocalDateTime.
+ * createdOn instants are the BSON dates as stored, converted from and to LocalDateTime the same way Spring Data
+ * does - in the system default time zone. Missing coordinates are NaN.
+ * The series is a List of LocationTimedDto so that it can stand in for one in responses, elements are created
+ * on every get. Jackson writes it with LocationSeriesSerializer, straight from the arrays.
+ * A series is filled by a single thread and is not thread safe.
+ */
+@JsonSerialize(using = LocationSeriesSerializer.class)
+public final class LocationSeries extends AbstractList<LocationTimedDto> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] createdOn;
+    private int size;
+
+    public LocationSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LocationSeries(int capacity) {
+        Preconditions.checkArgument(capacity >= 0, "capacity cannot be negative");
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.createdOn = new long[capacity];
+    }
+
+    /**
+     * @param createdOnMillis epoch millis of createdOn.
+     */
+    public void add(double latitude, double longitude, long createdOnMillis) {
+        if (size == createdOn.length) {
+            val capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            createdOn = Arrays.copyOf(createdOn, capacity);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        createdOn[size] = createdOnMillis;
+        size++;
+        modCount++;
+    }
+
+    public void add(Double latitude, Double longitude, LocalDateTime createdOn) {
+        add(latitude != null ? latitude : Double.NaN,
+                longitude != null ? longitude : Double.NaN,
+                createdOn.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public double latitude(int index) {
+        return latitudes[Preconditions.checkElementIndex(index, size)];
+    }
+
+    public double longitude(int index) {
+        return longitudes[Preconditions.checkElementIndex(index, size)];
+    }
+
+    /**
+     * @return epoch millis of createdOn.
+     */
+    public long createdOnMillis(int index) {
+        return createdOn[Preconditions.checkElementIndex(index, size)];
+    }
+
+    public LocalDateTime createdOn(int index) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdOnMillis(index)), ZoneId.systemDefault());
+    }
+
+    @Override
+    public LocationTimedDto get(int index) {
+        return new LocationTimedDto(createdOn(index),
+                new LocationDto(coordinate(latitude(index)), coordinate(longitude(index))));
+    }
+
+    /**
+     * Orders locations by createdOn in place. The sort is stable, so locations with the same createdOn keep
+     * their order, the same as List.sort does.
+     * @return this series.
+     */
+    public LocationSeries sortByCreatedOn() {
+        if (isSortedByCreatedOn()) {
+            return this;
+        }
+
+        int[] order = new int[size];
+        int[] buffer = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // bottom-up merge sort of the indices, so the three columns are permuted only once
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int middle = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int left = low;
+                int right = middle;
+                for (int k = low; k < high; k++) {
+                    if (left < middle && (right >= high || createdOn[order[left]] <= createdOn[order[right]])) {
+                        buffer[k] = order[left++];
+                    } else {
+                        buffer[k] = order[right++];
+                    }
+                }
+            }
+            int[] merged = buffer;
+            buffer = order;
+            order = merged;
+        }
+
+        double[] sortedLatitudes = new double[size];
+        double[] sortedLongitudes = new double[size];
+        long[] sortedCreatedOn = new long[size];
+        for (int i = 0; i < size; i++) {
+            sortedLatitudes[i] = latitudes[order[i]];
+            sortedLongitudes[i] = longitudes[order[i]];
+            sortedCreatedOn[i] = createdOn[order[i]];
+        }
+        latitudes = sortedLatitudes;
+        longitudes = sortedLongitudes;
+        createdOn = sortedCreatedOn;
+        modCount++;
+
+        return this;
+    }
+
+    public boolean isSortedByCreatedOn() {
+        for (int i = 1; i < size; i++) {
+            if (createdOn[i - 1] > createdOn[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param keep flag per location of this series.
+     * @return new series of the locations flagged in keep, in the same order.
+     */
+    public LocationSeries select(boolean[] keep) {
+        Preconditions.checkArgument(keep.length == size, "keep should have a flag per location");
+
+        int kept = 0;
+        for (boolean flag : keep) {
+            if (flag) {
+                kept++;
+            }
+        }
+
+        val selected = new LocationSeries(kept);
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                selected.add(latitudes[i], longitudes[i], createdOn[i]);
+            }
+        }
+
+        return selected;
+    }
+
+    private static Double coordinate(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+}
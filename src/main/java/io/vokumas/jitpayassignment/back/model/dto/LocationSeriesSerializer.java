@@ -0,0 +1,37 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import io.vokumas.jitpayassignment.util.LocationJsonWriter;
+import lombok.val;
+
+import java.io.IOException;
+
+/**
+ * Writes a LocationSeries as the same array a List of LocationTimedDto is written as, straight from its columns,
+ * without creating the elements.
+ */
+public class LocationSeriesSerializer extends StdSerializer<LocationSeries> {
+
+    public LocationSeriesSerializer() {
+        super(LocationSeries.class);
+    }
+
+    @Override
+    public void serialize(LocationSeries series, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        val writer = new LocationJsonWriter();
+        generator.writeStartArray(series, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            writer.write(generator, series.createdOnMillis(i), series.latitude(i), series.longitude(i));
+        }
+        generator.writeEndArray();
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, LocationSeries series) {
+        return series.isEmpty();
+    }
+
+}
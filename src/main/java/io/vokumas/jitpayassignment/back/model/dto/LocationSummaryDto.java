@@ -0,0 +1,35 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+
+import java.time.LocalDateTime;
+
+/**
+ * Summary of a user's locations in a single time window.
+ * @param distance approximate length of the track through the window's locations in meters.
+ */
+public record LocationSummaryDto(@JsonFormat(pattern = ValidationConstants.TIMESTAMP_DTO_PATTERN,
+                                         timezone = ValidationConstants.TIMESTAMP_DEFAULT_REGION)
+                                 LocalDateTime windowStart,
+
+                                 long count,
+
+                                 double minLatitude,
+
+                                 double minLongitude,
+
+                                 double maxLatitude,
+
+                                 double maxLongitude,
+
+                                 @JsonFormat(pattern = ValidationConstants.TIMESTAMP_DTO_PATTERN,
+                                         timezone = ValidationConstants.TIMESTAMP_DEFAULT_REGION)
+                                 LocalDateTime firstCreatedOn,
+
+                                 @JsonFormat(pattern = ValidationConstants.TIMESTAMP_DTO_PATTERN,
+                                         timezone = ValidationConstants.TIMESTAMP_DEFAULT_REGION)
+                                 LocalDateTime lastCreatedOn,
+
+                                 double distance) {
+}
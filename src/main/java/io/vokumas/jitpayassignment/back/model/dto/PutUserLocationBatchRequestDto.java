@@ -0,0 +1,15 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+public record PutUserLocationBatchRequestDto(
+        @NotEmpty(message = "locations cannot be empty")
+        @Size(max = ValidationConstants.LOCATION_BATCH_MAX_SIZE,
+                message = "locations cannot contain more than " + ValidationConstants.LOCATION_BATCH_MAX_SIZE + " items")
+        List<@Valid PutUserLocationRequestDto> locations) {
+}
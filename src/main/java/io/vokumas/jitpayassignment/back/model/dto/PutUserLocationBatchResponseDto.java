@@ -0,0 +1,6 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import java.util.List;
+
+public record PutUserLocationBatchResponseDto(List<UserLocationBatchResultDto> results) {
+}
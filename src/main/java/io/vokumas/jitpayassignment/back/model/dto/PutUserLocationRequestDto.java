@@ -3,6 +3,7 @@ package io.vokumas.jitpayassignment.back.model.dto;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -17,5 +18,6 @@ public record PutUserLocationRequestDto(
         LocalDateTime createdOn,
 
         @NotNull(message = "location cannot be empty")
+        @Valid
         LocationDto location) {
 }
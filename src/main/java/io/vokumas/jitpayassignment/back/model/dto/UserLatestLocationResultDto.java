@@ -0,0 +1,18 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * Single entry of a bulk latest location lookup. user is only present for FOUND entries.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UserLatestLocationResultDto(UUID userId, Status status, UserSingleLocationDto user) {
+
+    public enum Status {
+        FOUND,
+        NOT_FOUND
+    }
+
+}
@@ -0,0 +1,8 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+
+import java.util.UUID;
+
+public record UserLocationBatchResultDto(UUID userId, LocationWriteStatus status, int locations) {
+}
@@ -0,0 +1,16 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import java.util.UUID;
+
+/**
+ * @param distance distance in meters between location and the searched point.
+ */
+public record UserNearLocationDto(
+        UUID userId,
+        String email,
+        String firstName,
+        String secondName,
+        LocationDto location,
+        double distance
+        ) {
+}
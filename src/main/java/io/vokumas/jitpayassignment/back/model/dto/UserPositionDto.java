@@ -0,0 +1,16 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * @param distance distance in meters from the searched point, absent for bounding box queries.
+ */
+public record UserPositionDto(
+        UUID userId,
+        LocationDto location,
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        Double distance
+        ) {
+}
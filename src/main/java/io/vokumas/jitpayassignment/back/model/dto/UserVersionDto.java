@@ -0,0 +1,15 @@
+package io.vokumas.jitpayassignment.back.model.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * @param version incremented on every write to the user.
+ * @param latestCreatedOn createdOn of the latest location, null when the user has no locations.
+ */
+public record UserVersionDto(
+        UUID userId,
+        long version,
+        LocalDateTime latestCreatedOn
+        ) {
+}
@@ -0,0 +1,31 @@
+package io.vokumas.jitpayassignment.back.model.mapper;
+
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceDto;
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceEventDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.mongo.Geofence;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceEvent;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofencePoint;
+import org.mapstruct.Mapper;
+
+import java.util.List;
+
+@Mapper(componentModel = "spring")
+public interface GeofenceMapper {
+
+    Geofence dtoToEntity(GeofenceDto dto);
+
+    GeofenceDto entityToDto(Geofence entity);
+
+    GeofencePoint dtoToEntity(LocationDto dto);
+
+    LocationDto entityToDto(GeofencePoint entity);
+
+    List<GeofenceEventDto> entityEventsToDtoEvents(List<GeofenceEvent> events);
+
+    default GeofenceEventDto map(GeofenceEvent event) {
+        return new GeofenceEventDto(event.getUserId(), event.getGeofenceId(), event.getTransition(),
+                event.getCreatedOn(), new LocationDto(event.getLatitude(), event.getLongitude()));
+    }
+
+}
@@ -2,6 +2,8 @@ package io.vokumas.jitpayassignment.back.model.mapper;
 
 import io.vokumas.jitpayassignment.back.model.dto.*;
 import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserNearLocation;
 import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
 import io.vokumas.jitpayassignment.back.model.mongo.User;
 import lombok.val;
@@ -19,6 +21,8 @@ public interface UserMapper {
 
     UserSingleLocationDto entityToDto(MongoUserSingleLocation entity);
 
+    UserNearLocationDto entityToNearDto(MongoUserNearLocation entity);
+
     Location dtoToEntity(LocationDto dto);
 
     @Mapping(source = "location.latitude", target = "latitude")
@@ -31,6 +35,8 @@ public interface UserMapper {
 
     List<LocationTimedDto> entityLocationsToDtoLocations(List<Location> locations);
 
+    List<LocationSummaryDto> entityRollupsToDtoSummaries(List<LocationRollup> rollups);
+
     default LocationTimedDto map(Location location) {
         val dto = new LocationTimedDto(location.getCreatedOn(),
                 new LocationDto(location.getLatitude(), location.getLongitude()));
@@ -0,0 +1,185 @@
+package io.vokumas.jitpayassignment.back.model.migration;
+
+import com.mongodb.client.model.ReplaceOptions;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationDocuments;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Fills User.latestLocation for documents written before the field was maintained on write,
+ * and its GeoJSON point for documents written before the point was added.
+ * Embedded locations are handled by a single server side pipeline update. In BUCKETED mode users are visited one by one
+ * and the latest Location is taken from the buckets of their latest time window.
+ * Both steps use $max, so running this concurrently with regular writes never replaces a newer Location.
+ * On startup each of the two backfills runs once per database: its completion is recorded as a marker document
+ * in the migrations collection, so later starts skip it instead of scanning every user again.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LatestLocationMigration implements ApplicationRunner {
+
+    private static final String EMBEDDED_LATEST_LOCATION = """
+            {$set : {latestLocation : {$max : [
+                "$latestLocation",
+                {$let : {
+                    vars : {latest : {$reduce : {
+                        input : "$locations",
+                        initialValue : null,
+                        in : {$cond: [{$gte : ["$$this.createdOn", "$$value.createdOn"]}, "$$this", "$$value"]}}}},
+                    in : {createdOn : "$$latest.createdOn",
+                          latitude : "$$latest.latitude",
+                          longitude : "$$latest.longitude",
+                          point : {type : "Point", coordinates : ["$$latest.longitude", "$$latest.latitude"]}}}}
+            ]}}}""";
+
+    private static final String LATEST_LOCATION_POINT = """
+            {$set : {"latestLocation.point" : {
+                type : "Point",
+                coordinates : ["$latestLocation.longitude", "$latestLocation.latitude"]}}}""";
+
+    static final String MIGRATIONS_COLLECTION = "migrations";
+    static final String LATEST_LOCATION_MIGRATION = "latest-location-backfill";
+    static final String LATEST_LOCATION_POINT_MIGRATION = "latest-location-point-backfill";
+
+    private final MongoTemplate mongoTemplate;
+    private final LocationStorageProperties storageProperties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!storageProperties.isBackfillLatestLocationOnStartup()) {
+            return;
+        }
+
+        runOnce(LATEST_LOCATION_MIGRATION, this::backfillLatestLocations);
+        runOnce(LATEST_LOCATION_POINT_MIGRATION, this::backfillPoints);
+    }
+
+    /**
+     * Runs every step regardless of the markers, e.g. to backfill again after restoring old data.
+     * @return number of users that got User.latestLocation filled or completed.
+     */
+    public long migrate() {
+        return backfillLatestLocations() + backfillPoints();
+    }
+
+    private long backfillLatestLocations() {
+        long backfilled = backfillEmbedded();
+        if (storageProperties.isBucketed()) {
+            backfilled += backfillBucketed();
+        }
+
+        return backfilled;
+    }
+
+    /**
+     * Runs the step unless its marker is found, then records the marker. Instances starting at the same time
+     * might both run it, which is harmless as every step only fills what is missing.
+     */
+    private void runOnce(final String migration, final LongSupplier step) {
+        val migrations = mongoTemplate.getCollection(MIGRATIONS_COLLECTION);
+        if (migrations.find(new Document("_id", migration)).first() != null) {
+            log.debug("Migration {} has already been done", migration);
+            return;
+        }
+
+        val updated = step.getAsLong();
+        migrations.replaceOne(new Document("_id", migration),
+                new Document("_id", migration)
+                        .append("completedOn", new Date())
+                        .append("usersUpdated", updated),
+                new ReplaceOptions().upsert(true));
+        log.info("Migration {} finished. Users updated: {}", migration, updated);
+    }
+
+    /**
+     * Adds the GeoJSON point to latestLocation subdocuments written before it was introduced.
+     */
+    private long backfillPoints() {
+        val filter = new Document("latestLocation", new Document("$exists", true))
+                .append("latestLocation.point", new Document("$exists", false));
+        val result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(User.class))
+                .updateMany(filter, List.of(Document.parse(LATEST_LOCATION_POINT)));
+
+        return result.getModifiedCount();
+    }
+
+    private long backfillEmbedded() {
+        val filter = new Document("latestLocation", new Document("$exists", false))
+                .append("locations.0", new Document("$exists", true));
+        val result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(User.class))
+                .updateMany(filter, List.of(Document.parse(EMBEDDED_LATEST_LOCATION)));
+
+        return result.getModifiedCount();
+    }
+
+    private long backfillBucketed() {
+        Query query = new Query().addCriteria(Criteria.where("latestLocation").exists(false));
+        query.fields().include("_id");
+        long backfilled = 0;
+
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                val userId = new BsonBinary(iterator.next().getUserId(), UuidRepresentation.STANDARD);
+                val latestLocation = findLatestLocationInBuckets(userId);
+                if (latestLocation.isPresent()) {
+                    mongoTemplate.updateFirst(new Query().addCriteria(Criteria.where("_id").is(userId)),
+                            new Update().max("latestLocation", LocationDocuments.latestLocation(latestLocation.get())),
+                            User.class);
+                    backfilled++;
+                }
+            }
+        }
+
+        return backfilled;
+    }
+
+    /**
+     * The latest Location always lives in the latest window, though that window might be split into several buckets.
+     * So this reads the latest bucket to find the window and then all buckets of that window.
+     */
+    private Optional<Location> findLatestLocationInBuckets(final BsonBinary userId) {
+        Query latestBucketQuery = new Query()
+                .addCriteria(Criteria.where("userId").is(userId))
+                .with(Sort.by(Sort.Direction.DESC, "bucketStart"))
+                .limit(1);
+        latestBucketQuery.fields().include("bucketStart");
+        val latestBucket = mongoTemplate.findOne(latestBucketQuery, LocationBucket.class);
+        if (latestBucket == null) {
+            return Optional.empty();
+        }
+
+        Query windowQuery = new Query().addCriteria(Criteria.where("userId").is(userId)
+                .and("bucketStart").is(latestBucket.getBucketStart()));
+
+        return mongoTemplate.find(windowQuery, LocationBucket.class).stream()
+                .flatMap(bucket -> bucket.getLocations().stream())
+                .max(Comparator.comparing(Location::getCreatedOn));
+    }
+
+}
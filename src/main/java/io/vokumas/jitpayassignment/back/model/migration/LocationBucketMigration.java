@@ -0,0 +1,119 @@
+package io.vokumas.jitpayassignment.back.model.migration;
+
+import com.google.common.collect.Lists;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationDocuments;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.bson.BsonBinary;
+import org.bson.UuidRepresentation;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits User.locations of existing user documents into LocationBucket documents and removes the array afterwards.
+ * Users are migrated one by one, so the migration can be interrupted and started again at any moment:
+ * users that still have the locations array get their previously migrated buckets removed and are migrated again.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocationBucketMigration implements ApplicationRunner {
+
+    private final MongoTemplate mongoTemplate;
+    private final LocationStorageProperties storageProperties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!storageProperties.isMigrateOnStartup()) {
+            return;
+        }
+        if (!storageProperties.isBucketed()) {
+            log.warn("Location bucket migration skipped. Storage mode is {}", storageProperties.getMode());
+            return;
+        }
+
+        log.info("Location bucket migration started");
+        val migrated = migrate();
+        log.info("Location bucket migration finished. Users migrated: {}", migrated);
+    }
+
+    /**
+     * @return number of users that have been migrated.
+     */
+    public long migrate() {
+        Query query = new Query().addCriteria(Criteria.where("locations.0").exists(true));
+        long migrated = 0;
+
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                migrateUser(iterator.next());
+                migrated++;
+            }
+        }
+
+        return migrated;
+    }
+
+    private void migrateUser(final User user) {
+        val userId = new BsonBinary(user.getUserId(), UuidRepresentation.STANDARD);
+        mongoTemplate.remove(new Query().addCriteria(Criteria.where("userId").is(userId)
+                .and("migrated").is(true)), LocationBucket.class);
+
+        val buckets = toBuckets(user);
+        if (!buckets.isEmpty()) {
+            mongoTemplate.insert(buckets, LocationBucket.class);
+        }
+        val latestLocation = user.getLocations().stream().max(Comparator.comparing(Location::getCreatedOn)).get();
+        mongoTemplate.updateFirst(new Query().addCriteria(Criteria.where("_id").is(userId)),
+                new Update().unset("locations").max("latestLocation", LocationDocuments.latestLocation(latestLocation)),
+                User.class);
+    }
+
+    private List<LocationBucket> toBuckets(final User user) {
+        val granularity = storageProperties.getBucketGranularity();
+        TreeMap<LocalDateTime, List<Location>> byWindow = user.getLocations().stream()
+                .collect(Collectors.groupingBy(l -> granularity.truncate(l.getCreatedOn()),
+                        TreeMap::new, Collectors.toList()));
+
+        List<LocationBucket> buckets = new ArrayList<>();
+        byWindow.forEach((bucketStart, windowLocations) -> {
+            for (List<Location> chunk : Lists.partition(windowLocations, storageProperties.getBucketCapacity())) {
+                LocationBucket bucket = new LocationBucket();
+                bucket.setUserId(user.getUserId());
+                bucket.setGranularity(granularity);
+                bucket.setBucketStart(bucketStart);
+                bucket.setCount(chunk.size());
+                bucket.setFirstCreatedOn(chunk.stream().map(Location::getCreatedOn)
+                        .min(Comparator.<LocalDateTime>naturalOrder()).get());
+                bucket.setLastCreatedOn(chunk.stream().map(Location::getCreatedOn)
+                        .max(Comparator.<LocalDateTime>naturalOrder()).get());
+                bucket.setMigrated(true);
+                bucket.setLocations(new ArrayList<>(chunk));
+                buckets.add(bucket);
+            }
+        });
+
+        return buckets;
+    }
+
+}
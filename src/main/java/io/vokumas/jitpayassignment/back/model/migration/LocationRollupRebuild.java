@@ -0,0 +1,93 @@
+package io.vokumas.jitpayassignment.back.model.migration;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationRollups;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.bson.BsonBinary;
+import org.bson.UuidRepresentation;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Recomputes LocationRollups of every user from the full location history, embedded and bucketed alike, which makes
+ * distances exact again. Meant for history written before rollups were maintained and for changes of the
+ * maintained granularities.
+ * Users are rebuilt one by one by replacing all of their rollups, so the rebuild can be interrupted and started again
+ * at any moment. Locations written to a user while it is being rebuilt may be missing from its rollups until
+ * the next rebuild.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocationRollupRebuild implements ApplicationRunner {
+
+    private final MongoTemplate mongoTemplate;
+    private final LocationStorageProperties storageProperties;
+    private final LocationRollupProperties rollupProperties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!rollupProperties.isRebuildOnStartup()) {
+            return;
+        }
+        if (!rollupProperties.isEnabled()) {
+            log.warn("Location rollup rebuild skipped. Rollups are disabled");
+            return;
+        }
+
+        log.info("Location rollup rebuild started");
+        val rebuilt = rebuild();
+        log.info("Location rollup rebuild finished. Users rebuilt: {}", rebuilt);
+    }
+
+    /**
+     * @return number of users that have been rebuilt.
+     */
+    public long rebuild() {
+        Query query = new Query();
+        query.fields().include("locations");
+        long rebuilt = 0;
+
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                rebuildUser(iterator.next());
+                rebuilt++;
+            }
+        }
+
+        return rebuilt;
+    }
+
+    private void rebuildUser(final User user) {
+        val userId = new BsonBinary(user.getUserId(), UuidRepresentation.STANDARD);
+        List<Location> locations = new ArrayList<>(user.getLocations());
+        if (storageProperties.isBucketed()) {
+            mongoTemplate.find(new Query().addCriteria(Criteria.where("userId").is(userId)), LocationBucket.class)
+                    .forEach(bucket -> locations.addAll(bucket.getLocations()));
+        }
+
+        val rollups = LocationRollups.summarize(user.getUserId(), rollupProperties.getGranularities(), locations);
+        mongoTemplate.remove(new Query().addCriteria(Criteria.where("userId").is(userId)), LocationRollup.class);
+        if (!rollups.isEmpty()) {
+            mongoTemplate.insert(rollups, LocationRollup.class);
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A customer site. POLYGON fences use vertices, CIRCLE fences use center and radius (meters).
+ * Polygon edges are straight lines in latitude and longitude, which is exact enough for fences of site size.
+ */
+@Getter
+@Setter
+@Document
+public class Geofence {
+
+    @Id
+    private UUID geofenceId;
+
+    private String name;
+
+    private GeofenceType type;
+
+    private List<GeofencePoint> vertices;
+
+    private GeofencePoint center;
+
+    private Double radius;
+
+}
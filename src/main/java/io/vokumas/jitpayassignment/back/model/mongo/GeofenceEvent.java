@@ -0,0 +1,42 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A user entering or leaving a Geofence. createdOn, latitude and longitude are those of the Location
+ * that caused the transition.
+ */
+@Getter
+@Setter
+@Document
+@CompoundIndexes({
+        @CompoundIndex(name = "user_created_on", def = "{'userId': 1, 'createdOn': 1}"),
+        @CompoundIndex(name = "geofence_created_on", def = "{'geofenceId': 1, 'createdOn': 1}")
+})
+public class GeofenceEvent {
+
+    @Id
+    private ObjectId id;
+
+    private UUID userId;
+
+    private UUID geofenceId;
+
+    private GeofenceTransition transition;
+
+    private LocalDateTime createdOn;
+
+    private double latitude;
+
+    private double longitude;
+
+}
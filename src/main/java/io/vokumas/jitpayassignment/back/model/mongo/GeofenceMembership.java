@@ -0,0 +1,39 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Geofences a user is inside of, as of the newest evaluated Location.
+ * Older Locations that arrive later are not evaluated, so they never produce transitions back in time.
+ * Written with optimistic locking on version, so that evaluations of the same user on different instances
+ * cannot overwrite each other.
+ */
+@Getter
+@Setter
+@Document
+@AllArgsConstructor
+public class GeofenceMembership {
+
+    @Id
+    private UUID userId;
+
+    private LocalDateTime createdOn;
+
+    private Set<UUID> geofenceIds;
+
+    /**
+     * Null until the membership is first stored.
+     */
+    @Version
+    private Long version;
+
+}
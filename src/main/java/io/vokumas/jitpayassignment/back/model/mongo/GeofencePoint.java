@@ -0,0 +1,16 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@AllArgsConstructor
+public class GeofencePoint {
+
+    private double latitude;
+
+    private double longitude;
+
+}
@@ -0,0 +1,8 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+public enum GeofenceType {
+
+    POLYGON,
+    CIRCLE
+
+}
@@ -0,0 +1,50 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import lombok.Getter;
+import lombok.Setter;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A slice of a user's location history that belongs to a single time window (see TimeGranularity).
+ * There might be several buckets for the same user and window when the window has more points than the configured
+ * capacity. Locations inside a bucket are in insertion order, not necessarily sorted by createdOn.
+ */
+@Getter
+@Setter
+@Document
+@CompoundIndex(name = "user_bucket_start", def = "{'userId': 1, 'bucketStart': 1}")
+public class LocationBucket {
+
+    @Id
+    private ObjectId id;
+
+    private UUID userId;
+
+    private TimeGranularity granularity;
+
+    private LocalDateTime bucketStart;
+
+    private int count;
+
+    private LocalDateTime firstCreatedOn;
+
+    private LocalDateTime lastCreatedOn;
+
+    /**
+     * Marks buckets produced by LocationBucketMigration. Regular writes never append to these,
+     * so a failed migration of a user can be safely redone by deleting them.
+     */
+    private boolean migrated;
+
+    private List<Location> locations = new ArrayList<>();
+
+}
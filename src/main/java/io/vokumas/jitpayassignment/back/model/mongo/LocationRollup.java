@@ -0,0 +1,61 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import lombok.Getter;
+import lombok.Setter;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Summary of a user's locations in a single time window (see TimeGranularity), there is exactly one per user,
+ * granularity and window. The first and the last location are kept so that distance can be carried on by
+ * later writes to the window.
+ * distance is the great circle length in meters of the track through the window's locations, see LocationRollups
+ * for when it is approximate.
+ */
+@Getter
+@Setter
+@Document
+@CompoundIndex(name = "user_granularity_window_start", def = "{'userId': 1, 'granularity': 1, 'windowStart': 1}",
+        unique = true)
+public class LocationRollup {
+
+    @Id
+    private ObjectId id;
+
+    private UUID userId;
+
+    private TimeGranularity granularity;
+
+    private LocalDateTime windowStart;
+
+    private long count;
+
+    private double minLatitude;
+
+    private double maxLatitude;
+
+    private double minLongitude;
+
+    private double maxLongitude;
+
+    private LocalDateTime firstCreatedOn;
+
+    private double firstLatitude;
+
+    private double firstLongitude;
+
+    private LocalDateTime lastCreatedOn;
+
+    private double lastLatitude;
+
+    private double lastLongitude;
+
+    private double distance;
+
+}
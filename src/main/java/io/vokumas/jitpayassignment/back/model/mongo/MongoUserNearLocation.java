@@ -0,0 +1,15 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class MongoUserNearLocation extends MongoUserSingleLocation {
+
+    /**
+     * Distance in meters from the searched point, computed by $geoNear.
+     */
+    private double distance;
+
+}
@@ -3,6 +3,7 @@ package io.vokumas.jitpayassignment.back.model.mongo;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.util.UUID;
 
@@ -19,6 +20,12 @@ public class MongoUserSingleLocation {
 
     private String secondName;
 
+    @Field("latestLocation")
     private Location location;
 
+    /**
+     * User.version the document was read at.
+     */
+    private long version;
+
 }
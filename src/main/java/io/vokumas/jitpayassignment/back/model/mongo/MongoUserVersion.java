@@ -0,0 +1,25 @@
+package io.vokumas.jitpayassignment.back.model.mongo;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.UUID;
+
+@Getter
+@Setter
+public class MongoUserVersion {
+
+    @Id
+    private UUID userId;
+
+    private long version;
+
+    /**
+     * Holds only createdOn.
+     */
+    @Field("latestLocation")
+    private Location location;
+
+}
@@ -2,6 +2,7 @@ package io.vokumas.jitpayassignment.back.model.mongo;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.ArrayList;
@@ -11,6 +12,7 @@ import java.util.UUID;
 @Setter
 @Getter
 @Document
+@CompoundIndex(name = "latest_location_point", def = "{'latestLocation.point': '2dsphere'}")
 public class User {
 
     public User(UUID userId, String email, String firstName, String secondName) {
@@ -32,4 +34,16 @@ public class User {
 
     private List<Location> locations = new ArrayList<>();
 
+    /**
+     * Copy of the Location with the greatest createdOn, maintained on every write.
+     * The stored subdocument additionally holds a GeoJSON point, see LocationDocuments.latestLocation.
+     */
+    private Location latestLocation;
+
+    /**
+     * Incremented on every write to the User document, including every location write.
+     * Together with latestLocation.createdOn it makes the ETag of location responses, see UserController.
+     */
+    private long version;
+
 }
@@ -1,18 +1,43 @@
 package io.vokumas.jitpayassignment.back.model.repository;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
 import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserNearLocation;
 import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserVersion;
 import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface CustomMongoRepository {
 
     Optional<User> addLocation(UUID userId, Location location);
+    LocationWriteStatus pushLocation(UUID userId, Location location);
+    Map<UUID, LocationWriteStatus> addLocations(Map<UUID, List<Location>> locationsByUser);
     User upsertUser(User user);
     Optional<MongoUserSingleLocation> findByUserIdAndLatestLocation(UUID userId);
+    Optional<MongoUserVersion> findVersion(UUID userId);
+    Stream<MongoUserSingleLocation> findByUserIdsAndLatestLocation(Collection<UUID> userIds);
+    List<MongoUserNearLocation> findNearLatestLocation(double latitude, double longitude, double radiusMeters,
+                                                       int limit);
+    List<MongoUserSingleLocation> findWithinLatestLocation(double minLatitude, double minLongitude,
+                                                           double maxLatitude, double maxLongitude, int limit);
+    Stream<MongoUserSingleLocation> streamLatestLocations();
     Optional<User> findByUserIdAndLocationsInRange(UUID userId, LocalDateTime from, LocalDateTime to);
+    boolean writeLocationsInRange(UUID userId, LocalDateTime from, LocalDateTime to, JsonGenerator generator);
+    Optional<LocationSeries> findLocationSeriesInRange(UUID userId, LocalDateTime from, LocalDateTime to);
+    Stream<Location> streamLocationsInRange(UUID userId, LocalDateTime from, LocalDateTime to);
+    Optional<User> findByUserIdAndLocationsPageInRange(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                       LocationCursor after, int limit);
+    List<LocationRollup> findRollups(UUID userId, TimeGranularity granularity, LocalDateTime from, LocalDateTime to);
 
 }
@@ -1,38 +1,94 @@
 package io.vokumas.jitpayassignment.back.model.repository;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
 import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserNearLocation;
 import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserVersion;
 import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import io.vokumas.jitpayassignment.config.ReadRoutingProperties;
+import io.vokumas.jitpayassignment.util.Pair;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.bson.BsonBinary;
+import org.bson.Document;
 import org.bson.UuidRepresentation;
-import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
-import org.springframework.data.mongodb.core.aggregation.MatchOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+@Slf4j
 @Repository
 @RequiredArgsConstructor
 public class CustomMongoRepositoryImpl implements CustomMongoRepository {
 
+    private static final Document WITHOUT_LOCATIONS = new Document("locations", 0);
+
     private final MongoTemplate mongoTemplate;
+    private final LocationStorageProperties storageProperties;
+    private final ReadRoutingProperties readRouting;
+    private final LocationRollupProperties rollupProperties;
+    private final Map<ReadRoutingProperties.Operation, MongoTemplate> readTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * Fails the startup on routes Mongo would reject on the first read.
+     */
+    @PostConstruct
+    public void checkReadRoutes() {
+        readRouting.getRoutes().values().forEach(ReadRoutingProperties.Route::toReadPreference);
+    }
 
     /**
      * Adds a Location to the User document.
      * This method would not insert Location into there is User document if User.locations is null.
      * This method guarantees to not insert a malformed User document in case User was not previously in the DB.
+     * In BUCKETED storage mode the Location goes into a LocationBucket instead and the returned User carries
+     * only the newly added Location, since the rest of the history is not part of the User document.
+     * User.latestLocation is replaced only when the new Location is newer, so out of order Locations
+     * never make it go back in time.
+     * Location rollups are updated after the Location is stored, see mergeRollups.
      * @param userId userId to be searched by.
      * @param location Location to be inserted.
      * @return Optional<User> appended to with new Location or return empty Optional if no User present in the DB.
@@ -41,21 +97,139 @@ public class CustomMongoRepositoryImpl implements CustomMongoRepository {
     public Optional<User> addLocation(final UUID userId, final Location location) {
         Preconditions.checkArgument(userId != null,
                 "userId cannot be null");
-        Preconditions.checkArgument(location != null,
-                "location cannot be null");
-        Preconditions.checkArgument(location.getCreatedOn() != null,
-                "location.createdOn cannot be null");
-        Preconditions.checkArgument(location.getLongitude() != null,
-                "location.longitude cannot be null");
-        Preconditions.checkArgument(location.getLatitude() != null,
-                "location.latitude cannot be null");
+        checkLocation(location);
+
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        Document filter = new Document("_id", binary);
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+        if (storageProperties.isBucketed()) {
+            // updating the User document first doubles as a check that the User exists
+            options.projection(WITHOUT_LOCATIONS);
+            val user = findAndModifyUser(filter, latestLocationUpdate(location), options);
+            if (user == null) {
+                return Optional.empty();
+            }
+            bucketWrites(binary, List.of(location), storageProperties)
+                    .forEach(write -> mongoTemplate.upsert(write.left(), write.right(), LocationBucket.class));
+            mergeRollups(Map.of(userId, List.of(location)));
+            user.setLocations(new ArrayList<>(List.of(location)));
+
+            return Optional.of(user);
+        }
+
+        Update updateDef = latestLocationUpdate(location).push("locations", location);
+        val user = findAndModifyUser(filter, updateDef, options);
+        if (user != null) {
+            mergeRollups(Map.of(userId, List.of(location)));
+        }
+
+        return Optional.ofNullable(user);
+    }
+
+    /**
+     * Adds a Location to the User document without reading the User document back.
+     * Same as addLocation this method never creates a User document, but it relies on matched count of a plain
+     * update instead of findAndModify, so neither the User nor its location history is sent back by the DB.
+     * @param userId userId to be searched by.
+     * @param location Location to be inserted.
+     * @return APPLIED if the Location has been added, USER_NOT_FOUND if there is no User document in the DB.
+     */
+    @Override
+    public LocationWriteStatus pushLocation(final UUID userId, final Location location) {
+        Preconditions.checkArgument(userId != null,
+                "userId cannot be null");
+        checkLocation(location);
 
         BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
         Query query = new Query().addCriteria(Criteria.where("_id").is(binary));
-        Update updateDef = new Update().push("locations", location);
-        FindAndModifyOptions options = new FindAndModifyOptions().returnNew(true).upsert(false);
+        if (storageProperties.isBucketed()) {
+            val result = mongoTemplate.updateFirst(query, latestLocationUpdate(location), User.class);
+            if (result.getMatchedCount() == 0) {
+                return LocationWriteStatus.USER_NOT_FOUND;
+            }
+            bucketWrites(binary, List.of(location), storageProperties)
+                    .forEach(write -> mongoTemplate.upsert(write.left(), write.right(), LocationBucket.class));
+            mergeRollups(Map.of(userId, List.of(location)));
+
+            return LocationWriteStatus.APPLIED;
+        }
 
-        return Optional.ofNullable(mongoTemplate.findAndModify(query, updateDef, options, User.class));
+        val update = latestLocationUpdate(location).push("locations", location).getUpdateObject();
+        val result = mongoTemplate.execute(User.class, collection -> EntityCodecs.typed(collection, User.class)
+                .updateOne(new Document("_id", binary), update));
+        if (result.getMatchedCount() == 0) {
+            return LocationWriteStatus.USER_NOT_FOUND;
+        }
+        mergeRollups(Map.of(userId, List.of(location)));
+
+        return LocationWriteStatus.APPLIED;
+    }
+
+    /**
+     * Adds Locations to many User documents in a single unordered bulk write with a single $push $each per user
+     * (per bucket in BUCKETED storage mode).
+     * Same as addLocation this method never creates User documents. Users that do not exist are detected upfront with
+     * a single $in query and reported as USER_NOT_FOUND without sending any writes for them.
+     * As the bulk write is unordered, a failure of one user's write does not prevent writes of other users.
+     * In BUCKETED storage mode User.latestLocation updates go in a separate bulk write on the user collection.
+     * @param locationsByUser Locations to be added grouped by userId.
+     * @return status of the write for every userId of the request, in the order of the request.
+     */
+    @Override
+    public Map<UUID, LocationWriteStatus> addLocations(final Map<UUID, List<Location>> locationsByUser) {
+        Preconditions.checkArgument(locationsByUser != null, "locationsByUser cannot be null");
+        locationsByUser.forEach((userId, locations) -> {
+            Preconditions.checkArgument(userId != null, "userId cannot be null");
+            Preconditions.checkArgument(locations != null && !locations.isEmpty(), "locations cannot be empty");
+            locations.forEach(CustomMongoRepositoryImpl::checkLocation);
+        });
+
+        Map<UUID, LocationWriteStatus> statuses = new LinkedHashMap<>();
+        if (locationsByUser.isEmpty()) {
+            return statuses;
+        }
+
+        val existingUserIds = findExistingUserIds(locationsByUser.keySet());
+        val userBulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        val bucketBulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LocationBucket.class);
+        // map index of a bulk operation to the user it belongs to
+        List<UUID> userOperationOwners = new ArrayList<>();
+        List<UUID> bucketOperationOwners = new ArrayList<>();
+
+        locationsByUser.forEach((userId, locations) -> {
+            if (!existingUserIds.contains(userId)) {
+                statuses.put(userId, LocationWriteStatus.USER_NOT_FOUND);
+                return;
+            }
+
+            statuses.put(userId, LocationWriteStatus.APPLIED);
+            BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+            Query userQuery = new Query().addCriteria(Criteria.where("_id").is(binary));
+            Update userUpdate = latestLocationUpdate(latestOf(locations));
+            if (storageProperties.isBucketed()) {
+                bucketWrites(binary, locations, storageProperties).forEach(write -> {
+                    bucketBulk.upsert(write.left(), write.right());
+                    bucketOperationOwners.add(userId);
+                });
+            } else {
+                userUpdate.push("locations").each(locations.toArray());
+            }
+            userBulk.updateOne(userQuery, userUpdate);
+            userOperationOwners.add(userId);
+        });
+
+        executeBulk(userBulk, userOperationOwners, statuses);
+        executeBulk(bucketBulk, bucketOperationOwners, statuses);
+
+        Map<UUID, List<Location>> applied = new LinkedHashMap<>();
+        locationsByUser.forEach((userId, locations) -> {
+            if (statuses.get(userId) == LocationWriteStatus.APPLIED) {
+                applied.put(userId, locations);
+            }
+        });
+        mergeRollups(applied);
+
+        return statuses;
     }
 
     /**
@@ -73,20 +247,22 @@ public class CustomMongoRepositoryImpl implements CustomMongoRepository {
         Preconditions.checkArgument(user.getFirstName() != null, "user.firstName cannot be null");
         Preconditions.checkArgument(user.getSecondName() != null, "user.secondName cannot be null");
 
-        val query = new org.springframework.data.mongodb.core.query.Query()
-                .addCriteria(Criteria.where("userId").is(user.getUserId()));
+        val filter = new Document("_id", new BsonBinary(user.getUserId(), UuidRepresentation.STANDARD));
         val update = new Update()
                 .set("email", user.getEmail())
                 .set("firstName", user.getFirstName())
-                .set("secondName", user.getSecondName());
-        val options = new FindAndModifyOptions().returnNew(true).upsert(true);
+                .set("secondName", user.getSecondName())
+                .inc("version", 1);
+        val options = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER).upsert(true);
 
-        return mongoTemplate.findAndModify(query, update, options, User.class);
+        return findAndModifyUser(filter, update, options);
     }
 
     /**
-     * Finds User document by its ID with single latest Location in the User.locations list.
-     * Would return User.locations == null when no locations exist.
+     * Finds User document by its ID with single latest Location.
+     * The Location is taken from User.latestLocation that is maintained on write, so this is a single point read
+     * by _id that does not load the location history. Works the same for both storage modes.
+     * Would return location == null when no locations exist.
      * @param userId userId to be searched by.
      * @return A specifically created DTO to contain only one Location object instead of list.
      */
@@ -94,22 +270,110 @@ public class CustomMongoRepositoryImpl implements CustomMongoRepository {
     public Optional<MongoUserSingleLocation> findByUserIdAndLatestLocation(final UUID userId) {
         Preconditions.checkArgument(userId != null,"userId cannot be null");
         BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
-        MatchOperation match = Aggregation.match(new Criteria("_id").is(binary));
 
-        String addFieldsQuery = """
-                    {$addFields : {location : 
-                    {$reduce : {
-                        input : "$locations",
-                        initialValue : null,
-                        in : {$cond: [{$gte : ["$$this.createdOn", "$$value.createdOn"]},"$$this", "$$value"]}}
-                    }}}""";
+        return Optional.ofNullable(reads(ReadRoutingProperties.Operation.LATEST).execute("user", collection ->
+                EntityCodecs.typed(collection, MongoUserSingleLocation.class)
+                        .find(new Document("_id", binary))
+                        .projection(WITHOUT_LOCATIONS)
+                        .first()));
+    }
 
-        val aggregation = Aggregation.newAggregation(match,
-                new RawJsonAggregationOperation(addFieldsQuery));
-        val result = mongoTemplate
-                .aggregate(aggregation, "user", MongoUserSingleLocation.class);
+    /**
+     * Finds only User.version and createdOn of User.latestLocation, a single point read by _id for conditional
+     * requests that should not pay for reading the User.
+     * @param userId userId to be searched by.
+     * @return empty Optional if no User present in the DB.
+     */
+    @Override
+    public Optional<MongoUserVersion> findVersion(final UUID userId) {
+        Preconditions.checkArgument(userId != null, "userId cannot be null");
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        Query query = new Query().addCriteria(Criteria.where("_id").is(binary));
+        query.fields().include("version").include("latestLocation.createdOn");
 
-        return Optional.ofNullable(result.getUniqueMappedResult());
+        return Optional.ofNullable(reads(ReadRoutingProperties.Operation.VERSION)
+                .findOne(query, MongoUserVersion.class, "user"));
+    }
+
+    /**
+     * Finds latest Locations of many Users with a single $in query on _id.
+     * Users that do not exist are simply missing from the result. The result is backed by an open cursor
+     * and has to be closed.
+     * @param userIds userIds to be searched by.
+     * @return Stream of specifically created DTOs containing only the latest Location, in no particular order.
+     */
+    @Override
+    public Stream<MongoUserSingleLocation> findByUserIdsAndLatestLocation(final Collection<UUID> userIds) {
+        Preconditions.checkArgument(userIds != null, "userIds cannot be null");
+        List<BsonBinary> binaries = userIds.stream()
+                .map(userId -> new BsonBinary(userId, UuidRepresentation.STANDARD))
+                .toList();
+        Query query = new Query().addCriteria(Criteria.where("_id").in(binaries));
+        query.fields().exclude("locations");
+
+        return reads(ReadRoutingProperties.Operation.LATEST).stream(query, MongoUserSingleLocation.class, "user");
+    }
+
+    /**
+     * Finds Users whose latest Location lies within a radius of a point with a single $geoNear aggregation
+     * over the 2dsphere index on latestLocation.point. Users without locations are never returned.
+     * @param latitude latitude of the point, in degrees.
+     * @param longitude longitude of the point, in degrees.
+     * @param radiusMeters maximum distance from the point in meters.
+     * @param limit maximum number of Users to return.
+     * @return Users ordered by distance from the point, nearest first, each with the distance in meters.
+     */
+    @Override
+    public List<MongoUserNearLocation> findNearLatestLocation(final double latitude, final double longitude,
+                                                              final double radiusMeters, final int limit) {
+        Preconditions.checkArgument(latitude >= -90 && latitude <= 90, "latitude should be between -90 and 90");
+        Preconditions.checkArgument(longitude >= -180 && longitude <= 180,
+                "longitude should be between -180 and 180");
+        Preconditions.checkArgument(radiusMeters > 0, "radiusMeters should be positive");
+        Preconditions.checkArgument(limit > 0, "limit should be positive");
+
+        val aggregation = LocationPipelines.near(latitude, longitude, radiusMeters, limit);
+
+        return reads(ReadRoutingProperties.Operation.SPATIAL)
+                .aggregate(aggregation, "user", MongoUserNearLocation.class)
+                .getMappedResults();
+    }
+
+    /**
+     * Finds Users whose latest Location lies inside a box bounded by parallels and meridians.
+     * The box is matched on latestLocation.latitude and latestLocation.longitude, as a 2dsphere query would bound it
+     * by great circles instead. That is not backed by an index, so it is meant as a fallback of LatestPositionIndex.
+     * @return at most limit Users, in no particular order.
+     */
+    @Override
+    public List<MongoUserSingleLocation> findWithinLatestLocation(final double minLatitude, final double minLongitude,
+                                                                  final double maxLatitude, final double maxLongitude,
+                                                                  final int limit) {
+        Preconditions.checkArgument(minLatitude <= maxLatitude, "minLatitude cannot be greater than maxLatitude");
+        Preconditions.checkArgument(minLongitude <= maxLongitude, "minLongitude cannot be greater than maxLongitude");
+        Preconditions.checkArgument(limit > 0, "limit should be positive");
+        Document filter = new Document("latestLocation.latitude",
+                new Document("$gte", minLatitude).append("$lte", maxLatitude))
+                .append("latestLocation.longitude", new Document("$gte", minLongitude).append("$lte", maxLongitude));
+
+        return reads(ReadRoutingProperties.Operation.SPATIAL).execute("user", collection ->
+                EntityCodecs.typed(collection, MongoUserSingleLocation.class)
+                        .find(filter)
+                        .projection(WITHOUT_LOCATIONS)
+                        .limit(limit)
+                        .into(new ArrayList<>()));
+    }
+
+    /**
+     * Streams latest Locations of all Users that have one. The result is backed by an open cursor
+     * and has to be closed.
+     */
+    @Override
+    public Stream<MongoUserSingleLocation> streamLatestLocations() {
+        Query query = new Query().addCriteria(Criteria.where("latestLocation").exists(true));
+        query.fields().include("latestLocation");
+
+        return reads(ReadRoutingProperties.Operation.SPATIAL).stream(query, MongoUserSingleLocation.class, "user");
     }
 
     /**
@@ -118,8 +382,9 @@ public class CustomMongoRepositoryImpl implements CustomMongoRepository {
      * otherwise it returns a User with or without locations.
      * Would return empty User.locations when no locations satisfy search criteria.
      * As mongo db does not have a dedicated time for storing timestamps with timezone the implementations
-     * has to resort to LocalDateTime and additionally this also leads to a situation where it needs to be converted
-     * both from and to params to UTC time zone so that we can query correctly.
+     * has to resort to LocalDateTime, so from and to params are converted to dates the same way Spring Data
+     * converts LocalDateTime on write. The pipeline itself is a precompiled LocationPipelines template.
+     * In BUCKETED storage mode only the buckets whose window overlaps [from, to] are read.
      * @param userId userId to be searched by.
      * @param from beginning date in the range query. Starting 'from'.
      * @param to ending date in the range query. Going 'to'.
@@ -134,40 +399,464 @@ public class CustomMongoRepositoryImpl implements CustomMongoRepository {
         Preconditions.checkArgument(from != null,"from cannot be null");
         Preconditions.checkArgument(to != null,"to cannot be null");
 
-        ZonedDateTime fromToZoned = from.atZone(ZoneId.systemDefault());
-        ZonedDateTime fromUtcZoned = fromToZoned.withZoneSameInstant(ZoneId.of("UTC"));
-        val fromAtUtc = fromUtcZoned.toLocalDateTime();
+        if (storageProperties.isBucketed()) {
+            return findLocationsInRangeInBuckets(new BsonBinary(userId, UuidRepresentation.STANDARD), from, to);
+        }
+
+        val aggregation = LocationPipelines.range(new BsonBinary(userId, UuidRepresentation.STANDARD), from, to);
+
+        return aggregateUser(aggregation);
+    }
+
+    /**
+     * Writes Locations of a User in a date range into generator, as elements of an array the caller has started.
+     * Results are decoded by LocationJsonCodec straight from BSON, so neither a User nor a Location is ever created.
+     * Writes the same Locations in the same order as findByUserIdAndLocationsInRange returns.
+     * In BUCKETED storage mode only the buckets whose window overlaps [from, to] are read.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @param generator generator the Locations are written to, each as a LocationTimedDto.
+     * @return false when there is no User document by the userId, nothing is written then.
+     */
+    @Override
+    public boolean writeLocationsInRange(final UUID userId,
+                                         final LocalDateTime from,
+                                         final LocalDateTime to,
+                                         final JsonGenerator generator) {
+        Preconditions.checkArgument(userId != null,"userId cannot be null");
+        Preconditions.checkArgument(from != null,"from cannot be null");
+        Preconditions.checkArgument(to != null,"to cannot be null");
+        Preconditions.checkArgument(generator != null,"generator cannot be null");
+
+        return decodeLocationsInRange(userId, from, to, new LocationJsonCodec(generator, from, to));
+    }
+
+    /**
+     * Finds Locations of a User in a date range as a LocationSeries, decoded by LocationSeriesCodec straight
+     * from BSON into primitive arrays, so neither a User nor a Location is ever created.
+     * Holds the same Locations in the same order as findByUserIdAndLocationsInRange returns.
+     * In BUCKETED storage mode only the buckets whose window overlaps [from, to] are read.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @return Optional of the series with createdOn BETWEEN range inclusive both sides,
+     * empty when there is no User document by the userId.
+     */
+    @Override
+    public Optional<LocationSeries> findLocationSeriesInRange(final UUID userId,
+                                                              final LocalDateTime from,
+                                                              final LocalDateTime to) {
+        Preconditions.checkArgument(userId != null,"userId cannot be null");
+        Preconditions.checkArgument(from != null,"from cannot be null");
+        Preconditions.checkArgument(to != null,"to cannot be null");
+
+        val codec = new LocationSeriesCodec(from, to);
+
+        return decodeLocationsInRange(userId, from, to, codec) ? Optional.of(codec.series()) : Optional.empty();
+    }
+
+    /**
+     * Streams Locations of a User in a date range straight from a database cursor, so neither the User document
+     * nor the whole list of Locations is ever held in memory.
+     * In EMBEDDED storage mode the array is unwound on the server and Locations come in insertion order.
+     * In BUCKETED storage mode buckets are read one by one in bucketStart order.
+     * The stream is empty for Users that do not exist, check the existence upfront where it matters.
+     * The stream is backed by an open cursor and has to be closed.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @return Stream of Locations with createdOn BETWEEN range inclusive both sides.
+     */
+    @Override
+    public Stream<Location> streamLocationsInRange(final UUID userId,
+                                                   final LocalDateTime from,
+                                                   final LocalDateTime to) {
+        Preconditions.checkArgument(userId != null,"userId cannot be null");
+        Preconditions.checkArgument(from != null,"from cannot be null");
+        Preconditions.checkArgument(to != null,"to cannot be null");
+
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        if (storageProperties.isBucketed()) {
+            return reads(ReadRoutingProperties.Operation.RANGE)
+                    .stream(bucketsInRangeQuery(binary, from, to), LocationBucket.class)
+                    .flatMap(bucket -> bucket.getLocations().stream())
+                    .filter(l -> !l.getCreatedOn().isBefore(from) && !l.getCreatedOn().isAfter(to));
+        }
 
-        ZonedDateTime toToZoned = to.atZone(ZoneId.systemDefault());
-        ZonedDateTime toUtcZoned = toToZoned.withZoneSameInstant(ZoneId.of("UTC"));
-        val toAtUtc = toUtcZoned.toLocalDateTime();
+        val aggregation = Aggregation.newAggregation(User.class,
+                Aggregation.match(Criteria.where("_id").is(binary)),
+                Aggregation.unwind("locations"),
+                Aggregation.match(Criteria.where("locations.createdOn").gte(from).lte(to)),
+                Aggregation.replaceRoot("locations"));
 
+        return reads(ReadRoutingProperties.Operation.RANGE).aggregateStream(aggregation, Location.class);
+    }
+
+    /**
+     * Finds User document by its ID with a single page of Locations in a date range, ordered by LocationCursor.ORDER.
+     * Only the page leaves the database, so memory use does not depend on the size of the range.
+     * In EMBEDDED storage mode the page is cut out of the array with $filter, $sortArray and $slice,
+     * which needs MongoDB 5.2 or newer.
+     * In BUCKETED storage mode buckets are read in bucketStart order only until no further bucket can contain
+     * a Location of the page, keeping at most skip + limit Locations in memory.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @param after position the page starts after, null for the first page.
+     * @param limit maximum number of Locations in the page.
+     * @return An Optional containing user if it exists with user.locations() holding the page.
+     *         Returns empty Optional if no user found.
+     */
+    @Override
+    public Optional<User> findByUserIdAndLocationsPageInRange(final UUID userId,
+                                                              final LocalDateTime from,
+                                                              final LocalDateTime to,
+                                                              final LocationCursor after,
+                                                              final int limit) {
+        Preconditions.checkArgument(userId != null,"userId cannot be null");
+        Preconditions.checkArgument(from != null,"from cannot be null");
+        Preconditions.checkArgument(to != null,"to cannot be null");
+        Preconditions.checkArgument(limit > 0,"limit must be positive");
 
+        val lowerBound = after != null && after.createdOn().isAfter(from) ? after.createdOn() : from;
+        val skip = after != null && after.createdOn().equals(lowerBound) ? after.skip() : 0;
         BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
-        MatchOperation match = Aggregation.match(new Criteria("_id").is(binary));
-
-        String projectionQuery = String.format("""
-                    { $project: {
-                        _id: 1,
-                        email: 1,
-                        firstName: 1,
-                        secondName: 1,
-                        locations: {$filter: {
-                            input: '$locations',
-                            as: 'item',
-                            cond: { $and:[
-                                        {$gte: ['$$item.createdOn', ISODate("%sZ")]},
-                                        {$lte: ['$$item.createdOn', ISODate("%sZ")]}
-                                     ] }
-                        }}
-                    }}""", fromAtUtc, toAtUtc);
-
-        val aggregation = Aggregation.newAggregation(match,
-                new RawJsonAggregationOperation(projectionQuery));
-        val result = mongoTemplate
-                .aggregate(aggregation, "user", User.class);
-
-        return Optional.ofNullable(result.getUniqueMappedResult());
+
+        if (storageProperties.isBucketed()) {
+            return findLocationsPageInBuckets(binary, lowerBound, to, skip, limit);
+        }
+
+        val aggregation = LocationPipelines.rangePage(binary, lowerBound, to, skip, limit);
+
+        return aggregateUser(aggregation);
+    }
+
+    /**
+     * Finds rollups of a User whose windows start within a date range, ordered by windowStart.
+     * Only windows of maintained granularities exist, see LocationRollupProperties.
+     * @param userId userId to be searched by.
+     * @param granularity granularity of the windows.
+     * @param from windows starting before it are skipped, except for the window containing it.
+     * @param to windows starting after it are skipped.
+     * @return rollups of windows with at least one Location, empty for Users that do not exist.
+     */
+    @Override
+    public List<LocationRollup> findRollups(final UUID userId,
+                                            final TimeGranularity granularity,
+                                            final LocalDateTime from,
+                                            final LocalDateTime to) {
+        Preconditions.checkArgument(userId != null, "userId cannot be null");
+        Preconditions.checkArgument(granularity != null, "granularity cannot be null");
+        Preconditions.checkArgument(from != null, "from cannot be null");
+        Preconditions.checkArgument(to != null, "to cannot be null");
+
+        Query query = new Query()
+                .addCriteria(Criteria.where("userId").is(new BsonBinary(userId, UuidRepresentation.STANDARD))
+                        .and("granularity").is(granularity)
+                        .and("windowStart").gte(granularity.truncate(from)).lte(to))
+                .with(Sort.by(Sort.Direction.ASC, "windowStart"));
+
+        return reads(ReadRoutingProperties.Operation.RANGE).find(query, LocationRollup.class);
+    }
+
+    /**
+     * Runs the range query of a User with the codec decoding its results.
+     * @return false when there is no User document by the userId, nothing is decoded then.
+     */
+    private <T> boolean decodeLocationsInRange(final UUID userId,
+                                               final LocalDateTime from,
+                                               final LocalDateTime to,
+                                               final LocationsInRangeCodec<T> codec) {
+        val binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        val reads = reads(ReadRoutingProperties.Operation.RANGE);
+        if (storageProperties.isBucketed()) {
+            if (!reads.exists(new Query().addCriteria(Criteria.where("_id").is(binary)), User.class)) {
+                return false;
+            }
+
+            reads.execute(LocationBucket.class, collection -> {
+                withCodec(collection, codec).find(bucketsInRangeFilter(binary, from, to), codec.getEncoderClass())
+                        .projection(new Document("locations", 1))
+                        .sort(new Document("bucketStart", 1))
+                        .forEach(decoded -> { });
+                return null;
+            });
+
+            return true;
+        }
+
+        val pipeline = LocationPipelines.rangeLocations(binary, from, to);
+        val decoded = reads.execute(User.class, collection -> withCodec(collection, codec)
+                .aggregate(pipeline, codec.getEncoderClass())
+                .first());
+
+        return decoded != null;
+    }
+
+    private static MongoCollection<Document> withCodec(final MongoCollection<Document> collection,
+                                                      final Codec<?> codec) {
+        return collection.withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(codec), collection.getCodecRegistry()));
+    }
+
+    /**
+     * Template reading with the route of the operation. Routes are fixed at startup, so templates are made once
+     * and share the connection pool of the primary template.
+     */
+    private MongoOperations reads(final ReadRoutingProperties.Operation operation) {
+        val route = readRouting.route(operation);
+        if (route.isPrimary()) {
+            return mongoTemplate;
+        }
+
+        return readTemplates.computeIfAbsent(operation, key -> {
+            val template = new MongoTemplate(mongoTemplate.getMongoDatabaseFactory(), mongoTemplate.getConverter());
+            template.setReadPreference(route.toReadPreference());
+            return template;
+        });
+    }
+
+    /**
+     * Merges written Locations into the rollups of their users with a single unordered bulk write.
+     * Rollups are derived data that LocationRollupRebuild can recompute, so a failed merge is logged and never fails
+     * the location write that has already happened.
+     */
+    private void mergeRollups(final Map<UUID, List<Location>> locationsByUser) {
+        if (!rollupProperties.isEnabled() || locationsByUser.isEmpty()) {
+            return;
+        }
+
+        List<UpdateOneModel<Document>> merges = new ArrayList<>();
+        locationsByUser.forEach((userId, locations) ->
+                merges.addAll(LocationRollups.merges(userId, rollupProperties.getGranularities(), locations)));
+        if (merges.isEmpty()) {
+            return;
+        }
+
+        try {
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(LocationRollup.class))
+                    .bulkWrite(merges, new BulkWriteOptions().ordered(false));
+        } catch (MongoException e) {
+            log.warn("Location rollup merge failed. Users: {}", locationsByUser.keySet(), e);
+        }
+    }
+
+    static void checkLocation(final Location location) {
+        Preconditions.checkArgument(location != null,
+                "location cannot be null");
+        Preconditions.checkArgument(location.getCreatedOn() != null,
+                "location.createdOn cannot be null");
+        Preconditions.checkArgument(location.getLongitude() != null,
+                "location.longitude cannot be null");
+        Preconditions.checkArgument(location.getLatitude() != null,
+                "location.latitude cannot be null");
+    }
+
+    /**
+     * Every location write goes through this update, so it also bumps User.version.
+     */
+    static Update latestLocationUpdate(final Location location) {
+        return new Update()
+                .max("latestLocation", LocationDocuments.latestLocation(location))
+                .inc("version", 1);
+    }
+
+    private static Location latestOf(final List<Location> locations) {
+        return locations.stream().max(Comparator.comparing(Location::getCreatedOn)).get();
+    }
+
+    private static void executeBulk(final BulkOperations bulk,
+                                    final List<UUID> operationOwners,
+                                    final Map<UUID, LocationWriteStatus> statuses) {
+        if (operationOwners.isEmpty()) {
+            return;
+        }
+
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            e.getErrors().forEach(error ->
+                    statuses.put(operationOwners.get(error.getIndex()), LocationWriteStatus.FAILED));
+        }
+    }
+
+    private Set<UUID> findExistingUserIds(final Collection<UUID> userIds) {
+        List<BsonBinary> binaries = userIds.stream()
+                .map(userId -> new BsonBinary(userId, UuidRepresentation.STANDARD))
+                .toList();
+        Query query = new Query().addCriteria(Criteria.where("_id").in(binaries));
+        query.fields().include("_id");
+
+        return mongoTemplate.find(query, User.class).stream()
+                .map(User::getUserId)
+                .collect(Collectors.toSet());
+    }
+
+    private User findUserWithoutLocations(final BsonBinary userId) {
+        return reads(ReadRoutingProperties.Operation.RANGE).execute(User.class, collection ->
+                EntityCodecs.typed(collection, User.class)
+                        .find(new Document("_id", userId))
+                        .projection(WITHOUT_LOCATIONS)
+                        .first());
+    }
+
+    /**
+     * findAndModify of a User, returned by UserCodec. The update is plain BSON apart from Locations,
+     * which are encoded by LocationCodec.
+     */
+    private User findAndModifyUser(final Document filter,
+                                   final Update update,
+                                   final FindOneAndUpdateOptions options) {
+        return mongoTemplate.execute(User.class, collection -> EntityCodecs.typed(collection, User.class)
+                .findOneAndUpdate(filter, update.getUpdateObject(), options));
+    }
+
+    /**
+     * Runs a pipeline of a LocationPipelines template, which is plain BSON already, and reads its only result
+     * with UserCodec.
+     */
+    private Optional<User> aggregateUser(final Aggregation aggregation) {
+        val pipeline = aggregation.toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        return Optional.ofNullable(reads(ReadRoutingProperties.Operation.RANGE).execute(User.class, collection ->
+                EntityCodecs.typed(collection, User.class)
+                        .aggregate(pipeline)
+                        .first()));
+    }
+
+    /**
+     * Builds bucket upserts for the given locations of a single user.
+     * Locations are grouped by their time window and split into chunks no larger than the bucket capacity.
+     * Every chunk is pushed into any bucket of its window that still has room for the whole chunk,
+     * or into a new bucket if there is none, so buckets never exceed the capacity.
+     * Upserts do not check that the user exists, this is up to the caller.
+     */
+    static List<Pair<Query, Update>> bucketWrites(final BsonBinary userId,
+                                                  final Collection<Location> locations,
+                                                  final LocationStorageProperties storageProperties) {
+        val granularity = storageProperties.getBucketGranularity();
+        val capacity = storageProperties.getBucketCapacity();
+        TreeMap<LocalDateTime, List<Location>> byWindow = locations.stream()
+                .collect(Collectors.groupingBy(l -> granularity.truncate(l.getCreatedOn()),
+                        TreeMap::new, Collectors.toList()));
+
+        List<Pair<Query, Update>> writes = new ArrayList<>();
+        byWindow.forEach((bucketStart, windowLocations) -> {
+            for (List<Location> chunk : Lists.partition(windowLocations, capacity)) {
+                LocalDateTime first = chunk.stream().map(Location::getCreatedOn)
+                        .min(Comparator.<LocalDateTime>naturalOrder()).get();
+                LocalDateTime last = chunk.stream().map(Location::getCreatedOn)
+                        .max(Comparator.<LocalDateTime>naturalOrder()).get();
+
+                Query query = new Query().addCriteria(Criteria.where("userId").is(userId)
+                        .and("bucketStart").is(bucketStart)
+                        .and("migrated").ne(true)
+                        .and("count").lte(capacity - chunk.size()));
+                Update update = new Update()
+                        .push("locations").each(chunk.toArray())
+                        .inc("count", chunk.size())
+                        .min("firstCreatedOn", first)
+                        .max("lastCreatedOn", last)
+                        .setOnInsert("granularity", granularity);
+                writes.add(new Pair<>(query, update));
+            }
+        });
+
+        return writes;
+    }
+
+    /**
+     * Only the buckets at the edges of the range can contain points outside of it, those are filtered out here.
+     */
+    private Optional<User> findLocationsInRangeInBuckets(final BsonBinary userId,
+                                                         final LocalDateTime from,
+                                                         final LocalDateTime to) {
+        val user = findUserWithoutLocations(userId);
+        if (user == null) {
+            return Optional.empty();
+        }
+
+        Query bucketsQuery = bucketsInRangeQuery(userId, from, to);
+
+        List<Location> locations = reads(ReadRoutingProperties.Operation.RANGE)
+                .find(bucketsQuery, LocationBucket.class).stream()
+                .flatMap(bucket -> bucket.getLocations().stream())
+                .filter(l -> !l.getCreatedOn().isBefore(from) && !l.getCreatedOn().isAfter(to))
+                .collect(Collectors.toCollection(ArrayList::new));
+        user.setLocations(locations);
+
+        return Optional.of(user);
+    }
+
+    private Optional<User> findLocationsPageInBuckets(final BsonBinary userId,
+                                                      final LocalDateTime from,
+                                                      final LocalDateTime to,
+                                                      final int skip,
+                                                      final int limit) {
+        val user = findUserWithoutLocations(userId);
+        if (user == null) {
+            return Optional.empty();
+        }
+
+        Query bucketsQuery = bucketsInRangeQuery(userId, from, to);
+
+        // keeps the skip + limit smallest Locations seen so far, the largest of them on top
+        val wanted = skip + limit;
+        PriorityQueue<Location> smallest = new PriorityQueue<>(wanted, LocationCursor.ORDER.reversed());
+        try (Stream<LocationBucket> buckets = reads(ReadRoutingProperties.Operation.RANGE)
+                .stream(bucketsQuery, LocationBucket.class)) {
+            Iterator<LocationBucket> iterator = buckets.iterator();
+            while (iterator.hasNext()) {
+                val bucket = iterator.next();
+                if (smallest.size() == wanted && bucket.getBucketStart().isAfter(smallest.peek().getCreatedOn())) {
+                    break;
+                }
+                for (Location location : bucket.getLocations()) {
+                    if (location.getCreatedOn().isBefore(from) || location.getCreatedOn().isAfter(to)) {
+                        continue;
+                    }
+                    smallest.add(location);
+                    if (smallest.size() > wanted) {
+                        smallest.poll();
+                    }
+                }
+            }
+        }
+
+        List<Location> page = new ArrayList<>(smallest);
+        page.sort(LocationCursor.ORDER);
+        user.setLocations(new ArrayList<>(page.subList(Math.min(skip, page.size()), page.size())));
+
+        return Optional.of(user);
+    }
+
+
+    /**
+     * Lower bound of the bucket scan is taken with the coarsest granularity so that buckets written with a different
+     * granularity setting are still found. This costs at most one extra window of buckets.
+     */
+    static Query bucketsInRangeQuery(final BsonBinary userId,
+                                     final LocalDateTime from,
+                                     final LocalDateTime to) {
+        return new Query()
+                .addCriteria(Criteria.where("userId").is(userId)
+                        .and("bucketStart").gte(TimeGranularity.coarsest().truncate(from)).lte(to)
+                        .and("lastCreatedOn").gte(from))
+                .with(Sort.by(Sort.Direction.ASC, "bucketStart"));
+    }
+
+    /**
+     * Same as bucketsInRangeQuery, as a plain filter for the driver.
+     */
+    static Document bucketsInRangeFilter(final BsonBinary userId,
+                                         final LocalDateTime from,
+                                         final LocalDateTime to) {
+        return new Document("userId", userId)
+                .append("bucketStart", new Document("$gte",
+                        LocationDocuments.toDate(TimeGranularity.coarsest().truncate(from)))
+                        .append("$lte", LocationDocuments.toDate(to)))
+                .append("lastCreatedOn", new Document("$gte", LocationDocuments.toDate(from)));
     }
 
 }
@@ -0,0 +1,35 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.mongodb.client.MongoCollection;
+import lombok.experimental.UtilityClass;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Hand-written codecs of the entities on the hot paths of CustomMongoRepositoryImpl.
+ * MappingMongoConverter always maps through a Document and reflection and has no way to hand an entity
+ * over to a driver codec, so these paths run inside MongoTemplate.execute on a collection that decodes results
+ * straight into the entity, see typed. Queries and updates of such collections are plain BSON, Locations in them
+ * are encoded by LocationCodec.
+ */
+@UtilityClass
+public class EntityCodecs {
+
+    final LocationCodec LOCATION = new LocationCodec();
+
+    final CodecRegistry CODECS = CodecRegistries.fromCodecs(
+            LOCATION,
+            new UserCodec(LOCATION),
+            new MongoUserSingleLocationCodec(LOCATION));
+
+    /**
+     * The collection with the entity codecs in front of its own ones, decoding results as documentClass.
+     */
+    public <T> MongoCollection<T> typed(MongoCollection<Document> collection, Class<T> documentClass) {
+        return collection
+                .withCodecRegistry(CodecRegistries.fromRegistries(CODECS, collection.getCodecRegistry()))
+                .withDocumentClass(documentClass);
+    }
+
+}
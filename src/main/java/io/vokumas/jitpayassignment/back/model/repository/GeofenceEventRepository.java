@@ -0,0 +1,31 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceEvent;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * All finders take createdOn BETWEEN from and to, inclusive both sides, and return events ordered by createdOn.
+ */
+@Repository
+public interface GeofenceEventRepository extends MongoRepository<GeofenceEvent, ObjectId> {
+
+    @Query(value = "{'userId': ?0, 'createdOn': {$gte: ?1, $lte: ?2}}", sort = "{'createdOn': 1}")
+    List<GeofenceEvent> findByUserIdInRange(UUID userId, LocalDateTime from, LocalDateTime to, Pageable pageable);
+
+    @Query(value = "{'geofenceId': ?0, 'createdOn': {$gte: ?1, $lte: ?2}}", sort = "{'createdOn': 1}")
+    List<GeofenceEvent> findByGeofenceIdInRange(UUID geofenceId, LocalDateTime from, LocalDateTime to,
+                                                Pageable pageable);
+
+    @Query(value = "{'userId': ?0, 'geofenceId': ?1, 'createdOn': {$gte: ?2, $lte: ?3}}", sort = "{'createdOn': 1}")
+    List<GeofenceEvent> findByUserIdAndGeofenceIdInRange(UUID userId, UUID geofenceId, LocalDateTime from,
+                                                         LocalDateTime to, Pageable pageable);
+
+}
@@ -0,0 +1,11 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceMembership;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface GeofenceMembershipRepository extends MongoRepository<GeofenceMembership, UUID> {
+}
@@ -0,0 +1,11 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Geofence;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface GeofenceRepository extends MongoRepository<Geofence, UUID> {
+}
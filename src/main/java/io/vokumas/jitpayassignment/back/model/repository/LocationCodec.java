@@ -0,0 +1,149 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import lombok.val;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * Location as the same {latitude, longitude, createdOn} subdocument MappingMongoConverter writes, read and written
+ * field by field instead of through reflection. createdOn is stored as a BSON date of the local date-time
+ * in the time zone of the codec, the system default one unless given, which is the same instant Spring Data stores.
+ * The instant is computed from the zone rules directly, without ZonedDateTime, Instant or Date in between.
+ * Like MappingMongoConverter, null fields are not written, missing fields are read as null
+ * and unknown fields, like the GeoJSON point of User.latestLocation, are skipped.
+ */
+public final class LocationCodec implements Codec<Location> {
+
+    private final ZoneRules zoneRules;
+    private final ZoneOffset fixedOffset;
+
+    public LocationCodec() {
+        this(ZoneId.systemDefault());
+    }
+
+    public LocationCodec(ZoneId zone) {
+        this.zoneRules = zone.getRules();
+        this.fixedOffset = zoneRules.isFixedOffset() ? zoneRules.getOffset(Instant.EPOCH) : null;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Location location, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (location.getLatitude() != null) {
+            writer.writeDouble("latitude", location.getLatitude());
+        }
+        if (location.getLongitude() != null) {
+            writer.writeDouble("longitude", location.getLongitude());
+        }
+        if (location.getCreatedOn() != null) {
+            writer.writeDateTime("createdOn", toEpochMillis(location.getCreatedOn()));
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Location decode(BsonReader reader, DecoderContext decoderContext) {
+        Double latitude = null;
+        Double longitude = null;
+        LocalDateTime createdOn = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "latitude" -> latitude = readDouble(reader);
+                case "longitude" -> longitude = readDouble(reader);
+                case "createdOn" -> {
+                    if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+                        createdOn = toLocalDateTime(reader.readDateTime());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new Location(latitude, longitude, createdOn);
+    }
+
+    @Override
+    public Class<Location> getEncoderClass() {
+        return Location.class;
+    }
+
+    /**
+     * A local date-time in a gap is moved forward and one in an overlap takes the earlier offset,
+     * the same as LocalDateTime.atZone does.
+     */
+    public long toEpochMillis(LocalDateTime dateTime) {
+        val offset = fixedOffset != null ? fixedOffset : zoneRules.getOffset(dateTime);
+
+        return dateTime.toEpochSecond(offset) * 1_000 + dateTime.getNano() / 1_000_000;
+    }
+
+    public LocalDateTime toLocalDateTime(long epochMillis) {
+        val seconds = Math.floorDiv(epochMillis, 1_000);
+        val nanos = (int) Math.floorMod(epochMillis, 1_000) * 1_000_000;
+        val offset = fixedOffset != null ? fixedOffset : zoneRules.getOffset(Instant.ofEpochSecond(seconds));
+
+        return LocalDateTime.ofEpochSecond(seconds, nanos, offset);
+    }
+
+    /**
+     * Reads a Location, or null when the value is not a document.
+     */
+    Location decodeNullable(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            reader.skipValue();
+            return null;
+        }
+
+        return decoderContext.decodeWithChildContext(this, reader);
+    }
+
+    static Double readDouble(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case DOUBLE -> reader.readDouble();
+            case INT32 -> (double) reader.readInt32();
+            case INT64 -> (double) reader.readInt64();
+            default -> {
+                reader.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    static long readLong(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case INT32 -> reader.readInt32();
+            case INT64 -> reader.readInt64();
+            case DOUBLE -> (long) reader.readDouble();
+            default -> {
+                reader.skipValue();
+                yield 0;
+            }
+        };
+    }
+
+    static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() != BsonType.STRING) {
+            reader.skipValue();
+            return null;
+        }
+
+        return reader.readString();
+    }
+
+}
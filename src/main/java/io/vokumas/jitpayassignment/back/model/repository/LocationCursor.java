@@ -0,0 +1,82 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Position in a location history ordered by createdOn.
+ * The next page starts at createdOn and skips the first skip locations having exactly that createdOn,
+ * as those have already been returned. This keeps pages stable without a unique key on locations.
+ * @param createdOn createdOn of the last returned Location.
+ * @param skip number of already returned Locations with exactly that createdOn.
+ */
+public record LocationCursor(LocalDateTime createdOn, int skip) {
+
+    /**
+     * Total order of locations used for paging. Locations sharing createdOn are ordered by coordinates,
+     * so that the same skip always drops the same locations.
+     */
+    public static final Comparator<Location> ORDER = Comparator.comparing(Location::getCreatedOn)
+            .thenComparing(Location::getLatitude)
+            .thenComparing(Location::getLongitude);
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * @param previous cursor the page was fetched with, null for the first page.
+     * @param page locations of the page in ORDER, not empty.
+     * @return cursor pointing right after the last Location of the page.
+     */
+    public static LocationCursor after(LocationCursor previous, List<Location> page) {
+        LocalDateTime last = page.get(page.size() - 1).getCreatedOn();
+        int skip = 0;
+        for (int i = page.size() - 1; i >= 0 && page.get(i).getCreatedOn().equals(last); i--) {
+            skip++;
+        }
+        if (skip == page.size() && previous != null && previous.createdOn().equals(last)) {
+            skip += previous.skip();
+        }
+
+        return new LocationCursor(last, skip);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the token is not a cursor produced by toToken.
+     */
+    public static LocationCursor fromToken(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+                    .split(SEPARATOR);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("cursor is malformed");
+            }
+            LocalDateTime createdOn = LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(Long.parseLong(parts[0])), ZoneId.systemDefault());
+            int skip = Integer.parseInt(parts[1]);
+            if (skip < 0) {
+                throw new IllegalArgumentException("cursor is malformed");
+            }
+
+            return new LocationCursor(createdOn, skip);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("cursor is malformed", e);
+        }
+    }
+
+    /**
+     * Opaque token for clients. createdOn is kept in millis, the precision Mongo stores dates with.
+     */
+    public String toToken() {
+        String raw = createdOn.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() + SEPARATOR + skip;
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,47 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import lombok.experimental.UtilityClass;
+import org.bson.Document;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Hand-built BSON fragments for the places where the exact document layout matters.
+ */
+@UtilityClass
+public class LocationDocuments {
+
+    /**
+     * User.latestLocation subdocument. It is maintained with $max, and Mongo compares subdocuments field by field in
+     * their order, so createdOn must be the first field for $max to pick the newest location.
+     * Dates are converted the same way Spring Data converts LocalDateTime - in the system default time zone.
+     * The point field duplicates the coordinates as GeoJSON for the 2dsphere index, it is ignored when read.
+     */
+    public Document latestLocation(Location location) {
+        return new Document("createdOn", toDate(location.getCreatedOn()))
+                .append("latitude", location.getLatitude())
+                .append("longitude", location.getLongitude())
+                .append("point", point(location.getLatitude(), location.getLongitude()));
+    }
+
+    /**
+     * GeoJSON point. Note that GeoJSON puts longitude first.
+     */
+    public Document point(double latitude, double longitude) {
+        return new Document("type", "Point").append("coordinates", List.of(longitude, latitude));
+    }
+
+    public Date toDate(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    public LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+}
@@ -0,0 +1,52 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vokumas.jitpayassignment.util.LocationJsonWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+
+/**
+ * Decodes documents with a locations array (range results of User or LocationBucket) straight into a JsonGenerator,
+ * never creating a Location or a LocationTimedDto. Every location with createdOn BETWEEN from and to, inclusive both
+ * sides, is written by LocationJsonWriter as an element of an array the caller has started, exactly the way Jackson
+ * writes a LocationTimedDto.
+ * A codec instance belongs to a single response and is not thread safe.
+ */
+final class LocationJsonCodec extends LocationsInRangeCodec<LocationJsonCodec.Written> {
+
+    private final JsonGenerator generator;
+    private final LocationJsonWriter writer = new LocationJsonWriter();
+
+    LocationJsonCodec(JsonGenerator generator, LocalDateTime from, LocalDateTime to) {
+        super(from, to);
+        this.generator = generator;
+    }
+
+    @Override
+    void accept(long createdOn, double latitude, double longitude) {
+        try {
+            writer.write(generator, createdOn, latitude, longitude);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    Written result(int locations) {
+        return new Written(locations);
+    }
+
+    @Override
+    public Class<Written> getEncoderClass() {
+        return Written.class;
+    }
+
+    /**
+     * @param locations number of locations of the document written to the generator.
+     */
+    record Written(int locations) {
+    }
+
+}
@@ -0,0 +1,110 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import lombok.experimental.UtilityClass;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static io.vokumas.jitpayassignment.back.model.repository.PipelineTemplate.parameter;
+
+/**
+ * Aggregation pipelines of User reads, built once at class loading.
+ * RANGE, RANGE_LOCATIONS and RANGE_PAGE only apply to EMBEDDED storage mode, NEAR works in both modes as it reads User.latestLocation.
+ */
+@UtilityClass
+class LocationPipelines {
+
+    private final PipelineTemplate.Parameter USER_ID = parameter(0);
+    private final PipelineTemplate.Parameter FROM = parameter(1);
+    private final PipelineTemplate.Parameter TO = parameter(2);
+    private final PipelineTemplate.Parameter SKIP = parameter(3);
+    private final PipelineTemplate.Parameter LIMIT = parameter(4);
+
+    private final PipelineTemplate.Parameter LATITUDE = parameter(0);
+    private final PipelineTemplate.Parameter LONGITUDE = parameter(1);
+    private final PipelineTemplate.Parameter RADIUS = parameter(2);
+    private final PipelineTemplate.Parameter NEAR_LIMIT = parameter(3);
+
+    /**
+     * User with locations filtered by createdOn BETWEEN from and to, inclusive both sides.
+     */
+    final PipelineTemplate RANGE = PipelineTemplate.of(
+            matchUserId(),
+            projectUserWith(locationsInRange()));
+
+    /**
+     * Just the locations of a User in range, for LocationsInRangeCodec, which skips everything else anyway.
+     */
+    final PipelineTemplate RANGE_LOCATIONS = PipelineTemplate.of(
+            matchUserId(),
+            new Document("$project", new Document("locations", locationsInRange())));
+
+    /**
+     * User with at most limit locations in range, ordered by LocationCursor.ORDER, after skipping the first skip.
+     */
+    final PipelineTemplate RANGE_PAGE = PipelineTemplate.of(
+            matchUserId(),
+            projectUserWith(new Document("$slice", List.of(
+                    new Document("$sortArray", new Document("input", locationsInRange())
+                            .append("sortBy", new Document("createdOn", 1)
+                                    .append("latitude", 1)
+                                    .append("longitude", 1))),
+                    SKIP,
+                    LIMIT))));
+
+    /**
+     * Users whose latest location lies within radius meters of a point, nearest first, with the distance in meters.
+     * $geoNear walks the latestLocation.point 2dsphere index outwards from the point, so users outside the radius
+     * are never read.
+     */
+    final PipelineTemplate NEAR = PipelineTemplate.of(
+            new Document("$geoNear", new Document("near", new Document("type", "Point")
+                            .append("coordinates", List.of(LONGITUDE, LATITUDE)))
+                    .append("key", "latestLocation.point")
+                    .append("distanceField", "distance")
+                    .append("maxDistance", RADIUS)
+                    .append("spherical", true)),
+            new Document("$limit", NEAR_LIMIT),
+            new Document("$project", new Document("locations", 0)));
+
+    Aggregation range(BsonBinary userId, LocalDateTime from, LocalDateTime to) {
+        return RANGE.toAggregation(userId, LocationDocuments.toDate(from), LocationDocuments.toDate(to));
+    }
+
+    List<Document> rangeLocations(BsonBinary userId, LocalDateTime from, LocalDateTime to) {
+        return RANGE_LOCATIONS.bind(userId, LocationDocuments.toDate(from), LocationDocuments.toDate(to));
+    }
+
+    Aggregation rangePage(BsonBinary userId, LocalDateTime from, LocalDateTime to, int skip, int limit) {
+        return RANGE_PAGE.toAggregation(userId, LocationDocuments.toDate(from), LocationDocuments.toDate(to),
+                skip, limit);
+    }
+
+    Aggregation near(double latitude, double longitude, double radiusMeters, int limit) {
+        return NEAR.toAggregation(latitude, longitude, radiusMeters, limit);
+    }
+
+    private Document matchUserId() {
+        return new Document("$match", new Document("_id", USER_ID));
+    }
+
+    private Document projectUserWith(Document locations) {
+        return new Document("$project", new Document("_id", 1)
+                .append("email", 1)
+                .append("firstName", 1)
+                .append("secondName", 1)
+                .append("locations", locations));
+    }
+
+    private Document locationsInRange() {
+        return new Document("$filter", new Document("input", "$locations")
+                .append("as", "item")
+                .append("cond", new Document("$and", List.of(
+                        new Document("$gte", List.of("$$item.createdOn", FROM)),
+                        new Document("$lte", List.of("$$item.createdOn", TO))))));
+    }
+
+}
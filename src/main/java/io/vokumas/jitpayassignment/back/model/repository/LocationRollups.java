@@ -0,0 +1,249 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import lombok.experimental.UtilityClass;
+import lombok.val;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static io.vokumas.jitpayassignment.back.model.repository.PipelineTemplate.parameter;
+
+/**
+ * Computes LocationRollups from locations and merges them into the stored ones.
+ * A write summarizes its own locations per window first and then merges every summary with a single pipeline upsert,
+ * so concurrent writes to the same window never lose each other's counts, boxes or timestamps.
+ * Distance is exact for locations written in createdOn order. A write that lands entirely after or entirely before
+ * the stored locations of a window is joined to them, a write that interleaves with them only adds the distance
+ * between its own locations. Segments crossing a window boundary belong to no window.
+ * LocationRollupRebuild recomputes everything exactly from the full history.
+ */
+@UtilityClass
+public class LocationRollups {
+
+    private final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private final PipelineTemplate.Parameter COUNT = parameter(0);
+    private final PipelineTemplate.Parameter MIN_LATITUDE = parameter(1);
+    private final PipelineTemplate.Parameter MAX_LATITUDE = parameter(2);
+    private final PipelineTemplate.Parameter MIN_LONGITUDE = parameter(3);
+    private final PipelineTemplate.Parameter MAX_LONGITUDE = parameter(4);
+    private final PipelineTemplate.Parameter FIRST_CREATED_ON = parameter(5);
+    private final PipelineTemplate.Parameter FIRST_LATITUDE = parameter(6);
+    private final PipelineTemplate.Parameter FIRST_LONGITUDE = parameter(7);
+    private final PipelineTemplate.Parameter LAST_CREATED_ON = parameter(8);
+    private final PipelineTemplate.Parameter LAST_LATITUDE = parameter(9);
+    private final PipelineTemplate.Parameter LAST_LONGITUDE = parameter(10);
+    private final PipelineTemplate.Parameter DISTANCE = parameter(11);
+
+    /**
+     * Merges a summary into the stored rollup, or into an empty one on upsert. It is a single $set stage,
+     * so every expression sees the rollup as it was before the write. Missing fields compare below null
+     * and are ignored by $min and $max.
+     */
+    private final PipelineTemplate MERGE = PipelineTemplate.of(
+            new Document("$set", new Document("count", new Document("$add", List.of(
+                            new Document("$ifNull", List.of("$count", 0)), COUNT)))
+                    .append("minLatitude", new Document("$min", List.of("$minLatitude", MIN_LATITUDE)))
+                    .append("maxLatitude", new Document("$max", List.of("$maxLatitude", MAX_LATITUDE)))
+                    .append("minLongitude", new Document("$min", List.of("$minLongitude", MIN_LONGITUDE)))
+                    .append("maxLongitude", new Document("$max", List.of("$maxLongitude", MAX_LONGITUDE)))
+                    .append("firstCreatedOn", new Document("$min", List.of("$firstCreatedOn", FIRST_CREATED_ON)))
+                    .append("firstLatitude", ifStartsEarlier(FIRST_LATITUDE, "$firstLatitude"))
+                    .append("firstLongitude", ifStartsEarlier(FIRST_LONGITUDE, "$firstLongitude"))
+                    .append("lastCreatedOn", new Document("$max", List.of("$lastCreatedOn", LAST_CREATED_ON)))
+                    .append("lastLatitude", ifEndsLater(LAST_LATITUDE, "$lastLatitude"))
+                    .append("lastLongitude", ifEndsLater(LAST_LONGITUDE, "$lastLongitude"))
+                    .append("distance", new Document("$add", List.of(
+                            new Document("$ifNull", List.of("$distance", 0)),
+                            DISTANCE,
+                            new Document("$switch", new Document("branches", List.of(
+                                    new Document("case", new Document("$and", List.of(
+                                            new Document("$gt", Arrays.asList("$lastCreatedOn", null)),
+                                            new Document("$lte", List.of("$lastCreatedOn", FIRST_CREATED_ON)))))
+                                            .append("then", distanceExpression("$lastLatitude", "$lastLongitude",
+                                                    FIRST_LATITUDE, FIRST_LONGITUDE)),
+                                    new Document("case", new Document("$and", List.of(
+                                            new Document("$gt", Arrays.asList("$firstCreatedOn", null)),
+                                            new Document("$gte", List.of("$firstCreatedOn", LAST_CREATED_ON)))))
+                                            .append("then", distanceExpression(LAST_LATITUDE, LAST_LONGITUDE,
+                                                    "$firstLatitude", "$firstLongitude"))))
+                                    .append("default", 0)))))));
+
+    /**
+     * Rollups of the given locations of a single user, one per window of every granularity.
+     */
+    public List<LocationRollup> summarize(UUID userId, Collection<TimeGranularity> granularities,
+                                          Collection<Location> locations) {
+        val series = new LocationSeries(locations.size());
+        for (Location location : locations) {
+            series.add(location.getLatitude(), location.getLongitude(),
+                    EntityCodecs.LOCATION.toEpochMillis(location.getCreatedOn()));
+        }
+
+        return summarize(userId, granularities, series);
+    }
+
+    /**
+     * Rollups of the given locations of a single user, one per window of every granularity.
+     * The series is sorted by createdOn in place. Windows are found by comparing epoch millis with the end
+     * of the current window, so a LocalDateTime is created per window rather than per location.
+     */
+    public List<LocationRollup> summarize(UUID userId, Collection<TimeGranularity> granularities,
+                                          LocationSeries series) {
+        series.sortByCreatedOn();
+
+        List<LocationRollup> rollups = new ArrayList<>();
+        for (TimeGranularity granularity : granularities) {
+            LocationRollup current = null;
+            long windowEnd = Long.MIN_VALUE;
+            int last = -1;
+            for (int i = 0; i < series.size(); i++) {
+                if (current == null || series.createdOnMillis(i) >= windowEnd) {
+                    if (current != null) {
+                        finish(current, series, last);
+                    }
+                    val windowStart = granularity.truncate(series.createdOn(i));
+                    windowEnd = EntityCodecs.LOCATION.toEpochMillis(granularity.next(windowStart));
+                    current = start(userId, granularity, windowStart, series, i);
+                    rollups.add(current);
+                } else {
+                    append(current, series, last, i);
+                }
+                last = i;
+            }
+            if (current != null) {
+                finish(current, series, last);
+            }
+        }
+
+        return rollups;
+    }
+
+    /**
+     * Upserts merging the given locations of a single user into the stored rollups.
+     */
+    List<UpdateOneModel<Document>> merges(UUID userId, Collection<TimeGranularity> granularities,
+                                          Collection<Location> locations) {
+        val binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        val options = new UpdateOptions().upsert(true);
+
+        List<UpdateOneModel<Document>> merges = new ArrayList<>();
+        for (LocationRollup rollup : summarize(userId, granularities, locations)) {
+            val filter = new Document("userId", binary)
+                    .append("granularity", rollup.getGranularity().name())
+                    .append("windowStart", LocationDocuments.toDate(rollup.getWindowStart()));
+            val pipeline = MERGE.bind(rollup.getCount(),
+                    rollup.getMinLatitude(), rollup.getMaxLatitude(),
+                    rollup.getMinLongitude(), rollup.getMaxLongitude(),
+                    LocationDocuments.toDate(rollup.getFirstCreatedOn()),
+                    rollup.getFirstLatitude(), rollup.getFirstLongitude(),
+                    LocationDocuments.toDate(rollup.getLastCreatedOn()),
+                    rollup.getLastLatitude(), rollup.getLastLongitude(),
+                    rollup.getDistance());
+            merges.add(new UpdateOneModel<>(filter, pipeline, options));
+        }
+
+        return merges;
+    }
+
+    private LocationRollup start(UUID userId, TimeGranularity granularity, LocalDateTime windowStart,
+                                 LocationSeries series, int index) {
+        val rollup = new LocationRollup();
+        rollup.setUserId(userId);
+        rollup.setGranularity(granularity);
+        rollup.setWindowStart(windowStart);
+        rollup.setCount(1);
+        rollup.setMinLatitude(series.latitude(index));
+        rollup.setMaxLatitude(series.latitude(index));
+        rollup.setMinLongitude(series.longitude(index));
+        rollup.setMaxLongitude(series.longitude(index));
+        rollup.setFirstCreatedOn(series.createdOn(index));
+        rollup.setFirstLatitude(series.latitude(index));
+        rollup.setFirstLongitude(series.longitude(index));
+
+        return rollup;
+    }
+
+    /**
+     * Locations have to be appended in createdOn order, previous is the location appended before.
+     */
+    private void append(LocationRollup rollup, LocationSeries series, int previous, int index) {
+        rollup.setCount(rollup.getCount() + 1);
+        rollup.setMinLatitude(Math.min(rollup.getMinLatitude(), series.latitude(index)));
+        rollup.setMaxLatitude(Math.max(rollup.getMaxLatitude(), series.latitude(index)));
+        rollup.setMinLongitude(Math.min(rollup.getMinLongitude(), series.longitude(index)));
+        rollup.setMaxLongitude(Math.max(rollup.getMaxLongitude(), series.longitude(index)));
+        rollup.setDistance(rollup.getDistance() + distance(series.latitude(previous), series.longitude(previous),
+                series.latitude(index), series.longitude(index)));
+    }
+
+    /**
+     * Sets the last location of a rollup once its window is complete.
+     */
+    private void finish(LocationRollup rollup, LocationSeries series, int last) {
+        rollup.setLastCreatedOn(series.createdOn(last));
+        rollup.setLastLatitude(series.latitude(last));
+        rollup.setLastLongitude(series.longitude(last));
+    }
+
+    private Document ifStartsEarlier(Object value, String storedValue) {
+        return new Document("$cond", List.of(
+                new Document("$or", List.of(
+                        new Document("$lte", Arrays.asList("$firstCreatedOn", null)),
+                        new Document("$lt", List.of(FIRST_CREATED_ON, "$firstCreatedOn")))),
+                value,
+                storedValue));
+    }
+
+    private Document ifEndsLater(Object value, String storedValue) {
+        return new Document("$cond", List.of(
+                new Document("$gte", List.of(LAST_CREATED_ON, "$lastCreatedOn")),
+                value,
+                storedValue));
+    }
+
+    /**
+     * Great circle distance in meters as an aggregation expression, the same haversine formula as distance below.
+     */
+    private Document distanceExpression(Object latitude1, Object longitude1, Object latitude2, Object longitude2) {
+        val a = new Document("$add", List.of(
+                new Document("$pow", List.of(new Document("$sin", halfRadians(latitude1, latitude2)), 2)),
+                new Document("$multiply", List.of(
+                        new Document("$cos", new Document("$degreesToRadians", latitude1)),
+                        new Document("$cos", new Document("$degreesToRadians", latitude2)),
+                        new Document("$pow", List.of(new Document("$sin", halfRadians(longitude1, longitude2)),
+                                2))))));
+
+        return new Document("$multiply", List.of(2 * EARTH_RADIUS_METERS,
+                new Document("$asin", new Document("$min", List.of(1, new Document("$sqrt", a))))));
+    }
+
+    private Document halfRadians(Object from, Object to) {
+        return new Document("$divide", List.of(
+                new Document("$degreesToRadians", new Document("$subtract", List.of(to, from))), 2));
+    }
+
+    private double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        val latitudeDelta = Math.toRadians(latitude2 - latitude1);
+        val longitudeDelta = Math.toRadians(longitude2 - longitude1);
+        val a = Math.pow(Math.sin(latitudeDelta / 2), 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.pow(Math.sin(longitudeDelta / 2), 2);
+
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+}
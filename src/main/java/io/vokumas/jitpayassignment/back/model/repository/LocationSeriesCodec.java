@@ -0,0 +1,40 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+
+import java.time.LocalDateTime;
+
+/**
+ * Decodes documents with a locations array (range results of User or LocationBucket) into a single LocationSeries,
+ * never creating a Location. Every document decoded appends its locations with createdOn BETWEEN from and to,
+ * inclusive both sides, to the same series, in the order they come in.
+ * A codec instance belongs to a single query and is not thread safe.
+ */
+final class LocationSeriesCodec extends LocationsInRangeCodec<LocationSeries> {
+
+    private final LocationSeries series = new LocationSeries();
+
+    LocationSeriesCodec(LocalDateTime from, LocalDateTime to) {
+        super(from, to);
+    }
+
+    LocationSeries series() {
+        return series;
+    }
+
+    @Override
+    void accept(long createdOn, double latitude, double longitude) {
+        series.add(latitude, longitude, createdOn);
+    }
+
+    @Override
+    LocationSeries result(int locations) {
+        return series;
+    }
+
+    @Override
+    public Class<LocationSeries> getEncoderClass() {
+        return LocationSeries.class;
+    }
+
+}
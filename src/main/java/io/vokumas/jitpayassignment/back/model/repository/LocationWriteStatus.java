@@ -0,0 +1,15 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+public enum LocationWriteStatus {
+
+    APPLIED,
+    QUEUED,
+    USER_NOT_FOUND,
+    RATE_LIMITED,
+    FAILED,
+    /**
+     * Sent, but not confirmed in time, the locations might still be stored.
+     */
+    UNKNOWN
+
+}
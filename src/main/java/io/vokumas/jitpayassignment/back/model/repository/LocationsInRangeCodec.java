@@ -0,0 +1,122 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDateTime;
+
+/**
+ * Decodes documents with a locations array (range results of User or LocationBucket) location by location
+ * as primitives, never creating a Location. Every location with createdOn BETWEEN from and to, inclusive both sides,
+ * is handed to accept in the order of the array, other fields of the documents are skipped.
+ * Missing and null coordinates are NaN, locations without a createdOn date are skipped.
+ * A codec instance belongs to a single query and is not thread safe.
+ */
+abstract class LocationsInRangeCodec<T> implements Codec<T> {
+
+    private final long fromMillis;
+    private final long toMillis;
+
+    LocationsInRangeCodec(LocalDateTime from, LocalDateTime to) {
+        this.fromMillis = EntityCodecs.LOCATION.toEpochMillis(from);
+        this.toMillis = EntityCodecs.LOCATION.toEpochMillis(to);
+    }
+
+    /**
+     * @param createdOn epoch millis of the BSON date.
+     */
+    abstract void accept(long createdOn, double latitude, double longitude);
+
+    /**
+     * @param locations number of locations of the document accepted.
+     * @return decoded value of the document.
+     */
+    abstract T result(int locations);
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        int accepted = 0;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if ("locations".equals(reader.readName()) && reader.getCurrentBsonType() == BsonType.ARRAY) {
+                accepted += readLocations(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return result(accepted);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " only decodes");
+    }
+
+    private int readLocations(BsonReader reader) {
+        int accepted = 0;
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+                reader.skipValue();
+                continue;
+            }
+            if (readLocation(reader)) {
+                accepted++;
+            }
+        }
+        reader.readEndArray();
+
+        return accepted;
+    }
+
+    private boolean readLocation(BsonReader reader) {
+        boolean hasCreatedOn = false;
+        long createdOn = 0;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "createdOn" -> {
+                    hasCreatedOn = reader.getCurrentBsonType() == BsonType.DATE_TIME;
+                    if (hasCreatedOn) {
+                        createdOn = reader.readDateTime();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                case "latitude" -> latitude = readCoordinate(reader);
+                case "longitude" -> longitude = readCoordinate(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        if (!hasCreatedOn || createdOn < fromMillis || createdOn > toMillis) {
+            return false;
+        }
+        accept(createdOn, latitude, longitude);
+
+        return true;
+    }
+
+    private static double readCoordinate(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case DOUBLE -> reader.readDouble();
+            case INT32 -> reader.readInt32();
+            case INT64 -> reader.readInt64();
+            default -> {
+                reader.skipValue();
+                yield Double.NaN;
+            }
+        };
+    }
+
+}
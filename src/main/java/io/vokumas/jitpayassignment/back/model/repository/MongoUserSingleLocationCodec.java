@@ -0,0 +1,65 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import lombok.val;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * User document read as MongoUserSingleLocation, field by field. The location history is skipped without being
+ * decoded, location is read from latestLocation.
+ */
+public final class MongoUserSingleLocationCodec implements Codec<MongoUserSingleLocation> {
+
+    private final LocationCodec locationCodec;
+
+    public MongoUserSingleLocationCodec(LocationCodec locationCodec) {
+        this.locationCodec = locationCodec;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, MongoUserSingleLocation user, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        UserCodec.writeUuid(writer, "_id", user.getUserId());
+        UserCodec.writeString(writer, "email", user.getEmail());
+        UserCodec.writeString(writer, "firstName", user.getFirstName());
+        UserCodec.writeString(writer, "secondName", user.getSecondName());
+        if (user.getLocation() != null) {
+            writer.writeName("latestLocation");
+            UserCodec.writeLatestLocation(writer, user.getLocation(), locationCodec, encoderContext);
+        }
+        writer.writeInt64("version", user.getVersion());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public MongoUserSingleLocation decode(BsonReader reader, DecoderContext decoderContext) {
+        val user = new MongoUserSingleLocation();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> user.setUserId(UserCodec.readUuid(reader));
+                case "email" -> user.setEmail(LocationCodec.readString(reader));
+                case "firstName" -> user.setFirstName(LocationCodec.readString(reader));
+                case "secondName" -> user.setSecondName(LocationCodec.readString(reader));
+                case "latestLocation" -> user.setLocation(locationCodec.decodeNullable(reader, decoderContext));
+                case "version" -> user.setVersion(LocationCodec.readLong(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return user;
+    }
+
+    @Override
+    public Class<MongoUserSingleLocation> getEncoderClass() {
+        return MongoUserSingleLocation.class;
+    }
+
+}
@@ -0,0 +1,123 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.google.common.base.Preconditions;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregation pipeline that is built once as BSON and only gets its parameters bound per request.
+ * Stages are regular Documents with Parameter placeholders in place of the values. Binding copies just the documents
+ * and lists on the way from a stage to its placeholders, everything else is shared between all bound pipelines.
+ * Bound values go to the driver as they are, without Spring Data mapping, so they have to be BSON ready already
+ * (BsonBinary for UUIDs, Date for timestamps and so on).
+ * Neither the template stages nor the bound pipelines may be modified.
+ */
+public final class PipelineTemplate {
+
+    private final List<Document> stages;
+    private final int parameterCount;
+    // containers that hold a Parameter directly or in one of their children
+    private final Set<Object> parameterized = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private PipelineTemplate(List<Document> stages) {
+        this.stages = List.copyOf(stages);
+        this.parameterCount = stages.stream().mapToInt(this::collectParameterized).max().orElse(-1) + 1;
+    }
+
+    public static PipelineTemplate of(Document... stages) {
+        return new PipelineTemplate(List.of(stages));
+    }
+
+    public static Parameter parameter(int index) {
+        return new Parameter(index);
+    }
+
+    /**
+     * @param values parameter values, in the order of parameter indexes.
+     * @return pipeline stages with parameters replaced by values.
+     */
+    public List<Document> bind(Object... values) {
+        Preconditions.checkArgument(values.length == parameterCount,
+                "expected %s parameter values, got %s", parameterCount, values.length);
+
+        List<Document> bound = new ArrayList<>(stages.size());
+        for (Document stage : stages) {
+            bound.add((Document) bindValue(stage, values));
+        }
+
+        return bound;
+    }
+
+    public Aggregation toAggregation(Object... values) {
+        List<AggregationOperation> operations = new ArrayList<>(stages.size());
+        for (Document stage : bind(values)) {
+            operations.add(context -> stage);
+        }
+
+        return Aggregation.newAggregation(operations);
+    }
+
+    private Object bindValue(Object value, Object[] values) {
+        if (value instanceof Parameter parameter) {
+            return values[parameter.index()];
+        }
+        if (!parameterized.contains(value)) {
+            return value;
+        }
+
+        if (value instanceof Document document) {
+            Document bound = new Document();
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                bound.append(entry.getKey(), bindValue(entry.getValue(), values));
+            }
+            return bound;
+        }
+
+        List<?> list = (List<?>) value;
+        List<Object> bound = new ArrayList<>(list.size());
+        for (Object item : list) {
+            bound.add(bindValue(item, values));
+        }
+        return bound;
+    }
+
+    /**
+     * @return the highest parameter index found in value, -1 when there is none.
+     */
+    private int collectParameterized(Object value) {
+        if (value instanceof Parameter parameter) {
+            return parameter.index();
+        }
+
+        Iterable<?> children;
+        if (value instanceof Document document) {
+            children = document.values();
+        } else if (value instanceof List<?> list) {
+            children = list;
+        } else {
+            return -1;
+        }
+
+        int highest = -1;
+        for (Object child : children) {
+            highest = Math.max(highest, collectParameterized(child));
+        }
+        if (highest >= 0) {
+            parameterized.add(value);
+        }
+
+        return highest;
+    }
+
+    public record Parameter(int index) {
+    }
+
+}
@@ -0,0 +1,25 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserVersion;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of the CustomMongoRepository operations behind the reactive API, with the same semantics.
+ * Empty Mono stands for empty Optional.
+ */
+public interface ReactiveCustomMongoRepository {
+
+    Mono<User> addLocation(UUID userId, Location location);
+    Mono<LocationWriteStatus> pushLocation(UUID userId, Location location);
+    Mono<User> upsertUser(User user);
+    Mono<MongoUserSingleLocation> findByUserIdAndLatestLocation(UUID userId);
+    Mono<MongoUserVersion> findVersion(UUID userId);
+    Mono<User> findByUserIdAndLocationsInRange(UUID userId, LocalDateTime from, LocalDateTime to);
+
+}
@@ -0,0 +1,270 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import com.google.common.base.Preconditions;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserVersion;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import io.vokumas.jitpayassignment.config.ReadRoutingProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Same queries and updates as CustomMongoRepositoryImpl, shared with it where they are built by static helpers,
+ * sent with the reactive driver. Only the operations of the reactive API are implemented.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCustomMongoRepositoryImpl implements ReactiveCustomMongoRepository {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final LocationStorageProperties storageProperties;
+    private final ReadRoutingProperties readRouting;
+    private final LocationRollupProperties rollupProperties;
+    private final Map<ReadRoutingProperties.Operation, ReactiveMongoTemplate> readTemplates =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Fails the startup on routes Mongo would reject on the first read.
+     */
+    @PostConstruct
+    public void checkReadRoutes() {
+        readRouting.getRoutes().values().forEach(ReadRoutingProperties.Route::toReadPreference);
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.addLocation.
+     * @return User appended to with new Location or empty Mono if no User present in the DB.
+     */
+    @Override
+    public Mono<User> addLocation(final UUID userId, final Location location) {
+        Preconditions.checkArgument(userId != null,
+                "userId cannot be null");
+        CustomMongoRepositoryImpl.checkLocation(location);
+
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        Query query = new Query().addCriteria(Criteria.where("_id").is(binary));
+        FindAndModifyOptions options = new FindAndModifyOptions().returnNew(true).upsert(false);
+        if (storageProperties.isBucketed()) {
+            // updating the User document first doubles as a check that the User exists
+            query.fields().exclude("locations");
+            return mongoTemplate.findAndModify(query, CustomMongoRepositoryImpl.latestLocationUpdate(location),
+                            options, User.class)
+                    .flatMap(user -> writeBuckets(binary, location)
+                            .then(mergeRollups(userId, location))
+                            .then(Mono.fromSupplier(() -> {
+                                user.setLocations(new ArrayList<>(List.of(location)));
+                                return user;
+                            })));
+        }
+
+        Update updateDef = CustomMongoRepositoryImpl.latestLocationUpdate(location).push("locations", location);
+
+        return mongoTemplate.findAndModify(query, updateDef, options, User.class)
+                .flatMap(user -> mergeRollups(userId, location).thenReturn(user));
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.pushLocation.
+     * @return APPLIED if the Location has been added, USER_NOT_FOUND if there is no User document in the DB.
+     */
+    @Override
+    public Mono<LocationWriteStatus> pushLocation(final UUID userId, final Location location) {
+        Preconditions.checkArgument(userId != null,
+                "userId cannot be null");
+        CustomMongoRepositoryImpl.checkLocation(location);
+
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        Query query = new Query().addCriteria(Criteria.where("_id").is(binary));
+        if (storageProperties.isBucketed()) {
+            return mongoTemplate.updateFirst(query, CustomMongoRepositoryImpl.latestLocationUpdate(location),
+                            User.class)
+                    .flatMap(result -> result.getMatchedCount() == 0
+                            ? Mono.just(LocationWriteStatus.USER_NOT_FOUND)
+                            : writeBuckets(binary, location)
+                                    .then(mergeRollups(userId, location))
+                                    .thenReturn(LocationWriteStatus.APPLIED));
+        }
+
+        return mongoTemplate.updateFirst(query,
+                        CustomMongoRepositoryImpl.latestLocationUpdate(location).push("locations", location),
+                        User.class)
+                .flatMap(result -> result.getMatchedCount() == 0
+                        ? Mono.just(LocationWriteStatus.USER_NOT_FOUND)
+                        : mergeRollups(userId, location).thenReturn(LocationWriteStatus.APPLIED));
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.upsertUser.
+     * @return User that has been inserted or updated.
+     */
+    @Override
+    public Mono<User> upsertUser(final User user) {
+        Preconditions.checkArgument(user != null, "user cannot be null");
+        Preconditions.checkArgument(user.getUserId() != null, "user.userId cannot be null");
+        Preconditions.checkArgument(user.getEmail() != null, "user.email cannot be null");
+        Preconditions.checkArgument(user.getFirstName() != null, "user.firstName cannot be null");
+        Preconditions.checkArgument(user.getSecondName() != null, "user.secondName cannot be null");
+
+        val query = new Query()
+                .addCriteria(Criteria.where("userId").is(user.getUserId()));
+        val update = new Update()
+                .set("email", user.getEmail())
+                .set("firstName", user.getFirstName())
+                .set("secondName", user.getSecondName())
+                .inc("version", 1);
+        val options = new FindAndModifyOptions().returnNew(true).upsert(true);
+
+        return mongoTemplate.findAndModify(query, update, options, User.class);
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.findByUserIdAndLatestLocation.
+     */
+    @Override
+    public Mono<MongoUserSingleLocation> findByUserIdAndLatestLocation(final UUID userId) {
+        Preconditions.checkArgument(userId != null,"userId cannot be null");
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        Query query = new Query().addCriteria(Criteria.where("_id").is(binary));
+        query.fields().exclude("locations");
+
+        return reads(ReadRoutingProperties.Operation.LATEST).findOne(query, MongoUserSingleLocation.class, "user");
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.findVersion.
+     */
+    @Override
+    public Mono<MongoUserVersion> findVersion(final UUID userId) {
+        Preconditions.checkArgument(userId != null, "userId cannot be null");
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        Query query = new Query().addCriteria(Criteria.where("_id").is(binary));
+        query.fields().include("version").include("latestLocation.createdOn");
+
+        return reads(ReadRoutingProperties.Operation.VERSION).findOne(query, MongoUserVersion.class, "user");
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.findByUserIdAndLocationsInRange.
+     * @return User with user.locations() filtered by createdOn BETWEEN range inclusive both sides,
+     *         empty Mono if no user found.
+     */
+    @Override
+    public Mono<User> findByUserIdAndLocationsInRange(final UUID userId,
+                                                      final LocalDateTime from,
+                                                      final LocalDateTime to) {
+        Preconditions.checkArgument(userId != null,"userId cannot be null");
+        Preconditions.checkArgument(from != null,"from cannot be null");
+        Preconditions.checkArgument(to != null,"to cannot be null");
+
+        BsonBinary binary = new BsonBinary(userId, UuidRepresentation.STANDARD);
+        if (storageProperties.isBucketed()) {
+            return findLocationsInRangeInBuckets(binary, from, to);
+        }
+
+        return reads(ReadRoutingProperties.Operation.RANGE)
+                .aggregate(LocationPipelines.range(binary, from, to), "user", User.class)
+                .singleOrEmpty();
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.reads.
+     */
+    private ReactiveMongoOperations reads(final ReadRoutingProperties.Operation operation) {
+        val route = readRouting.route(operation);
+        if (route.isPrimary()) {
+            return mongoTemplate;
+        }
+
+        return readTemplates.computeIfAbsent(operation, key -> {
+            val template = new ReactiveMongoTemplate(mongoTemplate.getMongoDatabaseFactory(),
+                    mongoTemplate.getConverter());
+            template.setReadPreference(route.toReadPreference());
+            return template;
+        });
+    }
+
+    /**
+     * Bucket upserts of a single Location, one after another as they are in the blocking repository.
+     */
+    private Mono<Void> writeBuckets(final BsonBinary userId, final Location location) {
+        return Flux.fromIterable(CustomMongoRepositoryImpl.bucketWrites(userId, List.of(location), storageProperties))
+                .concatMap(write -> mongoTemplate.upsert(write.left(), write.right(), LocationBucket.class))
+                .then();
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.mergeRollups, a failed merge is logged and completes empty.
+     */
+    private Mono<Void> mergeRollups(final UUID userId, final Location location) {
+        if (!rollupProperties.isEnabled()) {
+            return Mono.empty();
+        }
+
+        List<UpdateOneModel<Document>> merges = LocationRollups.merges(userId, rollupProperties.getGranularities(),
+                List.of(location));
+        if (merges.isEmpty()) {
+            return Mono.empty();
+        }
+
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(LocationRollup.class))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(merges, new BulkWriteOptions().ordered(false))))
+                .doOnError(MongoException.class, e -> log.warn("Location rollup merge failed. UserId: {}", userId, e))
+                .onErrorResume(MongoException.class, e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * See CustomMongoRepositoryImpl.findLocationsInRangeInBuckets.
+     */
+    private Mono<User> findLocationsInRangeInBuckets(final BsonBinary userId,
+                                                     final LocalDateTime from,
+                                                     final LocalDateTime to) {
+        Query userQuery = new Query().addCriteria(Criteria.where("_id").is(userId));
+        userQuery.fields().exclude("locations");
+        val reads = reads(ReadRoutingProperties.Operation.RANGE);
+
+        return reads.findOne(userQuery, User.class)
+                .flatMap(user -> reads
+                        .find(CustomMongoRepositoryImpl.bucketsInRangeQuery(userId, from, to), LocationBucket.class)
+                        .concatMapIterable(LocationBucket::getLocations)
+                        .filter(l -> !l.getCreatedOn().isBefore(from) && !l.getCreatedOn().isAfter(to))
+                        .collectList()
+                        .map(locations -> {
+                            user.setLocations(new ArrayList<>(locations));
+                            return user;
+                        }));
+    }
+
+}
@@ -0,0 +1,161 @@
+package io.vokumas.jitpayassignment.back.model.repository;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import lombok.val;
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * User document read and written field by field, Locations go through LocationCodec.
+ * _id is a UUID binary of the standard representation, as configured with spring.data.mongodb.uuid-representation.
+ * latestLocation is written in the layout of LocationDocuments.latestLocation, so that a User written by the codec
+ * keeps working with $max and the 2dsphere index. A missing locations field, as in projections without it,
+ * leaves User.locations empty.
+ */
+public final class UserCodec implements Codec<User> {
+
+    private final LocationCodec locationCodec;
+
+    public UserCodec(LocationCodec locationCodec) {
+        this.locationCodec = locationCodec;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeUuid(writer, "_id", user.getUserId());
+        writeString(writer, "email", user.getEmail());
+        writeString(writer, "firstName", user.getFirstName());
+        writeString(writer, "secondName", user.getSecondName());
+        if (user.getLocations() != null) {
+            writer.writeStartArray("locations");
+            for (Location location : user.getLocations()) {
+                encoderContext.encodeWithChildContext(locationCodec, writer, location);
+            }
+            writer.writeEndArray();
+        }
+        if (user.getLatestLocation() != null) {
+            writer.writeName("latestLocation");
+            writeLatestLocation(writer, user.getLatestLocation(), locationCodec, encoderContext);
+        }
+        writer.writeInt64("version", user.getVersion());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public User decode(BsonReader reader, DecoderContext decoderContext) {
+        UUID userId = null;
+        String email = null;
+        String firstName = null;
+        String secondName = null;
+        List<Location> locations = null;
+        Location latestLocation = null;
+        long version = 0;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> userId = readUuid(reader);
+                case "email" -> email = LocationCodec.readString(reader);
+                case "firstName" -> firstName = LocationCodec.readString(reader);
+                case "secondName" -> secondName = LocationCodec.readString(reader);
+                case "locations" -> locations = readLocations(reader, decoderContext);
+                case "latestLocation" -> latestLocation = locationCodec.decodeNullable(reader, decoderContext);
+                case "version" -> version = LocationCodec.readLong(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        val user = new User(userId, email, firstName, secondName);
+        if (locations != null) {
+            user.setLocations(locations);
+        }
+        user.setLatestLocation(latestLocation);
+        user.setVersion(version);
+
+        return user;
+    }
+
+    @Override
+    public Class<User> getEncoderClass() {
+        return User.class;
+    }
+
+    private List<Location> readLocations(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        List<Location> locations = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            val location = locationCodec.decodeNullable(reader, decoderContext);
+            if (location != null) {
+                locations.add(location);
+            }
+        }
+        reader.readEndArray();
+
+        return locations;
+    }
+
+    /**
+     * Same layout as LocationDocuments.latestLocation. A Location missing any field cannot be indexed,
+     * it is written as it is.
+     */
+    static void writeLatestLocation(BsonWriter writer, Location location, LocationCodec locationCodec,
+                                    EncoderContext encoderContext) {
+        if (location.getCreatedOn() == null || location.getLatitude() == null || location.getLongitude() == null) {
+            encoderContext.encodeWithChildContext(locationCodec, writer, location);
+            return;
+        }
+
+        writer.writeStartDocument();
+        writer.writeDateTime("createdOn", locationCodec.toEpochMillis(location.getCreatedOn()));
+        writer.writeDouble("latitude", location.getLatitude());
+        writer.writeDouble("longitude", location.getLongitude());
+        writer.writeStartDocument("point");
+        writer.writeString("type", "Point");
+        writer.writeStartArray("coordinates");
+        writer.writeDouble(location.getLongitude());
+        writer.writeDouble(location.getLatitude());
+        writer.writeEndArray();
+        writer.writeEndDocument();
+        writer.writeEndDocument();
+    }
+
+    static void writeUuid(BsonWriter writer, String name, UUID uuid) {
+        if (uuid != null) {
+            writer.writeBinaryData(name, new BsonBinary(uuid, UuidRepresentation.STANDARD));
+        }
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+
+    static UUID readUuid(BsonReader reader) {
+        if (reader.getCurrentBsonType() != BsonType.BINARY) {
+            reader.skipValue();
+            return null;
+        }
+
+        return reader.readBinaryData().asUuid();
+    }
+
+}
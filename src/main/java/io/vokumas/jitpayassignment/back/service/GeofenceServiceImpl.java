@@ -0,0 +1,114 @@
+package io.vokumas.jitpayassignment.back.service;
+
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayGeofenceNotFoundException;
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetGeofenceEventsResponseDto;
+import io.vokumas.jitpayassignment.back.model.mapper.GeofenceMapper;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceEvent;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceType;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceEventRepository;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceRepository;
+import io.vokumas.jitpayassignment.back.service.declaration.GeofenceService;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceEngine;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GeofenceServiceImpl implements GeofenceService {
+    private final GeofenceMapper geofenceMapper;
+    private final GeofenceRepository geofenceRepository;
+    private final GeofenceEventRepository eventRepository;
+    private final GeofenceEngine geofenceEngine;
+
+    @Override
+    public GeofenceDto createOrUpdateGeofence(GeofenceDto geofenceDto) {
+        checkShape(geofenceDto);
+
+        val geofence = geofenceRepository.save(geofenceMapper.dtoToEntity(geofenceDto));
+        geofenceEngine.reload();
+
+        return geofenceMapper.entityToDto(geofence);
+    }
+
+    @Override
+    public GeofenceDto getGeofence(UUID geofenceId) {
+        val geofence = geofenceRepository.findById(geofenceId)
+                .orElseThrow(() -> new JITPayGeofenceNotFoundException("Geofence not found", geofenceId));
+
+        return geofenceMapper.entityToDto(geofence);
+    }
+
+    @Override
+    public List<GeofenceDto> getGeofences() {
+        return geofenceRepository.findAll().stream()
+                .map(geofenceMapper::entityToDto)
+                .toList();
+    }
+
+    @Override
+    public void deleteGeofence(UUID geofenceId) {
+        if (!geofenceRepository.existsById(geofenceId)) {
+            throw new JITPayGeofenceNotFoundException("Geofence not found", geofenceId);
+        }
+
+        geofenceRepository.deleteById(geofenceId);
+        geofenceEngine.reload();
+    }
+
+    @Override
+    public GetGeofenceEventsResponseDto getGeofenceEvents(UUID userId, UUID geofenceId, LocalDateTime from,
+                                                          LocalDateTime to, Integer limit) {
+        val maxEvents = limit == null ? ValidationConstants.GEOFENCE_EVENTS_DEFAULT_LIMIT : limit;
+        if (maxEvents < 1 || maxEvents > ValidationConstants.GEOFENCE_EVENTS_MAX_LIMIT) {
+            throw new JITPayBadRequestException("limit should be between 1 and "
+                    + ValidationConstants.GEOFENCE_EVENTS_MAX_LIMIT);
+        }
+        val page = PageRequest.of(0, maxEvents);
+
+        List<GeofenceEvent> events;
+        if (userId != null && geofenceId != null) {
+            events = eventRepository.findByUserIdAndGeofenceIdInRange(userId, geofenceId, from, to, page);
+        } else if (userId != null) {
+            events = eventRepository.findByUserIdInRange(userId, from, to, page);
+        } else if (geofenceId != null) {
+            events = eventRepository.findByGeofenceIdInRange(geofenceId, from, to, page);
+        } else {
+            throw new JITPayBadRequestException("userId or geofenceId should be given");
+        }
+
+        return new GetGeofenceEventsResponseDto(geofenceMapper.entityEventsToDtoEvents(events));
+    }
+
+    private static void checkShape(GeofenceDto dto) {
+        if (dto.type() == GeofenceType.CIRCLE) {
+            if (dto.center() == null || dto.radius() == null || !(dto.radius() > 0)) {
+                throw new JITPayBadRequestException("CIRCLE geofence needs center and positive radius");
+            }
+            if (dto.vertices() != null) {
+                throw new JITPayBadRequestException("CIRCLE geofence cannot have vertices");
+            }
+            return;
+        }
+
+        if (dto.vertices() == null || dto.vertices().size() < 3
+                || dto.vertices().size() > ValidationConstants.GEOFENCE_MAX_VERTICES) {
+            throw new JITPayBadRequestException("POLYGON geofence needs between 3 and "
+                    + ValidationConstants.GEOFENCE_MAX_VERTICES + " vertices");
+        }
+        if (dto.center() != null || dto.radius() != null) {
+            throw new JITPayBadRequestException("POLYGON geofence cannot have center or radius");
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package io.vokumas.jitpayassignment.back.service;
+
+import io.vokumas.jitpayassignment.back.exception.JITPayUserNotFoundException;
+import io.vokumas.jitpayassignment.back.model.dto.LocationAckDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDtoTimedLocation;
+import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserVersionDto;
+import io.vokumas.jitpayassignment.back.model.mapper.UserMapper;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.ReactiveCustomMongoRepository;
+import io.vokumas.jitpayassignment.back.service.admission.LocationAdmissionControl;
+import io.vokumas.jitpayassignment.back.service.cache.LatestLocationCache;
+import io.vokumas.jitpayassignment.back.service.declaration.ReactiveUserService;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceEngine;
+import io.vokumas.jitpayassignment.back.service.ingestion.LocationIngestionBuffer;
+import io.vokumas.jitpayassignment.back.service.spatial.LatestPositionIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Same side effects as UserApiServiceImpl. The latest location cache and the position index are in memory and are
+ * updated on the event loop, geofence evaluation and queueing into the ingestion buffer can block and are moved
+ * to the bounded elastic scheduler.
+ */
+@Service
+@RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserApiServiceImpl implements ReactiveUserService {
+    private final UserMapper userMapper;
+    private final ReactiveCustomMongoRepository mongoRepository;
+    private final LocationIngestionBuffer ingestionBuffer;
+    private final LatestLocationCache latestLocationCache;
+    private final LatestPositionIndex positionIndex;
+    private final GeofenceEngine geofenceEngine;
+    private final LocationAdmissionControl admissionControl;
+
+    @Override
+    public Mono<UserDto> putUserLocation(PutUserLocationRequestDto userLocationDto) {
+        val location = userMapper.dtoToEntity(userLocationDto);
+
+        return Mono.using(() -> admissionControl.admitWrite(userLocationDto.userId()),
+                        permit -> mongoRepository.addLocation(userLocationDto.userId(), location),
+                        LocationAdmissionControl.WritePermit::close)
+                .switchIfEmpty(userNotFound(userLocationDto.userId()))
+                .flatMap(user -> {
+                    latestLocationCache.updateLocation(userLocationDto.userId(), user.getLatestLocation(),
+                            user.getVersion());
+
+                    return locationWritten(userLocationDto.userId(), location)
+                            .thenReturn(userMapper.entityToDto(user));
+                });
+    }
+
+    @Override
+    public Mono<LocationAckDto> putUserLocationAcknowledged(PutUserLocationRequestDto userLocationDto) {
+        if (ingestionBuffer.isEnabled()) {
+            // offer waits up to offer-timeout for room in the queue
+            return Mono.fromCallable(() -> {
+                        admissionControl.admit(userLocationDto.userId(), 1);
+                        ingestionBuffer.offer(userLocationDto.userId(), userMapper.dtoToEntity(userLocationDto));
+
+                        return new LocationAckDto(userLocationDto.userId(), userLocationDto.createdOn(),
+                                LocationWriteStatus.QUEUED);
+                    })
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+
+        val location = userMapper.dtoToEntity(userLocationDto);
+
+        return Mono.using(() -> admissionControl.admitWrite(userLocationDto.userId()),
+                        permit -> mongoRepository.pushLocation(userLocationDto.userId(), location),
+                        LocationAdmissionControl.WritePermit::close)
+                .flatMap(status -> {
+                    if (status == LocationWriteStatus.USER_NOT_FOUND) {
+                        return userNotFound(userLocationDto.userId());
+                    }
+                    // the version after the write is not read back
+                    latestLocationCache.invalidate(userLocationDto.userId());
+
+                    return locationWritten(userLocationDto.userId(), location)
+                            .thenReturn(new LocationAckDto(userLocationDto.userId(), userLocationDto.createdOn(),
+                                    status));
+                });
+    }
+
+    @Override
+    public Mono<UserDto> createOrUpdateUser(UserDto userDto) {
+        return mongoRepository.upsertUser(new User(
+                        userDto.userId(), userDto.email(), userDto.firstName(), userDto.secondName()))
+                .map(user -> {
+                    latestLocationCache.invalidate(userDto.userId());
+
+                    return userMapper.entityToDto(user);
+                });
+    }
+
+    @Override
+    public Mono<UserSingleLocationDto> getUserLatestLocation(UUID userId, long version) {
+        val cached = latestLocationCache.getIfPresent(userId, version);
+        if (cached.isPresent()) {
+            return Mono.just(cached.get());
+        }
+
+        return mongoRepository.findByUserIdAndLatestLocation(userId)
+                .switchIfEmpty(userNotFound(userId))
+                .map(user -> {
+                    val dto = userMapper.entityToDto(user);
+                    latestLocationCache.put(userId, dto, user.getVersion());
+
+                    return dto;
+                });
+    }
+
+    @Override
+    public Mono<UserVersionDto> getUserVersion(UUID userId) {
+        return mongoRepository.findVersion(userId)
+                .switchIfEmpty(userNotFound(userId))
+                .map(user -> new UserVersionDto(userId, user.getVersion(),
+                        user.getLocation() == null ? null : user.getLocation().getCreatedOn()));
+    }
+
+    @Override
+    public Mono<UserDtoTimedLocation> getUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to) {
+        return mongoRepository.findByUserIdAndLocationsInRange(userId, from, to)
+                .switchIfEmpty(userNotFound(userId))
+                .map(userMapper::entityToDtoTimedLocation);
+    }
+
+    private Mono<Void> locationWritten(UUID userId, Location location) {
+        positionIndex.update(userId, location);
+
+        return Mono.fromRunnable(() -> geofenceEngine.evaluate(userId, List.of(location)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    private static <T> Mono<T> userNotFound(UUID userId) {
+        return Mono.error(() -> new JITPayUserNotFoundException("User not found", userId));
+    }
+
+}
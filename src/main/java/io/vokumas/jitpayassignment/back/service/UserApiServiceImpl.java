@@ -1,22 +1,69 @@
 package io.vokumas.jitpayassignment.back.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
 import io.vokumas.jitpayassignment.back.exception.JITPayUserNotFoundException;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationSummaryResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserPositionsResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUsersNearLocationResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationAckDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationBatchRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationBatchResponseDto;
 import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserDtoTimedLocation;
+import io.vokumas.jitpayassignment.back.model.dto.UserLatestLocationResultDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationBatchResultDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserPositionDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserVersionDto;
 import io.vokumas.jitpayassignment.back.model.mapper.UserMapper;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
 import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationCursor;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
 import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.back.service.admission.LocationAdmissionControl;
+import io.vokumas.jitpayassignment.back.service.cache.LatestLocationCache;
 import io.vokumas.jitpayassignment.back.service.declaration.UserService;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceEngine;
+import io.vokumas.jitpayassignment.back.service.ingestion.LocationIngestionBuffer;
+import io.vokumas.jitpayassignment.back.service.ingestion.LocationWriteLanes;
+import io.vokumas.jitpayassignment.back.service.spatial.LatestPositionIndex;
+import io.vokumas.jitpayassignment.back.service.stream.LocationStreamHub;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscriber;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscription;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import io.vokumas.jitpayassignment.util.TrajectorySimplifier;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -24,33 +71,272 @@ import java.util.UUID;
 public class UserApiServiceImpl implements UserService {
     private final UserMapper userMapper;
     private final UserRepository mongoRepository;
+    private final LocationIngestionBuffer ingestionBuffer;
+    private final LocationWriteLanes writeLanes;
+    private final LocationAdmissionControl admissionControl;
+    private final LatestLocationCache latestLocationCache;
+    private final LatestPositionIndex positionIndex;
+    private final GeofenceEngine geofenceEngine;
+    private final LocationStreamHub locationStreamHub;
+    private final LocationRollupProperties rollupProperties;
 
     @Override
     @Transactional(rollbackFor = Exception.class)
     public UserDto putUserLocation(PutUserLocationRequestDto userLocationDto) {
-        val user = mongoRepository.addLocation(userLocationDto.userId(),
-                userMapper.dtoToEntity(userLocationDto))
-                .orElseThrow(() -> new JITPayUserNotFoundException("User not found", userLocationDto.userId()));
+        val location = userMapper.dtoToEntity(userLocationDto);
+        Optional<User> written;
+        if (writeLanes.isEnabled()) {
+            // the lane takes the in-flight permit once it sends the write
+            admissionControl.admit(userLocationDto.userId(), 1);
+            written = writeLanes.addLocation(userLocationDto.userId(), location);
+        } else {
+            try (val permit = admissionControl.admitWrite(userLocationDto.userId())) {
+                written = mongoRepository.addLocation(userLocationDto.userId(), location);
+            }
+        }
+        val user = written.orElseThrow(() -> new JITPayUserNotFoundException("User not found", userLocationDto.userId()));
+        latestLocationCache.updateLocation(userLocationDto.userId(), user.getLatestLocation(), user.getVersion());
+        positionIndex.update(userLocationDto.userId(), location);
+        geofenceEngine.evaluate(userLocationDto.userId(), List.of(location));
 
         return userMapper.entityToDto(user);
     }
 
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public LocationAckDto putUserLocationAcknowledged(PutUserLocationRequestDto userLocationDto) {
+        if (ingestionBuffer.isEnabled()) {
+            admissionControl.admit(userLocationDto.userId(), 1);
+            ingestionBuffer.offer(userLocationDto.userId(), userMapper.dtoToEntity(userLocationDto));
+
+            return new LocationAckDto(userLocationDto.userId(), userLocationDto.createdOn(),
+                    LocationWriteStatus.QUEUED);
+        }
+
+        val location = userMapper.dtoToEntity(userLocationDto);
+        LocationWriteStatus status;
+        if (writeLanes.isEnabled()) {
+            admissionControl.admit(userLocationDto.userId(), 1);
+            status = writeLanes.pushLocation(userLocationDto.userId(), location);
+        } else {
+            try (val permit = admissionControl.admitWrite(userLocationDto.userId())) {
+                status = mongoRepository.pushLocation(userLocationDto.userId(), location);
+            }
+        }
+        if (status == LocationWriteStatus.USER_NOT_FOUND) {
+            throw new JITPayUserNotFoundException("User not found", userLocationDto.userId());
+        }
+        // the version after the write is not read back
+        latestLocationCache.invalidate(userLocationDto.userId());
+        positionIndex.update(userLocationDto.userId(), location);
+        geofenceEngine.evaluate(userLocationDto.userId(), List.of(location));
+
+        return new LocationAckDto(userLocationDto.userId(), userLocationDto.createdOn(), status);
+    }
+
+    @Override
+    public PutUserLocationBatchResponseDto putUserLocations(PutUserLocationBatchRequestDto batchDto) {
+        Map<UUID, List<Location>> locationsByUser = new LinkedHashMap<>();
+        for (PutUserLocationRequestDto dto : batchDto.locations()) {
+            locationsByUser.computeIfAbsent(dto.userId(), userId -> new ArrayList<>())
+                    .add(userMapper.dtoToEntity(dto));
+        }
+
+        // users over their rate or with more locations than their burst are answered RATE_LIMITED,
+        // the rest of the batch is still written
+        Map<UUID, List<Location>> admitted = new LinkedHashMap<>();
+        JITPayRateLimitedException rateLimited = null;
+        boolean overBurst = false;
+        for (Map.Entry<UUID, List<Location>> entry : locationsByUser.entrySet()) {
+            try {
+                admissionControl.admit(entry.getKey(), entry.getValue().size());
+                admitted.put(entry.getKey(), entry.getValue());
+            } catch (JITPayRateLimitedException e) {
+                rateLimited = e;
+            } catch (JITPayBadRequestException e) {
+                overBurst = true;
+            }
+        }
+        // retrying helps only when every user is just over its rate
+        if (admitted.isEmpty() && !overBurst) {
+            throw rateLimited;
+        }
+
+        Map<UUID, LocationWriteStatus> written;
+        if (admitted.isEmpty()) {
+            written = Map.of();
+        } else if (writeLanes.isEnabled()) {
+            written = writeLanes.addLocations(admitted);
+        } else {
+            try (val permit = admissionControl.acquireWrite()) {
+                written = mongoRepository.addLocations(admitted);
+            }
+        }
+        Map<UUID, LocationWriteStatus> statuses = new LinkedHashMap<>();
+        locationsByUser.keySet().forEach(userId ->
+                statuses.put(userId, written.getOrDefault(userId, LocationWriteStatus.RATE_LIMITED)));
+
+        List<UserLocationBatchResultDto> results = new ArrayList<>(statuses.size());
+        statuses.forEach((userId, status) -> {
+            if (status == LocationWriteStatus.APPLIED) {
+                latestLocationCache.invalidate(userId);
+                locationsByUser.get(userId).stream()
+                        .max(Comparator.comparing(Location::getCreatedOn))
+                        .ifPresent(location -> positionIndex.update(userId, location));
+                geofenceEngine.evaluate(userId, locationsByUser.get(userId));
+            }
+            results.add(new UserLocationBatchResultDto(userId, status, locationsByUser.get(userId).size()));
+        });
+
+        return new PutUserLocationBatchResponseDto(results);
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public UserDto createOrUpdateUser(UserDto userDto) {
         val user = mongoRepository.upsertUser(new User(
                 userDto.userId(), userDto.email(), userDto.firstName(), userDto.secondName()));
+        latestLocationCache.invalidate(userDto.userId());
 
         return userMapper.entityToDto(user);
     }
 
     @Override
     @Transactional(readOnly = true)
-    public UserSingleLocationDto getUserLatestLocation(UUID userId) {
+    public UserSingleLocationDto getUserLatestLocation(UUID userId, long version) {
+        val cached = latestLocationCache.getIfPresent(userId, version);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
         val user = mongoRepository.findByUserIdAndLatestLocation(userId)
                 .orElseThrow(() -> new JITPayUserNotFoundException("User not found", userId));
+        val dto = userMapper.entityToDto(user);
+        latestLocationCache.put(userId, dto, user.getVersion());
 
-        return userMapper.entityToDto(user);
+        return dto;
+    }
+
+    @Override
+    public UserVersionDto getUserVersion(UUID userId) {
+        val user = mongoRepository.findVersion(userId)
+                .orElseThrow(() -> new JITPayUserNotFoundException("User not found", userId));
+
+        return new UserVersionDto(userId, user.getVersion(),
+                user.getLocation() == null ? null : user.getLocation().getCreatedOn());
+    }
+
+    @Override
+    public Stream<UserLatestLocationResultDto> getUsersLatestLocations(List<UUID> userIds) {
+        Set<UUID> notFound = new LinkedHashSet<>(userIds);
+        val found = mongoRepository.findByUserIdsAndLatestLocation(List.copyOf(notFound))
+                .map(user -> {
+                    notFound.remove(user.getUserId());
+                    return new UserLatestLocationResultDto(user.getUserId(),
+                            UserLatestLocationResultDto.Status.FOUND, userMapper.entityToDto(user));
+                });
+        // evaluated lazily, only after the cursor is exhausted, so notFound holds just the missing users by then
+        val missing = Stream.of(notFound)
+                .flatMap(Set::stream)
+                .map(userId -> new UserLatestLocationResultDto(userId,
+                        UserLatestLocationResultDto.Status.NOT_FOUND, null));
+
+        return Stream.concat(found, missing);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public GetUsersNearLocationResponseDto getUsersNearLocation(double latitude, double longitude, double radius,
+                                                                Integer limit) {
+        checkCoordinates("lat", latitude, "lon", longitude);
+        if (!(radius > 0)) {
+            throw new JITPayBadRequestException("radius should be positive");
+        }
+        val maxUsers = checkUsersLimit("limit", limit, ValidationConstants.USERS_NEAR_DEFAULT_LIMIT);
+
+        val users = mongoRepository.findNearLatestLocation(latitude, longitude, radius, maxUsers).stream()
+                .map(userMapper::entityToNearDto)
+                .toList();
+
+        return new GetUsersNearLocationResponseDto(users);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public GetUserPositionsResponseDto getNearestUserPositions(double latitude, double longitude, Double radius,
+                                                               Integer count) {
+        checkCoordinates("lat", latitude, "lon", longitude);
+        if (radius != null && !(radius > 0)) {
+            throw new JITPayBadRequestException("radius should be positive");
+        }
+        val maxUsers = checkUsersLimit("count", count, ValidationConstants.USERS_NEAREST_DEFAULT_COUNT);
+        val maxDistance = radius == null ? LatestPositionIndex.MAX_DISTANCE_METERS : radius;
+
+        List<UserPositionDto> positions;
+        if (positionIndex.isEnabled()) {
+            positions = positionIndex.nearest(latitude, longitude, maxUsers, maxDistance).stream()
+                    .map(UserApiServiceImpl::toPositionDto)
+                    .toList();
+        } else {
+            positions = mongoRepository.findNearLatestLocation(latitude, longitude, maxDistance, maxUsers).stream()
+                    .map(user -> new UserPositionDto(user.getUserId(), userMapper.entityToDto(user.getLocation()),
+                            user.getDistance()))
+                    .toList();
+        }
+
+        return new GetUserPositionsResponseDto(positions);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public GetUserPositionsResponseDto getUserPositionsWithin(double minLatitude, double minLongitude,
+                                                              double maxLatitude, double maxLongitude, Integer limit) {
+        checkCoordinates("minLat", minLatitude, "minLon", minLongitude);
+        checkCoordinates("maxLat", maxLatitude, "maxLon", maxLongitude);
+        if (minLatitude > maxLatitude || minLongitude > maxLongitude) {
+            throw new JITPayBadRequestException("minLat and minLon cannot be greater than maxLat and maxLon");
+        }
+        val maxUsers = checkUsersLimit("limit", limit, ValidationConstants.USERS_NEAR_DEFAULT_LIMIT);
+
+        List<UserPositionDto> positions;
+        if (positionIndex.isEnabled()) {
+            positions = positionIndex.within(minLatitude, minLongitude, maxLatitude, maxLongitude, maxUsers).stream()
+                    .map(UserApiServiceImpl::toPositionDto)
+                    .toList();
+        } else {
+            positions = mongoRepository.findWithinLatestLocation(minLatitude, minLongitude, maxLatitude, maxLongitude,
+                            maxUsers).stream()
+                    .map(user -> new UserPositionDto(user.getUserId(), userMapper.entityToDto(user.getLocation()),
+                            null))
+                    .toList();
+        }
+
+        return new GetUserPositionsResponseDto(positions);
+    }
+
+    @Override
+    public LocationSubscription subscribeToLatestLocations(List<UUID> userIds, LocationSubscriber subscriber) {
+        if (!locationStreamHub.isEnabled()) {
+            throw new JITPayBadRequestException("location streaming is disabled");
+        }
+        if (userIds.isEmpty() || userIds.size() > ValidationConstants.LOCATION_STREAM_MAX_USERS) {
+            throw new JITPayBadRequestException("userId should be given between 1 and "
+                    + ValidationConstants.LOCATION_STREAM_MAX_USERS + " times");
+        }
+
+        // subscribed first, so a location written in between is delivered rather than lost
+        val subscription = locationStreamHub.subscribe(userIds, subscriber);
+        try (Stream<MongoUserSingleLocation> users = mongoRepository.findByUserIdsAndLatestLocation(
+                List.copyOf(new LinkedHashSet<>(userIds)))) {
+            users.filter(user -> user.getLocation() != null)
+                    .forEach(user -> subscription.offer(new UserLocationEventDto(user.getUserId(),
+                            user.getLocation().getCreatedOn(), userMapper.entityToDto(user.getLocation()))));
+        } catch (RuntimeException e) {
+            subscription.close();
+            throw e;
+        }
+
+        return subscription;
     }
 
     @Override
@@ -62,4 +348,152 @@ public class UserApiServiceImpl implements UserService {
         return userMapper.entityToDtoTimedLocation(user);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public void writeUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to, JsonGenerator generator) {
+        try {
+            generator.writeStartObject();
+            generator.writeObjectField("userId", userId);
+            generator.writeFieldName("locations");
+            generator.writeStartArray();
+            if (!mongoRepository.writeLocationsInRange(userId, from, to, generator)) {
+                throw new JITPayUserNotFoundException("User not found", userId);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public GetUserLocationRangeResponseDto getUserLocationsRangeSimplified(UUID userId, LocalDateTime from,
+                                                                           LocalDateTime to, Double tolerance,
+                                                                           Integer maxPoints) {
+        if (tolerance != null && !(tolerance > 0)) {
+            throw new JITPayBadRequestException("tolerance should be positive");
+        }
+        if (maxPoints != null && maxPoints < 2) {
+            throw new JITPayBadRequestException("maxPoints should be at least 2");
+        }
+
+        val track = mongoRepository.findLocationSeriesInRange(userId, from, to)
+                .orElseThrow(() -> new JITPayUserNotFoundException("User not found", userId))
+                .sortByCreatedOn();
+        LocationSeries simplified = track;
+        if (tolerance != null) {
+            simplified = TrajectorySimplifier.douglasPeucker(simplified, tolerance);
+        }
+        if (maxPoints != null) {
+            simplified = TrajectorySimplifier.visvalingam(simplified, maxPoints);
+        }
+
+        return new GetUserLocationRangeResponseDto(userId, simplified, null, track.size() - simplified.size());
+    }
+
+    @Override
+    public Stream<LocationTimedDto> streamUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to) {
+        if (!mongoRepository.existsById(userId)) {
+            throw new JITPayUserNotFoundException("User not found", userId);
+        }
+
+        return mongoRepository.streamLocationsInRange(userId, from, to).map(userMapper::map);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public GetUserLocationRangeResponseDto getUserLocationsRangePage(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                                     String cursor, Integer limit) {
+        val pageSize = limit == null ? ValidationConstants.LOCATION_RANGE_DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > ValidationConstants.LOCATION_RANGE_MAX_PAGE_SIZE) {
+            throw new JITPayBadRequestException("limit should be between 1 and "
+                    + ValidationConstants.LOCATION_RANGE_MAX_PAGE_SIZE);
+        }
+        val after = parseCursor(cursor);
+
+        // one extra location tells whether there is a next page
+        val user = mongoRepository.findByUserIdAndLocationsPageInRange(userId, from, to, after, pageSize + 1)
+                .orElseThrow(() -> new JITPayUserNotFoundException("User not found", userId));
+
+        List<Location> page = user.getLocations();
+        String nextCursor = null;
+        if (page.size() > pageSize) {
+            page = page.subList(0, pageSize);
+            nextCursor = LocationCursor.after(after, page).toToken();
+        }
+
+        return new GetUserLocationRangeResponseDto(userId, userMapper.entityLocationsToDtoLocations(page), nextCursor);
+    }
+
+    @Override
+    public GetUserLocationSummaryResponseDto getUserLocationSummary(UUID userId, String granularity,
+                                                                    LocalDateTime from, LocalDateTime to) {
+        val windowGranularity = parseGranularity(granularity);
+        if (!rollupProperties.isMaintained(windowGranularity)) {
+            throw new JITPayBadRequestException("location summaries are not maintained for granularity "
+                    + granularity);
+        }
+        if (from.isAfter(to)) {
+            throw new JITPayBadRequestException("from cannot be after to");
+        }
+        if (windowGranularity.windowsBetween(from, to) > ValidationConstants.LOCATION_SUMMARY_MAX_WINDOWS) {
+            throw new JITPayBadRequestException("range should span at most "
+                    + ValidationConstants.LOCATION_SUMMARY_MAX_WINDOWS + " windows");
+        }
+        if (!mongoRepository.existsById(userId)) {
+            throw new JITPayUserNotFoundException("User not found", userId);
+        }
+
+        val rollups = mongoRepository.findRollups(userId, windowGranularity, from, to);
+
+        return new GetUserLocationSummaryResponseDto(userId, windowGranularity,
+                userMapper.entityRollupsToDtoSummaries(rollups));
+    }
+
+    private static UserPositionDto toPositionDto(LatestPositionIndex.Position position) {
+        return new UserPositionDto(position.userId(), new LocationDto(position.latitude(), position.longitude()),
+                position.distance());
+    }
+
+    private static void checkCoordinates(String latitudeName, double latitude, String longitudeName,
+                                         double longitude) {
+        if (latitude < -90 || latitude > 90) {
+            throw new JITPayBadRequestException(latitudeName + " should be between -90 and 90");
+        }
+        if (longitude < -180 || longitude > 180) {
+            throw new JITPayBadRequestException(longitudeName + " should be between -180 and 180");
+        }
+    }
+
+    private static int checkUsersLimit(String name, Integer limit, int defaultLimit) {
+        val maxUsers = limit == null ? defaultLimit : limit;
+        if (maxUsers < 1 || maxUsers > ValidationConstants.USERS_NEAR_MAX_LIMIT) {
+            throw new JITPayBadRequestException(name + " should be between 1 and "
+                    + ValidationConstants.USERS_NEAR_MAX_LIMIT);
+        }
+
+        return maxUsers;
+    }
+
+    private static TimeGranularity parseGranularity(String granularity) {
+        try {
+            return TimeGranularity.valueOf(granularity.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new JITPayBadRequestException("granularity should be hour or day", e);
+        }
+    }
+
+    private static LocationCursor parseCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            return LocationCursor.fromToken(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new JITPayBadRequestException("cursor is malformed", e);
+        }
+    }
+
 }
@@ -0,0 +1,267 @@
+package io.vokumas.jitpayassignment.back.service.admission;
+
+import com.google.common.base.Preconditions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
+import io.vokumas.jitpayassignment.config.LocationAdmissionProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control in front of location writes, so that a single misbehaving client cannot saturate the database
+ * for everyone.
+ * Every user has a token bucket of userBurst locations refilled at userRate per second, implemented as GCRA:
+ * the only state of a user is the theoretical arrival time of its next location, advanced with a CAS, so admitting
+ * a write takes no lock. Every write sent to the database additionally needs one of maxInFlightWrites permits shared
+ * by all users, held only while the write is sent, writes waiting in LocationWriteLanes do not hold one.
+ * Rejected writes fail with JITPayRateLimitedException, which tells the client when to retry.
+ * Users that are idle long enough to have their whole burst back are dropped every sweepInterval.
+ * Limits can be changed at runtime with updateLimits.
+ */
+@Slf4j
+@Component
+public class LocationAdmissionControl implements SmartLifecycle {
+
+    private static final WritePermit NO_PERMIT = () -> { };
+    private static final Duration IN_FLIGHT_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final LocationAdmissionProperties properties;
+    private final Map<UUID, AtomicLong> theoreticalArrivals = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Counter userRejectedCounter;
+    private final Counter inFlightRejectedCounter;
+
+    private volatile Limits limits;
+    private volatile boolean running;
+    private ScheduledExecutorService sweeper;
+
+    public LocationAdmissionControl(LocationAdmissionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.limits = new Limits(properties.isEnabled(), properties.getUserRate(), properties.getUserBurst(),
+                properties.getMaxInFlightWrites());
+        checkLimits(limits);
+
+        Gauge.builder("jitpay.admission.in.flight", inFlight, AtomicInteger::get)
+                .description("Location writes in flight to the database")
+                .register(meterRegistry);
+        Gauge.builder("jitpay.admission.users", theoreticalArrivals, Map::size)
+                .description("Users whose rate is tracked")
+                .register(meterRegistry);
+        Gauge.builder("jitpay.admission.limit", this, control -> control.limits.userRate())
+                .description("Current admission limit")
+                .tag("limit", "user_rate")
+                .register(meterRegistry);
+        Gauge.builder("jitpay.admission.limit", this, control -> control.limits.userBurst())
+                .description("Current admission limit")
+                .tag("limit", "user_burst")
+                .register(meterRegistry);
+        Gauge.builder("jitpay.admission.limit", this, control -> control.limits.maxInFlightWrites())
+                .description("Current admission limit")
+                .tag("limit", "max_in_flight_writes")
+                .register(meterRegistry);
+        this.userRejectedCounter = Counter.builder("jitpay.admission.rejected")
+                .description("Location writes rejected by admission control")
+                .tag("reason", "user_rate")
+                .register(meterRegistry);
+        this.inFlightRejectedCounter = Counter.builder("jitpay.admission.rejected")
+                .description("Location writes rejected by admission control")
+                .tag("reason", "in_flight")
+                .register(meterRegistry);
+    }
+
+    public Limits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Replaces the limits, null keeps the current value. Applies to writes admitted from now on,
+     * permits already taken are not revoked.
+     * @throws IllegalArgumentException when a limit is not positive.
+     */
+    public Limits updateLimits(Boolean enabled, Double userRate, Integer userBurst, Integer maxInFlightWrites) {
+        val current = limits;
+        val updated = new Limits(enabled == null ? current.enabled() : enabled,
+                userRate == null ? current.userRate() : userRate,
+                userBurst == null ? current.userBurst() : userBurst,
+                maxInFlightWrites == null ? current.maxInFlightWrites() : maxInFlightWrites);
+        checkLimits(updated);
+        limits = updated;
+        log.info("Location admission limits changed to {}", updated);
+
+        return updated;
+    }
+
+    /**
+     * Takes the given number of locations from the bucket of the user, every location costs the same
+     * whether it comes alone or in a batch.
+     * @throws JITPayBadRequestException when more locations are written at once than the burst of a user,
+     * they could never be admitted.
+     * @throws JITPayRateLimitedException when the user is over its rate.
+     */
+    public void admit(UUID userId, int locations) {
+        val current = limits;
+        if (!current.enabled()) {
+            return;
+        }
+        checkBurst(current, locations);
+
+        val interval = current.emissionIntervalNanos();
+        val tolerance = interval * current.userBurst();
+        val cost = interval * Math.max(locations, 1);
+        val now = System.nanoTime();
+        var arrival = theoreticalArrivals.get(userId);
+        if (arrival == null) {
+            val created = new AtomicLong(now);
+            arrival = theoreticalArrivals.putIfAbsent(userId, created);
+            if (arrival == null) {
+                arrival = created;
+            }
+        }
+
+        while (true) {
+            val previous = arrival.get();
+            val next = Math.max(previous, now) + cost;
+            val excess = next - now - tolerance;
+            if (excess > 0) {
+                userRejectedCounter.increment();
+                throw new JITPayRateLimitedException("Location rate of user exceeded", Duration.ofNanos(excess));
+            }
+            if (arrival.compareAndSet(previous, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes one of the in-flight permits and admits a single location of the user. The permit has to be closed
+     * once the write is done.
+     * @throws JITPayRateLimitedException when all permits are taken or the user is over its rate.
+     */
+    public WritePermit admitWrite(UUID userId) {
+        val permit = acquireWrite();
+        try {
+            admit(userId, 1);
+        } catch (JITPayRateLimitedException e) {
+            permit.close();
+            throw e;
+        }
+
+        return permit;
+    }
+
+    /**
+     * Takes one of the in-flight permits, which has to be closed once the write is done.
+     * @throws JITPayRateLimitedException when all permits are taken.
+     */
+    public WritePermit acquireWrite() {
+        val current = limits;
+        if (!current.enabled()) {
+            return NO_PERMIT;
+        }
+
+        while (true) {
+            val taken = inFlight.get();
+            if (taken >= current.maxInFlightWrites()) {
+                inFlightRejectedCounter.increment();
+                throw new JITPayRateLimitedException("Too many location writes in flight", IN_FLIGHT_RETRY_AFTER);
+            }
+            if (inFlight.compareAndSet(taken, taken + 1)) {
+                return inFlight::decrementAndGet;
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "admission-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val interval = properties.getSweepInterval().toMillis();
+        sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * A user whose theoretical arrival time has passed has its whole burst back, which is the same as having
+     * no state at all. A user admitted concurrently with its removal gets at most one location for free.
+     */
+    private void sweep() {
+        val now = System.nanoTime();
+        theoreticalArrivals.values().removeIf(arrival -> arrival.get() - now <= 0);
+    }
+
+    private static void checkBurst(Limits limits, int locations) {
+        if (locations > limits.userBurst()) {
+            throw new JITPayBadRequestException("A user cannot write more than " + limits.userBurst()
+                    + " locations at once");
+        }
+    }
+
+    private static void checkLimits(Limits limits) {
+        Preconditions.checkArgument(limits.userRate() > 0, "userRate should be positive");
+        Preconditions.checkArgument(limits.userBurst() > 0, "userBurst should be positive");
+        Preconditions.checkArgument(limits.maxInFlightWrites() > 0, "maxInFlightWrites should be positive");
+    }
+
+    /**
+     * Released exactly once, when the write it was taken for is done.
+     */
+    @FunctionalInterface
+    public interface WritePermit extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+    public record Limits(boolean enabled, double userRate, int userBurst, int maxInFlightWrites) {
+
+        long emissionIntervalNanos() {
+            return Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / userRate));
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package io.vokumas.jitpayassignment.back.service.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.config.LatestLocationCacheProperties;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Bounded cache of latest location responses keyed by userId.
+ * Every entry remembers User.version it was read or written at and is served only to a caller that has just read
+ * the same version. An entry that missed a write - done by another instance, by the write-behind flush or while it
+ * was being loaded - is therefore reloaded instead of being served under the ETag of a newer version.
+ * A load or a write never replaces an entry of a newer version.
+ * Hit, miss and eviction metrics are published under the "latestLocation" cache name.
+ */
+@Component
+public class LatestLocationCache {
+
+    private final LatestLocationCacheProperties properties;
+    private final Cache<UUID, CachedLatestLocation> cache;
+
+    public LatestLocationCache(LatestLocationCacheProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getExpireAfterWrite())
+                .recordStats()
+                .build();
+
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "latestLocation");
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * @param version User.version just read from the database.
+     * @return the cached response only if it was read or written at version.
+     */
+    public Optional<UserSingleLocationDto> getIfPresent(UUID userId, long version) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+
+        val cached = cache.getIfPresent(userId);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        if (cached.version() < version) {
+            // missed a write, drop it unless a newer one has been put meanwhile
+            cache.asMap().remove(userId, cached);
+            return Optional.empty();
+        }
+
+        return cached.version() == version ? Optional.of(cached.user()) : Optional.empty();
+    }
+
+    /**
+     * Caches a freshly loaded response unless a newer version is already cached.
+     * @param version User.version of the loaded document.
+     */
+    public void put(UUID userId, UserSingleLocationDto user, long version) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        cache.asMap().merge(userId, new CachedLatestLocation(user, version), CachedLatestLocation::newer);
+    }
+
+    /**
+     * Write-through for a location write of this instance that returned the User document after the write.
+     * The entry is updated only when it is exactly one version behind, that is when this write is the only change
+     * since the entry was read. Otherwise the entry might lack other changes and is dropped.
+     * Only users that are already cached are updated.
+     * @param latestLocation User.latestLocation after the write, not necessarily the written Location.
+     * @param version User.version after the write.
+     */
+    public void updateLocation(UUID userId, Location latestLocation, long version) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        cache.asMap().computeIfPresent(userId, (id, cached) -> {
+            if (cached.version() >= version) {
+                return cached;
+            }
+            if (cached.version() != version - 1 || latestLocation == null) {
+                return null;
+            }
+
+            val user = cached.user();
+            return new CachedLatestLocation(new UserSingleLocationDto(user.userId(), user.email(), user.firstName(),
+                    user.secondName(), new LocationDto(latestLocation.getLatitude(), latestLocation.getLongitude())),
+                    version);
+        });
+    }
+
+    /**
+     * For writes whose resulting version is not known.
+     */
+    public void invalidate(UUID userId) {
+        cache.invalidate(userId);
+    }
+
+    private record CachedLatestLocation(UserSingleLocationDto user, long version) {
+
+        CachedLatestLocation newer(CachedLatestLocation other) {
+            return other.version > version ? other : this;
+        }
+
+    }
+
+}
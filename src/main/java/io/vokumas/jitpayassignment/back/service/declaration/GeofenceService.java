@@ -0,0 +1,51 @@
+package io.vokumas.jitpayassignment.back.service.declaration;
+
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetGeofenceEventsResponseDto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public interface GeofenceService {
+
+    /**
+     * Registers a new or replaces an existing fence.
+     * Implementations should start evaluating locations against the fence right away on this instance,
+     * other instances may pick it up later.
+     * @param geofenceDto fence to be stored.
+     * @return Returns the stored fence.
+     */
+    GeofenceDto createOrUpdateGeofence(GeofenceDto geofenceDto);
+
+    /**
+     * @param geofenceId geofenceId to be searched by.
+     * @return Returns the fence, fails when there is none.
+     */
+    GeofenceDto getGeofence(UUID geofenceId);
+
+    /**
+     * @return Returns all registered fences.
+     */
+    List<GeofenceDto> getGeofences();
+
+    /**
+     * Deletes a fence. Users inside of it do not get an EXIT event, recorded events are kept.
+     * @param geofenceId geofenceId of the fence to be deleted.
+     */
+    void deleteGeofence(UUID geofenceId);
+
+    /**
+     * Retrieves recorded transitions filtered by createdOn of the location that caused them.
+     * At least one of userId and geofenceId has to be given.
+     * @param userId userId to be searched by, null for all users.
+     * @param geofenceId geofenceId to be searched by, null for all fences.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @param limit maximum number of events to return, null for the default one.
+     * @return Returns events ordered by createdOn.
+     */
+    GetGeofenceEventsResponseDto getGeofenceEvents(UUID userId, UUID geofenceId, LocalDateTime from,
+                                                   LocalDateTime to, Integer limit);
+
+}
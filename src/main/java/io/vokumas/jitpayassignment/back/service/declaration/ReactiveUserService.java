@@ -0,0 +1,32 @@
+package io.vokumas.jitpayassignment.back.service.declaration;
+
+import io.vokumas.jitpayassignment.back.model.dto.LocationAckDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDtoTimedLocation;
+import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserVersionDto;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of the UserService operations behind the reactive API, see UserService for
+ * the guarantees implementations should give. A missing User is signalled as JITPayUserNotFoundException.
+ */
+public interface ReactiveUserService {
+
+    Mono<UserDto> putUserLocation(PutUserLocationRequestDto userLocationDto);
+
+    Mono<LocationAckDto> putUserLocationAcknowledged(PutUserLocationRequestDto userLocationDto);
+
+    Mono<UserDto> createOrUpdateUser(UserDto userDto);
+
+    Mono<UserSingleLocationDto> getUserLatestLocation(UUID userId, long version);
+
+    Mono<UserVersionDto> getUserVersion(UUID userId);
+
+    Mono<UserDtoTimedLocation> getUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to);
+
+}
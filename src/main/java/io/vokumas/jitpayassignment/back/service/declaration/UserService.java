@@ -1,12 +1,27 @@
 package io.vokumas.jitpayassignment.back.service.declaration;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationSummaryResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserPositionsResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUsersNearLocationResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationAckDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationBatchRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationBatchResponseDto;
 import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserDtoTimedLocation;
+import io.vokumas.jitpayassignment.back.model.dto.UserLatestLocationResultDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserVersionDto;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscriber;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscription;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface UserService {
 
@@ -21,6 +36,25 @@ public interface UserService {
      */
     UserDto putUserLocation(PutUserLocationRequestDto userLocationDto);
 
+    /**
+     * Adds a user location to the User document without returning the User.
+     * Same guarantees as putUserLocation, but implementations should avoid reading the User document back.
+     * Implementations may also only queue the location to be written later and return QUEUED status. In this case
+     * a missing User cannot be reported to the caller.
+     * @param userLocationDto A struct containing userId to be searched by and data to be inserted
+     * @return Should return a small acknowledgement of the added location.
+     */
+    LocationAckDto putUserLocationAcknowledged(PutUserLocationRequestDto userLocationDto);
+
+    /**
+     * Adds many locations of possibly many users at once.
+     * Same as putUserLocation, implementations should guarantee that no User document is created.
+     * A missing user or a failed write of one user must not fail the whole batch.
+     * @param batchDto A struct containing locations to be added, each with its own userId.
+     * @return Should return an outcome for every distinct userId of the batch.
+     */
+    PutUserLocationBatchResponseDto putUserLocations(PutUserLocationBatchRequestDto batchDto);
+
     /**
      * Creates new or updates existing User document in underlying storage.
      * This method does not discern between creation and update operations.
@@ -35,11 +69,74 @@ public interface UserService {
      * Retrieves User document with the latest (by Location.createdOn) Location.
      * Implementations should guarantee that it retrieves a User even when there are no locations added
      * to the User document.
+     * Responses might be served from an in-process cache, see LatestLocationCacheProperties.
      * @param userId userId to be searched by.
+     * @param version User.version just read with getUserVersion. A cached response is served only when it was
+     *                read at this version, otherwise the User is read, possibly at a newer version.
      * @return Returns a specifically crafted DTO that only contains a single field for location
      * and not an array of locations.
      */
-    UserSingleLocationDto getUserLatestLocation(UUID userId);
+    UserSingleLocationDto getUserLatestLocation(UUID userId, long version);
+
+    /**
+     * Retrieves the version of a User's locations without reading the User or any Location.
+     * Implementations should answer it with a single point read, it is meant for conditional requests.
+     * @param userId userId to be searched by.
+     * @return Returns the version counter of the User and createdOn of its latest Location.
+     */
+    UserVersionDto getUserVersion(UUID userId);
+
+    /**
+     * Retrieves latest Locations of many Users at once.
+     * Implementations should resolve all users with a single query and should not fail when some users are missing.
+     * @param userIds userIds to be searched by. Duplicates are reported once.
+     * @return Stream with exactly one entry per distinct userId, missing users marked NOT_FOUND.
+     * It is backed by an open cursor and has to be closed.
+     */
+    Stream<UserLatestLocationResultDto> getUsersLatestLocations(List<UUID> userIds);
+
+    /**
+     * Retrieves Users whose latest Location lies within a radius of a point.
+     * Implementations should answer it from a geospatial index and never scan all Users.
+     * @param latitude latitude of the point, in degrees.
+     * @param longitude longitude of the point, in degrees.
+     * @param radius radius in meters.
+     * @param limit maximum number of Users to return, null for the default one.
+     * @return Returns Users ordered by distance from the point, nearest first.
+     */
+    GetUsersNearLocationResponseDto getUsersNearLocation(double latitude, double longitude, double radius,
+                                                         Integer limit);
+
+    /**
+     * Retrieves positions of the Users nearest to a point.
+     * Served from the in-process LatestPositionIndex when it is enabled, from the database otherwise.
+     * @param latitude latitude of the point, in degrees.
+     * @param longitude longitude of the point, in degrees.
+     * @param radius maximum distance in meters, null for no limit.
+     * @param count maximum number of Users to return, null for the default one.
+     * @return Returns positions ordered by distance from the point, nearest first.
+     */
+    GetUserPositionsResponseDto getNearestUserPositions(double latitude, double longitude, Double radius,
+                                                        Integer count);
+
+    /**
+     * Retrieves positions of Users inside a box bounded by parallels and meridians.
+     * Served from the in-process LatestPositionIndex when it is enabled, from the database otherwise.
+     * @param limit maximum number of Users to return, null for the default one.
+     * @return Returns positions in no particular order.
+     */
+    GetUserPositionsResponseDto getUserPositionsWithin(double minLatitude, double minLongitude,
+                                                       double maxLatitude, double maxLongitude, Integer limit);
+
+    /**
+     * Subscribes to new latest Locations of Users.
+     * Implementations should start with the current latest Location of every subscribed User that has one,
+     * and should not fail when some users are missing, as they might be created later.
+     * @param userIds userIds to be subscribed to.
+     * @param subscriber receives the Locations, see LocationStreamHub for delivery guarantees.
+     * @return Returns an open subscription, it has to be closed.
+     */
+    LocationSubscription subscribeToLatestLocations(List<UUID> userIds, LocationSubscriber subscriber);
 
     /** Retrieves User document with locations field filtered by a date range.
      * Implementations should guarantee that it retrieves a User even when there are no locations added
@@ -51,4 +148,67 @@ public interface UserService {
      */
     UserDtoTimedLocation getUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to);
 
+    /**
+     * Writes the same response as getUserLocationsRange wrapped into GetUserLocationRangeResponseDto, straight into
+     * generator. Implementations should write the locations as they are decoded from the underlying storage, without
+     * creating entities or DTOs for them.
+     * A missing User fails after something might have been written already, so check that the User exists first
+     * where the generator writes straight into a response.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @param generator generator the response object is written to.
+     */
+    void writeUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to, JsonGenerator generator);
+
+    /**
+     * Retrieves User locations filtered by a date range, ordered by createdOn and simplified as a track,
+     * so that points that would not be visible on a map are not sent.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @param tolerance maximum distance in meters of a dropped point from the simplified track, null to skip.
+     * @param maxPoints maximum number of points to return, null for no limit.
+     * @return Returns the simplified locations together with the number of dropped ones.
+     */
+    GetUserLocationRangeResponseDto getUserLocationsRangeSimplified(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                                    Double tolerance, Integer maxPoints);
+
+    /**
+     * Streams User locations filtered by a date range without materializing them.
+     * Implementations should fail for a missing User before the stream is returned, so that the caller can still
+     * respond with an error instead of an empty stream.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @return Stream of locations that is backed by an open cursor and has to be closed.
+     */
+    Stream<LocationTimedDto> streamUserLocationsRange(UUID userId, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Retrieves a single page of User locations filtered by a date range, ordered by createdOn.
+     * Implementations should fetch only the requested page from the underlying storage.
+     * @param userId userId to be searched by.
+     * @param from beginning date in the range query. Starting 'from'.
+     * @param to ending date in the range query. Going 'to'.
+     * @param cursor nextCursor of the previous page, null for the first page.
+     * @param limit page size, null for the default one.
+     * @return Returns the page with nextCursor set when there are more locations in the range.
+     */
+    GetUserLocationRangeResponseDto getUserLocationsRangePage(UUID userId, LocalDateTime from, LocalDateTime to,
+                                                              String cursor, Integer limit);
+
+    /**
+     * Retrieves summaries of User locations per time window: count, bounding box, first and last createdOn and
+     * travelled distance.
+     * Implementations should read only the rollups maintained on write and never the locations themselves.
+     * @param userId userId to be searched by.
+     * @param granularity size of the windows, hour or day.
+     * @param from beginning date in the range query, the window containing it is included.
+     * @param to ending date in the range query, the window containing it is included.
+     * @return Returns a summary for every window of the range that has locations, ordered by window start.
+     */
+    GetUserLocationSummaryResponseDto getUserLocationSummary(UUID userId, String granularity, LocalDateTime from,
+                                                             LocalDateTime to);
+
 }
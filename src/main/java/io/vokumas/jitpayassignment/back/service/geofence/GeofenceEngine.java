@@ -0,0 +1,271 @@
+package io.vokumas.jitpayassignment.back.service.geofence;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceEvent;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceMembership;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceTransition;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceEventRepository;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceMembershipRepository;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceRepository;
+import io.vokumas.jitpayassignment.config.GeofenceProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Evaluates written locations against all registered fences and records ENTER and EXIT transitions.
+ * Fences are held as an immutable GeofenceMatcher that is rebuilt on every change made through this instance
+ * and every refreshInterval, to pick up changes made through other instances.
+ * The fences a user is currently inside of are kept in a bounded cache backed by the geofenceMembership collection,
+ * which is written on every evaluation with a version-conditional update. Evaluations of the same user are
+ * serialized on this instance, an evaluation that lost the update to another instance reloads the membership
+ * and is evaluated again, and its transitions are recorded only once the membership is stored.
+ * Evaluation happens after the location is written and never fails the write, failures are logged and counted.
+ */
+@Slf4j
+@Component
+public class GeofenceEngine implements SmartLifecycle {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final GeofenceRepository geofenceRepository;
+    private final GeofenceEventRepository eventRepository;
+    private final GeofenceMembershipRepository membershipRepository;
+    private final GeofenceProperties properties;
+    private final Cache<UUID, GeofenceMembership> memberships;
+    private final Striped<Lock> userLocks = Striped.lock(1024);
+
+    private final Timer evaluationTimer;
+    private final Counter failedCounter;
+    private final Map<GeofenceTransition, Counter> transitionCounters = new EnumMap<>(GeofenceTransition.class);
+
+    private volatile GeofenceMatcher matcher;
+    private volatile boolean running;
+    private ScheduledExecutorService refresher;
+
+    public GeofenceEngine(GeofenceRepository geofenceRepository,
+                          GeofenceEventRepository eventRepository,
+                          GeofenceMembershipRepository membershipRepository,
+                          GeofenceProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.geofenceRepository = geofenceRepository;
+        this.eventRepository = eventRepository;
+        this.membershipRepository = membershipRepository;
+        this.properties = properties;
+        this.matcher = GeofenceMatcher.of(List.of(), properties.getCellSize());
+        this.memberships = CacheBuilder.newBuilder()
+                .maximumSize(properties.getMembershipCacheSize())
+                .build();
+
+        Gauge.builder("jitpay.geofence.fences", this, engine -> engine.matcher.size())
+                .description("Fences locations are evaluated against")
+                .register(meterRegistry);
+        this.evaluationTimer = Timer.builder("jitpay.geofence.evaluation.latency")
+                .description("Time to evaluate the locations of a single write of a user")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("jitpay.geofence.evaluation.failed")
+                .description("Evaluations that failed, their transitions are lost")
+                .register(meterRegistry);
+        for (GeofenceTransition transition : GeofenceTransition.values()) {
+            transitionCounters.put(transition, Counter.builder("jitpay.geofence.transitions")
+                    .description("Recorded fence transitions")
+                    .tag("transition", transition.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Evaluates written locations of a single user, in createdOn order. Locations older than the newest one
+     * evaluated so far are skipped.
+     */
+    public void evaluate(UUID userId, List<Location> locations) {
+        val current = matcher;
+        if (!isEnabled() || current.isEmpty() || locations.isEmpty()) {
+            return;
+        }
+
+        List<Location> ordered = new ArrayList<>(locations);
+        ordered.sort(Comparator.comparing(Location::getCreatedOn));
+
+        val lock = userLocks.get(userId);
+        lock.lock();
+        try {
+            evaluationTimer.record(() -> evaluateLocked(current, userId, ordered));
+        } catch (Exception e) {
+            failedCounter.increment();
+            log.error("Geofence evaluation failed. UserId: {}", userId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the matcher from all stored fences.
+     */
+    public void reload() {
+        val fences = geofenceRepository.findAll();
+        matcher = GeofenceMatcher.of(fences, properties.getCellSize());
+        log.debug("Geofences reloaded. Fences: {}", fences.size());
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled() || running) {
+            return;
+        }
+
+        reload();
+        running = true;
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "geofence-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val interval = properties.getRefreshInterval().toMillis();
+        refresher.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Geofence engine started. Fences: {}", matcher.size());
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Fences are loaded before the web server starts accepting requests.
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private void evaluateLocked(GeofenceMatcher current, UUID userId, List<Location> ordered) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                evaluateMembership(current, userId, ordered);
+                return;
+            } catch (OptimisticLockingFailureException | DuplicateKeyException e) {
+                // evaluated on another instance in the meantime
+                memberships.invalidate(userId);
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void evaluateMembership(GeofenceMatcher current, UUID userId, List<Location> ordered) {
+        val membership = loadMembership(userId);
+        LocalDateTime evaluatedUntil = membership.getCreatedOn();
+        // fences deleted in the meantime are dropped without an EXIT
+        Set<UUID> inside = new HashSet<>(membership.getGeofenceIds());
+        inside.removeIf(geofenceId -> !current.contains(geofenceId));
+
+        List<GeofenceEvent> events = new ArrayList<>();
+        boolean evaluated = false;
+        for (Location location : ordered) {
+            if (evaluatedUntil != null && location.getCreatedOn().isBefore(evaluatedUntil)) {
+                continue;
+            }
+
+            val now = current.containing(location.getLatitude(), location.getLongitude());
+            for (UUID geofenceId : now) {
+                if (!inside.contains(geofenceId)) {
+                    events.add(event(userId, geofenceId, GeofenceTransition.ENTER, location));
+                }
+            }
+            for (UUID geofenceId : inside) {
+                if (!now.contains(geofenceId)) {
+                    events.add(event(userId, geofenceId, GeofenceTransition.EXIT, location));
+                }
+            }
+            inside = now;
+            evaluatedUntil = location.getCreatedOn();
+            evaluated = true;
+        }
+
+        if (!evaluated) {
+            memberships.put(userId, membership);
+            return;
+        }
+
+        // fails when the membership was stored by another instance since it was read
+        val updated = new GeofenceMembership(userId, evaluatedUntil, inside, membership.getVersion());
+        membershipRepository.save(updated);
+        memberships.put(userId, updated);
+        if (!events.isEmpty()) {
+            eventRepository.insert(events);
+            events.forEach(event -> transitionCounters.get(event.getTransition()).increment());
+        }
+    }
+
+    private GeofenceMembership loadMembership(UUID userId) {
+        val cached = memberships.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        return membershipRepository.findById(userId)
+                .orElseGet(() -> new GeofenceMembership(userId, null, Set.of(), null));
+    }
+
+    private void refresh() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("Geofence refresh failed, keeping the previous fences", e);
+        }
+    }
+
+    private static GeofenceEvent event(UUID userId, UUID geofenceId, GeofenceTransition transition,
+                                       Location location) {
+        val event = new GeofenceEvent();
+        event.setUserId(userId);
+        event.setGeofenceId(geofenceId);
+        event.setTransition(transition);
+        event.setCreatedOn(location.getCreatedOn());
+        event.setLatitude(location.getLatitude());
+        event.setLongitude(location.getLongitude());
+
+        return event;
+    }
+
+}
@@ -0,0 +1,229 @@
+package io.vokumas.jitpayassignment.back.service.geofence;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Geofence;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofencePoint;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceType;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Immutable snapshot of all fences compiled for point lookups.
+ * Fence shapes are flattened into primitive arrays and a uniform grid maps every cell to the fences whose bounding box
+ * touches it, so a point is only tested against the few fences of its own cell. Fences that would span more than
+ * MAX_CELLS_PER_FENCE cells are tested for every point instead.
+ * Polygons are tested in plain latitude and longitude and cannot cross the antimeridian, circles use great circle
+ * distance.
+ */
+public final class GeofenceMatcher {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_METERS;
+    private static final int MAX_CELLS_PER_FENCE = 10_000;
+    private static final int[] NO_FENCES = new int[0];
+
+    private final double cellSize;
+    private final int rows;
+    private final int columns;
+
+    private final UUID[] ids;
+    private final Map<UUID, Integer> indexes;
+    private final double[] minLatitudes;
+    private final double[] maxLatitudes;
+    private final double[] minLongitudes;
+    private final double[] maxLongitudes;
+    // polygon vertices, null for circles
+    private final double[][] vertexLatitudes;
+    private final double[][] vertexLongitudes;
+    private final double[] radiuses;
+    private final Map<Long, int[]> cells;
+    private final int[] oversized;
+
+    private GeofenceMatcher(List<Geofence> fences, double cellSize) {
+        this.cellSize = cellSize;
+        this.rows = (int) Math.ceil(180 / cellSize);
+        this.columns = (int) Math.ceil(360 / cellSize);
+
+        val count = fences.size();
+        ids = new UUID[count];
+        indexes = new HashMap<>(count * 2);
+        minLatitudes = new double[count];
+        maxLatitudes = new double[count];
+        minLongitudes = new double[count];
+        maxLongitudes = new double[count];
+        vertexLatitudes = new double[count][];
+        vertexLongitudes = new double[count][];
+        radiuses = new double[count];
+
+        Map<Long, List<Integer>> fencesByCell = new HashMap<>();
+        List<Integer> oversizedFences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            compile(i, fences.get(i));
+
+            val firstRow = row(minLatitudes[i]);
+            val lastRow = row(maxLatitudes[i]);
+            val firstColumn = (int) Math.floor((minLongitudes[i] + 180) / cellSize);
+            val lastColumn = (int) Math.floor((maxLongitudes[i] + 180) / cellSize);
+            val spannedColumns = Math.min(columns, lastColumn - firstColumn + 1);
+            if ((long) (lastRow - firstRow + 1) * spannedColumns > MAX_CELLS_PER_FENCE) {
+                oversizedFences.add(i);
+                continue;
+            }
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column < firstColumn + spannedColumns; column++) {
+                    fencesByCell.computeIfAbsent(cellKey(row, Math.floorMod(column, columns)),
+                            key -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        cells = new HashMap<>(fencesByCell.size() * 2);
+        fencesByCell.forEach((key, cellFences) ->
+                cells.put(key, cellFences.stream().mapToInt(Integer::intValue).toArray()));
+        oversized = oversizedFences.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static GeofenceMatcher of(Collection<Geofence> fences, double cellSize) {
+        return new GeofenceMatcher(List.copyOf(fences), cellSize);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public boolean contains(UUID geofenceId) {
+        return indexes.containsKey(geofenceId);
+    }
+
+    /**
+     * @return ids of all fences the point lies inside of.
+     */
+    public Set<UUID> containing(double latitude, double longitude) {
+        Set<UUID> result = new HashSet<>();
+        val cellFences = cells.getOrDefault(cellKey(row(latitude),
+                Math.floorMod((int) Math.floor((longitude + 180) / cellSize), columns)), NO_FENCES);
+        for (int fence : cellFences) {
+            if (isInside(fence, latitude, longitude)) {
+                result.add(ids[fence]);
+            }
+        }
+        for (int fence : oversized) {
+            if (isInside(fence, latitude, longitude)) {
+                result.add(ids[fence]);
+            }
+        }
+
+        return result;
+    }
+
+    private void compile(int index, Geofence fence) {
+        ids[index] = fence.getGeofenceId();
+        indexes.put(fence.getGeofenceId(), index);
+
+        if (fence.getType() == GeofenceType.CIRCLE) {
+            val center = fence.getCenter();
+            val latitudeDelta = fence.getRadius() / METERS_PER_DEGREE;
+            val farthestLatitude = Math.min(90, Math.abs(center.getLatitude()) + latitudeDelta);
+            val cosLatitude = Math.cos(Math.toRadians(farthestLatitude));
+            val longitudeDelta = cosLatitude <= 0 ? 180 : Math.min(180, latitudeDelta / cosLatitude);
+
+            radiuses[index] = fence.getRadius();
+            vertexLatitudes[index] = new double[]{center.getLatitude()};
+            vertexLongitudes[index] = new double[]{center.getLongitude()};
+            minLatitudes[index] = Math.max(-90, center.getLatitude() - latitudeDelta);
+            maxLatitudes[index] = Math.min(90, center.getLatitude() + latitudeDelta);
+            minLongitudes[index] = center.getLongitude() - longitudeDelta;
+            maxLongitudes[index] = center.getLongitude() + longitudeDelta;
+            return;
+        }
+
+        val vertices = fence.getVertices();
+        val latitudes = new double[vertices.size()];
+        val longitudes = new double[vertices.size()];
+        for (int i = 0; i < vertices.size(); i++) {
+            GeofencePoint vertex = vertices.get(i);
+            latitudes[i] = vertex.getLatitude();
+            longitudes[i] = vertex.getLongitude();
+        }
+
+        radiuses[index] = -1;
+        vertexLatitudes[index] = latitudes;
+        vertexLongitudes[index] = longitudes;
+        minLatitudes[index] = min(latitudes);
+        maxLatitudes[index] = max(latitudes);
+        minLongitudes[index] = min(longitudes);
+        maxLongitudes[index] = max(longitudes);
+    }
+
+    private boolean isInside(int fence, double latitude, double longitude) {
+        if (radiuses[fence] >= 0) {
+            return distance(vertexLatitudes[fence][0], vertexLongitudes[fence][0], latitude, longitude)
+                    <= radiuses[fence];
+        }
+
+        if (latitude < minLatitudes[fence] || latitude > maxLatitudes[fence]
+                || longitude < minLongitudes[fence] || longitude > maxLongitudes[fence]) {
+            return false;
+        }
+
+        // ray casting, longitude as x and latitude as y
+        val latitudes = vertexLatitudes[fence];
+        val longitudes = vertexLongitudes[fence];
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i])
+                    / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+
+        return inside;
+    }
+
+    private int row(double latitude) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((latitude + 90) / cellSize)));
+    }
+
+    private long cellKey(int row, int column) {
+        return (long) row * columns + column;
+    }
+
+    private static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        val latitudeDelta = Math.toRadians(latitude2 - latitude1);
+        val longitudeDelta = Math.toRadians(longitude2 - longitude1);
+        val a = Math.pow(Math.sin(latitudeDelta / 2), 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.pow(Math.sin(longitudeDelta / 2), 2);
+
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static double min(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+}
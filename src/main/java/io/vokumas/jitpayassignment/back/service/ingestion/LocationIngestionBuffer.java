@@ -0,0 +1,302 @@
+package io.vokumas.jitpayassignment.back.service.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.back.service.cache.LatestLocationCache;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceEngine;
+import io.vokumas.jitpayassignment.back.service.spatial.LatestPositionIndex;
+import io.vokumas.jitpayassignment.config.LocationIngestionProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process write-behind stage for location writes.
+ * Locations are put into a bounded queue and a single flusher thread writes them in batches (group commit),
+ * so a burst of pings of one user ends up in one $push $each instead of one round trip per ping.
+ * Batches go through LocationWriteLanes when they are enabled, so they are serialized with the other writes
+ * of every user.
+ * A full queue rejects writes after a short wait, which is the backpressure signal for clients.
+ * Locations whose write fails are retried up to flushAttempts times with a growing backoff before they are dropped,
+ * the queue fills up meanwhile and pushes back on clients.
+ * The queue is flushed on graceful shutdown before Mongo client is closed.
+ */
+@Slf4j
+@Component
+public class LocationIngestionBuffer implements SmartLifecycle {
+
+    private static final long STOP_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final UserRepository mongoRepository;
+    private final LocationWriteLanes writeLanes;
+    private final LatestLocationCache latestLocationCache;
+    private final LatestPositionIndex positionIndex;
+    private final GeofenceEngine geofenceEngine;
+    private final LocationIngestionProperties properties;
+    private final BlockingQueue<PendingLocation> queue;
+
+    private final Timer flushTimer;
+    private final Counter rejectedCounter;
+    private final Map<LocationWriteStatus, Counter> flushedCounters = new EnumMap<>(LocationWriteStatus.class);
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public LocationIngestionBuffer(UserRepository mongoRepository,
+                                   LocationWriteLanes writeLanes,
+                                   LatestLocationCache latestLocationCache,
+                                   LatestPositionIndex positionIndex,
+                                   GeofenceEngine geofenceEngine,
+                                   LocationIngestionProperties properties,
+                                   MeterRegistry meterRegistry) {
+        this.mongoRepository = mongoRepository;
+        this.writeLanes = writeLanes;
+        this.latestLocationCache = latestLocationCache;
+        this.positionIndex = positionIndex;
+        this.geofenceEngine = geofenceEngine;
+        this.properties = properties;
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+
+        Gauge.builder("jitpay.ingestion.queue.depth", queue, BlockingQueue::size)
+                .description("Locations waiting to be flushed")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("jitpay.ingestion.flush.latency")
+                .description("Time to write a single batch of queued locations")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("jitpay.ingestion.rejected")
+                .description("Locations rejected because the queue was full")
+                .register(meterRegistry);
+        for (LocationWriteStatus status : LocationWriteStatus.values()) {
+            flushedCounters.put(status, Counter.builder("jitpay.ingestion.flushed")
+                    .description("Flushed locations by write outcome")
+                    .tag("status", status.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Queues a location to be written later.
+     * @throws JITPayIngestionOverloadedException when the queue stays full for offerTimeout or the buffer is stopped.
+     */
+    public void offer(UUID userId, Location location) {
+        val retryAfter = properties.getFlushInterval().multipliedBy(2);
+        if (!running) {
+            throw new JITPayIngestionOverloadedException("Location ingestion is not running", retryAfter);
+        }
+
+        boolean queued;
+        try {
+            queued = queue.offer(new PendingLocation(userId, location),
+                    properties.getOfferTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+
+        if (!queued) {
+            rejectedCounter.increment();
+            throw new JITPayIngestionOverloadedException("Location ingestion queue is full", retryAfter);
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled() || running) {
+            return;
+        }
+
+        running = true;
+        flusher = new Thread(this::runFlushLoop, "location-ingestion-flusher");
+        flusher.start();
+        log.info("Location ingestion buffer started. Capacity: {}, flush interval: {}",
+                properties.getQueueCapacity(), properties.getFlushInterval());
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        try {
+            flusher.join(properties.getShutdownTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            // the flusher keeps draining the queue until it is empty, a second writer would race with it
+            log.warn("Location ingestion flusher did not finish within {}, {} queued locations are left to it",
+                    properties.getShutdownTimeout(), queue.size());
+            return;
+        }
+
+        // picks up whatever was queued between the last flush and the moment offers were closed
+        List<PendingLocation> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+        log.info("Location ingestion buffer stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops after the web server stopped accepting requests, but before LocationWriteLanes and Mongo client.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 2048;
+    }
+
+    private void runFlushLoop() {
+        val maxBatchSize = properties.getMaxBatchSize();
+        val flushIntervalNanos = properties.getFlushInterval().toNanos();
+        List<PendingLocation> batch = new ArrayList<>(maxBatchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                val first = queue.poll(STOP_CHECK_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                val deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    val remainingNanos = deadline - System.nanoTime();
+                    if (!running || batch.size() >= maxBatchSize || remainingNanos <= 0) {
+                        break;
+                    }
+                    // short polls so that a stop does not wait for the whole flush interval
+                    val next = queue.poll(Math.min(remainingNanos, STOP_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Location ingestion flusher interrupted, flushing what is queued");
+                queue.drainTo(batch);
+                flush(batch);
+                return;
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingLocation> batch) {
+        Map<UUID, List<Location>> locationsByUser = new LinkedHashMap<>();
+        for (PendingLocation pending : batch) {
+            locationsByUser.computeIfAbsent(pending.userId(), userId -> new ArrayList<>())
+                    .add(pending.location());
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            locationsByUser = write(locationsByUser);
+            if (locationsByUser.isEmpty()) {
+                return;
+            }
+
+            val failed = locationsByUser.values().stream().mapToInt(List::size).sum();
+            if (attempt >= properties.getFlushAttempts()) {
+                flushedCounters.get(LocationWriteStatus.FAILED).increment(failed);
+                log.error("Dropped {} queued locations after {} failed attempts. UserIds: {}", failed, attempt,
+                        locationsByUser.keySet());
+                return;
+            }
+
+            log.warn("Failed to flush {} queued locations, retrying. Attempt: {}", failed, attempt);
+            backOff(properties.getFlushRetryBackoff().multipliedBy(1L << (attempt - 1)));
+        }
+    }
+
+    /**
+     * @return locations that were not written because of a failure, to be retried.
+     */
+    private Map<UUID, List<Location>> write(Map<UUID, List<Location>> locationsByUser) {
+        Map<UUID, LocationWriteStatus> statuses;
+        try {
+            statuses = flushTimer.recordCallable(() -> writeLanes.isEnabled()
+                    ? writeLanes.addLocations(locationsByUser)
+                    : mongoRepository.addLocations(locationsByUser));
+        } catch (Exception e) {
+            log.warn("Failed to write queued locations of {} users", locationsByUser.size(), e);
+            return locationsByUser;
+        }
+
+        Map<UUID, List<Location>> failed = new LinkedHashMap<>();
+        statuses.forEach((userId, status) -> {
+            val locations = locationsByUser.get(userId);
+            // RATE_LIMITED comes from write lanes that got no in-flight permit, nothing was sent
+            if (status == LocationWriteStatus.FAILED || status == LocationWriteStatus.RATE_LIMITED) {
+                failed.put(userId, locations);
+                return;
+            }
+
+            flushedCounters.get(status).increment(locations.size());
+            if (status != LocationWriteStatus.APPLIED) {
+                // UNKNOWN is not retried either, the locations might have been stored
+                log.warn("Queued locations were not applied. UserId: {}, status: {}", userId, status);
+                return;
+            }
+            try {
+                // the version after the write is not read back
+                latestLocationCache.invalidate(userId);
+                locations.stream()
+                        .max(Comparator.comparing(Location::getCreatedOn))
+                        .ifPresent(location -> positionIndex.update(userId, location));
+                geofenceEngine.evaluate(userId, locations);
+            } catch (RuntimeException e) {
+                log.error("Failed to process flushed locations. UserId: {}", userId, e);
+            }
+        });
+
+        return failed;
+    }
+
+    private static void backOff(Duration backoff) {
+        try {
+            Thread.sleep(backoff.toMillis());
+        } catch (InterruptedException e) {
+            // retried right away, the interrupt is kept for the flush loop
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record PendingLocation(UUID userId, Location location) {
+    }
+
+}
@@ -0,0 +1,447 @@
+package io.vokumas.jitpayassignment.back.service.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vokumas.jitpayassignment.back.exception.JITPayException;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayWriteOutcomeUnknownException;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.back.service.admission.LocationAdmissionControl;
+import io.vokumas.jitpayassignment.config.LocationWriteLaneProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Striped executor in front of location writes that are answered after they are stored.
+ * Every user is hashed to a fixed lane and every lane has a single writer thread, so writes of one user are
+ * serialized and never contend on the User document, while users of different lanes are written in parallel.
+ * A lane takes everything that queued up while it was writing: pushes are coalesced into a single bulk write
+ * with one $push $each per user, writes that have to return the User are run one by one in between, in order.
+ * Nothing waits for a batch to fill up, so a write to an idle lane is sent right away.
+ * Every write a lane sends takes an in-flight permit of LocationAdmissionControl for as long as it is sent,
+ * writes it could not get one for are failed with JITPayRateLimitedException without being sent.
+ * A full lane rejects writes after a short wait, same as LocationIngestionBuffer, and a caller never waits
+ * for its write longer than writeTimeout. A write its lane has not taken by then is withdrawn and answered as
+ * overloaded, a write that is already being sent is answered as of unknown outcome, as retrying it might store
+ * its locations twice.
+ * Lanes are drained on graceful shutdown before Mongo client is closed, writes still queued after that are failed.
+ */
+@Slf4j
+@Component
+public class LocationWriteLanes implements SmartLifecycle {
+
+    private static final long STOP_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final UserRepository mongoRepository;
+    private final LocationAdmissionControl admissionControl;
+    private final LocationWriteLaneProperties properties;
+    private final List<Lane> lanes;
+
+    private final Timer waitTimer;
+    private final Timer batchTimer;
+    private final DistributionSummary batchSize;
+    private final Counter rejectedCounter;
+
+    private volatile boolean running;
+
+    public LocationWriteLanes(UserRepository mongoRepository,
+                              LocationAdmissionControl admissionControl,
+                              LocationWriteLaneProperties properties,
+                              MeterRegistry meterRegistry) {
+        this.mongoRepository = mongoRepository;
+        this.admissionControl = admissionControl;
+        this.properties = properties;
+        this.lanes = new ArrayList<>(properties.getLaneCount());
+        for (int i = 0; i < properties.getLaneCount(); i++) {
+            val lane = new Lane(i, new ArrayBlockingQueue<>(properties.getQueueCapacity()));
+            lanes.add(lane);
+            Gauge.builder("jitpay.lanes.queue.depth", lane.queue, BlockingQueue::size)
+                    .description("Writes waiting in a lane")
+                    .tag("lane", String.valueOf(i))
+                    .register(meterRegistry);
+            FunctionCounter.builder("jitpay.lanes.busy", lane.busyNanos,
+                            busy -> busy.get() / (double) TimeUnit.SECONDS.toNanos(1))
+                    .description("Time a lane spent writing, its rate is the utilization of the lane")
+                    .baseUnit("seconds")
+                    .tag("lane", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+
+        this.waitTimer = Timer.builder("jitpay.lanes.wait")
+                .description("Time a write waited in its lane before it was sent")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("jitpay.lanes.batch.latency")
+                .description("Time to write a single batch of coalesced pushes")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("jitpay.lanes.batch.size")
+                .description("Locations of pushes coalesced into a single bulk write")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("jitpay.lanes.rejected")
+                .description("Writes rejected because their lane was full")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Same as UserRepository.pushLocation, but serialized with the other writes of the user and possibly coalesced
+     * with them. Blocks until the location is written.
+     * @throws JITPayIngestionOverloadedException when the lane stays full for offerTimeout, the write is not started
+     * within writeTimeout or lanes are stopped.
+     * @throws JITPayRateLimitedException when all in-flight permits are taken once the lane sends the write.
+     * @throws JITPayWriteOutcomeUnknownException when the write has been started, but is not done within writeTimeout.
+     */
+    public LocationWriteStatus pushLocation(UUID userId, Location location) {
+        val write = PendingWrite.push(userId, List.of(location));
+        enqueue(write);
+
+        return await(write, write.pushed());
+    }
+
+    /**
+     * Same as UserRepository.addLocations, but the locations of every user go through the lane of the user,
+     * serialized with the other writes of the user and possibly coalesced with them.
+     * Blocks until all of them are written or writeTimeout passes.
+     * @return status for every userId of the request, in the order of the request. Users whose lane was full or
+     * whose write failed or was withdrawn are FAILED, users whose lane got no in-flight permit are RATE_LIMITED,
+     * users whose write was sent but not confirmed in time are UNKNOWN.
+     * @throws JITPayIngestionOverloadedException when lanes are stopped.
+     */
+    public Map<UUID, LocationWriteStatus> addLocations(Map<UUID, List<Location>> locationsByUser) {
+        if (!running) {
+            throw new JITPayIngestionOverloadedException("Location write lanes are not running", RETRY_AFTER);
+        }
+
+        Map<UUID, PendingWrite> writes = new LinkedHashMap<>();
+        locationsByUser.forEach((userId, locations) -> {
+            val write = PendingWrite.push(userId, locations);
+            try {
+                enqueue(write);
+                writes.put(userId, write);
+            } catch (JITPayIngestionOverloadedException e) {
+                // reported as FAILED below, the other users are still written
+            }
+        });
+
+        val deadline = System.nanoTime() + properties.getWriteTimeout().toNanos();
+        Map<UUID, LocationWriteStatus> statuses = new LinkedHashMap<>();
+        locationsByUser.keySet().forEach(userId -> {
+            val write = writes.get(userId);
+            statuses.put(userId, write == null ? LocationWriteStatus.FAILED : awaitStatus(write, deadline));
+        });
+
+        return statuses;
+    }
+
+    /**
+     * Same as UserRepository.addLocation, but serialized with the other writes of the user.
+     * Blocks until the location is written.
+     * @throws JITPayIngestionOverloadedException when the lane stays full for offerTimeout, the write is not started
+     * within writeTimeout or lanes are stopped.
+     * @throws JITPayRateLimitedException when all in-flight permits are taken once the lane sends the write.
+     * @throws JITPayWriteOutcomeUnknownException when the write has been started, but is not done within writeTimeout.
+     */
+    public Optional<User> addLocation(UUID userId, Location location) {
+        val write = PendingWrite.add(userId, location);
+        enqueue(write);
+
+        return await(write, write.added());
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled() || running) {
+            return;
+        }
+
+        running = true;
+        for (Lane lane : lanes) {
+            lane.thread = new Thread(lane, "location-write-lane-" + lane.index);
+            lane.thread.start();
+        }
+        log.info("Location write lanes started. Lanes: {}, capacity per lane: {}",
+                lanes.size(), properties.getQueueCapacity());
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        val deadline = System.nanoTime() + properties.getShutdownTimeout().toNanos();
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // picks up whatever was queued after its lane had stopped or while it was still writing at the deadline
+        int failed = 0;
+        for (Lane lane : lanes) {
+            List<PendingWrite> remaining = new ArrayList<>();
+            lane.queue.drainTo(remaining);
+            for (PendingWrite write : remaining) {
+                // writes withdrawn by their callers have been answered already
+                if (write.withdraw()) {
+                    write.fail(new JITPayIngestionOverloadedException("Location write lanes stopped", RETRY_AFTER));
+                    failed++;
+                }
+            }
+        }
+        if (failed > 0) {
+            log.warn("Location write lanes stopped, failed {} writes left in lanes", failed);
+        } else {
+            log.info("Location write lanes stopped");
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops after LocationIngestionBuffer, which writes through the lanes, but before Mongo client is closed.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 3072;
+    }
+
+    private Lane laneOf(UUID userId) {
+        return lanes.get(Math.floorMod(userId.hashCode(), lanes.size()));
+    }
+
+    private void enqueue(PendingWrite write) {
+        if (!running) {
+            throw new JITPayIngestionOverloadedException("Location write lanes are not running", RETRY_AFTER);
+        }
+
+        boolean queued;
+        try {
+            queued = laneOf(write.userId()).queue.offer(write,
+                    properties.getOfferTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+
+        if (!queued) {
+            rejectedCounter.increment();
+            throw new JITPayIngestionOverloadedException("Location write lane is full", RETRY_AFTER);
+        }
+    }
+
+    private <T> T await(PendingWrite write, CompletableFuture<T> result) {
+        try {
+            return result.get(properties.getWriteTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw notDoneInTime(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw notDoneInTime(write);
+        }
+    }
+
+    private LocationWriteStatus awaitStatus(PendingWrite write, long deadline) {
+        try {
+            return write.pushed().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof JITPayRateLimitedException
+                    ? LocationWriteStatus.RATE_LIMITED
+                    : LocationWriteStatus.FAILED;
+        } catch (TimeoutException e) {
+            return write.withdraw() ? LocationWriteStatus.FAILED : LocationWriteStatus.UNKNOWN;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return write.withdraw() ? LocationWriteStatus.FAILED : LocationWriteStatus.UNKNOWN;
+        }
+    }
+
+    private static JITPayException notDoneInTime(PendingWrite write) {
+        if (write.withdraw()) {
+            return new JITPayIngestionOverloadedException("Location write was not started in time", RETRY_AFTER);
+        }
+
+        return new JITPayWriteOutcomeUnknownException("Location write was not confirmed in time");
+    }
+
+    private void write(List<PendingWrite> batch) {
+        val started = System.nanoTime();
+        Map<UUID, List<PendingWrite>> pushes = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            if (!write.start()) {
+                // withdrawn by a caller that stopped waiting for it
+                continue;
+            }
+            waitTimer.record(started - write.queuedAt(), TimeUnit.NANOSECONDS);
+            if (write.pushed() != null) {
+                pushes.computeIfAbsent(write.userId(), userId -> new ArrayList<>()).add(write);
+                continue;
+            }
+
+            // earlier pushes of the user have to be stored first
+            flushPushes(pushes);
+            try (val permit = admissionControl.acquireWrite()) {
+                write.added().complete(mongoRepository.addLocation(write.userId(), write.locations().get(0)));
+            } catch (Exception e) {
+                write.added().completeExceptionally(e);
+            }
+        }
+        flushPushes(pushes);
+    }
+
+    private void flushPushes(Map<UUID, List<PendingWrite>> pushes) {
+        if (pushes.isEmpty()) {
+            return;
+        }
+
+        Map<UUID, List<Location>> locationsByUser = new LinkedHashMap<>();
+        pushes.forEach((userId, writes) ->
+                locationsByUser.put(userId, writes.stream().flatMap(write -> write.locations().stream()).toList()));
+        batchSize.record(locationsByUser.values().stream().mapToInt(List::size).sum());
+
+        try (val permit = admissionControl.acquireWrite()) {
+            Map<UUID, LocationWriteStatus> statuses =
+                    batchTimer.recordCallable(() -> mongoRepository.addLocations(locationsByUser));
+            pushes.forEach((userId, writes) -> {
+                val status = statuses.get(userId);
+                writes.forEach(write -> {
+                    if (status == LocationWriteStatus.FAILED) {
+                        write.pushed().completeExceptionally(
+                                new IllegalStateException("Location write failed. UserId: " + userId));
+                    } else {
+                        write.pushed().complete(status);
+                    }
+                });
+            });
+        } catch (JITPayRateLimitedException e) {
+            // not sent, so retrying it is safe
+            pushes.values().forEach(writes -> writes.forEach(write -> write.pushed().completeExceptionally(e)));
+        } catch (Exception e) {
+            log.error("Failed to write {} locations of lane batch", locationsByUser.size(), e);
+            pushes.values().forEach(writes -> writes.forEach(write -> write.pushed().completeExceptionally(e)));
+        }
+        pushes.clear();
+    }
+
+    /**
+     * Exactly one of pushed and added is set, depending on what the caller waits for, added writes hold
+     * a single Location. claimed is taken either by the lane when it starts the write or by the caller when it
+     * withdraws the write, never by both.
+     */
+    private record PendingWrite(UUID userId, List<Location> locations, CompletableFuture<LocationWriteStatus> pushed,
+                                CompletableFuture<Optional<User>> added, long queuedAt, AtomicBoolean claimed) {
+
+        static PendingWrite push(UUID userId, List<Location> locations) {
+            return new PendingWrite(userId, locations, new CompletableFuture<>(), null, System.nanoTime(),
+                    new AtomicBoolean());
+        }
+
+        static PendingWrite add(UUID userId, Location location) {
+            return new PendingWrite(userId, List.of(location), null, new CompletableFuture<>(), System.nanoTime(),
+                    new AtomicBoolean());
+        }
+
+        boolean start() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        boolean withdraw() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void fail(Exception e) {
+            if (pushed != null) {
+                pushed.completeExceptionally(e);
+            } else {
+                added.completeExceptionally(e);
+            }
+        }
+
+    }
+
+    private final class Lane implements Runnable {
+
+        private final int index;
+        private final BlockingQueue<PendingWrite> queue;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private Thread thread;
+
+        private Lane(int index, BlockingQueue<PendingWrite> queue) {
+            this.index = index;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            val maxBatchSize = properties.getMaxBatchSize();
+            List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+
+            while (running || !queue.isEmpty()) {
+                try {
+                    val first = queue.poll(STOP_CHECK_NANOS, TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("Location write lane {} interrupted, writing what is queued", index);
+                    queue.drainTo(batch);
+                    write(batch);
+                    return;
+                }
+                queue.drainTo(batch, maxBatchSize - batch.size());
+
+                val started = System.nanoTime();
+                try {
+                    write(batch);
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - started);
+                    batch.clear();
+                }
+            }
+        }
+
+    }
+
+}
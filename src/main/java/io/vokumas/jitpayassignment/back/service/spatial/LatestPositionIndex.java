@@ -0,0 +1,411 @@
+package io.vokumas.jitpayassignment.back.service.spatial;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.config.SpatialIndexProperties;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-process uniform grid over the latest position of every user, answering nearest and bounding box queries
+ * without a database round trip.
+ * Latitude and longitude are split into square cells of cellSize degrees. Coordinates are kept in primitive arrays
+ * indexed by a per user slot and every non empty cell holds the slots of the positions inside it.
+ * Nearest queries visit cells in rings around the point and stop as soon as no unvisited cell can hold a position
+ * closer than the ones already found. Once the rings have probed more cells than are occupied, mostly empty ones,
+ * the query visits every occupied cell instead.
+ * A position is only ever replaced by a newer one, so the warm-up scan and regular writes can arrive in any order.
+ * Slots are never released, as users are never deleted.
+ */
+@Component
+public class LatestPositionIndex {
+
+    public static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    public static final double MAX_DISTANCE_METERS = Math.PI * EARTH_RADIUS_METERS;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_METERS;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final SpatialIndexProperties properties;
+    private final double cellSize;
+    private final int rows;
+    private final int columns;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<UUID, Integer> slots = new HashMap<>();
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private UUID[] userIds = new UUID[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private LocalDateTime[] createdOn = new LocalDateTime[INITIAL_CAPACITY];
+    private long[] cellKeys = new long[INITIAL_CAPACITY];
+    // position of a slot inside Cell.slots of its cell
+    private int[] cellPositions = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private final Counter appliedUpdates;
+    private final Counter staleUpdates;
+    private final Counter fullScans;
+
+    public LatestPositionIndex(SpatialIndexProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.cellSize = properties.getCellSize();
+        this.rows = (int) Math.ceil(180 / cellSize);
+        this.columns = (int) Math.ceil(360 / cellSize);
+
+        Gauge.builder("jitpay.spatial.index.size", this, LatestPositionIndex::size)
+                .description("Users with a position in the index")
+                .register(meterRegistry);
+        Gauge.builder("jitpay.spatial.index.cells", this, LatestPositionIndex::occupiedCells)
+                .description("Non empty grid cells")
+                .register(meterRegistry);
+        this.appliedUpdates = Counter.builder("jitpay.spatial.index.updates")
+                .description("Position updates by outcome")
+                .tag("result", "applied")
+                .register(meterRegistry);
+        this.staleUpdates = Counter.builder("jitpay.spatial.index.updates")
+                .description("Position updates by outcome")
+                .tag("result", "stale")
+                .register(meterRegistry);
+        this.fullScans = Counter.builder("jitpay.spatial.index.full.scans")
+                .description("Nearest queries that gave up walking rings and visited every occupied cell")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Sets the position of a user unless a newer one is already indexed.
+     */
+    public void update(UUID userId, Location location) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        val cellKey = cellKey(row(location.getLatitude()), column(location.getLongitude()));
+        lock.writeLock().lock();
+        try {
+            val existing = slots.get(userId);
+            int slot;
+            if (existing == null) {
+                slot = allocate(userId);
+            } else {
+                slot = existing;
+                if (location.getCreatedOn().isBefore(createdOn[slot])) {
+                    staleUpdates.increment();
+                    return;
+                }
+                if (cellKeys[slot] != cellKey) {
+                    removeFromCell(slot);
+                }
+            }
+            if (existing == null || cellKeys[slot] != cellKey) {
+                addToCell(slot, cellKey);
+            }
+
+            latitudes[slot] = location.getLatitude();
+            longitudes[slot] = location.getLongitude();
+            createdOn[slot] = location.getCreatedOn();
+            appliedUpdates.increment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param radiusMeters maximum distance from the point, MAX_DISTANCE_METERS for no limit.
+     * @return at most count positions within radiusMeters of the point, nearest first.
+     */
+    public List<Position> nearest(double latitude, double longitude, int count, double radiusMeters) {
+        // farthest of the candidates on top, so that it is the one replaced by a closer position
+        PriorityQueue<Position> nearest = new PriorityQueue<>(count,
+                Comparator.comparingDouble(Position::distance).reversed());
+        Consumer<Cell> collect = cell -> {
+            for (int i = 0; i < cell.size; i++) {
+                val slot = cell.slots[i];
+                val distance = distance(latitude, longitude, latitudes[slot], longitudes[slot]);
+                if (distance > radiusMeters
+                        || (nearest.size() == count && distance >= nearest.peek().distance())) {
+                    continue;
+                }
+                if (nearest.size() == count) {
+                    nearest.poll();
+                }
+                nearest.add(new Position(userIds[slot], latitudes[slot], longitudes[slot], distance));
+            }
+        };
+
+        lock.readLock().lock();
+        try {
+            val centerRow = row(latitude);
+            val centerColumn = column(longitude);
+            val maxRing = ringsToCover(latitude, centerRow, radiusMeters);
+            val occupied = cells.size();
+            long probed = 0;
+            for (int ring = 0; ring <= maxRing; ring++) {
+                if (nearest.size() == count && ringDistanceBound(latitude, ring) > nearest.peek().distance()) {
+                    break;
+                }
+                if (probed > occupied) {
+                    // visiting every non empty cell is cheaper than walking more mostly empty rings
+                    fullScans.increment();
+                    nearest.clear();
+                    cells.values().forEach(collect);
+                    break;
+                }
+                probed += visitRing(centerRow, centerColumn, ring, collect);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Position> result = new ArrayList<>(nearest);
+        result.sort(Comparator.comparingDouble(Position::distance));
+
+        return result;
+    }
+
+    /**
+     * Box edges are parallels and meridians, minLongitude cannot be greater than maxLongitude.
+     * @return at most limit positions inside the box, inclusive all sides, in no particular order.
+     * Position.distance is null.
+     */
+    public List<Position> within(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                 int limit) {
+        List<Position> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            val firstRow = row(minLatitude);
+            val lastRow = row(maxLatitude);
+            val firstColumn = (int) Math.min(columns - 1, Math.floor((minLongitude + 180) / cellSize));
+            val lastColumn = (int) Math.min(columns - 1, Math.floor((maxLongitude + 180) / cellSize));
+            Collection<Cell> candidates;
+            if ((long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1) > cells.size()) {
+                candidates = cells.values();
+            } else {
+                candidates = new ArrayList<>();
+                for (int row = firstRow; row <= lastRow; row++) {
+                    for (int column = firstColumn; column <= lastColumn; column++) {
+                        val cell = cells.get(cellKey(row, column));
+                        if (cell != null) {
+                            candidates.add(cell);
+                        }
+                    }
+                }
+            }
+
+            for (Cell cell : candidates) {
+                for (int i = 0; i < cell.size && result.size() < limit; i++) {
+                    val slot = cell.slots[i];
+                    if (latitudes[slot] >= minLatitude && latitudes[slot] <= maxLatitude
+                            && longitudes[slot] >= minLongitude && longitudes[slot] <= maxLongitude) {
+                        result.add(new Position(userIds[slot], latitudes[slot], longitudes[slot], null));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int occupiedCells() {
+        lock.readLock().lock();
+        try {
+            return cells.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int allocate(UUID userId) {
+        if (size == userIds.length) {
+            val capacity = userIds.length * 2;
+            userIds = Arrays.copyOf(userIds, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            createdOn = Arrays.copyOf(createdOn, capacity);
+            cellKeys = Arrays.copyOf(cellKeys, capacity);
+            cellPositions = Arrays.copyOf(cellPositions, capacity);
+        }
+
+        val slot = size++;
+        userIds[slot] = userId;
+        slots.put(userId, slot);
+
+        return slot;
+    }
+
+    private void addToCell(int slot, long cellKey) {
+        val cell = cells.computeIfAbsent(cellKey, key -> new Cell());
+        if (cell.size == cell.slots.length) {
+            cell.slots = Arrays.copyOf(cell.slots, cell.size * 2);
+        }
+        cell.slots[cell.size] = slot;
+        cellPositions[slot] = cell.size++;
+        cellKeys[slot] = cellKey;
+    }
+
+    private void removeFromCell(int slot) {
+        val cell = cells.get(cellKeys[slot]);
+        val position = cellPositions[slot];
+        val last = cell.slots[--cell.size];
+        cell.slots[position] = last;
+        cellPositions[last] = position;
+        if (cell.size == 0) {
+            cells.remove(cellKeys[slot]);
+        }
+    }
+
+    /**
+     * Cells at Chebyshev distance ring from the center cell, longitude distance taken the shorter way around,
+     * so that rings wider than the grid do not visit a cell twice. Rows beyond the poles are skipped.
+     * @return number of cells probed.
+     */
+    private int visitRing(int centerRow, int centerColumn, int ring, Consumer<Cell> visitor) {
+        // column offsets -westmost to eastmost reach every column once
+        val westmost = (columns - 1) / 2;
+        val eastmost = columns / 2;
+        int probed = 0;
+        for (int rowOffset = -ring; rowOffset <= ring; rowOffset++) {
+            val row = centerRow + rowOffset;
+            if (row < 0 || row >= rows) {
+                continue;
+            }
+
+            if (Math.abs(rowOffset) == ring) {
+                for (int columnOffset = -Math.min(ring, westmost); columnOffset <= Math.min(ring, eastmost);
+                     columnOffset++) {
+                    probed += visit(row, centerColumn + columnOffset, visitor);
+                }
+            } else {
+                if (ring <= westmost) {
+                    probed += visit(row, centerColumn - ring, visitor);
+                }
+                if (ring <= eastmost) {
+                    probed += visit(row, centerColumn + ring, visitor);
+                }
+            }
+        }
+
+        return probed;
+    }
+
+    private int visit(int row, int column, Consumer<Cell> visitor) {
+        val cell = cells.get(cellKey(row, Math.floorMod(column, columns)));
+        if (cell != null) {
+            visitor.accept(cell);
+        }
+
+        return 1;
+    }
+
+    /**
+     * @return number of rings around the center cell that hold every point within radiusMeters,
+     * at most the number of rings that cover the whole grid.
+     */
+    private int ringsToCover(double latitude, int centerRow, double radiusMeters) {
+        val gridRings = Math.max(Math.max(centerRow, rows - 1 - centerRow), columns / 2);
+        val latitudeDelta = radiusMeters / METERS_PER_DEGREE;
+        val farthestLatitude = Math.abs(latitude) + latitudeDelta;
+        if (farthestLatitude >= 90) {
+            return gridRings;
+        }
+
+        // haversine: two points with longitude difference dLon, both within farthestLatitude,
+        // are at least 2R * asin(cos(farthestLatitude) * sin(dLon / 2)) apart
+        val sinHalfLongitude = Math.sin(radiusMeters / (2 * EARTH_RADIUS_METERS))
+                / Math.cos(Math.toRadians(farthestLatitude));
+        if (sinHalfLongitude >= 1) {
+            return gridRings;
+        }
+        val longitudeDelta = Math.toDegrees(2 * Math.asin(sinHalfLongitude));
+
+        return (int) Math.min(gridRings, Math.ceil(Math.max(latitudeDelta, longitudeDelta) / cellSize));
+    }
+
+    /**
+     * Lower bound of the distance between a point of the center cell and any point of a cell on the given ring.
+     * Such a cell is separated from the center one by ring - 1 whole cells in latitude or in longitude.
+     */
+    private double ringDistanceBound(double latitude, int ring) {
+        if (ring <= 1) {
+            return 0;
+        }
+
+        val gap = (ring - 1) * cellSize;
+        val latitudeBound = gap * METERS_PER_DEGREE;
+        val farthestLatitude = Math.min(90, Math.abs(latitude) + (ring + 1) * cellSize);
+        val longitudeBound = 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1,
+                Math.cos(Math.toRadians(farthestLatitude)) * Math.sin(Math.toRadians(Math.min(gap, 180)) / 2)));
+
+        return Math.min(latitudeBound, longitudeBound);
+    }
+
+    private int row(double latitude) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((latitude + 90) / cellSize)));
+    }
+
+    private int column(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / cellSize), columns);
+    }
+
+    private long cellKey(int row, int column) {
+        return (long) row * columns + column;
+    }
+
+    /**
+     * Great circle distance in meters, haversine formula.
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        val latitudeDelta = Math.toRadians(latitude2 - latitude1);
+        val longitudeDelta = Math.toRadians(longitude2 - longitude1);
+        val a = Math.pow(Math.sin(latitudeDelta / 2), 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.pow(Math.sin(longitudeDelta / 2), 2);
+
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * @param distance distance in meters from the searched point, null for bounding box queries.
+     */
+    public record Position(UUID userId, double latitude, double longitude, Double distance) {
+    }
+
+    private static final class Cell {
+
+        private int[] slots = new int[4];
+        private int size;
+
+    }
+
+}
@@ -0,0 +1,48 @@
+package io.vokumas.jitpayassignment.back.service.spatial;
+
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.config.SpatialIndexProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Fills LatestPositionIndex from User.latestLocation of every user.
+ * Runs once the application is ready, so after the latest location backfill. Writes served in the meantime already
+ * update the index and are never overwritten by older positions of the scan.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LatestPositionIndexWarmUp {
+
+    private final UserRepository mongoRepository;
+    private final LatestPositionIndex positionIndex;
+    private final SpatialIndexProperties properties;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!positionIndex.isEnabled() || !properties.isWarmUpOnStartup()) {
+            return;
+        }
+
+        long scanned = 0;
+        try (Stream<MongoUserSingleLocation> users = mongoRepository.streamLatestLocations()) {
+            Iterator<MongoUserSingleLocation> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                MongoUserSingleLocation user = iterator.next();
+                positionIndex.update(user.getUserId(), user.getLocation());
+                scanned++;
+            }
+        }
+        log.info("Spatial index warm-up finished. Users scanned: {}, users indexed: {}",
+                scanned, positionIndex.size());
+    }
+
+}
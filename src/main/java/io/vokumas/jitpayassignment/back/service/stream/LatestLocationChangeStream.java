@@ -0,0 +1,155 @@
+package io.vokumas.jitpayassignment.back.service.stream;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationDocuments;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single change stream on the user collection that feeds LocationStreamHub, no matter how many clients
+ * are subscribed. The stream only carries updates that changed User.latestLocation, projected down to the user id
+ * and the new latest location, and it is open only while there are subscribers.
+ * After a failure the stream is reopened after retryInterval, resuming after the last seen event.
+ */
+@Slf4j
+@Component
+public class LatestLocationChangeStream implements SmartLifecycle {
+
+    private static final long POLL_MILLIS = 1_000;
+
+    private static final List<Document> PIPELINE = List.of(
+            new Document("$match", new Document("operationType", "update")
+                    .append("updateDescription.updatedFields.latestLocation", new Document("$exists", true))),
+            new Document("$project", new Document("documentKey", 1)
+                    .append("updateDescription.updatedFields.latestLocation", 1)));
+
+    private final MongoTemplate mongoTemplate;
+    private final LocationStreamHub hub;
+    private final LocationStreamProperties properties;
+    private final Counter failedCounter;
+
+    private volatile boolean running;
+    private Thread watcher;
+    private BsonDocument resumeToken;
+
+    public LatestLocationChangeStream(MongoTemplate mongoTemplate,
+                                      LocationStreamHub hub,
+                                      LocationStreamProperties properties,
+                                      MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.hub = hub;
+        this.properties = properties;
+        this.failedCounter = Counter.builder("jitpay.location.stream.failed")
+                .description("Change stream failures, each followed by a reopen after retryInterval")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled() || running) {
+            return;
+        }
+
+        running = true;
+        watcher = new Thread(this::run, "location-change-stream");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        watcher.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (hub.awaitSubscribers(POLL_MILLIS)) {
+                    watch();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                failedCounter.increment();
+                log.warn("Location change stream failed, reopening in {}", properties.getRetryInterval(), e);
+                try {
+                    Thread.sleep(properties.getRetryInterval().toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes events until there are no subscribers left. Events written while nobody is subscribed are of no use,
+     * so the resume token is only kept across failures.
+     */
+    private void watch() {
+        val changeStream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(User.class))
+                .watch(PIPELINE)
+                .maxAwaitTime(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+            changeStream.resumeAfter(resumeToken);
+            // a token that is no longer in the oplog must not fail every reopen
+            resumeToken = null;
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+            while (running && hub.hasSubscribers()) {
+                val change = cursor.tryNext();
+                if (change != null) {
+                    hub.publish(toEvent(change));
+                }
+                resumeToken = cursor.getResumeToken();
+            }
+        }
+        resumeToken = null;
+    }
+
+    private static UserLocationEventDto toEvent(ChangeStreamDocument<Document> change) {
+        val userId = change.getDocumentKey().getBinary("_id").asUuid();
+        val latestLocation = change.getUpdateDescription().getUpdatedFields().getDocument("latestLocation");
+
+        return new UserLocationEventDto(userId,
+                LocationDocuments.toLocalDateTime(latestLocation.getDateTime("createdOn").getValue()),
+                new LocationDto(latestLocation.getNumber("latitude").doubleValue(),
+                        latestLocation.getNumber("longitude").doubleValue()));
+    }
+
+}
@@ -0,0 +1,328 @@
+package io.vokumas.jitpayassignment.back.service.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties.OverflowPolicy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans out latest location events, published by LatestLocationChangeStream, to in-process subscribers.
+ * Every subscription has its own bounded buffer that is drained by a small shared pool of sender threads, so a slow
+ * subscriber only delays itself. When a subscriber does not keep up the overflowPolicy decides which events are lost,
+ * either all but the newest one per user or the oldest ones beyond bufferSize.
+ */
+@Slf4j
+@Component
+public class LocationStreamHub implements SmartLifecycle {
+
+    private final LocationStreamProperties properties;
+    private final Map<UUID, Set<Subscription>> subscriptionsByUser = new ConcurrentHashMap<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Object subscribersMonitor = new Object();
+
+    private final Counter deliveredCounter;
+    private final Counter coalescedCounter;
+    private final Counter droppedCounter;
+
+    private volatile boolean running;
+    private ExecutorService senders;
+    private ScheduledExecutorService heartbeats;
+
+    public LocationStreamHub(LocationStreamProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        Gauge.builder("jitpay.location.stream.subscriptions", subscriptions, Set::size)
+                .description("Open location subscriptions")
+                .register(meterRegistry);
+        this.deliveredCounter = eventCounter(meterRegistry, "delivered");
+        this.coalescedCounter = eventCounter(meterRegistry, "coalesced");
+        this.droppedCounter = eventCounter(meterRegistry, "dropped");
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Blocks until there is at least one subscription or the timeout elapses.
+     *
+     * @return whether there are subscribers.
+     */
+    public boolean awaitSubscribers(long timeoutMillis) throws InterruptedException {
+        synchronized (subscribersMonitor) {
+            if (subscriptions.isEmpty()) {
+                subscribersMonitor.wait(timeoutMillis);
+            }
+        }
+
+        return hasSubscribers();
+    }
+
+    public LocationSubscription subscribe(Collection<UUID> userIds, LocationSubscriber subscriber) {
+        if (!running) {
+            throw new IllegalStateException("Location stream is not running");
+        }
+
+        val subscription = new Subscription(Set.copyOf(userIds), subscriber);
+        for (UUID userId : subscription.userIds) {
+            subscriptionsByUser.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+        synchronized (subscribersMonitor) {
+            subscriptions.add(subscription);
+            subscribersMonitor.notifyAll();
+        }
+
+        return subscription;
+    }
+
+    /**
+     * Queues the event for every subscription of its user, never blocks.
+     */
+    public void publish(UserLocationEventDto event) {
+        val subscribed = subscriptionsByUser.get(event.userId());
+        if (subscribed == null) {
+            return;
+        }
+
+        for (Subscription subscription : subscribed) {
+            subscription.offer(event);
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled() || running) {
+            return;
+        }
+
+        val threadNumber = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(properties.getSenderThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "location-stream-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "location-stream-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val interval = properties.getHeartbeatInterval().toMillis();
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        running = true;
+    }
+
+    /**
+     * Closes all subscriptions, undelivered events are lost.
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        heartbeats.shutdownNow();
+        for (Subscription subscription : List.copyOf(subscriptions)) {
+            subscription.close();
+            subscription.subscriber.onClose();
+        }
+        senders.shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops before the web server, so open connections are completed rather than cut.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void heartbeat() {
+        val idleSince = System.nanoTime() - properties.getHeartbeatInterval().toNanos();
+        for (Subscription subscription : subscriptions) {
+            subscription.heartbeat(idleSince);
+        }
+    }
+
+    private static Counter eventCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("jitpay.location.stream.events")
+                .description("Location events by what happened to them per subscription")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private final class Subscription implements LocationSubscription {
+
+        private final Set<UUID> userIds;
+        private final LocationSubscriber subscriber;
+
+        // guarded by this
+        private final LinkedHashMap<UUID, UserLocationEventDto> latest = new LinkedHashMap<>();
+        private final ArrayDeque<UserLocationEventDto> queue = new ArrayDeque<>();
+        private boolean heartbeatDue;
+        private boolean scheduled;
+
+        private volatile long lastSent = System.nanoTime();
+        private volatile boolean closed;
+
+        private Subscription(Set<UUID> userIds, LocationSubscriber subscriber) {
+            this.userIds = userIds;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void offer(UserLocationEventDto event) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                if (properties.getOverflowPolicy() == OverflowPolicy.COALESCE) {
+                    val pending = latest.get(event.userId());
+                    if (pending != null && pending.createdOn().isAfter(event.createdOn())) {
+                        coalescedCounter.increment();
+                        return;
+                    }
+                    if (latest.put(event.userId(), event) != null) {
+                        coalescedCounter.increment();
+                    }
+                } else {
+                    if (queue.size() >= properties.getBufferSize()) {
+                        queue.pollFirst();
+                        droppedCounter.increment();
+                    }
+                    queue.addLast(event);
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            for (UUID userId : userIds) {
+                subscriptionsByUser.computeIfPresent(userId, (key, subscribed) -> {
+                    subscribed.remove(this);
+                    return subscribed.isEmpty() ? null : subscribed;
+                });
+            }
+            subscriptions.remove(this);
+            synchronized (this) {
+                latest.clear();
+                queue.clear();
+            }
+        }
+
+        private void heartbeat(long idleSince) {
+            if (lastSent - idleSince > 0) {
+                return;
+            }
+
+            synchronized (this) {
+                heartbeatDue = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (scheduled || closed) {
+                    return;
+                }
+                scheduled = true;
+            }
+
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // the hub is stopping
+                close();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                List<UserLocationEventDto> events;
+                boolean sendHeartbeat;
+                synchronized (this) {
+                    events = takePending();
+                    sendHeartbeat = heartbeatDue && events.isEmpty();
+                    heartbeatDue = false;
+                    if (closed || (events.isEmpty() && !sendHeartbeat)) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+
+                try {
+                    if (sendHeartbeat) {
+                        subscriber.onHeartbeat();
+                    } else {
+                        subscriber.onLocations(events);
+                        deliveredCounter.increment(events.size());
+                    }
+                    lastSent = System.nanoTime();
+                } catch (Exception e) {
+                    log.debug("Location subscriber failed, closing the subscription", e);
+                    synchronized (this) {
+                        scheduled = false;
+                    }
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private List<UserLocationEventDto> takePending() {
+            if (!latest.isEmpty()) {
+                List<UserLocationEventDto> events = new ArrayList<>(latest.values());
+                latest.clear();
+                return events;
+            }
+            if (!queue.isEmpty()) {
+                List<UserLocationEventDto> events = new ArrayList<>(queue);
+                queue.clear();
+                return events;
+            }
+
+            return List.of();
+        }
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package io.vokumas.jitpayassignment.back.service.stream;
+
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receiving end of a LocationSubscription. Calls of a single subscriber never overlap.
+ * Any exception closes the subscription.
+ */
+public interface LocationSubscriber {
+
+    void onLocations(List<UserLocationEventDto> events) throws IOException;
+
+    /**
+     * Called when there was nothing to send for a heartbeatInterval, lets dead connections be detected.
+     */
+    void onHeartbeat() throws IOException;
+
+    /**
+     * Called once the subscription is closed by the hub, not when the subscriber failed or closed it itself.
+     */
+    default void onClose() {
+    }
+
+}
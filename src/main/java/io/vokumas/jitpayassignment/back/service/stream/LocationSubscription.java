@@ -0,0 +1,15 @@
+package io.vokumas.jitpayassignment.back.service.stream;
+
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+
+public interface LocationSubscription extends AutoCloseable {
+
+    /**
+     * Queues an event for this subscription only, regardless of the users it is subscribed to.
+     */
+    void offer(UserLocationEventDto event);
+
+    @Override
+    void close();
+
+}
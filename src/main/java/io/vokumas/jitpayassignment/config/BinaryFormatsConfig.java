@@ -0,0 +1,31 @@
+package io.vokumas.jitpayassignment.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * CBOR (application/cbor) and Smile (application/x-jackson-smile) next to JSON, picked by Accept for responses
+ * and by Content-Type for requests. Both are far more compact than JSON for location payloads, doubles are written
+ * as 8 bytes instead of up to 20 characters, and Smile also writes every repeated field name only once.
+ * The mappers are made by the builder Boot configures for JSON, so all formats serialize the same fields
+ * the same way. The converters replace the ones Spring would register with default mappers.
+ */
+@Configuration
+public class BinaryFormatsConfig {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+
+}
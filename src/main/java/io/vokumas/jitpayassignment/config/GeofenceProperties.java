@@ -0,0 +1,35 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Geofence evaluation of written locations, see GeofenceEngine.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.geofence")
+public class GeofenceProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Side of a pre-filter grid cell in degrees. Every fence is registered in all cells its bounding box touches,
+     * so a point is only tested against the fences of its own cell.
+     */
+    private double cellSize = 0.1;
+
+    /**
+     * How often fences are reloaded from the database, to pick up fences registered through other instances.
+     */
+    private Duration refreshInterval = Duration.ofSeconds(30);
+
+    /**
+     * Number of users whose current fences are kept in memory, the rest is loaded from the database on demand.
+     */
+    private long membershipCacheSize = 100_000;
+
+}
@@ -0,0 +1,25 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * In-process cache of latest location reads.
+ * A cached response is served only for the User.version just read, so writes of other instances are visible
+ * immediately, a cache hit saves reading the User but not reading its version.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.latest-cache")
+public class LatestLocationCacheProperties {
+
+    private boolean enabled = true;
+
+    private long maximumSize = 10_000;
+
+    private Duration expireAfterWrite = Duration.ofSeconds(5);
+
+}
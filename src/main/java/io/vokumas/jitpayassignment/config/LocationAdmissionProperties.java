@@ -0,0 +1,41 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Admission control of location writes, see LocationAdmissionControl.
+ * These are the limits on startup, they can be changed at runtime through the admission actuator endpoint
+ * once it is enabled, see LocationAdmissionEndpoint.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.admission")
+public class LocationAdmissionProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Sustained number of locations per second a single user may write.
+     */
+    private double userRate = 10;
+
+    /**
+     * Number of locations a single user may write at once on top of userRate, after being idle.
+     */
+    private int userBurst = 20;
+
+    /**
+     * Location writes that may be in flight to the database at once across all users.
+     */
+    private int maxInFlightWrites = 256;
+
+    /**
+     * How often state of users that have been idle long enough to have their burst back is dropped.
+     */
+    private Duration sweepInterval = Duration.ofMinutes(1);
+
+}
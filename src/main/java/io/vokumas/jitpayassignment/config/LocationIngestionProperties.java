@@ -0,0 +1,47 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Write-behind buffer for acknowledged location writes.
+ * When enabled, locations are queued in memory and written by a background flusher that coalesces them per user
+ * into a single $push $each. A flush happens when flushInterval passes since the first queued location of
+ * a batch or when maxBatchSize locations are collected, whichever comes first.
+ * Queued locations are acknowledged with 202 and are lost if the process dies before they are flushed
+ * or if all flushAttempts fail.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.ingestion")
+public class LocationIngestionProperties {
+
+    private boolean enabled = false;
+
+    private int queueCapacity = 100_000;
+
+    private int maxBatchSize = 5_000;
+
+    private Duration flushInterval = Duration.ofMillis(50);
+
+    /**
+     * How long a write waits for free space in the queue before it is rejected.
+     */
+    private Duration offerTimeout = Duration.ofMillis(10);
+
+    /**
+     * Attempts to write a batch, including the first one. Only locations whose write failed are retried.
+     */
+    private int flushAttempts = 3;
+
+    /**
+     * Wait before the first retry of a failed flush, doubled for every further retry.
+     */
+    private Duration flushRetryBackoff = Duration.ofMillis(100);
+
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+}
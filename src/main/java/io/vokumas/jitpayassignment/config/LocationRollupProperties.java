@@ -0,0 +1,37 @@
+package io.vokumas.jitpayassignment.config;
+
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Per user summaries of locations, one LocationRollup per time window of every granularity, updated on every
+ * location write. See LocationRollups for what is kept and how exact it is.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.rollup")
+public class LocationRollupProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Granularities rollups are maintained for, only these can be asked for.
+     */
+    private Set<TimeGranularity> granularities = EnumSet.allOf(TimeGranularity.class);
+
+    /**
+     * Recomputes rollups of all users from their full location history on application start,
+     * see LocationRollupRebuild.
+     */
+    private boolean rebuildOnStartup = false;
+
+    public boolean isMaintained(TimeGranularity granularity) {
+        return enabled && granularities.contains(granularity);
+    }
+
+}
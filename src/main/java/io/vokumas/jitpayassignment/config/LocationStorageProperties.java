@@ -0,0 +1,45 @@
+package io.vokumas.jitpayassignment.config;
+
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Controls where user locations are physically stored.
+ * EMBEDDED keeps the original layout - a single User.locations array per user document.
+ * BUCKETED writes locations into LocationBucket documents, one or more per user per time window,
+ * each holding at most bucketCapacity points. This keeps user documents small and far from the 16 MB limit.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.storage")
+public class LocationStorageProperties {
+
+    private Mode mode = Mode.EMBEDDED;
+
+    private TimeGranularity bucketGranularity = TimeGranularity.HOUR;
+
+    private int bucketCapacity = 1000;
+
+    /**
+     * Moves User.locations of existing documents into buckets on application start. Only honored in BUCKETED mode.
+     */
+    private boolean migrateOnStartup = false;
+
+    /**
+     * Fills User.latestLocation and its GeoJSON point of documents written before they existed. Each backfill runs
+     * once per database, its completion is recorded in the migrations collection and later starts skip it.
+     */
+    private boolean backfillLatestLocationOnStartup = true;
+
+    public boolean isBucketed() {
+        return mode == Mode.BUCKETED;
+    }
+
+    public enum Mode {
+        EMBEDDED,
+        BUCKETED
+    }
+
+}
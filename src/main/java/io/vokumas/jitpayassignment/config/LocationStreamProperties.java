@@ -0,0 +1,55 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Server-Sent Events subscriptions to latest locations, see LocationStreamHub.
+ * Needs Mongo to run as a replica set, as it is fed by a change stream.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.stream")
+public class LocationStreamProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * What happens to events of a subscriber that does not keep up.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+
+    /**
+     * Events buffered per subscriber with DROP_OLDEST policy.
+     */
+    private int bufferSize = 256;
+
+    private int senderThreads = 4;
+
+    private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+    /**
+     * Subscriptions are closed after this time, clients are expected to reconnect.
+     */
+    private Duration timeout = Duration.ofMinutes(30);
+
+    /**
+     * Pause before the change stream is reopened after a failure.
+     */
+    private Duration retryInterval = Duration.ofSeconds(5);
+
+    public enum OverflowPolicy {
+        /**
+         * Only the newest pending location of every user is kept, so the buffer never exceeds the subscribed users.
+         */
+        COALESCE,
+        /**
+         * Pending locations are kept in order up to bufferSize, the oldest ones are dropped beyond that.
+         */
+        DROP_OLDEST
+    }
+
+}
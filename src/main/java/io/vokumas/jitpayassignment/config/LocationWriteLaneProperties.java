@@ -0,0 +1,46 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Striped executor for location writes that are answered after they are stored, see LocationWriteLanes.
+ * Every user is hashed to one of laneCount lanes, each lane writes with a single thread, so writes of a user
+ * never run concurrently while writes of users in different lanes do.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.lanes")
+public class LocationWriteLaneProperties {
+
+    private boolean enabled = true;
+
+    private int laneCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Capacity of the queue of every lane.
+     */
+    private int queueCapacity = 1_000;
+
+    /**
+     * Maximum number of queued writes a lane takes at once.
+     */
+    private int maxBatchSize = 500;
+
+    /**
+     * How long a write waits for free space in its lane before it is rejected.
+     */
+    private Duration offerTimeout = Duration.ofMillis(10);
+
+    /**
+     * How long a caller waits for its write to be stored. A write its lane has not started by then is withdrawn
+     * and answered as overloaded, a started one as of unknown outcome.
+     */
+    private Duration writeTimeout = Duration.ofSeconds(5);
+
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+}
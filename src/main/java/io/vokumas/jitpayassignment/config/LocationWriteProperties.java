@@ -0,0 +1,30 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Controls responses of location writes.
+ * Clients can override the default acknowledgement per request with "Prefer: return=minimal" or
+ * "Prefer: return=representation" headers (RFC 7240).
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.write")
+public class LocationWriteProperties {
+
+    private AckMode defaultAck = AckMode.MINIMAL;
+
+    public enum AckMode {
+        /**
+         * 201 with a small acknowledgement body. The User document is not read back.
+         */
+        MINIMAL,
+        /**
+         * 201 with the updated User. Costs reading the User document back from the DB.
+         */
+        REPRESENTATION
+    }
+
+}
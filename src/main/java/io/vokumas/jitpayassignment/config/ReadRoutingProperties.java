@@ -0,0 +1,110 @@
+package io.vokumas.jitpayassignment.config;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.TagSet;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read preference of every group of repository reads, so that reads which tolerate lag can be taken off the primary
+ * that absorbs all location writes. Groups without a route read from the primary, and reads done as part of a write
+ * always do.
+ * HTTP requests do not share a client session, so there is no causal consistency between a write and a later read
+ * of the same client. Reads that have to see the client's own writes, LATEST by default, have to stay on the primary.
+ * VERSION guards ETags of LATEST and RANGE responses and must not read from a fresher node than they do,
+ * otherwise a stale body can be cached under a current ETag. Route it like the stalest of the two.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.read")
+public class ReadRoutingProperties {
+
+    /**
+     * Mongo requires maxStaleness to be at least 90 seconds.
+     */
+    public static final Duration MIN_MAX_STALENESS = Duration.ofSeconds(90);
+
+    private Map<Operation, Route> routes = new EnumMap<>(Operation.class);
+
+    public Route route(Operation operation) {
+        return routes.getOrDefault(operation, new Route());
+    }
+
+    public enum Operation {
+        /**
+         * Latest location of one or many users.
+         */
+        LATEST,
+        /**
+         * Version lookups of conditional requests.
+         */
+        VERSION,
+        /**
+         * Near and within queries on latest locations, and the warm-up of the in-memory index.
+         */
+        SPATIAL,
+        /**
+         * Location history in a date range, whole, paged or streamed, and its rollups.
+         */
+        RANGE
+    }
+
+    public enum Preference {
+        PRIMARY,
+        PRIMARY_PREFERRED,
+        SECONDARY,
+        SECONDARY_PREFERRED,
+        NEAREST
+    }
+
+    @Getter
+    @Setter
+    public static class Route {
+
+        private Preference preference = Preference.PRIMARY;
+
+        /**
+         * Secondaries lagging further behind the primary are not read from, null for no limit.
+         * Not allowed with PRIMARY.
+         */
+        private Duration maxStaleness;
+
+        public boolean isPrimary() {
+            return preference == Preference.PRIMARY;
+        }
+
+        /**
+         * @throws IllegalArgumentException when maxStaleness is below MIN_MAX_STALENESS or set for PRIMARY.
+         */
+        public ReadPreference toReadPreference() {
+            if (maxStaleness == null) {
+                return ReadPreference.valueOf(driverName(), List.<TagSet>of());
+            }
+            if (maxStaleness.compareTo(MIN_MAX_STALENESS) < 0) {
+                throw new IllegalArgumentException("maxStaleness cannot be less than " + MIN_MAX_STALENESS);
+            }
+
+            return ReadPreference.valueOf(driverName(), List.<TagSet>of(), maxStaleness.toSeconds(),
+                    TimeUnit.SECONDS);
+        }
+
+        private String driverName() {
+            return switch (preference) {
+                case PRIMARY -> "primary";
+                case PRIMARY_PREFERRED -> "primaryPreferred";
+                case SECONDARY -> "secondary";
+                case SECONDARY_PREFERRED -> "secondaryPreferred";
+                case NEAREST -> "nearest";
+            };
+        }
+
+    }
+
+}
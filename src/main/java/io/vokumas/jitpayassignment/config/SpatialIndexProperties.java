@@ -0,0 +1,27 @@
+package io.vokumas.jitpayassignment.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * In-process grid index of latest user positions, see LatestPositionIndex.
+ * The index only sees writes that go through this instance, so it fits deployments where every location write of
+ * the served users lands on the same instance, or where positions a little older than a restart are good enough.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "jitpay.location.spatial-index")
+public class SpatialIndexProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * Side of a grid cell in degrees. Smaller cells mean fewer distance checks per query but more cells to visit
+     * for large radiuses, it should roughly match the typical query radius.
+     */
+    private double cellSize = 0.05;
+
+    private boolean warmUpOnStartup = true;
+
+}
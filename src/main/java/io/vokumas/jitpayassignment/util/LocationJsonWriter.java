@@ -0,0 +1,112 @@
+package io.vokumas.jitpayassignment.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+
+/**
+ * Writes a location given as primitives exactly the way Jackson writes a LocationTimedDto,
+ * without creating the LocationTimedDto, its LocalDateTime or a String.
+ * createdOn is an epoch millis instant, converted the same way Spring Data reads LocalDateTime - in the system default
+ * time zone, and formatted by hand into a reused buffer. NaN coordinates are written as null, the same way Jackson
+ * writes a null Double.
+ * An instance belongs to a single response and is not thread safe.
+ */
+public final class LocationJsonWriter {
+
+    private static final SerializableString CREATED_ON = new SerializedString("createdOn");
+    private static final SerializableString LOCATION = new SerializedString("location");
+    private static final SerializableString LATITUDE = new SerializedString("latitude");
+    private static final SerializableString LONGITUDE = new SerializedString("longitude");
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern(ValidationConstants.TIMESTAMP_DTO_PATTERN);
+    private static final int TIMESTAMP_LENGTH = "yyyy-MM-ddTHH:mm:ss.SSS".length();
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ZoneRules zoneRules = zone.getRules();
+    private final char[] timestamp = new char[TIMESTAMP_LENGTH];
+
+    public void write(JsonGenerator generator, long createdOn, double latitude, double longitude)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(CREATED_ON);
+        writeTimestamp(generator, createdOn);
+        generator.writeFieldName(LOCATION);
+        generator.writeStartObject();
+        generator.writeFieldName(LATITUDE);
+        writeCoordinate(generator, latitude);
+        generator.writeFieldName(LONGITUDE);
+        writeCoordinate(generator, longitude);
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private static void writeCoordinate(JsonGenerator generator, double coordinate) throws IOException {
+        if (Double.isNaN(coordinate)) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(coordinate);
+        }
+    }
+
+    /**
+     * Same text as ValidationConstants.TIMESTAMP_DTO_PATTERN. Years that do not fit 4 digits go
+     * through DateTimeFormatter.
+     */
+    private void writeTimestamp(JsonGenerator generator, long epochMillis) throws IOException {
+        long offsetSeconds = zoneRules.isFixedOffset()
+                ? zoneRules.getOffset(Instant.EPOCH).getTotalSeconds()
+                : zoneRules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+        long localSeconds = Math.floorDiv(epochMillis, 1000) + offsetSeconds;
+        int millis = (int) Math.floorMod(epochMillis, 1000);
+        long epochDay = Math.floorDiv(localSeconds, 86_400);
+        int secondOfDay = (int) Math.floorMod(localSeconds, 86_400);
+
+        // civil date of an epoch day, proleptic Gregorian, with years starting in March
+        long shifted = epochDay + 719_468;
+        long era = Math.floorDiv(shifted, 146_097);
+        long dayOfEra = shifted - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9_999) {
+            generator.writeString(TIMESTAMP.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone)));
+            return;
+        }
+
+        digits(0, (int) year, 4);
+        timestamp[4] = '-';
+        digits(5, month, 2);
+        timestamp[7] = '-';
+        digits(8, day, 2);
+        timestamp[10] = 'T';
+        digits(11, secondOfDay / 3_600, 2);
+        timestamp[13] = ':';
+        digits(14, secondOfDay / 60 % 60, 2);
+        timestamp[16] = ':';
+        digits(17, secondOfDay % 60, 2);
+        timestamp[19] = '.';
+        digits(20, millis, 3);
+        generator.writeString(timestamp, 0, TIMESTAMP_LENGTH);
+    }
+
+    private void digits(int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            timestamp[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package io.vokumas.jitpayassignment.util;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Fixed time windows used to group locations, e.g. into storage buckets.
+ * Windows are aligned to the local timeline the same way Location.createdOn is, so no zone conversion is done here.
+ */
+public enum TimeGranularity {
+
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    TimeGranularity(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * @return the widest granularity. Useful as a lower bound when data might have been written with any of them.
+     */
+    public static TimeGranularity coarsest() {
+        return DAY;
+    }
+
+    public LocalDateTime truncate(LocalDateTime dateTime) {
+        return dateTime.truncatedTo(unit);
+    }
+
+    public LocalDateTime next(LocalDateTime windowStart) {
+        return windowStart.plus(1, unit);
+    }
+
+    /**
+     * @return number of windows touched by the range from - to, inclusive both sides.
+     */
+    public long windowsBetween(LocalDateTime from, LocalDateTime to) {
+        return unit.between(truncate(from), truncate(to)) + 1;
+    }
+
+}
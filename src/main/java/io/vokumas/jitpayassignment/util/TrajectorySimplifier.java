@@ -0,0 +1,217 @@
+package io.vokumas.jitpayassignment.util;
+
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import lombok.experimental.UtilityClass;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Line simplification of a track, points are expected to be ordered by createdOn.
+ * Coordinates are projected onto a plane in meters with an equirectangular projection around the mean latitude
+ * of the track. That is precise enough for tracks spanning a few hundred kilometers, which is what the map renders.
+ * The first and the last point are always kept.
+ */
+@UtilityClass
+public class TrajectorySimplifier {
+
+    private final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    /**
+     * Ramer-Douglas-Peucker. Keeps a point when it lies further than toleranceMeters from the segment
+     * that would replace it. Iterative, so very long tracks do not exhaust the stack.
+     */
+    public List<LocationTimedDto> douglasPeucker(List<LocationTimedDto> points, double toleranceMeters) {
+        if (points.size() < 3) {
+            return points;
+        }
+
+        return select(points, douglasPeucker(project(points), toleranceMeters));
+    }
+
+    /**
+     * Ramer-Douglas-Peucker of a series, same as for a List of LocationTimedDto.
+     */
+    public LocationSeries douglasPeucker(LocationSeries series, double toleranceMeters) {
+        if (series.size() < 3) {
+            return series;
+        }
+
+        return series.select(douglasPeucker(project(series), toleranceMeters));
+    }
+
+    /**
+     * Visvalingam-Whyatt. Repeatedly drops the point forming the smallest triangle with its neighbours
+     * until only maxPoints are left.
+     */
+    public List<LocationTimedDto> visvalingam(List<LocationTimedDto> points, int maxPoints) {
+        if (points.size() <= Math.max(maxPoints, 2)) {
+            return points;
+        }
+
+        return select(points, visvalingam(project(points), maxPoints));
+    }
+
+    /**
+     * Visvalingam-Whyatt of a series, same as for a List of LocationTimedDto.
+     */
+    public LocationSeries visvalingam(LocationSeries series, int maxPoints) {
+        if (series.size() <= Math.max(maxPoints, 2)) {
+            return series;
+        }
+
+        return series.select(visvalingam(project(series), maxPoints));
+    }
+
+    /**
+     * @param xy projected points, x of point i at 2 * i and y at 2 * i + 1.
+     * @return flag per point, set for points to keep.
+     */
+    private boolean[] douglasPeucker(double[] xy, double toleranceMeters) {
+        int n = xy.length / 2;
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        Deque<int[]> segments = new ArrayDeque<>();
+        segments.push(new int[]{0, n - 1});
+        while (!segments.isEmpty()) {
+            int[] segment = segments.pop();
+            int first = segment[0];
+            int last = segment[1];
+
+            int farthest = -1;
+            double maxDistance = toleranceMeters;
+            for (int i = first + 1; i < last; i++) {
+                double distance = segmentDistance(xy, i, first, last);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            if (farthest != -1) {
+                keep[farthest] = true;
+                segments.push(new int[]{first, farthest});
+                segments.push(new int[]{farthest, last});
+            }
+        }
+
+        return keep;
+    }
+
+    /**
+     * @param xy projected points, x of point i at 2 * i and y at 2 * i + 1.
+     * @return flag per point, set for points to keep.
+     */
+    private boolean[] visvalingam(double[] xy, int maxPoints) {
+        int n = xy.length / 2;
+        int[] previous = new int[n];
+        int[] next = new int[n];
+        int[] version = new int[n];
+        boolean[] keep = new boolean[n];
+        Arrays.fill(keep, true);
+        // entries of the queue are {area, index, version}, entries with an outdated version are skipped
+        PriorityQueue<double[]> triangles = new PriorityQueue<>(n, (a, b) -> Double.compare(a[0], b[0]));
+        for (int i = 0; i < n; i++) {
+            previous[i] = i - 1;
+            next[i] = i + 1;
+            if (i > 0 && i < n - 1) {
+                triangles.add(new double[]{triangleArea(xy, i - 1, i, i + 1), i, 0});
+            }
+        }
+
+        int remaining = n;
+        while (remaining > maxPoints && !triangles.isEmpty()) {
+            double[] triangle = triangles.poll();
+            int i = (int) triangle[1];
+            if (!keep[i] || version[i] != (int) triangle[2]) {
+                continue;
+            }
+
+            keep[i] = false;
+            remaining--;
+            int before = previous[i];
+            int after = next[i];
+            next[before] = after;
+            previous[after] = before;
+
+            for (int neighbour : new int[]{before, after}) {
+                if (neighbour > 0 && neighbour < n - 1) {
+                    version[neighbour]++;
+                    triangles.add(new double[]{
+                            triangleArea(xy, previous[neighbour], neighbour, next[neighbour]),
+                            neighbour,
+                            version[neighbour]});
+                }
+            }
+        }
+
+        return keep;
+    }
+
+    private List<LocationTimedDto> select(List<LocationTimedDto> points, boolean[] keep) {
+        List<LocationTimedDto> selected = new ArrayList<>();
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                selected.add(points.get(i));
+            }
+        }
+
+        return selected;
+    }
+
+    private double[] project(List<LocationTimedDto> points) {
+        return project(points.size(),
+                i -> points.get(i).location().latitude(),
+                i -> points.get(i).location().longitude());
+    }
+
+    private double[] project(LocationSeries series) {
+        return project(series.size(), series::latitude, series::longitude);
+    }
+
+    private double[] project(int n, IntToDoubleFunction latitude, IntToDoubleFunction longitude) {
+        double meanLatitude = IntStream.range(0, n)
+                .mapToDouble(latitude)
+                .average()
+                .orElse(0);
+        double cosLatitude = Math.cos(Math.toRadians(meanLatitude));
+
+        double[] xy = new double[2 * n];
+        for (int i = 0; i < n; i++) {
+            xy[2 * i] = EARTH_RADIUS_METERS * Math.toRadians(longitude.applyAsDouble(i)) * cosLatitude;
+            xy[2 * i + 1] = EARTH_RADIUS_METERS * Math.toRadians(latitude.applyAsDouble(i));
+        }
+
+        return xy;
+    }
+
+    private double segmentDistance(double[] xy, int point, int first, int last) {
+        double dx = xy[2 * last] - xy[2 * first];
+        double dy = xy[2 * last + 1] - xy[2 * first + 1];
+        double px = xy[2 * point] - xy[2 * first];
+        double py = xy[2 * point + 1] - xy[2 * first + 1];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return Math.hypot(px, py);
+        }
+
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+
+    private double triangleArea(double[] xy, int a, int b, int c) {
+        return Math.abs((xy[2 * b] - xy[2 * a]) * (xy[2 * c + 1] - xy[2 * a + 1])
+                - (xy[2 * c] - xy[2 * a]) * (xy[2 * b + 1] - xy[2 * a + 1])) / 2;
+    }
+
+}
@@ -0,0 +1,16 @@
+package io.vokumas.jitpayassignment.util.constants;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.http.MediaType;
+
+@UtilityClass
+public class MediaTypeConstants {
+
+    /**
+     * The type Spring registers for Jackson Smile, there is no standard one.
+     */
+    public final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+}
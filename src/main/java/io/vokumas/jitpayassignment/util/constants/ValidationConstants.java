@@ -13,4 +13,28 @@ public class ValidationConstants {
 
     public final String TIMESTAMP_DEFAULT_REGION = "Europe/Berlin";
 
+    public final int LOCATION_BATCH_MAX_SIZE = 10_000;
+
+    public final int LATEST_LOCATION_BULK_MAX_SIZE = 5_000;
+
+    public final int LOCATION_RANGE_DEFAULT_PAGE_SIZE = 1_000;
+
+    public final int LOCATION_RANGE_MAX_PAGE_SIZE = 10_000;
+
+    public final int USERS_NEAR_DEFAULT_LIMIT = 100;
+
+    public final int USERS_NEAR_MAX_LIMIT = 1_000;
+
+    public final int USERS_NEAREST_DEFAULT_COUNT = 10;
+
+    public final int LOCATION_STREAM_MAX_USERS = 1_000;
+
+    public final int LOCATION_SUMMARY_MAX_WINDOWS = 10_000;
+
+    public final int GEOFENCE_MAX_VERTICES = 1_000;
+
+    public final int GEOFENCE_EVENTS_DEFAULT_LIMIT = 1_000;
+
+    public final int GEOFENCE_EVENTS_MAX_LIMIT = 10_000;
+
 }
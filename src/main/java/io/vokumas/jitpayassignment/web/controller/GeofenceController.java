@@ -0,0 +1,83 @@
+package io.vokumas.jitpayassignment.web.controller;
+
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetGeofenceEventsResponseDto;
+import io.vokumas.jitpayassignment.back.service.declaration.GeofenceService;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.validation.Valid;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/v2/geofence")
+@RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class GeofenceController {
+
+    private final GeofenceService service;
+
+    @RequestMapping(method = {RequestMethod.POST, RequestMethod.PUT}, consumes = "application/json")
+    public ResponseEntity<GeofenceDto> createOrUpdateGeofence(@RequestBody @Valid GeofenceDto dto) {
+        val geofence = service.createOrUpdateGeofence(dto);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(geofence);
+    }
+
+    @GetMapping
+    public ResponseEntity<List<GeofenceDto>> getGeofences() {
+        val geofences = service.getGeofences();
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(geofences);
+    }
+
+    @GetMapping("/{geofenceId}")
+    public ResponseEntity<GeofenceDto> getGeofence(@PathVariable UUID geofenceId) {
+        val geofence = service.getGeofence(geofenceId);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(geofence);
+    }
+
+    @DeleteMapping("/{geofenceId}")
+    public ResponseEntity<Void> deleteGeofence(@PathVariable UUID geofenceId) {
+        service.deleteGeofence(geofenceId);
+
+        return ResponseEntity
+                .status(HttpStatus.NO_CONTENT)
+                .build();
+    }
+
+    /**
+     * Enter and exit events of a user, of a fence, or of a user and a fence, ordered by createdOn.
+     */
+    @GetMapping("/events")
+    public ResponseEntity<GetGeofenceEventsResponseDto> getGeofenceEvents(
+            @RequestParam(required = false) UUID userId,
+            @RequestParam(required = false) UUID geofenceId,
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime from,
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime to,
+            @RequestParam(required = false) Integer limit) {
+        val events = service.getGeofenceEvents(userId, geofenceId, from, to, limit);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(events);
+    }
+
+}
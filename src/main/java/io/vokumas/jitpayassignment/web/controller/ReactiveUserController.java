@@ -0,0 +1,128 @@
+package io.vokumas.jitpayassignment.web.controller;
+
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.service.declaration.ReactiveUserService;
+import io.vokumas.jitpayassignment.config.LocationWriteProperties;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * The user and location operations of UserController on WebFlux, active with the reactive profile.
+ * Requests and responses are the same, range is answered as a whole, without paging, streaming or simplification.
+ */
+@RestController
+@RequestMapping("/api/v2/user")
+@RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserController {
+
+    private final ReactiveUserService service;
+    private final LocationWriteProperties writeProperties;
+
+    /**
+     * Acknowledgement mode is taken the same way as by UserController.putLocation.
+     */
+    @PostMapping("/location")
+    public Mono<ResponseEntity<?>> putLocation(@RequestBody @Valid PutUserLocationRequestDto dto,
+                                               @RequestHeader(value = UserController.PREFER, required = false)
+                                               String prefer) {
+        val ackMode = UserController.resolveAckMode(prefer, writeProperties.getDefaultAck());
+        val preferenceApplied = "return=" + ackMode.name().toLowerCase();
+
+        if (ackMode == LocationWriteProperties.AckMode.REPRESENTATION) {
+            return service.putUserLocation(dto)
+                    .map(userWithNewLocation -> ResponseEntity
+                            .status(HttpStatus.CREATED)
+                            .header(UserController.PREFERENCE_APPLIED, preferenceApplied)
+                            .body(userWithNewLocation));
+        }
+
+        return service.putUserLocationAcknowledged(dto)
+                .map(ack -> ResponseEntity
+                        .status(ack.status() == LocationWriteStatus.QUEUED ? HttpStatus.ACCEPTED : HttpStatus.CREATED)
+                        .header(UserController.PREFERENCE_APPLIED, preferenceApplied)
+                        .body(ack));
+    }
+
+    @RequestMapping(method = {RequestMethod.POST, RequestMethod.PUT})
+    public Mono<ResponseEntity<UserDto>> createOrUpdateUser(@RequestBody @Valid UserDto dto) {
+        return service.createOrUpdateUser(dto)
+                .map(user -> ResponseEntity
+                        .status(HttpStatus.OK)
+                        .body(user));
+    }
+
+    /**
+     * Answers 304 when If-None-Match holds the current ETag, see UserController.etag.
+     */
+    @GetMapping("/location/latest")
+    public Mono<ResponseEntity<UserSingleLocationDto>> getUserLatestLocation(@RequestParam UUID userId,
+                                                                             ServerWebExchange exchange) {
+        return service.getUserVersion(userId)
+                .flatMap(version -> {
+                    val etag = UserController.etag(version);
+                    if (exchange.checkNotModified(etag)) {
+                        return Mono.just(notModified(etag));
+                    }
+
+                    return service.getUserLatestLocation(userId, version.version())
+                            .map(userResponse -> ResponseEntity
+                                    .status(HttpStatus.OK)
+                                    .eTag(etag)
+                                    .varyBy(HttpHeaders.ACCEPT)
+                                    .body(userResponse));
+                });
+    }
+
+    /**
+     * Answers 304 when If-None-Match holds the current ETag, see UserController.etag.
+     */
+    @GetMapping("/location/range")
+    public Mono<ResponseEntity<GetUserLocationRangeResponseDto>> getUserLocationsInRange(
+            @RequestParam UUID userId,
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime from,
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime to,
+            ServerWebExchange exchange
+            ) {
+        return service.getUserVersion(userId)
+                .map(UserController::etag)
+                .flatMap(etag -> {
+                    if (exchange.checkNotModified(etag)) {
+                        return Mono.just(notModified(etag));
+                    }
+
+                    return service.getUserLocationsRange(userId, from, to)
+                            .map(user -> ResponseEntity
+                                    .status(HttpStatus.OK)
+                                    .eTag(etag)
+                                    .varyBy(HttpHeaders.ACCEPT)
+                                    .body(new GetUserLocationRangeResponseDto(userId, user.locations())));
+                });
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity
+                .status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .varyBy(HttpHeaders.ACCEPT)
+                .build();
+    }
+
+}
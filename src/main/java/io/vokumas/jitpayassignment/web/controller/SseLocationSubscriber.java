@@ -0,0 +1,41 @@
+package io.vokumas.jitpayassignment.web.controller;
+
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscriber;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes every location as a "location" event with a JSON body, heartbeats as comments.
+ */
+@RequiredArgsConstructor
+class SseLocationSubscriber implements LocationSubscriber {
+
+    static final String LOCATION_EVENT = "location";
+
+    private final SseEmitter emitter;
+
+    @Override
+    public void onLocations(List<UserLocationEventDto> events) throws IOException {
+        for (UserLocationEventDto event : events) {
+            emitter.send(SseEmitter.event()
+                    .name(LOCATION_EVENT)
+                    .data(event, MediaType.APPLICATION_JSON));
+        }
+    }
+
+    @Override
+    public void onHeartbeat() throws IOException {
+        emitter.send(SseEmitter.event().comment("heartbeat"));
+    }
+
+    @Override
+    public void onClose() {
+        emitter.complete();
+    }
+
+}
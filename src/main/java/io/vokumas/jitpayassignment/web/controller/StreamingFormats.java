@@ -0,0 +1,62 @@
+package io.vokumas.jitpayassignment.web.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vokumas.jitpayassignment.util.constants.MediaTypeConstants;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content negotiation for responses written by hand with a JsonGenerator, which bypass the message converters.
+ * Offers the same formats as the converters, using their mappers, and falls back to JSON.
+ */
+@Component
+public class StreamingFormats {
+
+    private final Map<MediaType, ObjectMapper> mappers = new LinkedHashMap<>();
+
+    public StreamingFormats(ObjectMapper objectMapper,
+                            MappingJackson2CborHttpMessageConverter cborConverter,
+                            MappingJackson2SmileHttpMessageConverter smileConverter) {
+        // JSON first, so it wins for */* and missing Accept
+        mappers.put(MediaType.APPLICATION_JSON, objectMapper);
+        mappers.put(MediaType.APPLICATION_CBOR, cborConverter.getObjectMapper());
+        mappers.put(MediaTypeConstants.APPLICATION_SMILE, smileConverter.getObjectMapper());
+    }
+
+    /**
+     * @param accept value of the Accept header, might be null.
+     */
+    public Format select(String accept) {
+        if (accept != null) {
+            try {
+                List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+                MediaType.sortBySpecificityAndQuality(accepted);
+                for (MediaType mediaType : accepted) {
+                    if (mediaType.getQualityValue() == 0) {
+                        continue;
+                    }
+                    for (Map.Entry<MediaType, ObjectMapper> entry : mappers.entrySet()) {
+                        if (mediaType.includes(entry.getKey())) {
+                            return new Format(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            } catch (InvalidMediaTypeException e) {
+                // answered with JSON, same as an Accept that matches nothing
+            }
+        }
+
+        return new Format(MediaType.APPLICATION_JSON, mappers.get(MediaType.APPLICATION_JSON));
+    }
+
+    public record Format(MediaType mediaType, ObjectMapper objectMapper) {
+    }
+
+}
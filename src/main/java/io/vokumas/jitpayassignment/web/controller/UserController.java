@@ -1,41 +1,104 @@
 package io.vokumas.jitpayassignment.web.controller;
 
-import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLatestLocationBulkRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationSummaryResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserPositionsResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetUsersNearLocationResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationBatchRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationBatchResponseDto;
 import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserLatestLocationResultDto;
 import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserVersionDto;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
 import io.vokumas.jitpayassignment.back.service.declaration.UserService;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties;
+import io.vokumas.jitpayassignment.config.LocationWriteProperties;
+import io.vokumas.jitpayassignment.util.constants.MediaTypeConstants;
 import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Slf4j
 @RestController
 @RequestMapping("/api/v2/user")
 @RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UserController {
 
+    static final String PREFER = "Prefer";
+    static final String PREFERENCE_APPLIED = "Preference-Applied";
+
     private final UserService service;
+    private final LocationWriteProperties writeProperties;
+    private final LocationStreamProperties streamProperties;
+    private final StreamingFormats streamingFormats;
+
+    /**
+     * Acknowledgement mode is taken from "Prefer: return=minimal|representation" header when present,
+     * otherwise from jitpay.location.write.default-ack.
+     */
+    @PostMapping(value = "/location", consumes = {MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, MediaTypeConstants.APPLICATION_SMILE_VALUE})
+    public ResponseEntity<?> putLocation(@RequestBody @Valid PutUserLocationRequestDto dto,
+                                         @RequestHeader(value = PREFER, required = false) String prefer) {
+        val ackMode = resolveAckMode(prefer, writeProperties.getDefaultAck());
+        val preferenceApplied = "return=" + ackMode.name().toLowerCase();
+
+        if (ackMode == LocationWriteProperties.AckMode.REPRESENTATION) {
+            val userWithNewLocation = service.putUserLocation(dto);
+
+            return ResponseEntity
+                    .status(HttpStatus.CREATED)
+                    .header(PREFERENCE_APPLIED, preferenceApplied)
+                    .body(userWithNewLocation);
+        }
+
+        val ack = service.putUserLocationAcknowledged(dto);
+
+        return ResponseEntity
+                .status(ack.status() == LocationWriteStatus.QUEUED ? HttpStatus.ACCEPTED : HttpStatus.CREATED)
+                .header(PREFERENCE_APPLIED, preferenceApplied)
+                .body(ack);
+    }
 
-    @PostMapping(value = "/location", consumes = "application/json")
-    public ResponseEntity<UserDto> putLocation(@RequestBody @Valid PutUserLocationRequestDto dto) {
-        val userWithNewLocation = service.putUserLocation(dto);
+    @PostMapping(value = "/locations/batch", consumes = {MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, MediaTypeConstants.APPLICATION_SMILE_VALUE})
+    public ResponseEntity<PutUserLocationBatchResponseDto> putLocations(
+            @RequestBody @Valid PutUserLocationBatchRequestDto dto) {
+        val results = service.putUserLocations(dto);
 
         return ResponseEntity
-                .status(HttpStatus.CREATED)
-                .body(userWithNewLocation);
+                .status(HttpStatus.OK)
+                .body(results);
     }
 
-    @RequestMapping(method = {RequestMethod.POST, RequestMethod.PUT}, consumes = "application/json")
+    @RequestMapping(method = {RequestMethod.POST, RequestMethod.PUT}, consumes = {MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, MediaTypeConstants.APPLICATION_SMILE_VALUE})
     public ResponseEntity<UserDto> createOrUpdateUser(@RequestBody @Valid UserDto dto) {
         val user = service.createOrUpdateUser(dto);
 
@@ -44,28 +107,274 @@ public class UserController {
                 .body(user);
     }
 
+    /**
+     * Answers 304 when If-None-Match holds the current ETag, see etag.
+     */
     @GetMapping("/location/latest")
-    public ResponseEntity<UserSingleLocationDto> getUserLatestLocation(@RequestParam UUID userId) {
-        val userResponse = service.getUserLatestLocation(userId);
+    public ResponseEntity<UserSingleLocationDto> getUserLatestLocation(@RequestParam UUID userId,
+                                                                       WebRequest request) {
+        val version = service.getUserVersion(userId);
+        val etag = etag(version);
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity
+                    .status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+
+        val userResponse = service.getUserLatestLocation(userId, version.version());
 
         return ResponseEntity
                 .status(HttpStatus.OK)
+                .eTag(etag)
+                .varyBy(HttpHeaders.ACCEPT)
                 .body(userResponse);
     }
 
+    /**
+     * Entries are written as an array while the cursor is read, so the response is never held in memory
+     * as a whole. Users that do not exist are reported as NOT_FOUND entries at the end of the array.
+     * The array is JSON unless Accept asks for CBOR or Smile.
+     */
+    @PostMapping(value = "/location/latest/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, MediaTypeConstants.APPLICATION_SMILE_VALUE})
+    public ResponseEntity<StreamingResponseBody> getUsersLatestLocations(
+            @RequestBody @Valid GetUserLatestLocationBulkRequestDto dto,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        val format = streamingFormats.select(accept);
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<UserLatestLocationResultDto> results = service.getUsersLatestLocations(dto.userIds());
+                 JsonGenerator generator = format.objectMapper().createGenerator(outputStream)) {
+                writeArray(generator, results);
+            }
+        };
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .contentType(format.mediaType())
+                .body(body);
+    }
+
+    /**
+     * Server-Sent Events with the current and every new latest location of the given users,
+     * userId can be repeated. A client that falls behind only gets the newest location of every user
+     * (or loses the oldest ones, see jitpay.location.stream.overflow-policy). The stream is closed after
+     * jitpay.location.stream.timeout and the client is expected to reconnect.
+     */
+    @GetMapping(value = "/location/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamLatestLocations(@RequestParam("userId") List<UUID> userIds) {
+        val emitter = new SseEmitter(streamProperties.getTimeout().toMillis());
+        val subscription = service.subscribeToLatestLocations(userIds, new SseLocationSubscriber(emitter));
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+
+        return emitter;
+    }
+
+    /**
+     * Users whose latest location is at most radius meters away from (lat, lon), nearest first.
+     */
+    @GetMapping("/location/near")
+    public ResponseEntity<GetUsersNearLocationResponseDto> getUsersNearLocation(
+            @RequestParam double lat,
+            @RequestParam double lon,
+            @RequestParam double radius,
+            @RequestParam(required = false) Integer limit) {
+        val users = service.getUsersNearLocation(lat, lon, radius, limit);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(users);
+    }
+
+    /**
+     * Positions of the count users nearest to (lat, lon), optionally within radius meters, nearest first.
+     * Meant for frequent dispatch lookups, it is served from memory when jitpay.location.spatial-index is enabled.
+     */
+    @GetMapping("/location/nearest")
+    public ResponseEntity<GetUserPositionsResponseDto> getNearestUserPositions(
+            @RequestParam double lat,
+            @RequestParam double lon,
+            @RequestParam(required = false) Double radius,
+            @RequestParam(required = false) Integer count) {
+        val positions = service.getNearestUserPositions(lat, lon, radius, count);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(positions);
+    }
+
+    @GetMapping("/location/within")
+    public ResponseEntity<GetUserPositionsResponseDto> getUserPositionsWithin(
+            @RequestParam double minLat,
+            @RequestParam double minLon,
+            @RequestParam double maxLat,
+            @RequestParam double maxLon,
+            @RequestParam(required = false) Integer limit) {
+        val positions = service.getUserPositionsWithin(minLat, minLon, maxLat, maxLon, limit);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(positions);
+    }
+
+    /**
+     * Returns the whole range unless limit or cursor is given, in which case a single page is returned
+     * together with nextCursor to fetch the following one.
+     * With stream=true the whole range is written location by location while it is read from the database.
+     * The response has the same shape, but an error in the middle of it can only cut the response short.
+     * tolerance (meters) and maxPoints simplify the whole range as a track and report droppedPoints,
+     * they cannot be combined with paging or streaming.
+     * All variants answer 304 when If-None-Match holds the current ETag, see etag.
+     * The whole range is written by the service straight from the database result into the response,
+     * JSON unless Accept asks for CBOR or Smile.
+     */
     @GetMapping("/location/range")
-    public ResponseEntity<GetUserLocationRangeResponseDto> getUserLocationsInRange(
+    public ResponseEntity<?> getUserLocationsInRange(
             @RequestParam UUID userId,
             @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime from,
-            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime to
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime to,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean stream,
+            @RequestParam(required = false) Double tolerance,
+            @RequestParam(required = false) Integer maxPoints,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            WebRequest request
             ) {
-        val user = service.getUserLocationsRange(userId, from, to);
+        if ((tolerance != null || maxPoints != null) && (stream || limit != null || cursor != null)) {
+            throw new JITPayBadRequestException("tolerance and maxPoints cannot be combined with stream, "
+                    + "limit or cursor");
+        }
+
+        val etag = etag(service.getUserVersion(userId));
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity
+                    .status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+
+        if (tolerance != null || maxPoints != null) {
+            val simplified = service.getUserLocationsRangeSimplified(userId, from, to, tolerance, maxPoints);
 
-        val response = new GetUserLocationRangeResponseDto(userId, user.locations());
+            return ResponseEntity
+                    .status(HttpStatus.OK)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .body(simplified);
+        }
+
+        if (stream && limit == null && cursor == null) {
+            // opens the cursor here, so that a missing user is still answered with 404
+            val locations = service.streamUserLocationsRange(userId, from, to);
+            val format = streamingFormats.select(accept);
+            StreamingResponseBody body = outputStream -> {
+                try (Stream<LocationTimedDto> results = locations;
+                     JsonGenerator generator = format.objectMapper().createGenerator(outputStream)) {
+                    generator.writeStartObject();
+                    generator.writeObjectField("userId", userId);
+                    generator.writeFieldName("locations");
+                    writeArray(generator, results);
+                    generator.writeEndObject();
+                }
+            };
+
+            return ResponseEntity
+                    .status(HttpStatus.OK)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .contentType(format.mediaType())
+                    .body(body);
+        }
+
+        if (limit != null || cursor != null) {
+            val page = service.getUserLocationsRangePage(userId, from, to, cursor, limit);
+
+            return ResponseEntity
+                    .status(HttpStatus.OK)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .body(page);
+        }
+
+        // a missing user has already been answered with 404 by getUserVersion
+        val format = streamingFormats.select(accept);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = format.objectMapper().createGenerator(outputStream)) {
+                service.writeUserLocationsRange(userId, from, to, generator);
+            }
+        };
 
         return ResponseEntity
                 .status(HttpStatus.OK)
-                .body(response);
+                .eTag(etag)
+                .varyBy(HttpHeaders.ACCEPT)
+                .contentType(format.mediaType())
+                .body(body);
+    }
+
+    /**
+     * Summaries of a user's locations per hour or day, answered from rollups without reading any location.
+     */
+    @GetMapping("/location/summary")
+    public ResponseEntity<GetUserLocationSummaryResponseDto> getUserLocationSummary(
+            @RequestParam UUID userId,
+            @RequestParam(defaultValue = "day") String granularity,
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime from,
+            @RequestParam @DateTimeFormat(pattern = ValidationConstants.TIMESTAMP_URL_PATTERN) LocalDateTime to) {
+        val summary = service.getUserLocationSummary(userId, granularity, from, to);
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(summary);
+    }
+
+    /**
+     * Every write to a user bumps its version, so the ETag changes whenever any location response of the user could.
+     * The ETag is weak: JSON, CBOR and Smile bodies of the same version are equivalent but not byte for byte equal,
+     * so they share it only as W/"...". Responses carry Vary: Accept so that caches keep the bodies apart.
+     * The version is read before the response, so a write racing with the request at worst makes the next request
+     * of the client miss, it never makes a stale body look current. Cached latest locations are served only for the
+     * version just read, see LatestLocationCache. createdOn of the latest location covers documents whose
+     * latestLocation was backfilled without bumping the version.
+     */
+    static String etag(UserVersionDto version) {
+        val createdOn = version.latestCreatedOn() == null ? 0
+                : version.latestCreatedOn().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        return "W/\"" + version.version() + "-" + createdOn + "\"";
+    }
+
+    private static void writeArray(JsonGenerator generator, Stream<?> items) throws IOException {
+        generator.writeStartArray();
+        Iterator<?> iterator = items.iterator();
+        while (iterator.hasNext()) {
+            generator.writeObject(iterator.next());
+        }
+        generator.writeEndArray();
+    }
+
+    static LocationWriteProperties.AckMode resolveAckMode(String prefer, LocationWriteProperties.AckMode defaultAck) {
+        if (prefer != null) {
+            for (String preference : prefer.split(",")) {
+                switch (preference.trim().toLowerCase()) {
+                    case "return=minimal" -> {
+                        return LocationWriteProperties.AckMode.MINIMAL;
+                    }
+                    case "return=representation" -> {
+                        return LocationWriteProperties.AckMode.REPRESENTATION;
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        return defaultAck;
     }
 
 }
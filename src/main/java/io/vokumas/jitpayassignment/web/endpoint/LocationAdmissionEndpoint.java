@@ -0,0 +1,41 @@
+package io.vokumas.jitpayassignment.web.endpoint;
+
+import io.vokumas.jitpayassignment.back.service.admission.LocationAdmissionControl;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Current admission limits of location writes at /actuator/admission. A POST with any of enabled, userRate,
+ * userBurst and maxInFlightWrites changes them at runtime, on this instance only and until it is restarted.
+ * Anyone who can reach it can turn the limits off, so it is disabled and not exposed by default. Enable it with
+ * management.endpoint.admission.enabled and expose it only on a management port that is not public.
+ */
+@Component
+@Endpoint(id = "admission", enableByDefault = false)
+@RequiredArgsConstructor
+public class LocationAdmissionEndpoint {
+
+    private final LocationAdmissionControl admissionControl;
+
+    @ReadOperation
+    public LocationAdmissionControl.Limits limits() {
+        return admissionControl.getLimits();
+    }
+
+    @WriteOperation
+    public LocationAdmissionControl.Limits updateLimits(@Nullable Boolean enabled, @Nullable Double userRate,
+                                                        @Nullable Integer userBurst,
+                                                        @Nullable Integer maxInFlightWrites) {
+        try {
+            return admissionControl.updateLimits(enabled, userRate, userBurst, maxInFlightWrites);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+    }
+
+}
@@ -1,9 +1,15 @@
 package io.vokumas.jitpayassignment.web.exception.advice;
 
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayGeofenceNotFoundException;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
 import io.vokumas.jitpayassignment.back.exception.JITPayUserNotFoundException;
+import io.vokumas.jitpayassignment.back.exception.JITPayWriteOutcomeUnknownException;
 import io.vokumas.jitpayassignment.web.exception.RestErrorResponse;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,11 +20,13 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.UUID;
 
 @Slf4j
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class CommonExceptionHandler extends ResponseEntityExceptionHandler {
 
     @ExceptionHandler({Exception.class, RuntimeException.class})
@@ -55,6 +63,95 @@ public class CommonExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(response);
     }
 
+    @ExceptionHandler(JITPayGeofenceNotFoundException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayGeofenceNotFoundException ex) {
+        var message = "Geofence not found";
+        val logId = getLogId("info", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.NOT_FOUND)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayBadRequestException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayBadRequestException ex) {
+        var message = "Bad request. " + ex.getMessage();
+        val logId = getLogId("info", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayIngestionOverloadedException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayIngestionOverloadedException ex) {
+        var message = "Service is overloaded. Retry later";
+        val logId = getLogId("warn", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(ex.getRetryAfter()))
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayWriteOutcomeUnknownException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayWriteOutcomeUnknownException ex) {
+        // no Retry-After, a retry might store the same locations twice
+        var message = "Write was not confirmed in time, it might still be stored";
+        val logId = getLogId("warn", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayRateLimitedException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayRateLimitedException ex) {
+        var message = "Too many requests. " + ex.getMessage();
+        // rejected clients keep sending, so this is not worth more than debug
+        val logId = getLogId("debug", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(ex.getRetryAfter()))
+                .body(response);
+    }
+
     @Override
     public final ResponseEntity<Object> handleMethodArgumentNotValid(
             MethodArgumentNotValidException ex, HttpHeaders headers, HttpStatus status, WebRequest request) {
@@ -98,7 +195,12 @@ public class CommonExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(response);
     }
 
-    private static UUID getLogId(String level, String message, Throwable cause) {
+    static String retryAfterSeconds(Duration retryAfter) {
+        // Retry-After is in whole seconds, rounding up so that clients do not come back too early
+        return String.valueOf(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+    }
+
+    static UUID getLogId(String level, String message, Throwable cause) {
         var logId = UUID.randomUUID();
         message = message + ". LogId: {}";
 
@@ -0,0 +1,193 @@
+package io.vokumas.jitpayassignment.web.exception.advice;
+
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayUserNotFoundException;
+import io.vokumas.jitpayassignment.back.exception.JITPayWriteOutcomeUnknownException;
+import io.vokumas.jitpayassignment.web.exception.RestErrorResponse;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.MissingRequestValueException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+
+/**
+ * Same responses as CommonExceptionHandler for the reactive API. WebFlux reports binding and validation errors
+ * as ResponseStatusExceptions, which are answered with their own status unless they are one of
+ * the validation errors CommonExceptionHandler has a response for.
+ */
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExceptionHandler {
+
+    @ExceptionHandler({Exception.class, RuntimeException.class})
+    public final ResponseEntity<RestErrorResponse> handleException(RuntimeException ex) {
+        var message = "Oops. Something wrong happened";
+        val logId = CommonExceptionHandler.getLogId("error", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayUserNotFoundException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayUserNotFoundException ex) {
+        var message = "User not found";
+        val logId = CommonExceptionHandler.getLogId("info", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.NOT_FOUND)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayBadRequestException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayBadRequestException ex) {
+        var message = "Bad request. " + ex.getMessage();
+        val logId = CommonExceptionHandler.getLogId("info", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayIngestionOverloadedException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayIngestionOverloadedException ex) {
+        var message = "Service is overloaded. Retry later";
+        val logId = CommonExceptionHandler.getLogId("warn", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, CommonExceptionHandler.retryAfterSeconds(ex.getRetryAfter()))
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayWriteOutcomeUnknownException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayWriteOutcomeUnknownException ex) {
+        // no Retry-After, a retry might store the same locations twice
+        var message = "Write was not confirmed in time, it might still be stored";
+        val logId = CommonExceptionHandler.getLogId("warn", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(response);
+    }
+
+    @ExceptionHandler(JITPayRateLimitedException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(JITPayRateLimitedException ex) {
+        var message = "Too many requests. " + ex.getMessage();
+        // rejected clients keep sending, so this is not worth more than debug
+        val logId = CommonExceptionHandler.getLogId("debug", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, CommonExceptionHandler.retryAfterSeconds(ex.getRetryAfter()))
+                .body(response);
+    }
+
+    @ExceptionHandler(WebExchangeBindException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(WebExchangeBindException ex) {
+        var message = "Bad request. There are some request data errors";
+        val logId = CommonExceptionHandler.getLogId("error", message, ex);
+
+        var validationErrors = new HashMap<String, String>();
+        ex.getFieldErrors()
+                .forEach(e -> validationErrors.put(e.getField(), e.getDefaultMessage()));
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                validationErrors
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(response);
+    }
+
+    @ExceptionHandler(MissingRequestValueException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(MissingRequestValueException ex) {
+        var message = "Bad request. There are some parameters missing";
+        val logId = CommonExceptionHandler.getLogId("error", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(response);
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public final ResponseEntity<RestErrorResponse> handleException(ResponseStatusException ex) {
+        var message = ex.getReason() == null ? ex.getStatus().getReasonPhrase() : ex.getReason();
+        val logId = CommonExceptionHandler.getLogId("info", message, ex);
+
+        val response = new RestErrorResponse(
+                -1,
+                message,
+                logId,
+                null
+        );
+
+        return ResponseEntity
+                .status(ex.getStatus())
+                .headers(ex.getHeaders())
+                .body(response);
+    }
+
+}
@@ -0,0 +1,387 @@
+package io.vokumas.jitpayassignment.integration;
+
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.migration.LatestLocationMigration;
+import io.vokumas.jitpayassignment.back.model.migration.LocationBucketMigration;
+import io.vokumas.jitpayassignment.back.model.migration.LocationRollupRebuild;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationCursor;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import io.vokumas.jitpayassignment.config.ReadRoutingProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Testcontainers
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@EnableConfigurationProperties({LocationStorageProperties.class, ReadRoutingProperties.class,
+        LocationRollupProperties.class})
+@TestPropertySource(properties = {
+        "jitpay.location.storage.mode=bucketed",
+        "jitpay.location.storage.bucket-granularity=day",
+        "jitpay.location.storage.bucket-capacity=2"
+})
+public class JitpayBucketedMongoRepositoryIntegrationTests {
+
+    @Container
+    private final static MongoDBContainer mongoContainer = new MongoDBContainer("mongo:latest"); // version is to be set as stable for a real application
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoContainer::getReplicaSetUrl);
+    }
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private LocationStorageProperties storageProperties;
+
+    @BeforeEach
+    void init() {
+        userRepository.deleteAll();
+        mongoTemplate.remove(new Query(), LocationBucket.class);
+    }
+
+    @Test
+    void shouldAddLocationsIntoCappedBuckets_CountBuckets() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(7.15081, 163.10450, dateTime.plusHours(2)));
+        userRepository.addLocation(userId, new Location(12.42749, 107.37883, dateTime.plusDays(1)));
+
+        var buckets = mongoTemplate.findAll(LocationBucket.class);
+        var user = userRepository.findUserByUserId(userId).get();
+
+        assertEquals(3, buckets.size());
+        assertTrue(buckets.stream().allMatch(b -> b.getCount() <= 2 && b.getCount() == b.getLocations().size()));
+        assertEquals(0, user.getLocations().size());
+    }
+
+    @Test
+    void shouldAddSomeLocations_ShouldReturnLatestLocation_MatchFields() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(52.25742342295784, 10.540583401747602, dateTime.plusDays(1)));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(1).minusHours(1)));
+        userRepository.addLocation(userId, new Location(7.15081, 163.10450, dateTime.plusDays(1).minusHours(2)));
+
+        var retUser = userRepository.findByUserIdAndLatestLocation(userId).get();
+
+        assertEquals(dateTime.plusDays(1), retUser.getLocation().getCreatedOn());
+        assertEquals(52.25742342295784, retUser.getLocation().getLatitude());
+        assertEquals(10.540583401747602, retUser.getLocation().getLongitude());
+        assertEquals("some@email.com", retUser.getEmail());
+    }
+
+    @Test
+    void shouldAddSomeLocations_ShouldReturnLocationsInRange_CountLocations() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+        var from = LocalDateTime.of(2022, 11, 2, 0, 0, 0, 0);
+        var to = LocalDateTime.of(2022, 11, 5, 0, 0, 0, 0);
+
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+
+        var retUser = userRepository.findByUserIdAndLocationsInRange(userId, from, to).get();
+
+        assertEquals(7, retUser.getLocations().size());
+    }
+
+    @Test
+    void shouldCreateNoUserAndNoBucketsWhenAddingLocationsToNonExistentUser() {
+        var user = userRepository.addLocation(UUID.randomUUID(),
+                new Location(-5.86906, 172.35367, LocalDateTime.of(2022, 11, 1, 0, 0)));
+
+        assertTrue(user.isEmpty());
+        assertEquals(0, userRepository.count());
+        assertEquals(0, mongoTemplate.count(new Query(), LocationBucket.class));
+    }
+
+    @Test
+    void shouldMigrateEmbeddedLocationsIntoBuckets() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+        // simulates a document written in embedded mode
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                new Update().push("locations").each(
+                        new Location(-5.86906, 172.35367, dateTime),
+                        new Location(23.77165, 92.73155, dateTime.plusHours(1)),
+                        new Location(7.15081, 163.10450, dateTime.plusHours(2)),
+                        new Location(12.42749, 107.37883, dateTime.plusDays(1))),
+                User.class);
+
+        var migrated = new LocationBucketMigration(mongoTemplate, storageProperties).migrate();
+
+        var buckets = mongoTemplate.findAll(LocationBucket.class);
+        var retUser = userRepository.findByUserIdAndLocationsInRange(userId,
+                dateTime.minusDays(1), dateTime.plusDays(2)).get();
+
+        assertEquals(1, migrated);
+        assertEquals(3, buckets.size());
+        assertEquals(4, retUser.getLocations().size());
+        assertEquals(0, userRepository.findUserByUserId(userId).get().getLocations().size());
+        assertEquals(dateTime.plusDays(1), userRepository.findByUserIdAndLatestLocation(userId).get()
+                .getLocation().getCreatedOn());
+    }
+
+    @Test
+    void shouldAddLocationsInBulk_ReportMissingUsers() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        var missingUserId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        userRepository.upsertUser(new User(otherUserId, "other@email.com", "Cool Name",
+                "Some cool Lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+
+        var locationsByUser = new LinkedHashMap<UUID, List<Location>>();
+        locationsByUser.put(userId, List.of(
+                new Location(-5.86906, 172.35367, dateTime),
+                new Location(23.77165, 92.73155, dateTime.plusHours(1)),
+                new Location(7.15081, 163.10450, dateTime.plusHours(2))));
+        locationsByUser.put(missingUserId, List.of(new Location(12.42749, 107.37883, dateTime)));
+        locationsByUser.put(otherUserId, List.of(new Location(-68.27599, 130.78756, dateTime)));
+
+        var statuses = userRepository.addLocations(locationsByUser);
+
+        assertEquals(LocationWriteStatus.APPLIED, statuses.get(userId));
+        assertEquals(LocationWriteStatus.APPLIED, statuses.get(otherUserId));
+        assertEquals(LocationWriteStatus.USER_NOT_FOUND, statuses.get(missingUserId));
+        assertEquals(2, userRepository.count());
+        assertEquals(3, userRepository.findByUserIdAndLocationsInRange(userId,
+                dateTime.minusDays(1), dateTime.plusDays(1)).get().getLocations().size());
+        assertEquals(1, userRepository.findByUserIdAndLocationsInRange(otherUserId,
+                dateTime.minusDays(1), dateTime.plusDays(1)).get().getLocations().size());
+    }
+
+    @Test
+    void shouldPushLocationWithoutCreatingUsers() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+
+        var applied = userRepository.pushLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        var missing = userRepository.pushLocation(UUID.randomUUID(), new Location(-5.86906, 172.35367, dateTime));
+
+        assertEquals(LocationWriteStatus.APPLIED, applied);
+        assertEquals(LocationWriteStatus.USER_NOT_FOUND, missing);
+        assertEquals(1, userRepository.count());
+        assertEquals(1, userRepository.findByUserIdAndLocationsInRange(userId,
+                dateTime.minusDays(1), dateTime.plusDays(1)).get().getLocations().size());
+    }
+
+    @Test
+    void shouldBackfillLatestLocationFromBuckets() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(52.25742342295784, 10.540583401747602, dateTime.plusDays(1)));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(1).minusHours(1)));
+        // simulates a document written before latestLocation was maintained
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                new Update().unset("latestLocation"), User.class);
+
+        var backfilled = new LatestLocationMigration(mongoTemplate, storageProperties).migrate();
+        var retUser = userRepository.findByUserIdAndLatestLocation(userId).get();
+
+        assertEquals(1, backfilled);
+        assertEquals(dateTime.plusDays(1), retUser.getLocation().getCreatedOn());
+        assertEquals(52.25742342295784, retUser.getLocation().getLatitude());
+    }
+
+    @Test
+    void shouldPageThroughLocationsInRange_KeepOrderWithoutDuplicates() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.addLocation(userId, new Location(7.15081, 163.10450, dateTime.plusHours(2)));
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(12.42749, 107.37883, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(-68.27599, 130.78756, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(-13.97378, 138.91421, dateTime.plusDays(3)));
+
+        List<Location> collected = new ArrayList<>();
+        LocationCursor cursor = null;
+        do {
+            var page = userRepository.findByUserIdAndLocationsPageInRange(userId,
+                    dateTime, dateTime.plusDays(1), cursor, 3).get().getLocations();
+            var pageSize = Math.min(2, page.size());
+            collected.addAll(page.subList(0, pageSize));
+            cursor = page.size() > 2 ? LocationCursor.after(cursor, page.subList(0, pageSize)) : null;
+        } while (cursor != null);
+
+        assertEquals(5, collected.size());
+        assertEquals(dateTime, collected.get(0).getCreatedOn());
+        assertEquals(-68.27599, collected.get(1).getLatitude());
+        assertEquals(12.42749, collected.get(2).getLatitude());
+        assertEquals(23.77165, collected.get(3).getLatitude());
+        assertEquals(dateTime.plusHours(2), collected.get(4).getCreatedOn());
+    }
+
+    @Test
+    void shouldStreamLocationsInRange_CountLocations() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+
+        long count;
+        try (var locations = userRepository.streamLocationsInRange(userId,
+                dateTime.plusDays(1), dateTime.plusDays(4))) {
+            count = locations.count();
+        }
+        long missingUserCount;
+        try (var locations = userRepository.streamLocationsInRange(UUID.randomUUID(),
+                dateTime.plusDays(1), dateTime.plusDays(4))) {
+            missingUserCount = locations.count();
+        }
+
+        assertEquals(7, count);
+        assertEquals(0, missingUserCount);
+    }
+
+    @Test
+    void shouldWriteLocationsInRangeAsJson_SameAsMappedLocations() throws Exception {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0, 0, 123_000_000);
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+        var from = dateTime.plusDays(1);
+        var to = dateTime.plusDays(4);
+        var objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        var expected = objectMapper.writeValueAsString(userRepository.findByUserIdAndLocationsInRange(userId, from, to)
+                .get().getLocations().stream()
+                .map(l -> new LocationTimedDto(l.getCreatedOn(), new LocationDto(l.getLatitude(), l.getLongitude())))
+                .toList());
+        var written = new StringWriter();
+        boolean found;
+        try (var generator = objectMapper.createGenerator(written)) {
+            generator.writeStartArray();
+            found = userRepository.writeLocationsInRange(userId, from, to, generator);
+            generator.writeEndArray();
+        }
+        var missingUserFound = userRepository.writeLocationsInRange(UUID.randomUUID(), from, to,
+                objectMapper.createGenerator(new StringWriter()));
+
+        assertTrue(found);
+        assertEquals(expected, written.toString());
+        assertFalse(missingUserFound);
+    }
+
+    @Test
+    void shouldFindLocationSeriesInRange_SameAsMappedLocations() throws Exception {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0, 0, 123_000_000);
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+        var from = dateTime.plusDays(1);
+        var to = dateTime.plusDays(4);
+        var objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        var expected = userRepository.findByUserIdAndLocationsInRange(userId, from, to)
+                .get().getLocations().stream()
+                .map(l -> new LocationTimedDto(l.getCreatedOn(), new LocationDto(l.getLatitude(), l.getLongitude())))
+                .toList();
+        var series = userRepository.findLocationSeriesInRange(userId, from, to);
+        var missingUserSeries = userRepository.findLocationSeriesInRange(UUID.randomUUID(), from, to);
+
+        assertTrue(series.isPresent());
+        assertEquals(7, series.get().size());
+        assertEquals(expected, new ArrayList<>(series.get()));
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(series.get()));
+        assertFalse(missingUserSeries.isPresent());
+    }
+
+    @Test
+    void shouldRebuildRollupsFromBuckets_CountLocationsPerHour() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusMinutes(30)));
+        userRepository.addLocation(userId, new Location(7.15081, 163.10450, dateTime.plusHours(1)));
+        mongoTemplate.remove(new Query(), LocationRollup.class);
+
+        new LocationRollupRebuild(mongoTemplate, storageProperties, new LocationRollupProperties()).rebuild();
+        var hours = userRepository.findRollups(userId, TimeGranularity.HOUR, dateTime, dateTime.plusHours(1));
+
+        assertEquals(2, hours.size());
+        assertEquals(2, hours.get(0).getCount());
+        assertEquals(1, hours.get(1).getCount());
+        assertEquals(dateTime.plusMinutes(30), hours.get(0).getLastCreatedOn());
+    }
+
+}
@@ -1,33 +1,76 @@
 package io.vokumas.jitpayassignment.integration;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+import io.vokumas.jitpayassignment.back.model.migration.LatestLocationMigration;
+import io.vokumas.jitpayassignment.back.model.migration.LocationRollupRebuild;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceEvent;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceTransition;
 import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserNearLocation;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
 import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.CustomMongoRepositoryImpl;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceEventRepository;
+import io.vokumas.jitpayassignment.back.model.repository.LocationCursor;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
 import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.back.service.stream.LatestLocationChangeStream;
+import io.vokumas.jitpayassignment.back.service.stream.LocationStreamHub;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscriber;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties;
+import io.vokumas.jitpayassignment.config.ReadRoutingProperties;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
 import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.testcontainers.containers.MongoDBContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.io.StringWriter;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Testcontainers
 @DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@EnableConfigurationProperties({LocationStorageProperties.class, ReadRoutingProperties.class,
+        LocationRollupProperties.class})
 public class JitpayMongoRepositoryIntegrationTests {
 
     @Container
@@ -41,9 +84,16 @@ public class JitpayMongoRepositoryIntegrationTests {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private GeofenceEventRepository geofenceEventRepository;
+
     @BeforeEach
     void init() {
         userRepository.deleteAll();
+        mongoTemplate.dropCollection("migrations");
     }
 
     @Test
@@ -84,6 +134,34 @@ public class JitpayMongoRepositoryIntegrationTests {
         assertTrue(user.isEmpty());
     }
 
+    @Test
+    void shouldReadUsersWrittenBySpringData_WriteUsersReadableBySpringData() {
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0, 0, 250_000_000);
+        var springUser = new User(UUID.randomUUID(), "some@email.com", "Yet another cool name",
+                "Even cooler lastname");
+        springUser.setLocations(new ArrayList<>(List.of(new Location(-5.86906, 172.35367, dateTime))));
+        mongoTemplate.insert(springUser);
+        var codecUserId = UUID.randomUUID();
+        userRepository.upsertUser(new User(codecUserId, "other@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        userRepository.addLocation(codecUserId, new Location(23.77165, 92.73155, dateTime));
+
+        var readByCodec = userRepository.findByUserIdAndLocationsInRange(springUser.getUserId(),
+                dateTime, dateTime).get();
+        var readBySpring = mongoTemplate.findById(codecUserId, User.class);
+
+        assertEquals("some@email.com", readByCodec.getEmail());
+        assertEquals(1, readByCodec.getLocations().size());
+        assertEquals(dateTime, readByCodec.getLocations().get(0).getCreatedOn());
+        assertEquals(-5.86906, readByCodec.getLocations().get(0).getLatitude());
+        assertNotNull(readBySpring);
+        assertEquals("other@email.com", readBySpring.getEmail());
+        assertEquals(dateTime, readBySpring.getLocations().get(0).getCreatedOn());
+        assertEquals(92.73155, readBySpring.getLocations().get(0).getLongitude());
+        assertEquals(dateTime, readBySpring.getLatestLocation().getCreatedOn());
+        assertEquals(2, readBySpring.getVersion());
+    }
+
     @Test
     void shouldInsertOneWithLocations_CountLocations() {
         var userId = java.util.UUID.randomUUID();
@@ -313,4 +391,465 @@ public class JitpayMongoRepositoryIntegrationTests {
         assertTrue(user.isEmpty());
     }
 
+    @Test
+    void shouldAddLocationsInBulk_ReportMissingUsers() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        var missingUserId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        userRepository.upsertUser(new User(otherUserId, "other@email.com", "Cool Name",
+                "Some cool Lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+
+        var locationsByUser = new LinkedHashMap<UUID, List<Location>>();
+        locationsByUser.put(userId, List.of(
+                new Location(-5.86906, 172.35367, dateTime),
+                new Location(23.77165, 92.73155, dateTime.plusHours(1)),
+                new Location(7.15081, 163.10450, dateTime.plusHours(2))));
+        locationsByUser.put(missingUserId, List.of(new Location(12.42749, 107.37883, dateTime)));
+        locationsByUser.put(otherUserId, List.of(new Location(-68.27599, 130.78756, dateTime)));
+
+        var statuses = userRepository.addLocations(locationsByUser);
+
+        assertEquals(LocationWriteStatus.APPLIED, statuses.get(userId));
+        assertEquals(LocationWriteStatus.APPLIED, statuses.get(otherUserId));
+        assertEquals(LocationWriteStatus.USER_NOT_FOUND, statuses.get(missingUserId));
+        assertEquals(2, userRepository.count());
+        assertEquals(3, userRepository.findByUserIdAndLocationsInRange(userId,
+                dateTime.minusDays(1), dateTime.plusDays(1)).get().getLocations().size());
+        assertEquals(1, userRepository.findByUserIdAndLocationsInRange(otherUserId,
+                dateTime.minusDays(1), dateTime.plusDays(1)).get().getLocations().size());
+    }
+
+    @Test
+    void shouldPushLocationWithoutCreatingUsers() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+
+        var applied = userRepository.pushLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        var missing = userRepository.pushLocation(UUID.randomUUID(), new Location(-5.86906, 172.35367, dateTime));
+
+        assertEquals(LocationWriteStatus.APPLIED, applied);
+        assertEquals(LocationWriteStatus.USER_NOT_FOUND, missing);
+        assertEquals(1, userRepository.count());
+        assertEquals(1, userRepository.findByUserIdAndLocationsInRange(userId,
+                dateTime.minusDays(1), dateTime.plusDays(1)).get().getLocations().size());
+    }
+
+    @Test
+    void shouldKeepLatestLocationWhenOlderLocationsArriveLater() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+        userRepository.addLocation(userId, new Location(52.25742342295784, 10.540583401747602, dateTime));
+        userRepository.pushLocation(userId, new Location(-5.86906, 172.35367, dateTime.minusHours(1)));
+        var locationsByUser = new LinkedHashMap<UUID, List<Location>>();
+        locationsByUser.put(userId, List.of(
+                new Location(23.77165, 92.73155, dateTime.minusHours(3)),
+                new Location(7.15081, 163.10450, dateTime.minusHours(2))));
+        userRepository.addLocations(locationsByUser);
+
+        var retUser = userRepository.findByUserIdAndLatestLocation(userId).get();
+
+        assertEquals(dateTime, retUser.getLocation().getCreatedOn());
+        assertEquals(52.25742342295784, retUser.getLocation().getLatitude());
+        assertEquals(10.540583401747602, retUser.getLocation().getLongitude());
+    }
+
+    @Test
+    void shouldBackfillLatestLocationOfExistingUsers() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        // simulates a document written before latestLocation was maintained
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                new Update().push("locations").each(
+                        new Location(-5.86906, 172.35367, dateTime.minusHours(1)),
+                        new Location(52.25742342295784, 10.540583401747602, dateTime),
+                        new Location(23.77165, 92.73155, dateTime.minusHours(2))),
+                User.class);
+
+        var backfilled = new LatestLocationMigration(mongoTemplate, new LocationStorageProperties()).migrate();
+        var retUser = userRepository.findByUserIdAndLatestLocation(userId).get();
+
+        assertEquals(1, backfilled);
+        assertEquals(dateTime, retUser.getLocation().getCreatedOn());
+        assertEquals(52.25742342295784, retUser.getLocation().getLatitude());
+        assertEquals(10.540583401747602, retUser.getLocation().getLongitude());
+    }
+
+    @Test
+    void shouldBackfillLatestLocationOnlyOnFirstStartup() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        var migration = new LatestLocationMigration(mongoTemplate, new LocationStorageProperties());
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                new Update().push("locations", new Location(-5.86906, 172.35367, dateTime)), User.class);
+
+        migration.run(new DefaultApplicationArguments());
+        userRepository.upsertUser(new User(otherUserId, "other@email.com", "Cool Name",
+                "Some cool Lastname"));
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(otherUserId)),
+                new Update().push("locations", new Location(23.77165, 92.73155, dateTime)), User.class);
+        migration.run(new DefaultApplicationArguments());
+
+        assertNotNull(userRepository.findByUserIdAndLatestLocation(userId).get().getLocation());
+        assertNull(userRepository.findByUserIdAndLatestLocation(otherUserId).get().getLocation());
+        assertEquals(2, mongoTemplate.getCollection("migrations").countDocuments());
+    }
+
+    @Test
+    void shouldFindLatestLocationsOfManyUsers_SkipMissingUsers() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        userRepository.upsertUser(new User(otherUserId, "other@email.com", "Cool Name",
+                "Some cool Lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.minusHours(1)));
+        userRepository.addLocation(userId, new Location(52.25742342295784, 10.540583401747602, dateTime));
+
+        List<MongoUserSingleLocation> users;
+        try (var stream = userRepository.findByUserIdsAndLatestLocation(
+                List.of(userId, otherUserId, UUID.randomUUID()))) {
+            users = stream.toList();
+        }
+
+        assertEquals(2, users.size());
+        var user = users.stream().filter(u -> u.getUserId().equals(userId)).findFirst().get();
+        var otherUser = users.stream().filter(u -> u.getUserId().equals(otherUserId)).findFirst().get();
+        assertEquals(dateTime, user.getLocation().getCreatedOn());
+        assertEquals("other@email.com", otherUser.getEmail());
+        assertNull(otherUser.getLocation());
+    }
+
+    @Test
+    void shouldPageThroughLocationsInRange_KeepOrderWithoutDuplicates() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.addLocation(userId, new Location(7.15081, 163.10450, dateTime.plusHours(2)));
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(12.42749, 107.37883, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(-68.27599, 130.78756, dateTime.plusHours(1)));
+        userRepository.addLocation(userId, new Location(-13.97378, 138.91421, dateTime.plusDays(3)));
+
+        List<Location> collected = new ArrayList<>();
+        LocationCursor cursor = null;
+        do {
+            var page = userRepository.findByUserIdAndLocationsPageInRange(userId,
+                    dateTime, dateTime.plusDays(1), cursor, 3).get().getLocations();
+            var pageSize = Math.min(2, page.size());
+            collected.addAll(page.subList(0, pageSize));
+            cursor = page.size() > 2 ? LocationCursor.after(cursor, page.subList(0, pageSize)) : null;
+        } while (cursor != null);
+
+        assertEquals(5, collected.size());
+        assertEquals(dateTime, collected.get(0).getCreatedOn());
+        assertEquals(-68.27599, collected.get(1).getLatitude());
+        assertEquals(12.42749, collected.get(2).getLatitude());
+        assertEquals(23.77165, collected.get(3).getLatitude());
+        assertEquals(dateTime.plusHours(2), collected.get(4).getCreatedOn());
+    }
+
+    @Test
+    void shouldStreamLocationsInRange_CountLocations() {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0);
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+
+        long count;
+        try (var locations = userRepository.streamLocationsInRange(userId,
+                dateTime.plusDays(1), dateTime.plusDays(4))) {
+            count = locations.count();
+        }
+        long missingUserCount;
+        try (var locations = userRepository.streamLocationsInRange(UUID.randomUUID(),
+                dateTime.plusDays(1), dateTime.plusDays(4))) {
+            missingUserCount = locations.count();
+        }
+
+        assertEquals(7, count);
+        assertEquals(0, missingUserCount);
+    }
+
+    @Test
+    void shouldWriteLocationsInRangeAsJson_SameAsMappedLocations() throws Exception {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0, 0, 123_000_000);
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+        var from = dateTime.plusDays(1);
+        var to = dateTime.plusDays(4);
+        var objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        var expected = objectMapper.writeValueAsString(userRepository.findByUserIdAndLocationsInRange(userId, from, to)
+                .get().getLocations().stream()
+                .map(l -> new LocationTimedDto(l.getCreatedOn(), new LocationDto(l.getLatitude(), l.getLongitude())))
+                .toList());
+        var written = new StringWriter();
+        boolean found;
+        try (var generator = objectMapper.createGenerator(written)) {
+            generator.writeStartArray();
+            found = userRepository.writeLocationsInRange(userId, from, to, generator);
+            generator.writeEndArray();
+        }
+        var missingUserFound = userRepository.writeLocationsInRange(UUID.randomUUID(), from, to,
+                objectMapper.createGenerator(new StringWriter()));
+
+        assertTrue(found);
+        assertEquals(expected, written.toString());
+        assertFalse(missingUserFound);
+    }
+
+    @Test
+    void shouldFindLocationSeriesInRange_SameAsMappedLocations() throws Exception {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname"));
+        var dateTime = LocalDateTime.of(2022, 11, 1, 0, 0, 0, 123_000_000);
+        for (int day = 0; day < 6; day++) {
+            userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime.plusDays(day)));
+            userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusDays(day).plusHours(12)));
+        }
+        var from = dateTime.plusDays(1);
+        var to = dateTime.plusDays(4);
+        var objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        var expected = userRepository.findByUserIdAndLocationsInRange(userId, from, to)
+                .get().getLocations().stream()
+                .map(l -> new LocationTimedDto(l.getCreatedOn(), new LocationDto(l.getLatitude(), l.getLongitude())))
+                .toList();
+        var series = userRepository.findLocationSeriesInRange(userId, from, to);
+        var missingUserSeries = userRepository.findLocationSeriesInRange(UUID.randomUUID(), from, to);
+
+        assertTrue(series.isPresent());
+        assertEquals(7, series.get().size());
+        assertEquals(expected, new ArrayList<>(series.get()));
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(series.get()));
+        assertFalse(missingUserSeries.isPresent());
+    }
+
+    @Test
+    void shouldFindUsersNearPoint_OrderedByDistanceOfLatestLocation() {
+        var nearUserId = UUID.randomUUID();
+        var fartherUserId = UUID.randomUUID();
+        var movedAwayUserId = UUID.randomUUID();
+        var noLocationUserId = UUID.randomUUID();
+        for (var userId : List.of(nearUserId, fartherUserId, movedAwayUserId, noLocationUserId)) {
+            userRepository.upsertUser(new User(userId, "some@email.com", "Yet another cool name",
+                    "Even cooler lastname"));
+        }
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.addLocation(fartherUserId, new Location(52.5300, 13.4050, dateTime));
+        userRepository.addLocation(nearUserId, new Location(52.5205, 13.4050, dateTime));
+        // only the latest location counts, this user used to be right at the point
+        userRepository.addLocation(movedAwayUserId, new Location(52.5200, 13.4050, dateTime));
+        userRepository.addLocation(movedAwayUserId, new Location(48.1351, 11.5820, dateTime.plusHours(1)));
+
+        List<MongoUserNearLocation> users = userRepository.findNearLatestLocation(52.5200, 13.4050, 2_000, 10);
+        List<MongoUserNearLocation> limited = userRepository.findNearLatestLocation(52.5200, 13.4050, 2_000, 1);
+
+        assertEquals(2, users.size());
+        assertEquals(nearUserId, users.get(0).getUserId());
+        assertEquals(fartherUserId, users.get(1).getUserId());
+        assertTrue(users.get(0).getDistance() < users.get(1).getDistance());
+        assertTrue(Math.abs(users.get(1).getDistance() - 1_112) < 10);
+        assertEquals(52.5300, users.get(1).getLocation().getLatitude());
+        assertEquals(1, limited.size());
+        assertEquals(nearUserId, limited.get(0).getUserId());
+    }
+
+    @Test
+    void shouldFindGeofenceEventsInRange_InclusiveAndOrdered() {
+        var userId = UUID.randomUUID();
+        var geofenceId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        geofenceEventRepository.deleteAll();
+        geofenceEventRepository.insert(List.of(
+                geofenceEvent(userId, geofenceId, GeofenceTransition.EXIT, dateTime.plusHours(2)),
+                geofenceEvent(userId, geofenceId, GeofenceTransition.ENTER, dateTime),
+                geofenceEvent(userId, UUID.randomUUID(), GeofenceTransition.ENTER, dateTime.plusHours(1)),
+                geofenceEvent(UUID.randomUUID(), geofenceId, GeofenceTransition.ENTER, dateTime.plusHours(1)),
+                geofenceEvent(userId, geofenceId, GeofenceTransition.ENTER, dateTime.plusHours(3))));
+
+        var ofUser = geofenceEventRepository.findByUserIdInRange(userId, dateTime, dateTime.plusHours(2),
+                PageRequest.of(0, 10));
+        var ofUserAndFence = geofenceEventRepository.findByUserIdAndGeofenceIdInRange(userId, geofenceId,
+                dateTime, dateTime.plusHours(3), PageRequest.of(0, 2));
+        var ofFence = geofenceEventRepository.findByGeofenceIdInRange(geofenceId, dateTime, dateTime.plusHours(3),
+                PageRequest.of(0, 10));
+
+        assertEquals(3, ofUser.size());
+        assertEquals(dateTime, ofUser.get(0).getCreatedOn());
+        assertEquals(dateTime.plusHours(2), ofUser.get(2).getCreatedOn());
+        assertEquals(2, ofUserAndFence.size());
+        assertEquals(GeofenceTransition.EXIT, ofUserAndFence.get(1).getTransition());
+        assertEquals(4, ofFence.size());
+    }
+
+    @Test
+    void shouldBumpVersionOnEveryWrite_FindVersionWithLatestCreatedOn() {
+        var userId = UUID.randomUUID();
+        var dateTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        userRepository.upsertUser(new User(userId, "jumeirah66@salst.engineer", "Jumeirah", "Espinoza"));
+        var created = userRepository.findVersion(userId).get();
+
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.pushLocation(userId, new Location(23.77165, 92.73155, dateTime.minusDays(1)));
+        var batch = new LinkedHashMap<UUID, List<Location>>();
+        batch.put(userId, List.of(new Location(7.15081, 163.10450, dateTime.minusDays(2))));
+        userRepository.addLocations(batch);
+        var written = userRepository.findVersion(userId).get();
+
+        assertEquals(1, created.getVersion());
+        assertNull(created.getLocation());
+        assertEquals(4, written.getVersion());
+        assertEquals(dateTime, written.getLocation().getCreatedOn());
+        assertNull(written.getLocation().getLatitude());
+        assertTrue(userRepository.findVersion(UUID.randomUUID()).isEmpty());
+    }
+
+    @Test
+    void shouldPublishLatestLocationChangesToSubscribers() throws Exception {
+        var userId = UUID.randomUUID();
+        userRepository.upsertUser(new User(userId, "jumeirah66@salst.engineer", "Jumeirah", "Espinoza"));
+        var meterRegistry = new SimpleMeterRegistry();
+        var properties = new LocationStreamProperties();
+        var hub = new LocationStreamHub(properties, meterRegistry);
+        var changeStream = new LatestLocationChangeStream(mongoTemplate, hub, properties, meterRegistry);
+        BlockingQueue<UserLocationEventDto> received = new LinkedBlockingQueue<>();
+        hub.start();
+        changeStream.start();
+        try {
+            hub.subscribe(List.of(userId), new LocationSubscriber() {
+                @Override
+                public void onLocations(List<UserLocationEventDto> events) {
+                    received.addAll(events);
+                }
+
+                @Override
+                public void onHeartbeat() {
+                }
+            });
+
+            // the change stream is opened asynchronously, so write until the first event gets through
+            var dateTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            UserLocationEventDto event = null;
+            for (int i = 0; i < 50 && event == null; i++) {
+                userRepository.addLocation(userId, new Location(52.52, 13.405, dateTime.plusSeconds(i)));
+                event = received.poll(200, TimeUnit.MILLISECONDS);
+            }
+
+            assertNotNull(event);
+            assertEquals(userId, event.userId());
+            assertEquals(52.52, event.location().latitude());
+            assertEquals(13.405, event.location().longitude());
+            assertTrue(event.createdOn().isAfter(dateTime.minusSeconds(1)));
+        } finally {
+            changeStream.stop();
+            hub.stop();
+        }
+    }
+
+    @Test
+    void shouldReadRangeAndVersionFromSecondaryPreferred_SingleNodeReplicaSet() {
+        var readRouting = new ReadRoutingProperties();
+        for (var operation : List.of(ReadRoutingProperties.Operation.RANGE, ReadRoutingProperties.Operation.VERSION)) {
+            var route = new ReadRoutingProperties.Route();
+            route.setPreference(ReadRoutingProperties.Preference.SECONDARY_PREFERRED);
+            route.setMaxStaleness(Duration.ofSeconds(90));
+            readRouting.getRoutes().put(operation, route);
+        }
+        var routedRepository = new CustomMongoRepositoryImpl(mongoTemplate, new LocationStorageProperties(),
+                readRouting, new LocationRollupProperties());
+        routedRepository.checkReadRoutes();
+
+        var userId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.upsertUser(new User(userId, "jumeirah66@salst.engineer", "Jumeirah", "Espinoza"));
+        userRepository.addLocation(userId, new Location(-5.86906, 172.35367, dateTime));
+        userRepository.addLocation(userId, new Location(23.77165, 92.73155, dateTime.plusHours(1)));
+
+        // the only member is the primary, secondaryPreferred falls back to it
+        var user = routedRepository.findByUserIdAndLocationsInRange(userId, dateTime, dateTime.plusHours(1)).get();
+        var version = routedRepository.findVersion(userId).get();
+
+        assertEquals(2, user.getLocations().size());
+        assertEquals(3, version.getVersion());
+    }
+
+    @Test
+    void shouldMergeWrittenLocationsIntoRollups_SameAsRebuild() {
+        var userId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        userRepository.upsertUser(new User(userId, "jumeirah66@salst.engineer", "Jumeirah", "Espinoza"));
+
+        userRepository.addLocation(userId, new Location(52.0, 10.0, dateTime));
+        userRepository.pushLocation(userId, new Location(52.001, 10.0, dateTime.plusMinutes(1)));
+        var batch = new LinkedHashMap<UUID, List<Location>>();
+        batch.put(userId, List.of(new Location(52.002, 10.001, dateTime.plusMinutes(2)),
+                new Location(52.003, 10.001, dateTime.plusHours(1))));
+        userRepository.addLocations(batch);
+        // lands before all stored locations of the day
+        userRepository.pushLocation(userId, new Location(51.999, 10.0, dateTime.minusHours(1)));
+
+        var hours = userRepository.findRollups(userId, TimeGranularity.HOUR, dateTime.minusHours(1),
+                dateTime.plusHours(1));
+        var day = userRepository.findRollups(userId, TimeGranularity.DAY, dateTime, dateTime).get(0);
+
+        assertEquals(List.of(1L, 3L, 1L), hours.stream().map(LocationRollup::getCount).toList());
+        assertEquals(5, day.getCount());
+        assertEquals(51.999, day.getMinLatitude());
+        assertEquals(52.003, day.getMaxLatitude());
+        assertEquals(10.001, day.getMaxLongitude());
+        assertEquals(dateTime.minusHours(1), day.getFirstCreatedOn());
+        assertEquals(51.999, day.getFirstLatitude());
+        assertEquals(dateTime.plusHours(1), day.getLastCreatedOn());
+        assertEquals(52.003, day.getLastLatitude());
+
+        var rebuilt = new LocationRollupRebuild(mongoTemplate, new LocationStorageProperties(),
+                new LocationRollupProperties()).rebuild();
+        var rebuiltDay = userRepository.findRollups(userId, TimeGranularity.DAY, dateTime, dateTime).get(0);
+
+        assertEquals(1, rebuilt);
+        assertEquals(5, rebuiltDay.getCount());
+        // every write was joined to the stored locations of the window, so the merged distance is exact
+        assertEquals(rebuiltDay.getDistance(), day.getDistance(), 0.01);
+        assertTrue(day.getDistance() > 400);
+    }
+
+    private static GeofenceEvent geofenceEvent(UUID userId, UUID geofenceId, GeofenceTransition transition,
+                                               LocalDateTime createdOn) {
+        var event = new GeofenceEvent();
+        event.setUserId(userId);
+        event.setGeofenceId(geofenceId);
+        event.setTransition(transition);
+        event.setCreatedOn(createdOn);
+        event.setLatitude(52.55);
+        event.setLongitude(13.45);
+        return event;
+    }
+
 }
@@ -0,0 +1,148 @@
+package io.vokumas.jitpayassignment.integration;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationBucket;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.ReactiveCustomMongoRepositoryImpl;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import io.vokumas.jitpayassignment.config.ReadRoutingProperties;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The reactive mongo auto-configuration is excluded in application.yml outside of the reactive profile,
+ * it is put back here.
+ */
+@Testcontainers
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class,
+        properties = "spring.autoconfigure.exclude=")
+@EnableConfigurationProperties({LocationStorageProperties.class, ReadRoutingProperties.class,
+        LocationRollupProperties.class})
+public class JitpayReactiveMongoRepositoryIntegrationTests {
+
+    @Container
+    private final static MongoDBContainer mongoContainer = new MongoDBContainer("mongo:latest"); // version is to be set as stable for a real application
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoContainer::getReplicaSetUrl);
+    }
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @BeforeEach
+    void init() {
+        userRepository.deleteAll();
+        mongoTemplate.remove(new Query(), LocationBucket.class);
+        mongoTemplate.remove(new Query(), LocationRollup.class);
+    }
+
+    @Test
+    void shouldWriteLocations_ReadBackSameAsBlockingRepository() {
+        var repository = repository(new LocationStorageProperties());
+        var userId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+        repository.upsertUser(new User(userId, "jumeirah66@salst.engineer", "Jumeirah", "Espinoza")).block();
+        var added = repository.addLocation(userId, new Location(52.0, 10.0, dateTime)).block();
+        var pushed = repository.pushLocation(userId, new Location(52.001, 10.0, dateTime.plusHours(1))).block();
+        // older than the latest one, must not move latestLocation back
+        repository.pushLocation(userId, new Location(51.999, 10.0, dateTime.minusHours(1))).block();
+
+        var reactiveRange = repository.findByUserIdAndLocationsInRange(userId, dateTime, dateTime.plusHours(1))
+                .block();
+        var blockingRange = userRepository.findByUserIdAndLocationsInRange(userId, dateTime, dateTime.plusHours(1))
+                .get();
+        var latest = repository.findByUserIdAndLatestLocation(userId).block();
+        var version = repository.findVersion(userId).block();
+        var day = userRepository.findRollups(userId, TimeGranularity.DAY, dateTime, dateTime).get(0);
+
+        assertEquals(1, added.getLocations().size());
+        assertEquals(LocationWriteStatus.APPLIED, pushed);
+        assertEquals(2, reactiveRange.getLocations().size());
+        assertEquals(blockingRange.getLocations().size(), reactiveRange.getLocations().size());
+        assertEquals(dateTime.plusHours(1), latest.getLocation().getCreatedOn());
+        assertEquals(4, version.getVersion());
+        assertEquals(3, day.getCount());
+    }
+
+    @Test
+    void shouldCreateNoUserWhenAddingLocationsToNonExistentUser() {
+        var repository = repository(new LocationStorageProperties());
+        var userId = UUID.randomUUID();
+        var location = new Location(52.0, 10.0, LocalDateTime.now());
+
+        StepVerifier.create(repository.addLocation(userId, location))
+                .verifyComplete();
+        StepVerifier.create(repository.pushLocation(userId, location))
+                .expectNext(LocationWriteStatus.USER_NOT_FOUND)
+                .verifyComplete();
+        StepVerifier.create(repository.findByUserIdAndLocationsInRange(userId, location.getCreatedOn().minusDays(1),
+                        location.getCreatedOn()))
+                .verifyComplete();
+
+        assertTrue(userRepository.findAll().isEmpty());
+        assertTrue(mongoTemplate.findAll(LocationRollup.class).isEmpty());
+    }
+
+    @Test
+    void shouldWriteLocationsIntoCappedBuckets_ReadRangeFromBuckets() {
+        var storageProperties = new LocationStorageProperties();
+        storageProperties.setMode(LocationStorageProperties.Mode.BUCKETED);
+        storageProperties.setBucketCapacity(2);
+        var repository = repository(storageProperties);
+        var userId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+        repository.upsertUser(new User(userId, "jumeirah66@salst.engineer", "Jumeirah", "Espinoza")).block();
+        var added = repository.addLocation(userId, new Location(52.0, 10.0, dateTime)).block();
+        repository.pushLocation(userId, new Location(52.001, 10.0, dateTime.plusMinutes(1))).block();
+        repository.pushLocation(userId, new Location(52.002, 10.0, dateTime.plusMinutes(2))).block();
+
+        var range = repository.findByUserIdAndLocationsInRange(userId, dateTime.plusMinutes(1),
+                dateTime.plusMinutes(2)).block();
+
+        assertEquals(1, added.getLocations().size());
+        assertEquals(2, range.getLocations().size());
+        // capacity of 2, so the third location of the hour opened a second bucket
+        assertEquals(2, mongoTemplate.findAll(LocationBucket.class).size());
+        assertEquals(4, repository.findVersion(userId).block().getVersion());
+    }
+
+    private ReactiveCustomMongoRepositoryImpl repository(LocationStorageProperties storageProperties) {
+        return new ReactiveCustomMongoRepositoryImpl(reactiveMongoTemplate, storageProperties,
+                new ReadRoutingProperties(), new LocationRollupProperties());
+    }
+
+}
@@ -0,0 +1,218 @@
+package io.vokumas.jitpayassignment.integration;
+
+import io.vokumas.jitpayassignment.JitpayAssignmentApplication;
+import io.vokumas.jitpayassignment.util.constants.ValidationConstants;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the same closed loop workload against the servlet API and against the reactive profile, both backed by
+ * the same Mongo container, and prints throughput and latency percentiles of both.
+ * Every virtual client sends its next request as soon as the previous one is answered. The mix is half location
+ * writes, a quarter latest location reads and a quarter one hour range reads of random users.
+ * Not part of the regular build, run with ./gradlew loadTest. The latest location cache is switched off,
+ * so that every request reaches the database, and so is admission control, so that no request is rejected.
+ */
+@Tag("load")
+@Testcontainers
+public class JitpayWebStackLoadTests {
+
+    private static final int USERS = 1_000;
+    private static final int LOCATIONS_PER_USER = 20;
+    private static final int CONCURRENCY = 512;
+    private static final Duration WARM_UP = Duration.ofSeconds(10);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(30);
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern(ValidationConstants.TIMESTAMP_DTO_PATTERN);
+    private static final LocalDateTime START = LocalDateTime.of(2022, 11, 1, 0, 0);
+
+    @Container
+    private final static MongoDBContainer mongoContainer = new MongoDBContainer("mongo:latest"); // version is to be set as stable for a real application
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    void shouldServeSameWorkloadOnBothStacks_ReportThroughputAndP99() {
+        var servlet = run("servlet");
+        var reactive = run("reactive", "reactive");
+
+        System.out.printf("%n%-10s %12s %10s %10s %10s %10s %8s%n",
+                "stack", "requests/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "errors");
+        for (var result : List.of(servlet, reactive)) {
+            System.out.printf("%-10s %12.0f %10.2f %10.2f %10.2f %10.2f %8d%n",
+                    result.stack(), result.throughput(), result.percentile(0.50), result.percentile(0.90),
+                    result.percentile(0.99), result.percentile(1.0), result.errors());
+        }
+
+        assertEquals(0, servlet.errors());
+        assertEquals(0, reactive.errors());
+    }
+
+    private Result run(String stack, String... profiles) {
+        try (var context = new SpringApplicationBuilder(JitpayAssignmentApplication.class)
+                .profiles(profiles)
+                .run("--server.port=0",
+                        "--spring.data.mongodb.uri=" + mongoContainer.getReplicaSetUrl("load-" + stack),
+                        "--jitpay.location.latest-cache.enabled=false",
+                        "--jitpay.location.stream.enabled=false",
+                        "--jitpay.location.admission.enabled=false",
+                        "--logging.level.root=warn")) {
+            var baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            var userIds = seed(baseUri);
+
+            drive(baseUri, userIds, WARM_UP);
+            var result = drive(baseUri, userIds, MEASUREMENT);
+
+            return new Result(stack, result.requests() / (double) MEASUREMENT.toSeconds(), result.latencies(),
+                    result.errors());
+        }
+    }
+
+    private List<UUID> seed(String baseUri) {
+        List<UUID> userIds = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            var userId = UUID.randomUUID();
+            userIds.add(userId);
+            send(post(baseUri + "/api/v2/user", String.format("""
+                    {"userId": "%s", "email": "user%d@email.com", "firstName": "First", "secondName": "Second"}""",
+                    userId, i)));
+            for (int j = 0; j < LOCATIONS_PER_USER; j++) {
+                send(post(baseUri + "/api/v2/user/location", locationJson(userId, START.plusMinutes(j))));
+            }
+        }
+
+        return userIds;
+    }
+
+    private Run drive(String baseUri, List<UUID> userIds, Duration duration) {
+        var deadline = System.nanoTime() + duration.toNanos();
+        var latencies = new ConcurrentLinkedQueue<Long>();
+        var requests = new AtomicLong();
+        var errors = new AtomicLong();
+
+        List<CompletableFuture<Void>> clients = new ArrayList<>(CONCURRENCY);
+        for (int i = 0; i < CONCURRENCY; i++) {
+            clients.add(client(baseUri, userIds, deadline, latencies, requests, errors));
+        }
+        CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).join();
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        assertTrue(sorted.length > 0, "no request has been answered");
+
+        return new Run(requests.get(), sorted, errors.get());
+    }
+
+    /**
+     * A single virtual client, a chain of requests that ends at the deadline.
+     */
+    private CompletableFuture<Void> client(String baseUri, List<UUID> userIds, long deadline,
+                                           ConcurrentLinkedQueue<Long> latencies, AtomicLong requests,
+                                           AtomicLong errors) {
+        if (System.nanoTime() >= deadline) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var request = nextRequest(baseUri, userIds);
+        var sentAt = System.nanoTime();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, e) -> {
+                    latencies.add(System.nanoTime() - sentAt);
+                    requests.incrementAndGet();
+                    if (e != null || response.statusCode() >= 300) {
+                        errors.incrementAndGet();
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> client(baseUri, userIds, deadline, latencies, requests, errors));
+    }
+
+    private HttpRequest nextRequest(String baseUri, List<UUID> userIds) {
+        var random = ThreadLocalRandom.current();
+        var userId = userIds.get(random.nextInt(userIds.size()));
+        var kind = random.nextInt(4);
+        if (kind < 2) {
+            var createdOn = START.plusDays(1).plusSeconds(random.nextInt(86_400));
+            return post(baseUri + "/api/v2/user/location", locationJson(userId, createdOn));
+        }
+        if (kind == 2) {
+            return HttpRequest.newBuilder(URI.create(baseUri + "/api/v2/user/location/latest?userId=" + userId))
+                    .GET()
+                    .build();
+        }
+
+        var rangeUri = String.format("%s/api/v2/user/location/range?userId=%s&from=%s&to=%s",
+                baseUri, userId, TIMESTAMP.format(START), TIMESTAMP.format(START.plusHours(1)));
+
+        return HttpRequest.newBuilder(URI.create(rangeUri))
+                .GET()
+                .build();
+    }
+
+    private void send(HttpRequest request) {
+        try {
+            var response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            assertTrue(response.statusCode() < 300, "seeding failed with " + response.statusCode());
+        } catch (Exception e) {
+            throw new IllegalStateException("Seeding failed", e);
+        }
+    }
+
+    private static HttpRequest post(String uri, String json) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private static String locationJson(UUID userId, LocalDateTime createdOn) {
+        var random = ThreadLocalRandom.current();
+        return String.format(Locale.ROOT, """
+                {"userId": "%s", "createdOn": "%s", "location": {"latitude": %f, "longitude": %f}}""",
+                userId, TIMESTAMP.format(createdOn), random.nextDouble(-80, 80), random.nextDouble(-170, 170));
+    }
+
+    private record Run(long requests, long[] latencies, long errors) {
+    }
+
+    private record Result(String stack, double throughput, long[] latencies, long errors) {
+
+        /**
+         * In milliseconds, nearest rank.
+         */
+        double percentile(double percentile) {
+            var index = Math.max(0, (int) Math.ceil(percentile * latencies.length) - 1);
+            return latencies[index] / 1_000_000.0;
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.MongoUserSingleLocation;
+import io.vokumas.jitpayassignment.back.model.mongo.User;
+import io.vokumas.jitpayassignment.back.model.repository.LocationCodec;
+import io.vokumas.jitpayassignment.back.model.repository.LocationDocuments;
+import io.vokumas.jitpayassignment.back.model.repository.MongoUserSingleLocationCodec;
+import io.vokumas.jitpayassignment.back.model.repository.UserCodec;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JitpayEntityCodecsUnitTests {
+
+    private static final Codec<Document> DOCUMENT_CODEC =
+            new DocumentCodec().withUuidRepresentation(UuidRepresentation.STANDARD);
+
+    private LocationCodec locationCodec;
+    private UserCodec userCodec;
+    private MappingMongoConverter converter;
+
+    @BeforeEach
+    public void init() {
+        locationCodec = new LocationCodec();
+        userCodec = new UserCodec(locationCodec);
+        converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+    }
+
+    @Test
+    void shouldRoundTripLocation_KeepMillisAndNulls() {
+        var location = new Location(52.25742342295784, 10.540583401747602,
+                LocalDateTime.of(2022, 11, 1, 10, 0, 0, 123_000_000));
+        var withoutCoordinates = new Location(null, null, LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_000_000));
+
+        assertThat(decode(locationCodec, encode(locationCodec, location)))
+                .usingRecursiveComparison().isEqualTo(location);
+        assertThat(decode(locationCodec, encode(locationCodec, withoutCoordinates)))
+                .usingRecursiveComparison().isEqualTo(withoutCoordinates);
+        assertThat(toDocument(encode(locationCodec, withoutCoordinates)).keySet()).containsExactly("createdOn");
+    }
+
+    @Test
+    void shouldStoreSameInstantAsSpringData_AcrossDaylightSavingTransitions() {
+        var zone = ZoneId.of("Europe/Berlin");
+        var codec = new LocationCodec(zone);
+
+        // in the spring gap, in the autumn overlap and on an ordinary day
+        for (var dateTime : List.of(LocalDateTime.of(2022, 3, 27, 2, 30), LocalDateTime.of(2022, 10, 30, 2, 30),
+                LocalDateTime.of(2022, 11, 1, 10, 0, 0, 500_000_000))) {
+            var millis = codec.toEpochMillis(dateTime);
+
+            assertThat(millis).isEqualTo(dateTime.atZone(zone).toInstant().toEpochMilli());
+        }
+        assertThat(new LocationCodec().toEpochMillis(LocalDateTime.of(2022, 11, 1, 10, 0)))
+                .isEqualTo(LocationDocuments.toDate(LocalDateTime.of(2022, 11, 1, 10, 0)).getTime());
+    }
+
+    @Test
+    void shouldRoundTripUser_WithLocationsAndLatestLocation() {
+        var user = user();
+
+        var decoded = decode(userCodec, encode(userCodec, user));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(user);
+    }
+
+    @Test
+    void shouldWriteLatestLocationInLayoutOfLocationDocuments() {
+        var user = user();
+
+        var document = toDocument(encode(userCodec, user));
+
+        assertThat(document.get("latestLocation"))
+                .isEqualTo(LocationDocuments.latestLocation(user.getLatestLocation()));
+        assertThat(document.get("_id")).isEqualTo(user.getUserId());
+    }
+
+    @Test
+    void shouldReadUserWrittenBySpringData() {
+        var user = user();
+        var written = new Document();
+        converter.write(user, written);
+
+        var decoded = decode(userCodec, fromDocument(written));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(user);
+    }
+
+    @Test
+    void shouldWriteUserReadableBySpringData() {
+        var user = user();
+
+        var read = converter.read(User.class, toDocument(encode(userCodec, user)));
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(user);
+    }
+
+    @Test
+    void shouldReadUserWithoutLocations_AsProjected() {
+        var user = user();
+        var document = toDocument(encode(userCodec, user));
+        document.remove("locations");
+
+        var decoded = decode(userCodec, fromDocument(document));
+
+        assertThat(decoded.getLocations()).isEmpty();
+        assertThat(decoded.getEmail()).isEqualTo(user.getEmail());
+    }
+
+    @Test
+    void shouldReadSingleLocationUserFromUserDocument_SameAsSpringData() {
+        var singleLocationCodec = new MongoUserSingleLocationCodec(locationCodec);
+        var bson = encode(userCodec, user());
+
+        var decoded = decode(singleLocationCodec, bson);
+        var read = converter.read(MongoUserSingleLocation.class, toDocument(bson));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(read);
+        assertThat(decoded.getLocation().getLatitude()).isEqualTo(23.77165);
+        assertThat(decoded.getVersion()).isEqualTo(3);
+    }
+
+    private static User user() {
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0, 0, 250_000_000);
+        var user = new User(UUID.randomUUID(), "some@email.com", "Yet another cool name", "Even cooler lastname");
+        user.setLocations(new ArrayList<>(List.of(
+                new Location(-5.86906, 172.35367, dateTime),
+                new Location(23.77165, 92.73155, dateTime.plusHours(1)))));
+        user.setLatestLocation(new Location(23.77165, 92.73155, dateTime.plusHours(1)));
+        user.setVersion(3);
+
+        return user;
+    }
+
+    private static <T> byte[] encode(Codec<T> codec, T value) {
+        var buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), value, EncoderContext.builder().build());
+
+        return buffer.toByteArray();
+    }
+
+    private static <T> T decode(Codec<T> codec, byte[] bson) {
+        return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+    }
+
+    private static Document toDocument(byte[] bson) {
+        return decode(DOCUMENT_CODEC, bson);
+    }
+
+    private static byte[] fromDocument(Document document) {
+        return encode(DOCUMENT_CODEC, document);
+    }
+
+}
@@ -0,0 +1,179 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.model.mongo.Geofence;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceEvent;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceMembership;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofencePoint;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceTransition;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceType;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceEventRepository;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceMembershipRepository;
+import io.vokumas.jitpayassignment.back.model.repository.GeofenceRepository;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceEngine;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceMatcher;
+import io.vokumas.jitpayassignment.config.GeofenceProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class JitpayGeofenceEngineUnitTests {
+
+    private static final LocalDateTime DATE_TIME = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+    @Mock
+    private GeofenceRepository geofenceRepository;
+    @Mock
+    private GeofenceEventRepository eventRepository;
+    @Mock
+    private GeofenceMembershipRepository membershipRepository;
+    private GeofenceEngine engine;
+
+    private final Geofence site = polygon(UUID.randomUUID(),
+            new GeofencePoint(52.50, 13.30), new GeofencePoint(52.50, 13.50),
+            new GeofencePoint(52.60, 13.50), new GeofencePoint(52.60, 13.30));
+    private final Geofence depot = circle(UUID.randomUUID(), new GeofencePoint(52.55, 13.49), 2_000);
+
+    @BeforeEach
+    public void init() {
+        lenient().when(membershipRepository.findById(any())).thenReturn(Optional.empty());
+        when(geofenceRepository.findAll()).thenReturn(List.of(site, depot));
+        engine = new GeofenceEngine(geofenceRepository, eventRepository, membershipRepository,
+                new GeofenceProperties(), new SimpleMeterRegistry());
+        engine.reload();
+    }
+
+    @Test
+    public void matcher_shouldFindPolygonsAndCircles() {
+        var matcher = GeofenceMatcher.of(List.of(site, depot), 0.1);
+
+        assertThat(matcher.containing(52.55, 13.35)).containsExactly(site.getGeofenceId());
+        assertThat(matcher.containing(52.55, 13.48))
+                .containsExactlyInAnyOrder(site.getGeofenceId(), depot.getGeofenceId());
+        assertThat(matcher.containing(52.55, 13.51)).containsExactly(depot.getGeofenceId());
+        assertThat(matcher.containing(52.45, 13.35)).isEmpty();
+    }
+
+    @Test
+    public void matcher_shouldMatchWhenFenceSpansManyCells() {
+        var country = polygon(UUID.randomUUID(),
+                new GeofencePoint(47.3, 5.9), new GeofencePoint(47.3, 15.0),
+                new GeofencePoint(55.0, 15.0), new GeofencePoint(55.0, 5.9));
+
+        var fine = GeofenceMatcher.of(List.of(country), 0.01);
+
+        assertThat(fine.containing(52.55, 13.35)).containsExactly(country.getGeofenceId());
+        assertThat(fine.containing(45.0, 13.35)).isEmpty();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void evaluate_shouldRecordEnterAndExitInOrder() {
+        var userId = UUID.randomUUID();
+
+        engine.evaluate(userId, List.of(
+                new Location(52.55, 13.51, DATE_TIME.plusMinutes(1)),
+                new Location(52.45, 13.35, DATE_TIME),
+                new Location(52.55, 13.35, DATE_TIME.plusMinutes(2))));
+
+        ArgumentCaptor<List<GeofenceEvent>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventRepository).insert(captor.capture());
+        assertThat(captor.getValue())
+                .extracting(GeofenceEvent::getGeofenceId, GeofenceEvent::getTransition, GeofenceEvent::getCreatedOn)
+                .containsExactly(
+                        tuple(depot.getGeofenceId(), GeofenceTransition.ENTER,
+                                DATE_TIME.plusMinutes(1)),
+                        tuple(site.getGeofenceId(), GeofenceTransition.ENTER,
+                                DATE_TIME.plusMinutes(2)),
+                        tuple(depot.getGeofenceId(), GeofenceTransition.EXIT,
+                                DATE_TIME.plusMinutes(2)));
+        ArgumentCaptor<GeofenceMembership> membership = ArgumentCaptor.forClass(GeofenceMembership.class);
+        verify(membershipRepository).save(membership.capture());
+        assertThat(membership.getValue().getGeofenceIds()).containsExactly(site.getGeofenceId());
+    }
+
+    @Test
+    public void evaluate_shouldIgnoreOlderLocationsAndUnchangedMembership() {
+        var userId = UUID.randomUUID();
+        engine.evaluate(userId, List.of(new Location(52.55, 13.35, DATE_TIME)));
+
+        // older location outside of every fence, then a newer one inside the same fence
+        engine.evaluate(userId, List.of(new Location(52.45, 13.35, DATE_TIME.minusMinutes(1))));
+        engine.evaluate(userId, List.of(new Location(52.56, 13.36, DATE_TIME.plusMinutes(1))));
+
+        verify(eventRepository, times(1)).insert(anyList());
+        verify(membershipRepository, times(1)).findById(userId);
+        // evaluatedUntil is stored on every evaluation, not only on transitions
+        verify(membershipRepository, times(2)).save(any());
+    }
+
+    @Test
+    public void evaluate_shouldReevaluateWhenMembershipWasStoredByAnotherInstance() {
+        var userId = UUID.randomUUID();
+        var stored = new GeofenceMembership(userId, DATE_TIME.plusMinutes(5), Set.of(site.getGeofenceId()), 0L);
+        when(membershipRepository.findById(userId)).thenReturn(Optional.empty(), Optional.of(stored));
+        when(membershipRepository.save(any()))
+                .thenThrow(new OptimisticLockingFailureException("Membership was updated in the meantime"));
+
+        engine.evaluate(userId, List.of(new Location(52.55, 13.35, DATE_TIME)));
+
+        // the location is older than the one evaluated by the other instance, so nothing is recorded
+        verify(membershipRepository, times(2)).findById(userId);
+        verify(membershipRepository, times(1)).save(any());
+        verify(eventRepository, never()).insert(anyList());
+    }
+
+    @Test
+    public void evaluate_shouldDoNothingWithoutFences() {
+        when(geofenceRepository.findAll()).thenReturn(List.of());
+        engine.reload();
+
+        engine.evaluate(UUID.randomUUID(), List.of(new Location(52.55, 13.35, DATE_TIME)));
+
+        verify(membershipRepository, never()).findById(any());
+        verify(eventRepository, never()).insert(anyList());
+    }
+
+    private static Geofence polygon(UUID geofenceId, GeofencePoint... vertices) {
+        var geofence = new Geofence();
+        geofence.setGeofenceId(geofenceId);
+        geofence.setName("site");
+        geofence.setType(GeofenceType.POLYGON);
+        geofence.setVertices(new ArrayList<>(List.of(vertices)));
+        return geofence;
+    }
+
+    private static Geofence circle(UUID geofenceId, GeofencePoint center, double radius) {
+        var geofence = new Geofence();
+        geofence.setGeofenceId(geofenceId);
+        geofence.setName("depot");
+        geofence.setType(GeofenceType.CIRCLE);
+        geofence.setCenter(center);
+        geofence.setRadius(radius);
+        return geofence;
+    }
+
+}
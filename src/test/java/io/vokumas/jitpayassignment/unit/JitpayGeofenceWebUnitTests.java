@@ -0,0 +1,127 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.vokumas.jitpayassignment.back.exception.JITPayGeofenceNotFoundException;
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceDto;
+import io.vokumas.jitpayassignment.back.model.dto.GeofenceEventDto;
+import io.vokumas.jitpayassignment.back.model.dto.GetGeofenceEventsResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceTransition;
+import io.vokumas.jitpayassignment.back.model.mongo.GeofenceType;
+import io.vokumas.jitpayassignment.back.service.declaration.GeofenceService;
+import io.vokumas.jitpayassignment.web.controller.GeofenceController;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = GeofenceController.class)
+public class JitpayGeofenceWebUnitTests {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @MockBean
+    private GeofenceService geofenceService;
+
+    @Test
+    void createOrUpdateGeofence_shouldReturnOkForValidCircle() throws Exception {
+        var geofenceId = UUID.randomUUID();
+        GeofenceDto mocked = new GeofenceDto(geofenceId, "Depot", GeofenceType.CIRCLE, null,
+                new LocationDto(52.55, 13.45), 250.0);
+        when(geofenceService.createOrUpdateGeofence(any(GeofenceDto.class))).thenReturn(mocked);
+
+        var geofenceJson = String.format("""
+                {
+                	"geofenceId": "%s",
+                	"name": "Depot",
+                	"type": "CIRCLE",
+                	"center": {"latitude": 52.55, "longitude": 13.45},
+                	"radius": 250
+                }""", geofenceId);
+
+        mvc
+                .perform(put("/api/v2/geofence")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(geofenceJson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.geofenceId").value(geofenceId.toString()))
+                .andExpect(jsonPath("$.radius").value(250.0))
+                .andExpect(jsonPath("$.vertices").doesNotExist());
+    }
+
+    @Test
+    void createOrUpdateGeofence_shouldFailWhenVertexIsInvalid() throws Exception {
+        var geofenceJson = String.format("""
+                {
+                	"geofenceId": "%s",
+                	"name": "Site",
+                	"type": "POLYGON",
+                	"vertices": [
+                		{"latitude": 52.50, "longitude": 13.30},
+                		{"latitude": 152.50, "longitude": 13.50},
+                		{"latitude": 52.60, "longitude": 13.50}
+                	]
+                }""", UUID.randomUUID());
+
+        mvc
+                .perform(put("/api/v2/geofence")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(geofenceJson))
+                .andExpect(status().isBadRequest());
+
+        verify(geofenceService, never()).createOrUpdateGeofence(any());
+    }
+
+    @Test
+    void getGeofence_shouldReturnNotFound() throws Exception {
+        var geofenceId = UUID.randomUUID();
+        when(geofenceService.getGeofence(geofenceId))
+                .thenThrow(new JITPayGeofenceNotFoundException("Geofence not found", geofenceId));
+
+        mvc
+                .perform(get("/api/v2/geofence/" + geofenceId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void deleteGeofence_shouldReturnNoContent() throws Exception {
+        mvc
+                .perform(delete("/api/v2/geofence/" + UUID.randomUUID()))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void getGeofenceEvents_shouldReturnEventsOfUser() throws Exception {
+        var userId = UUID.randomUUID();
+        var geofenceId = UUID.randomUUID();
+        GetGeofenceEventsResponseDto mocked = new GetGeofenceEventsResponseDto(List.of(
+                new GeofenceEventDto(userId, geofenceId, GeofenceTransition.ENTER,
+                        LocalDateTime.of(2022, 11, 25, 10, 10, 10), new LocationDto(52.55, 13.45))));
+        when(geofenceService.getGeofenceEvents(any(), any(), any(LocalDateTime.class), any(LocalDateTime.class),
+                any())).thenReturn(mocked);
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        mvc
+                .perform(get(String.format("/api/v2/geofence/events?userId=%s&from=%s&to=%s", userId, from, to)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.events[0].geofenceId").value(geofenceId.toString()))
+                .andExpect(jsonPath("$.events[0].transition").value("ENTER"));
+    }
+
+}
@@ -0,0 +1,199 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.back.service.cache.LatestLocationCache;
+import io.vokumas.jitpayassignment.back.service.geofence.GeofenceEngine;
+import io.vokumas.jitpayassignment.back.service.ingestion.LocationIngestionBuffer;
+import io.vokumas.jitpayassignment.back.service.ingestion.LocationWriteLanes;
+import io.vokumas.jitpayassignment.back.service.spatial.LatestPositionIndex;
+import io.vokumas.jitpayassignment.config.LocationIngestionProperties;
+import io.vokumas.jitpayassignment.config.SpatialIndexProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class JitpayIngestionBufferUnitTests {
+
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private GeofenceEngine geofenceEngine;
+    @Mock
+    private LatestLocationCache latestLocationCache;
+    @Mock
+    private LocationWriteLanes writeLanes;
+    private SimpleMeterRegistry meterRegistry;
+    private LocationIngestionProperties properties;
+    private LocationIngestionBuffer buffer;
+
+    @BeforeEach
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new LocationIngestionProperties();
+        properties.setEnabled(true);
+        properties.setQueueCapacity(10);
+        properties.setMaxBatchSize(3);
+        properties.setFlushInterval(Duration.ofSeconds(5));
+        properties.setFlushRetryBackoff(Duration.ofMillis(1));
+        lenient().when(userRepository.addLocations(anyMap())).thenAnswer(invocation -> {
+            Map<UUID, List<Location>> locationsByUser = invocation.getArgument(0);
+            return locationsByUser.keySet().stream()
+                    .collect(Collectors.toMap(id -> id, id -> LocationWriteStatus.APPLIED));
+        });
+        buffer = new LocationIngestionBuffer(userRepository, writeLanes, latestLocationCache,
+                new LatestPositionIndex(new SpatialIndexProperties(), meterRegistry), geofenceEngine, properties,
+                meterRegistry);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        buffer.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldCoalesceLocationsPerUserWhenBatchIsFull() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        buffer.start();
+
+        buffer.offer(userId, new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        buffer.offer(otherUserId, new Location(23.77165, 92.73155, LocalDateTime.now()));
+        buffer.offer(userId, new Location(7.15081, 163.10450, LocalDateTime.now()));
+
+        ArgumentCaptor<Map<UUID, List<Location>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(userRepository, timeout(1000)).addLocations(captor.capture());
+        assertThat(captor.getValue()).hasSize(2);
+        assertThat(captor.getValue().get(userId)).hasSize(2);
+        assertThat(captor.getValue().get(otherUserId)).hasSize(1);
+        assertThat(meterRegistry.get("jitpay.ingestion.flushed").tag("status", "APPLIED").counter().count())
+                .isEqualTo(3.0);
+        verify(latestLocationCache).invalidate(userId);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRetryOnlyFailedUsers() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        when(userRepository.addLocations(anyMap()))
+                .thenThrow(new IllegalStateException("Mongo is not reachable"))
+                .thenReturn(Map.of(userId, LocationWriteStatus.APPLIED, otherUserId, LocationWriteStatus.FAILED))
+                .thenReturn(Map.of(otherUserId, LocationWriteStatus.APPLIED));
+        buffer.start();
+
+        buffer.offer(userId, new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        buffer.offer(otherUserId, new Location(23.77165, 92.73155, LocalDateTime.now()));
+        buffer.offer(userId, new Location(7.15081, 163.10450, LocalDateTime.now()));
+
+        ArgumentCaptor<Map<UUID, List<Location>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(userRepository, timeout(1000).times(3)).addLocations(captor.capture());
+        assertThat(captor.getAllValues().get(2)).containsOnlyKeys(otherUserId);
+        assertThat(meterRegistry.get("jitpay.ingestion.flushed").tag("status", "APPLIED").counter().count())
+                .isEqualTo(3.0);
+    }
+
+    @Test
+    void shouldWriteThroughLanesWhenEnabled() {
+        var userId = UUID.randomUUID();
+        when(writeLanes.isEnabled()).thenReturn(true);
+        when(writeLanes.addLocations(anyMap())).thenReturn(Map.of(userId, LocationWriteStatus.APPLIED));
+        buffer.start();
+
+        buffer.offer(userId, new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        buffer.stop();
+
+        verify(writeLanes).addLocations(anyMap());
+        verify(userRepository, never()).addLocations(anyMap());
+    }
+
+    @Test
+    void shouldDropLocationsWhenEveryAttemptFails() {
+        var userId = UUID.randomUUID();
+        when(userRepository.addLocations(anyMap())).thenThrow(new IllegalStateException("Mongo is not reachable"));
+        buffer.start();
+
+        buffer.offer(userId, new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        buffer.stop();
+
+        verify(userRepository, times(properties.getFlushAttempts())).addLocations(anyMap());
+        assertThat(meterRegistry.get("jitpay.ingestion.flushed").tag("status", "FAILED").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldLeaveQueueToFlusherWhenItOutlivesStop() throws Exception {
+        var flushing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        when(userRepository.addLocations(anyMap())).thenAnswer(invocation -> {
+            flushing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            Map<UUID, List<Location>> locationsByUser = invocation.getArgument(0);
+            return locationsByUser.keySet().stream()
+                    .collect(Collectors.toMap(id -> id, id -> LocationWriteStatus.APPLIED));
+        });
+        properties.setMaxBatchSize(1);
+        properties.setShutdownTimeout(Duration.ofMillis(50));
+        buffer.start();
+
+        buffer.offer(UUID.randomUUID(), new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        flushing.await(1, TimeUnit.SECONDS);
+        buffer.offer(UUID.randomUUID(), new Location(23.77165, 92.73155, LocalDateTime.now()));
+        buffer.stop();
+
+        verify(userRepository, times(1)).addLocations(anyMap());
+        release.countDown();
+        verify(userRepository, timeout(1000).times(2)).addLocations(anyMap());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldFlushQueuedLocationsOnStop() {
+        var userId = UUID.randomUUID();
+        buffer.start();
+
+        buffer.offer(userId, new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        buffer.stop();
+
+        ArgumentCaptor<Map<UUID, List<Location>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(userRepository).addLocations(captor.capture());
+        assertThat(captor.getValue().get(userId)).hasSize(1);
+    }
+
+    @Test
+    void shouldRejectWhenNotRunning() {
+        assertThatThrownBy(() -> {
+            buffer.offer(UUID.randomUUID(), new Location(-5.86906, 172.35367, LocalDateTime.now()));
+        })
+                .isInstanceOf(JITPayIngestionOverloadedException.class);
+    }
+
+}
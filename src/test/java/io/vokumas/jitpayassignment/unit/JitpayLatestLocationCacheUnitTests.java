@@ -0,0 +1,117 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.service.cache.LatestLocationCache;
+import io.vokumas.jitpayassignment.config.LatestLocationCacheProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JitpayLatestLocationCacheUnitTests {
+
+    private SimpleMeterRegistry meterRegistry;
+    private LatestLocationCacheProperties properties;
+    private LatestLocationCache cache;
+
+    @BeforeEach
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new LatestLocationCacheProperties();
+        cache = new LatestLocationCache(properties, meterRegistry);
+    }
+
+    @Test
+    public void getIfPresent_shouldServeOnlyVersionJustRead() {
+        var userId = UUID.randomUUID();
+        cache.put(userId, user(userId, new LocationDto(52.25742342295784, 10.540583401747602)), 3);
+
+        assertThat(cache.getIfPresent(userId, 2)).isEmpty();
+        assertThat(cache.getIfPresent(userId, 3)).get()
+                .extracting(UserSingleLocationDto::location)
+                .isEqualTo(new LocationDto(52.25742342295784, 10.540583401747602));
+        // written meanwhile by another instance
+        assertThat(cache.getIfPresent(userId, 4)).isEmpty();
+        assertThat(cache.getIfPresent(userId, 3)).isEmpty();
+    }
+
+    @Test
+    public void updateLocation_shouldUpdateEntryOnlyOneVersionBehind() {
+        var userId = UUID.randomUUID();
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        cache.put(userId, user(userId, new LocationDto(52.25742342295784, 10.540583401747602)), 3);
+
+        cache.updateLocation(userId, new Location(-5.86906, 172.35367, dateTime), 4);
+        assertThat(cache.getIfPresent(userId, 4)).get()
+                .extracting(UserSingleLocationDto::location)
+                .isEqualTo(new LocationDto(-5.86906, 172.35367));
+
+        // version 5 has been written elsewhere, the entry cannot tell what it changed
+        cache.updateLocation(userId, new Location(23.77165, 92.73155, dateTime.plusHours(1)), 6);
+        assertThat(cache.getIfPresent(userId, 6)).isEmpty();
+    }
+
+    @Test
+    public void updateLocation_shouldNotCacheUnknownUsers() {
+        var userId = UUID.randomUUID();
+
+        cache.updateLocation(userId, new Location(-5.86906, 172.35367, LocalDateTime.of(2022, 11, 1, 10, 0)), 1);
+
+        assertThat(cache.getIfPresent(userId, 1)).isEmpty();
+    }
+
+    @Test
+    public void put_shouldNotReplaceNewerVersion() {
+        var userId = UUID.randomUUID();
+        cache.put(userId, user(userId, new LocationDto(52.25742342295784, 10.540583401747602)), 4);
+
+        cache.put(userId, user(userId, new LocationDto(-5.86906, 172.35367)), 3);
+
+        assertThat(cache.getIfPresent(userId, 4)).get()
+                .extracting(UserSingleLocationDto::location)
+                .isEqualTo(new LocationDto(52.25742342295784, 10.540583401747602));
+    }
+
+    @Test
+    public void invalidate_shouldRemoveUser() {
+        var userId = UUID.randomUUID();
+        cache.put(userId, user(userId, null), 0);
+
+        cache.invalidate(userId);
+
+        assertThat(cache.getIfPresent(userId, 0)).isEmpty();
+    }
+
+    @Test
+    public void getIfPresent_shouldRecordHitsAndMisses() {
+        var userId = UUID.randomUUID();
+        cache.getIfPresent(userId, 0);
+        cache.put(userId, user(userId, null), 0);
+        cache.getIfPresent(userId, 0);
+
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void disabledCache_shouldNotCache() {
+        properties.setEnabled(false);
+        var userId = UUID.randomUUID();
+
+        cache.put(userId, user(userId, null), 0);
+
+        assertThat(cache.getIfPresent(userId, 0)).isEmpty();
+    }
+
+    private static UserSingleLocationDto user(UUID userId, LocationDto location) {
+        return new UserSingleLocationDto(userId, "some@email.com", "Yet another cool name",
+                "Even cooler lastname", location);
+    }
+
+}
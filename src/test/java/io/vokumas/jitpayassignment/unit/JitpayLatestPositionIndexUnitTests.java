@@ -0,0 +1,183 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.service.spatial.LatestPositionIndex;
+import io.vokumas.jitpayassignment.config.SpatialIndexProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JitpayLatestPositionIndexUnitTests {
+
+    private static final LocalDateTime DATE_TIME = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+    private SimpleMeterRegistry meterRegistry;
+    private LatestPositionIndex index;
+
+    @BeforeEach
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        var properties = new SpatialIndexProperties();
+        properties.setEnabled(true);
+        properties.setCellSize(0.05);
+        index = new LatestPositionIndex(properties, meterRegistry);
+    }
+
+    @Test
+    public void nearest_shouldMatchBruteForce() {
+        var random = new Random(42);
+        List<LatestPositionIndex.Position> all = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            var userId = UUID.randomUUID();
+            var latitude = 52 + random.nextDouble();
+            var longitude = 13 + random.nextDouble() * 1.5;
+            index.update(userId, new Location(latitude, longitude, DATE_TIME));
+            all.add(new LatestPositionIndex.Position(userId, latitude, longitude, null));
+        }
+
+        for (int query = 0; query < 50; query++) {
+            var latitude = 52 + random.nextDouble();
+            var longitude = 13 + random.nextDouble() * 1.5;
+            var expected = all.stream()
+                    .sorted(Comparator.comparingDouble(p -> haversine(latitude, longitude, p.latitude(), p.longitude())))
+                    .limit(10)
+                    .map(LatestPositionIndex.Position::userId)
+                    .toList();
+
+            var nearest = index.nearest(latitude, longitude, 10, LatestPositionIndex.MAX_DISTANCE_METERS);
+
+            assertThat(nearest).extracting(LatestPositionIndex.Position::userId).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    public void nearest_shouldWalkRingsOfGloballySpreadIndexWithoutRadius() {
+        var properties = new SpatialIndexProperties();
+        properties.setEnabled(true);
+        properties.setCellSize(0.5);
+        var globalIndex = new LatestPositionIndex(properties, meterRegistry);
+        var random = new Random(42);
+        List<LatestPositionIndex.Position> all = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            var userId = UUID.randomUUID();
+            var latitude = -85 + random.nextDouble() * 170;
+            var longitude = -180 + random.nextDouble() * 360;
+            globalIndex.update(userId, new Location(latitude, longitude, DATE_TIME));
+            all.add(new LatestPositionIndex.Position(userId, latitude, longitude, null));
+        }
+
+        for (int query = 0; query < 50; query++) {
+            var latitude = -60 + random.nextDouble() * 120;
+            // every fifth query right at the antimeridian
+            var longitude = query % 5 == 0 ? 179.9 : -180 + random.nextDouble() * 360;
+            var expected = all.stream()
+                    .sorted(Comparator.comparingDouble(p -> haversine(latitude, longitude, p.latitude(), p.longitude())))
+                    .limit(10)
+                    .map(LatestPositionIndex.Position::userId)
+                    .toList();
+
+            var nearest = globalIndex.nearest(latitude, longitude, 10, LatestPositionIndex.MAX_DISTANCE_METERS);
+
+            assertThat(nearest).extracting(LatestPositionIndex.Position::userId).containsExactlyElementsOf(expected);
+        }
+        assertThat(meterRegistry.get("jitpay.spatial.index.full.scans").counter().count()).isZero();
+    }
+
+    @Test
+    public void nearest_shouldScanEveryCellWhenRingsAreMostlyEmpty() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        index.update(userId, new Location(52.52, 13.405, DATE_TIME));
+        index.update(otherUserId, new Location(-33.87, 151.21, DATE_TIME));
+
+        var nearest = index.nearest(48.1351, 11.582, 2, LatestPositionIndex.MAX_DISTANCE_METERS);
+
+        assertThat(nearest).extracting(LatestPositionIndex.Position::userId).containsExactly(userId, otherUserId);
+        assertThat(meterRegistry.get("jitpay.spatial.index.full.scans").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void nearest_shouldRespectRadiusAndWrapAroundAntimeridian() {
+        var eastUserId = UUID.randomUUID();
+        var westUserId = UUID.randomUUID();
+        var farUserId = UUID.randomUUID();
+        index.update(eastUserId, new Location(0, 179.99, DATE_TIME));
+        index.update(westUserId, new Location(0, -179.98, DATE_TIME));
+        index.update(farUserId, new Location(0, 170, DATE_TIME));
+        // enough occupied cells elsewhere for the query to walk rings instead of scanning every cell
+        for (int i = 0; i < 20; i++) {
+            index.update(UUID.randomUUID(), new Location(10 + i, 10 + i, DATE_TIME));
+        }
+
+        var nearest = index.nearest(0, 179.999, 10, 5_000);
+
+        assertThat(nearest).extracting(LatestPositionIndex.Position::userId).containsExactly(eastUserId, westUserId);
+        assertThat(nearest.get(0).distance()).isBetween(1_000d, 1_200d);
+    }
+
+    @Test
+    public void update_shouldKeepNewerPositionAndMoveBetweenCells() {
+        var userId = UUID.randomUUID();
+        index.update(userId, new Location(52.52, 13.405, DATE_TIME));
+        index.update(userId, new Location(48.1351, 11.582, DATE_TIME.minusHours(1)));
+
+        assertThat(index.nearest(52.52, 13.405, 1, 1_000)).extracting(LatestPositionIndex.Position::userId)
+                .containsExactly(userId);
+
+        index.update(userId, new Location(48.1351, 11.582, DATE_TIME.plusHours(1)));
+
+        assertThat(index.nearest(52.52, 13.405, 1, 1_000)).isEmpty();
+        assertThat(index.nearest(48.1351, 11.582, 1, 1_000)).extracting(LatestPositionIndex.Position::userId)
+                .containsExactly(userId);
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(meterRegistry.get("jitpay.spatial.index.updates").tag("result", "stale").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("jitpay.spatial.index.size").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    public void within_shouldReturnOnlyPositionsInsideBox() {
+        var insideUserId = UUID.randomUUID();
+        var otherInsideUserId = UUID.randomUUID();
+        index.update(insideUserId, new Location(52.52, 13.405, DATE_TIME));
+        index.update(otherInsideUserId, new Location(52.40, 13.10, DATE_TIME));
+        index.update(UUID.randomUUID(), new Location(52.52, 13.90, DATE_TIME));
+        index.update(UUID.randomUUID(), new Location(48.1351, 11.582, DATE_TIME));
+
+        var within = index.within(52.3, 13.0, 52.7, 13.8, 100);
+        var limited = index.within(52.3, 13.0, 52.7, 13.8, 1);
+
+        assertThat(within).extracting(LatestPositionIndex.Position::userId)
+                .containsExactlyInAnyOrder(insideUserId, otherInsideUserId);
+        assertThat(limited).hasSize(1);
+    }
+
+    @Test
+    public void update_shouldBeIgnoredWhenDisabled() {
+        var properties = new SpatialIndexProperties();
+        var disabled = new LatestPositionIndex(properties, new SimpleMeterRegistry());
+
+        disabled.update(UUID.randomUUID(), new Location(52.52, 13.405, DATE_TIME));
+
+        assertThat(disabled.size()).isZero();
+    }
+
+    private static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        var latitudeDelta = Math.toRadians(latitude2 - latitude1);
+        var longitudeDelta = Math.toRadians(longitude2 - longitude1);
+        var a = Math.pow(Math.sin(latitudeDelta / 2), 2) + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * Math.pow(Math.sin(longitudeDelta / 2), 2);
+
+        return 2 * LatestPositionIndex.EARTH_RADIUS_METERS * Math.asin(Math.sqrt(a));
+    }
+
+}
@@ -0,0 +1,134 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
+import io.vokumas.jitpayassignment.back.service.admission.LocationAdmissionControl;
+import io.vokumas.jitpayassignment.config.LocationAdmissionProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JitpayLocationAdmissionControlUnitTests {
+
+    private SimpleMeterRegistry meterRegistry;
+    private LocationAdmissionControl admissionControl;
+
+    @BeforeEach
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        var properties = new LocationAdmissionProperties();
+        // slow enough that no token comes back while a test runs
+        properties.setUserRate(0.01);
+        properties.setUserBurst(3);
+        properties.setMaxInFlightWrites(2);
+        admissionControl = new LocationAdmissionControl(properties, meterRegistry);
+    }
+
+    @Test
+    void shouldAdmitBurstOfUser_RejectNextLocationWithRetryAfter() {
+        var userId = UUID.randomUUID();
+
+        admissionControl.admit(userId, 1);
+        admissionControl.admit(userId, 2);
+
+        assertThatThrownBy(() -> admissionControl.admit(userId, 1))
+                .isInstanceOf(JITPayRateLimitedException.class)
+                .satisfies(e -> assertThat(((JITPayRateLimitedException) e).getRetryAfter())
+                        .isGreaterThan(Duration.ofSeconds(90))
+                        .isLessThanOrEqualTo(Duration.ofSeconds(100)));
+        assertThat(meterRegistry.get("jitpay.admission.rejected").tag("reason", "user_rate").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldLimitUsersIndependently() {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+
+        admissionControl.admit(userId, 3);
+
+        assertThatThrownBy(() -> admissionControl.admit(userId, 1))
+                .isInstanceOf(JITPayRateLimitedException.class);
+        admissionControl.admit(otherUserId, 3);
+    }
+
+    @Test
+    void shouldChargeEveryLocationOfBatch() {
+        var userId = UUID.randomUUID();
+
+        admissionControl.admit(userId, 2);
+
+        assertThatThrownBy(() -> admissionControl.admit(userId, 2))
+                .isInstanceOf(JITPayRateLimitedException.class);
+        admissionControl.admit(userId, 1);
+    }
+
+    @Test
+    void shouldRejectBatchLargerThanBurst_WithoutChargingUser() {
+        var userId = UUID.randomUUID();
+
+        assertThatThrownBy(() -> admissionControl.admit(userId, 4))
+                .isInstanceOf(JITPayBadRequestException.class);
+        admissionControl.admit(userId, 3);
+    }
+
+    @Test
+    void shouldLimitWritesInFlight_ReleaseOnClose() {
+        var first = admissionControl.acquireWrite();
+        admissionControl.acquireWrite();
+
+        assertThatThrownBy(() -> admissionControl.acquireWrite())
+                .isInstanceOf(JITPayRateLimitedException.class);
+        assertThat(meterRegistry.get("jitpay.admission.in.flight").gauge().value()).isEqualTo(2.0);
+
+        first.close();
+
+        admissionControl.acquireWrite();
+    }
+
+    @Test
+    void shouldReleasePermitWhenUserIsOverRate() {
+        var userId = UUID.randomUUID();
+        admissionControl.admit(userId, 3);
+
+        assertThatThrownBy(() -> admissionControl.admitWrite(userId))
+                .isInstanceOf(JITPayRateLimitedException.class);
+
+        assertThat(meterRegistry.get("jitpay.admission.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldApplyLimitsChangedAtRuntime() {
+        var userId = UUID.randomUUID();
+        admissionControl.admit(userId, 3);
+
+        var limits = admissionControl.updateLimits(null, null, 5, null);
+        admissionControl.admit(userId, 2);
+
+        assertThat(limits.userBurst()).isEqualTo(5);
+        assertThat(limits.userRate()).isEqualTo(0.01);
+        assertThat(meterRegistry.get("jitpay.admission.limit").tag("limit", "user_burst").gauge().value())
+                .isEqualTo(5.0);
+        assertThatThrownBy(() -> admissionControl.updateLimits(null, 0.0, null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldAdmitEverythingWhenDisabled() {
+        var userId = UUID.randomUUID();
+        admissionControl.updateLimits(false, null, null, null);
+
+        for (int i = 0; i < 10; i++) {
+            admissionControl.admitWrite(userId);
+        }
+
+        assertThat(meterRegistry.get("jitpay.admission.in.flight").gauge().value()).isZero();
+    }
+
+}
@@ -0,0 +1,91 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.mongo.LocationRollup;
+import io.vokumas.jitpayassignment.back.model.repository.LocationRollups;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
+
+public class JitpayLocationRollupsUnitTests {
+
+    private static final LocalDateTime START = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+    @Test
+    void summarize_shouldSplitLocationsIntoWindowsOfEveryGranularity() {
+        var userId = UUID.randomUUID();
+        var locations = List.of(
+                new Location(52.0, 10.0, START.plusMinutes(10)),
+                new Location(52.0, 10.0, START.plusMinutes(70)),
+                new Location(52.0, 10.0, START.plusMinutes(20)));
+
+        var rollups = LocationRollups.summarize(userId, List.of(TimeGranularity.HOUR, TimeGranularity.DAY),
+                locations);
+
+        assertThat(rollups).extracting(LocationRollup::getGranularity, LocationRollup::getWindowStart,
+                        LocationRollup::getCount)
+                .containsExactly(
+                        tuple(TimeGranularity.HOUR, START, 2L),
+                        tuple(TimeGranularity.HOUR, START.plusHours(1), 1L),
+                        tuple(TimeGranularity.DAY, START.toLocalDate().atStartOfDay(), 3L));
+        assertThat(rollups).allMatch(rollup -> rollup.getUserId().equals(userId));
+    }
+
+    @Test
+    void summarize_shouldTrackBoundsEndsAndDistanceInCreatedOnOrder() {
+        // one thousandth of a degree of latitude is roughly 111 meters
+        var locations = List.of(
+                new Location(52.002, 10.001, START.plusMinutes(2)),
+                new Location(52.0, 10.0, START),
+                new Location(52.001, 10.0, START.plusMinutes(1)));
+
+        var rollup = LocationRollups.summarize(UUID.randomUUID(), List.of(TimeGranularity.DAY), locations).get(0);
+
+        assertThat(rollup.getCount()).isEqualTo(3);
+        assertThat(rollup.getMinLatitude()).isEqualTo(52.0);
+        assertThat(rollup.getMaxLatitude()).isEqualTo(52.002);
+        assertThat(rollup.getMinLongitude()).isEqualTo(10.0);
+        assertThat(rollup.getMaxLongitude()).isEqualTo(10.001);
+        assertThat(rollup.getFirstCreatedOn()).isEqualTo(START);
+        assertThat(rollup.getFirstLatitude()).isEqualTo(52.0);
+        assertThat(rollup.getLastCreatedOn()).isEqualTo(START.plusMinutes(2));
+        assertThat(rollup.getLastLatitude()).isEqualTo(52.002);
+        assertThat(rollup.getLastLongitude()).isEqualTo(10.001);
+        // 111 meters north, then 111 meters north and 68 meters east
+        assertThat(rollup.getDistance()).isCloseTo(111.2 + 130.6, within(1.0));
+    }
+
+    @Test
+    void summarize_shouldSummarizeSeriesSameAsLocations() {
+        var userId = UUID.randomUUID();
+        var locations = List.of(
+                new Location(52.002, 10.001, START.plusMinutes(70)),
+                new Location(52.0, 10.0, START),
+                new Location(52.001, 10.0, START.plusMinutes(1)),
+                new Location(52.003, 10.002, START.plusHours(26)));
+        var series = new LocationSeries();
+        locations.forEach(l -> series.add(l.getLatitude(), l.getLongitude(), l.getCreatedOn()));
+        var granularities = List.of(TimeGranularity.HOUR, TimeGranularity.DAY);
+
+        var fromSeries = LocationRollups.summarize(userId, granularities, series);
+
+        assertThat(fromSeries).hasSize(5);
+        assertThat(fromSeries).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(LocationRollups.summarize(userId, granularities, locations));
+        assertThat(series.isSortedByCreatedOn()).isTrue();
+    }
+
+    @Test
+    void summarize_shouldReturnNothingForNoLocations() {
+        assertThat(LocationRollups.summarize(UUID.randomUUID(), List.of(TimeGranularity.HOUR), List.of())).isEmpty();
+    }
+
+}
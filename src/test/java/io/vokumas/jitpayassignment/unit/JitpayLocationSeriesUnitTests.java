@@ -0,0 +1,88 @@
+package io.vokumas.jitpayassignment.unit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vokumas.jitpayassignment.back.model.dto.GetUserLocationRangeResponseDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JitpayLocationSeriesUnitTests {
+
+    private static final LocalDateTime START = LocalDateTime.of(2022, 11, 1, 10, 0, 0, 123_000_000);
+
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    public void init() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    @Test
+    void shouldHoldLocationsAsTimedDtos() {
+        var series = new LocationSeries(1);
+        series.add(52.25742342295784, 10.540583401747602, START);
+        series.add(null, null, START.plusMinutes(1));
+
+        assertThat(series).containsExactly(
+                new LocationTimedDto(START, new LocationDto(52.25742342295784, 10.540583401747602)),
+                new LocationTimedDto(START.plusMinutes(1), new LocationDto(null, null)));
+        assertThat(series.latitude(1)).isNaN();
+        assertThat(series.createdOn(0)).isEqualTo(START);
+        assertThatThrownBy(() -> series.get(2)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void sortByCreatedOn_shouldBeStable() {
+        var series = new LocationSeries();
+        series.add(1.0, 1.0, START.plusMinutes(2));
+        series.add(2.0, 2.0, START);
+        series.add(3.0, 3.0, START.plusMinutes(2));
+        series.add(4.0, 4.0, START.plusMinutes(1));
+        series.add(5.0, 5.0, START);
+        List<LocationTimedDto> expected = new ArrayList<>(series);
+        expected.sort((a, b) -> a.createdOn().compareTo(b.createdOn()));
+
+        assertThat(series.sortByCreatedOn()).isSameAs(series).containsExactlyElementsOf(expected);
+        assertThat(series.isSortedByCreatedOn()).isTrue();
+    }
+
+    @Test
+    void select_shouldKeepFlaggedLocationsInOrder() {
+        var series = new LocationSeries();
+        for (int i = 0; i < 5; i++) {
+            series.add(52.0 + i, 10.0 + i, START.plusMinutes(i));
+        }
+
+        var selected = series.select(new boolean[]{true, false, false, true, true});
+
+        assertThat(selected).containsExactly(series.get(0), series.get(3), series.get(4));
+        assertThatThrownBy(() -> series.select(new boolean[2])).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldSerializeSameAsListOfTimedDtos() throws Exception {
+        var userId = UUID.randomUUID();
+        var series = new LocationSeries();
+        series.add(-5.86906, 172.35367, START);
+        series.add(23.77165, 92.73155, START.plusHours(12));
+        series.add(null, 10.0, LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_000_000));
+        var list = new ArrayList<>(series);
+
+        assertThat(objectMapper.writeValueAsString(series)).isEqualTo(objectMapper.writeValueAsString(list));
+        assertThat(objectMapper.writeValueAsString(new GetUserLocationRangeResponseDto(userId, series, null, 2)))
+                .isEqualTo(objectMapper.writeValueAsString(new GetUserLocationRangeResponseDto(userId, list, null, 2)));
+        assertThat(objectMapper.writeValueAsString(new LocationSeries())).isEqualTo("[]");
+    }
+
+}
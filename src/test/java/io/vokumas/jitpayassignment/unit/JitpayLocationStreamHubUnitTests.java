@@ -0,0 +1,174 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserLocationEventDto;
+import io.vokumas.jitpayassignment.back.service.stream.LocationStreamHub;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscriber;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JitpayLocationStreamHubUnitTests {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2022, 11, 25, 10, 10, 10);
+
+    private SimpleMeterRegistry meterRegistry;
+    private LocationStreamProperties properties;
+    private LocationStreamHub hub;
+
+    @BeforeEach
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new LocationStreamProperties();
+        properties.setBufferSize(2);
+        hub = new LocationStreamHub(properties, meterRegistry);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        hub.stop();
+    }
+
+    @Test
+    void shouldKeepOnlyNewestLocationPerUserForSlowSubscriber() throws Exception {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        var subscriber = new BlockingSubscriber();
+        hub.start();
+        hub.subscribe(List.of(userId, otherUserId), subscriber);
+
+        hub.publish(event(userId, 0));
+        assertThat(subscriber.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        hub.publish(event(userId, 1));
+        hub.publish(event(userId, 2));
+        hub.publish(event(otherUserId, 1));
+        // older than the pending one
+        hub.publish(event(userId, -1));
+        subscriber.release.countDown();
+
+        assertThat(subscriber.awaitDeliveries(2)).isTrue();
+        assertThat(subscriber.deliveries.get(1)).containsExactly(event(userId, 2), event(otherUserId, 1));
+        assertThat(meterRegistry.get("jitpay.location.stream.events").tag("result", "coalesced").counter().count())
+                .isEqualTo(2);
+        assertThat(meterRegistry.get("jitpay.location.stream.events").tag("result", "delivered").counter().count())
+                .isEqualTo(3);
+    }
+
+    @Test
+    void shouldDropOldestLocationsBeyondBufferSizeForSlowSubscriber() throws Exception {
+        properties.setOverflowPolicy(LocationStreamProperties.OverflowPolicy.DROP_OLDEST);
+        var userId = UUID.randomUUID();
+        var subscriber = new BlockingSubscriber();
+        hub.start();
+        hub.subscribe(List.of(userId), subscriber);
+
+        hub.publish(event(userId, 0));
+        assertThat(subscriber.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        hub.publish(event(userId, 1));
+        hub.publish(event(userId, 2));
+        hub.publish(event(userId, 3));
+        subscriber.release.countDown();
+
+        assertThat(subscriber.awaitDeliveries(2)).isTrue();
+        assertThat(subscriber.deliveries.get(1)).containsExactly(event(userId, 2), event(userId, 3));
+        assertThat(meterRegistry.get("jitpay.location.stream.events").tag("result", "dropped").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void shouldDeliverOnlySubscribedUsersUntilClosed() throws Exception {
+        var userId = UUID.randomUUID();
+        var subscriber = new BlockingSubscriber();
+        subscriber.release.countDown();
+        hub.start();
+        var subscription = hub.subscribe(List.of(userId), subscriber);
+
+        hub.publish(event(UUID.randomUUID(), 0));
+        hub.publish(event(userId, 0));
+        assertThat(subscriber.awaitDeliveries(1)).isTrue();
+
+        subscription.close();
+        hub.publish(event(userId, 1));
+
+        assertThat(hub.hasSubscribers()).isFalse();
+        assertThat(subscriber.deliveries).containsExactly(List.of(event(userId, 0)));
+        assertThat(meterRegistry.get("jitpay.location.stream.subscriptions").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldCloseSubscriptionWhenSubscriberFails() throws Exception {
+        var userId = UUID.randomUUID();
+        var failed = new CountDownLatch(1);
+        hub.start();
+        hub.subscribe(List.of(userId), new LocationSubscriber() {
+            @Override
+            public void onLocations(List<UserLocationEventDto> events) throws IOException {
+                failed.countDown();
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void onHeartbeat() {
+            }
+        });
+
+        hub.publish(event(userId, 0));
+
+        assertThat(failed.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 50 && hub.hasSubscribers(); i++) {
+            Thread.sleep(20);
+        }
+        assertThat(hub.hasSubscribers()).isFalse();
+    }
+
+    private static UserLocationEventDto event(UUID userId, int minutes) {
+        return new UserLocationEventDto(userId, NOW.plusMinutes(minutes), new LocationDto(52.52 + minutes / 100.0,
+                13.405));
+    }
+
+    /**
+     * Blocks in its first delivery until released.
+     */
+    private static class BlockingSubscriber implements LocationSubscriber {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<List<UserLocationEventDto>> deliveries = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onLocations(List<UserLocationEventDto> events) {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            deliveries.add(List.copyOf(events));
+        }
+
+        @Override
+        public void onHeartbeat() {
+        }
+
+        private boolean awaitDeliveries(int count) throws InterruptedException {
+            for (int i = 0; i < 250 && deliveries.size() < count; i++) {
+                Thread.sleep(20);
+            }
+            return deliveries.size() >= count;
+        }
+
+    }
+
+}
@@ -0,0 +1,284 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayWriteOutcomeUnknownException;
+import io.vokumas.jitpayassignment.back.model.mongo.Location;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.model.repository.UserRepository;
+import io.vokumas.jitpayassignment.back.service.admission.LocationAdmissionControl;
+import io.vokumas.jitpayassignment.back.service.ingestion.LocationWriteLanes;
+import io.vokumas.jitpayassignment.config.LocationAdmissionProperties;
+import io.vokumas.jitpayassignment.config.LocationWriteLaneProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class JitpayLocationWriteLanesUnitTests {
+
+    @Mock
+    private UserRepository userRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private LocationWriteLaneProperties properties;
+    private LocationAdmissionControl admissionControl;
+    private LocationWriteLanes lanes;
+    private CountDownLatch firstWriteStarted;
+    private CountDownLatch releaseFirstWrite;
+
+    @BeforeEach
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new LocationWriteLaneProperties();
+        // a single lane, so that every user shares it
+        properties.setLaneCount(1);
+        properties.setQueueCapacity(10);
+        properties.setMaxBatchSize(10);
+        properties.setOfferTimeout(Duration.ofMillis(10));
+        firstWriteStarted = new CountDownLatch(1);
+        releaseFirstWrite = new CountDownLatch(1);
+        var admissionProperties = new LocationAdmissionProperties();
+        admissionProperties.setMaxInFlightWrites(1);
+        admissionControl = new LocationAdmissionControl(admissionProperties, meterRegistry);
+        lenient().when(userRepository.addLocations(anyMap())).thenAnswer(invocation -> {
+            // the first write holds the lane until it is released, everything offered meanwhile queues up
+            if (firstWriteStarted.getCount() > 0) {
+                firstWriteStarted.countDown();
+                releaseFirstWrite.await(5, TimeUnit.SECONDS);
+            }
+            Map<UUID, List<Location>> locationsByUser = invocation.getArgument(0);
+            return locationsByUser.keySet().stream()
+                    .collect(Collectors.toMap(id -> id, id -> LocationWriteStatus.APPLIED));
+        });
+        lanes = new LocationWriteLanes(userRepository, admissionControl, properties, meterRegistry);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        releaseFirstWrite.countDown();
+        lanes.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldCoalesceWritesQueuedWhileLaneIsBusy() throws Exception {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        lanes.start();
+
+        var first = CompletableFuture.supplyAsync(() -> lanes.pushLocation(userId, location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+        var second = CompletableFuture.supplyAsync(() -> lanes.pushLocation(userId, location()));
+        var third = CompletableFuture.supplyAsync(() -> lanes.pushLocation(otherUserId, location()));
+        awaitQueueDepth(2);
+        releaseFirstWrite.countDown();
+
+        assertThat(first.get(1, TimeUnit.SECONDS)).isEqualTo(LocationWriteStatus.APPLIED);
+        assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo(LocationWriteStatus.APPLIED);
+        assertThat(third.get(1, TimeUnit.SECONDS)).isEqualTo(LocationWriteStatus.APPLIED);
+        ArgumentCaptor<Map<UUID, List<Location>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(userRepository, times(2)).addLocations(captor.capture());
+        assertThat(captor.getAllValues().get(1)).hasSize(2);
+        assertThat(meterRegistry.get("jitpay.lanes.batch.size").summary().max()).isEqualTo(2.0);
+    }
+
+    @Test
+    void shouldStorePendingPushesOfUserBeforeAddingLocation() throws Exception {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        when(userRepository.addLocation(eq(userId), any(Location.class))).thenReturn(Optional.empty());
+        lanes.start();
+
+        var blocking = CompletableFuture.supplyAsync(() -> lanes.pushLocation(otherUserId, location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+        var pushed = CompletableFuture.supplyAsync(() -> lanes.pushLocation(userId, location()));
+        awaitQueueDepth(1);
+        var added = CompletableFuture.supplyAsync(() -> lanes.addLocation(userId, location()));
+        awaitQueueDepth(2);
+        releaseFirstWrite.countDown();
+
+        assertThat(blocking.get(1, TimeUnit.SECONDS)).isEqualTo(LocationWriteStatus.APPLIED);
+        assertThat(pushed.get(1, TimeUnit.SECONDS)).isEqualTo(LocationWriteStatus.APPLIED);
+        assertThat(added.get(1, TimeUnit.SECONDS)).isEmpty();
+        InOrder inOrder = inOrder(userRepository);
+        inOrder.verify(userRepository, times(2)).addLocations(anyMap());
+        inOrder.verify(userRepository).addLocation(eq(userId), any(Location.class));
+    }
+
+    @Test
+    void shouldReturnUserNotFoundStatus() {
+        var userId = UUID.randomUUID();
+        doReturn(Map.of(userId, LocationWriteStatus.USER_NOT_FOUND)).when(userRepository).addLocations(anyMap());
+        lanes.start();
+
+        assertThat(lanes.pushLocation(userId, location())).isEqualTo(LocationWriteStatus.USER_NOT_FOUND);
+    }
+
+    @Test
+    void shouldFailWriteWhenBatchFailed() {
+        var userId = UUID.randomUUID();
+        doReturn(Map.of(userId, LocationWriteStatus.FAILED)).when(userRepository).addLocations(anyMap());
+        lanes.start();
+
+        assertThatThrownBy(() -> lanes.pushLocation(userId, location()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldRejectWhenLaneIsFull() throws Exception {
+        properties.setQueueCapacity(1);
+        meterRegistry = new SimpleMeterRegistry();
+        lanes = new LocationWriteLanes(userRepository, admissionControl, properties, meterRegistry);
+        lanes.start();
+
+        CompletableFuture.runAsync(() -> lanes.pushLocation(UUID.randomUUID(), location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture.runAsync(() -> lanes.pushLocation(UUID.randomUUID(), location()));
+        awaitQueueDepth(1);
+
+        assertThatThrownBy(() -> lanes.pushLocation(UUID.randomUUID(), location()))
+                .isInstanceOf(JITPayIngestionOverloadedException.class);
+        assertThat(meterRegistry.get("jitpay.lanes.rejected").counter().count()).isEqualTo(1.0);
+        releaseFirstWrite.countDown();
+        verify(userRepository, timeout(1000).times(2)).addLocations(anyMap());
+    }
+
+    @Test
+    void shouldRejectWhenNotRunning() {
+        assertThatThrownBy(() -> lanes.pushLocation(UUID.randomUUID(), location()))
+                .isInstanceOf(JITPayIngestionOverloadedException.class);
+    }
+
+    @Test
+    void shouldWithdrawWriteThatIsNotStartedInTime() throws Exception {
+        properties.setWriteTimeout(Duration.ofMillis(50));
+        lanes.start();
+
+        var blocking = CompletableFuture.supplyAsync(() -> lanes.pushLocation(UUID.randomUUID(), location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> lanes.pushLocation(UUID.randomUUID(), location()))
+                .isInstanceOf(JITPayIngestionOverloadedException.class);
+        assertThatThrownBy(() -> blocking.get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(JITPayWriteOutcomeUnknownException.class);
+        releaseFirstWrite.countDown();
+        lanes.stop();
+        // the withdrawn write is never sent
+        verify(userRepository, times(1)).addLocations(anyMap());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldWriteBatchThroughLanesOfItsUsers() throws Exception {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        lanes.start();
+
+        var pushed = CompletableFuture.supplyAsync(() -> lanes.pushLocation(userId, location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+        var batch = CompletableFuture.supplyAsync(() -> lanes.addLocations(Map.of(
+                userId, List.of(location(), location()), otherUserId, List.of(location()))));
+        awaitQueueDepth(2);
+        releaseFirstWrite.countDown();
+
+        assertThat(pushed.get(1, TimeUnit.SECONDS)).isEqualTo(LocationWriteStatus.APPLIED);
+        assertThat(batch.get(1, TimeUnit.SECONDS))
+                .containsEntry(userId, LocationWriteStatus.APPLIED)
+                .containsEntry(otherUserId, LocationWriteStatus.APPLIED);
+        ArgumentCaptor<Map<UUID, List<Location>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(userRepository, times(2)).addLocations(captor.capture());
+        assertThat(captor.getAllValues().get(1).get(userId)).hasSize(2);
+    }
+
+    @Test
+    void shouldReportBatchUsersNotStartedInTimeAsFailed() throws Exception {
+        var userId = UUID.randomUUID();
+        properties.setWriteTimeout(Duration.ofMillis(50));
+        lanes.start();
+
+        CompletableFuture.runAsync(() -> lanes.pushLocation(UUID.randomUUID(), location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(lanes.addLocations(Map.of(userId, List.of(location()))))
+                .containsEntry(userId, LocationWriteStatus.FAILED);
+    }
+
+    @Test
+    void shouldNotSendWritesWhenNoPermitIsLeft() {
+        var userId = UUID.randomUUID();
+        lanes.start();
+        // the only permit is held by a write outside of the lanes
+        var permit = admissionControl.acquireWrite();
+
+        assertThatThrownBy(() -> lanes.pushLocation(userId, location()))
+                .isInstanceOf(JITPayRateLimitedException.class);
+        assertThat(lanes.addLocations(Map.of(userId, List.of(location()))))
+                .containsEntry(userId, LocationWriteStatus.RATE_LIMITED);
+        verify(userRepository, never()).addLocations(anyMap());
+
+        permit.close();
+        releaseFirstWrite.countDown();
+        assertThat(lanes.pushLocation(userId, location())).isEqualTo(LocationWriteStatus.APPLIED);
+        assertThat(meterRegistry.get("jitpay.admission.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldFailWritesLeftInLanesOnStop() throws Exception {
+        properties.setShutdownTimeout(Duration.ofMillis(50));
+        lanes.start();
+
+        CompletableFuture.runAsync(() -> lanes.pushLocation(UUID.randomUUID(), location()));
+        assertThat(firstWriteStarted.await(1, TimeUnit.SECONDS)).isTrue();
+        var queued = CompletableFuture.supplyAsync(() -> lanes.pushLocation(UUID.randomUUID(), location()));
+        awaitQueueDepth(1);
+        lanes.stop();
+
+        assertThatThrownBy(() -> queued.get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(JITPayIngestionOverloadedException.class);
+        verify(userRepository, times(1)).addLocations(anyMap());
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (meterRegistry.get("jitpay.lanes.queue.depth").gauge().value() < depth) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Location location() {
+        return new Location(-5.86906, 172.35367, LocalDateTime.now());
+    }
+
+}
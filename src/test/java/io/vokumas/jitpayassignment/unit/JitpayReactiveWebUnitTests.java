@@ -0,0 +1,194 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.vokumas.jitpayassignment.back.exception.JITPayUserNotFoundException;
+import io.vokumas.jitpayassignment.back.model.dto.LocationAckDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.back.model.dto.PutUserLocationRequestDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserDtoTimedLocation;
+import io.vokumas.jitpayassignment.back.model.dto.UserSingleLocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.UserVersionDto;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.service.declaration.ReactiveUserService;
+import io.vokumas.jitpayassignment.config.LocationWriteProperties;
+import io.vokumas.jitpayassignment.web.controller.ReactiveUserController;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(controllers = ReactiveUserController.class)
+@EnableConfigurationProperties(LocationWriteProperties.class)
+public class JitpayReactiveWebUnitTests {
+
+    private static final LocalDateTime VERSION_CREATED_ON = LocalDateTime.of(2022, 11, 25, 10, 10, 10);
+    private static final String VERSION_ETAG = "W/\"3-"
+            + VERSION_CREATED_ON.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() + "\"";
+
+    @Autowired
+    private WebTestClient client;
+
+    @MockBean
+    private ReactiveUserService userService;
+
+    @BeforeEach
+    public void init() {
+        when(userService.getUserVersion(any(UUID.class))).thenAnswer(invocation ->
+                Mono.just(new UserVersionDto(invocation.getArgument(0), 3, VERSION_CREATED_ON)));
+    }
+
+    @Test
+    void upsertUser_shouldReturnOkForValidRequest() {
+        var userId = UUID.randomUUID();
+        when(userService.createOrUpdateUser(any(UserDto.class)))
+                .thenReturn(Mono.just(new UserDto(userId, "email@email.com", "firstName", "secondName")));
+
+        client.post().uri("/api/v2/user")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(String.format("""
+                        {
+                        	"userId": "%s",
+                        	"firstName": "firstName",
+                        	"email": "email@email.com",
+                        	"secondName": "secondName"
+                        }""", userId))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.userId").isEqualTo(userId.toString())
+                .jsonPath("$.email").isEqualTo("email@email.com");
+    }
+
+    @Test
+    void upsertUser_shouldFailWhenMissingId() {
+        client.post().uri("/api/v2/user")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {
+                        	"firstName": "firstName",
+                        	"email": "email@email.com",
+                        	"secondName": "secondName"
+                        }""")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.validationErrors.userId").isEqualTo("userId cannot be empty");
+    }
+
+    @Test
+    void putLocation_shouldReturnMinimalAckByDefault() {
+        var userId = UUID.randomUUID();
+        var createdOn = LocalDateTime.of(2022, 11, 25, 10, 10, 10, 100_000_000);
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenReturn(Mono.just(new LocationAckDto(userId, createdOn, LocationWriteStatus.APPLIED)));
+
+        client.post().uri("/api/v2/user/location")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(locationJson(userId))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals("Preference-Applied", "return=minimal")
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("APPLIED")
+                .jsonPath("$.email").doesNotExist();
+        verify(userService, never()).putUserLocation(any(PutUserLocationRequestDto.class));
+    }
+
+    @Test
+    void putLocation_shouldReturnNotFoundForUnknownUser() {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocation(any(PutUserLocationRequestDto.class)))
+                .thenReturn(Mono.error(new JITPayUserNotFoundException("User not found", userId)));
+
+        client.post().uri("/api/v2/user/location")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Prefer", "return=representation")
+                .bodyValue(locationJson(userId))
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("User not found");
+    }
+
+    @Test
+    void getLatestLocation_shouldReturnLocationWithETagOfUserVersion() {
+        var userId = UUID.randomUUID();
+        when(userService.getUserLatestLocation(userId, 3)).thenReturn(Mono.just(new UserSingleLocationDto(userId,
+                "email@email.com", "firstName", "secondName", new LocationDto(82.15485, 52.16456))));
+
+        client.get().uri("/api/v2/user/location/latest?userId=" + userId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", VERSION_ETAG)
+                .expectBody()
+                .jsonPath("$.location.latitude").isEqualTo(82.15485);
+    }
+
+    @Test
+    void getLatestLocation_shouldAnswerNotModifiedWithoutReadingLocation() {
+        var userId = UUID.randomUUID();
+
+        client.get().uri("/api/v2/user/location/latest?userId=" + userId)
+                .header("If-None-Match", VERSION_ETAG)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        verify(userService, never()).getUserLatestLocation(any(), anyLong());
+    }
+
+    @Test
+    void getLatestLocation_shouldFailWhenMissingUserIdParameter() {
+        client.get().uri("/api/v2/user/location/latest")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Bad request. There are some parameters missing");
+    }
+
+    @Test
+    void getLocationsInRange_shouldReturnLocationsInRange() {
+        var userId = UUID.randomUUID();
+        var createdOn = LocalDateTime.of(2022, 11, 24, 8, 11, 10);
+        when(userService.getUserLocationsRange(any(UUID.class), any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenReturn(Mono.just(new UserDtoTimedLocation(userId, "email@email.com", "firstName", "secondName",
+                        List.of(new LocationTimedDto(createdOn, new LocationDto(82.15485, 52.16456))))));
+
+        client.get().uri(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s",
+                        userId, "2022-11-23T08:11:10.500", "2022-11-26T08:11:10.500"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", VERSION_ETAG)
+                .expectBody()
+                .jsonPath("$.userId").isEqualTo(userId.toString())
+                .jsonPath("$.locations.length()").isEqualTo(1)
+                .jsonPath("$.locations[0].location.longitude").isEqualTo(52.16456);
+    }
+
+    private static String locationJson(UUID userId) {
+        return String.format("""
+                {
+                	"userId": "%s",
+                	"createdOn": "2022-11-25T10:10:10.100",
+                	"location": {"latitude": 82.15485, "longitude": 52.16456}
+                }""", userId);
+    }
+
+}
@@ -3,6 +3,12 @@ package io.vokumas.jitpayassignment.unit;
 import io.vokumas.jitpayassignment.back.model.mongo.Location;
 import io.vokumas.jitpayassignment.back.model.mongo.User;
 import io.vokumas.jitpayassignment.back.model.repository.CustomMongoRepositoryImpl;
+import io.vokumas.jitpayassignment.back.model.repository.LocationCursor;
+import io.vokumas.jitpayassignment.back.model.repository.PipelineTemplate;
+import io.vokumas.jitpayassignment.config.LocationRollupProperties;
+import io.vokumas.jitpayassignment.config.LocationStorageProperties;
+import io.vokumas.jitpayassignment.config.ReadRoutingProperties;
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,9 +17,13 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @ExtendWith(MockitoExtension.class)
@@ -26,7 +36,8 @@ public class JitpayRepositoryUnitTests {
     @BeforeEach
     public void init() {
         MockitoAnnotations.openMocks(this);
-        repository = new CustomMongoRepositoryImpl(mongoTemplate);
+        repository = new CustomMongoRepositoryImpl(mongoTemplate, new LocationStorageProperties(),
+                new ReadRoutingProperties(), new LocationRollupProperties());
     }
 
     @Test
@@ -124,4 +135,124 @@ public class JitpayRepositoryUnitTests {
                 .isInstanceOf(IllegalArgumentException.class)
                 .hasMessage("to cannot be null");
     }
+
+    @Test
+    void shouldThrowIllegalArgumentExceptionWhenParamsMissing_addLocations() {
+        assertThatThrownBy(() -> {
+            repository.addLocations(null);
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("locationsByUser cannot be null");
+
+        assertThatThrownBy(() -> {
+            repository.addLocations(Map.of(UUID.randomUUID(), List.of()));
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("locations cannot be empty");
+
+        assertThatThrownBy(() -> {
+            repository.addLocations(Map.of(UUID.randomUUID(), List.of(new Location(null, 2.0, LocalDateTime.now()))));
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("location.latitude cannot be null");
+    }
+
+    @Test
+    void shouldThrowIllegalArgumentExceptionWhenParamsMissing_pushLocation() {
+        assertThatThrownBy(() -> {
+            repository.pushLocation(null, null);
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("userId cannot be null");
+
+        assertThatThrownBy(() -> {
+            repository.pushLocation(UUID.randomUUID(), new Location(null, null, null));
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("location.createdOn cannot be null");
+    }
+
+    @Test
+    void shouldRoundTripLocationCursor() {
+        var cursor = new LocationCursor(LocalDateTime.of(2022, 11, 1, 10, 0, 0, 123_000_000), 3);
+
+        assertThat(LocationCursor.fromToken(cursor.toToken())).isEqualTo(cursor);
+    }
+
+    @Test
+    void shouldThrowIllegalArgumentExceptionWhenCursorMalformed() {
+        assertThatThrownBy(() -> {
+            LocationCursor.fromToken("not a cursor");
+        })
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThatThrownBy(() -> {
+            LocationCursor.fromToken("MTIzOmFiYw");
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("cursor is malformed");
+    }
+
+    @Test
+    void shouldCountAlreadyReturnedLocationsInCursor() {
+        var dateTime = LocalDateTime.of(2022, 11, 1, 10, 0);
+        var first = LocationCursor.after(null, List.of(
+                new Location(-5.86906, 172.35367, dateTime.minusHours(1)),
+                new Location(23.77165, 92.73155, dateTime)));
+        var second = LocationCursor.after(first, List.of(
+                new Location(7.15081, 163.10450, dateTime),
+                new Location(12.42749, 107.37883, dateTime)));
+
+        assertThat(first).isEqualTo(new LocationCursor(dateTime, 1));
+        assertThat(second).isEqualTo(new LocationCursor(dateTime, 3));
+    }
+
+    @Test
+    void shouldBindPipelineTemplateParameters_ShareStaticParts() {
+        var staticStage = new Document("$project", new Document("email", 1));
+        var template = PipelineTemplate.of(
+                new Document("$match", new Document("_id", PipelineTemplate.parameter(0))
+                        .append("count", new Document("$gte", PipelineTemplate.parameter(1)))),
+                staticStage);
+
+        var first = template.bind("first", 1);
+        var second = template.bind("second", 2);
+
+        assertThat(first.get(0)).isEqualTo(new Document("$match", new Document("_id", "first")
+                .append("count", new Document("$gte", 1))));
+        assertThat(second.get(0).get("$match", Document.class).get("_id")).isEqualTo("second");
+        assertThat(first.get(1)).isSameAs(staticStage);
+        assertThat(second.get(1)).isSameAs(staticStage);
+    }
+
+    @Test
+    void shouldThrowIllegalArgumentExceptionWhenPipelineTemplateParametersMissing() {
+        var template = PipelineTemplate.of(new Document("$match", new Document("_id", PipelineTemplate.parameter(0))));
+
+        assertThatThrownBy(() -> {
+            template.bind();
+        })
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("expected 1 parameter values, got 0");
+    }
+
+    @Test
+    void shouldRejectReadRoutesMongoWouldRefuse_checkReadRoutes() {
+        var tooFresh = new ReadRoutingProperties.Route();
+        tooFresh.setPreference(ReadRoutingProperties.Preference.SECONDARY_PREFERRED);
+        tooFresh.setMaxStaleness(Duration.ofSeconds(30));
+        var primaryWithStaleness = new ReadRoutingProperties.Route();
+        primaryWithStaleness.setMaxStaleness(Duration.ofSeconds(90));
+
+        for (var route : List.of(tooFresh, primaryWithStaleness)) {
+            var readRouting = new ReadRoutingProperties();
+            readRouting.getRoutes().put(ReadRoutingProperties.Operation.RANGE, route);
+            var routedRepository = new CustomMongoRepositoryImpl(mongoTemplate, new LocationStorageProperties(),
+                    readRouting, new LocationRollupProperties());
+
+            assertThatThrownBy(routedRepository::checkReadRoutes)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
 }
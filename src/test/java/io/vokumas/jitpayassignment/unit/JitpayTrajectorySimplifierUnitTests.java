@@ -0,0 +1,85 @@
+package io.vokumas.jitpayassignment.unit;
+
+import io.vokumas.jitpayassignment.back.model.dto.LocationDto;
+import io.vokumas.jitpayassignment.back.model.dto.LocationSeries;
+import io.vokumas.jitpayassignment.back.model.dto.LocationTimedDto;
+import io.vokumas.jitpayassignment.util.TrajectorySimplifier;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JitpayTrajectorySimplifierUnitTests {
+
+    private static final LocalDateTime START = LocalDateTime.of(2022, 11, 1, 10, 0);
+
+    @Test
+    void douglasPeucker_shouldDropPointsOnStraightLine() {
+        List<LocationTimedDto> track = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            track.add(point(i, 52.0, 10.0 + i * 0.001));
+        }
+
+        var simplified = TrajectorySimplifier.douglasPeucker(track, 1);
+
+        assertThat(simplified).containsExactly(track.get(0), track.get(10));
+    }
+
+    @Test
+    void douglasPeucker_shouldKeepPointsFurtherThanTolerance() {
+        // the middle point is roughly 111 meters off the line between the outer ones
+        var track = List.of(
+                point(0, 52.0, 10.0),
+                point(1, 52.001, 10.005),
+                point(2, 52.0, 10.01));
+
+        assertThat(TrajectorySimplifier.douglasPeucker(track, 50)).hasSize(3);
+        assertThat(TrajectorySimplifier.douglasPeucker(track, 200)).hasSize(2);
+    }
+
+    @Test
+    void visvalingam_shouldReduceToMaxPointsKeepingEnds() {
+        List<LocationTimedDto> track = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            track.add(point(i, 52.0 + Math.sin(i / 5.0) * 0.01, 10.0 + i * 0.001));
+        }
+
+        var simplified = TrajectorySimplifier.visvalingam(track, 10);
+
+        assertThat(simplified).hasSize(10);
+        assertThat(simplified.get(0)).isSameAs(track.get(0));
+        assertThat(simplified.get(9)).isSameAs(track.get(99));
+    }
+
+    @Test
+    void visvalingam_shouldReturnShortTracksAsIs() {
+        var track = List.of(point(0, 52.0, 10.0), point(1, 52.001, 10.005));
+
+        assertThat(TrajectorySimplifier.visvalingam(track, 5)).isSameAs(track);
+    }
+
+    @Test
+    void simplifiers_shouldKeepSamePointsOfSeriesAsOfList() {
+        var series = new LocationSeries();
+        for (int i = 0; i < 1_000; i++) {
+            series.add(52.0 + Math.sin(i / 7.0) * 0.01, 10.0 + i * 0.001 + Math.cos(i / 3.0) * 0.0005,
+                    START.plusMinutes(i));
+        }
+        List<LocationTimedDto> track = new ArrayList<>(series);
+
+        assertThat(TrajectorySimplifier.douglasPeucker(series, 20))
+                .containsExactlyElementsOf(TrajectorySimplifier.douglasPeucker(track, 20));
+        assertThat(TrajectorySimplifier.visvalingam(series, 50))
+                .hasSize(50)
+                .containsExactlyElementsOf(TrajectorySimplifier.visvalingam(track, 50));
+        assertThat(TrajectorySimplifier.visvalingam(series, 5_000)).isSameAs(series);
+    }
+
+    private static LocationTimedDto point(int minute, double latitude, double longitude) {
+        return new LocationTimedDto(START.plusMinutes(minute), new LocationDto(latitude, longitude));
+    }
+
+}
@@ -1,34 +1,82 @@
 package io.vokumas.jitpayassignment.unit;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.vokumas.jitpayassignment.back.model.dto.*;
+import io.vokumas.jitpayassignment.back.model.repository.LocationWriteStatus;
+import io.vokumas.jitpayassignment.back.exception.JITPayBadRequestException;
+import io.vokumas.jitpayassignment.back.exception.JITPayIngestionOverloadedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayRateLimitedException;
+import io.vokumas.jitpayassignment.back.exception.JITPayUserNotFoundException;
+import io.vokumas.jitpayassignment.back.exception.JITPayWriteOutcomeUnknownException;
 import io.vokumas.jitpayassignment.back.service.declaration.UserService;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscriber;
+import io.vokumas.jitpayassignment.back.service.stream.LocationSubscription;
+import io.vokumas.jitpayassignment.config.BinaryFormatsConfig;
+import io.vokumas.jitpayassignment.config.LocationStreamProperties;
+import io.vokumas.jitpayassignment.config.LocationWriteProperties;
+import io.vokumas.jitpayassignment.util.TimeGranularity;
+import io.vokumas.jitpayassignment.util.constants.MediaTypeConstants;
+import io.vokumas.jitpayassignment.web.controller.StreamingFormats;
 import io.vokumas.jitpayassignment.web.controller.UserController;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(controllers = UserController.class)
+@EnableConfigurationProperties({LocationWriteProperties.class, LocationStreamProperties.class})
+@Import({BinaryFormatsConfig.class, StreamingFormats.class})
 public class JitpayWebUnitTests {
 
+    private static final LocalDateTime VERSION_CREATED_ON = LocalDateTime.of(2022, 11, 25, 10, 10, 10);
+    private static final String VERSION_ETAG = "W/\"3-"
+            + VERSION_CREATED_ON.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() + "\"";
+
     @Autowired
     private MockMvc mvc;
 
     @MockBean
     private UserService userService;
 
+    @BeforeEach
+    public void init() {
+        when(userService.getUserVersion(any(UUID.class))).thenAnswer(invocation ->
+                new UserVersionDto(invocation.getArgument(0), 3, VERSION_CREATED_ON));
+    }
+
     @Test
     void upsertUser_shouldReturnOkForValidRequest() throws Exception {
         var userId = UUID.randomUUID();
@@ -152,7 +200,7 @@ public class JitpayWebUnitTests {
         var userId = UUID.randomUUID();
         UserSingleLocationDto mocked = new UserSingleLocationDto(userId, "email@email.com",
                 "firstName", "secondName", new LocationDto(82.15485, 52.16456));
-        when(userService.getUserLatestLocation(any(UUID.class))).thenReturn(mocked);
+        when(userService.getUserLatestLocation(any(UUID.class), anyLong())).thenReturn(mocked);
 
         mvc
                 .perform(get("/api/v2/user/location/latest?userId=" + userId))
@@ -161,6 +209,69 @@ public class JitpayWebUnitTests {
                 .andExpect(jsonPath("$.location.latitude").value(82.15485));
     }
 
+    @Test
+    void getLatestLocation_shouldReturnETagOfUserVersion() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.getUserLatestLocation(eq(userId), anyLong())).thenReturn(new UserSingleLocationDto(userId,
+                "email@email.com", "firstName", "secondName", new LocationDto(82.15485, 52.16456)));
+
+        var etag = mvc
+                .perform(get("/api/v2/user/location/latest?userId=" + userId))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        when(userService.getUserVersion(userId))
+                .thenReturn(new UserVersionDto(userId, 4, VERSION_CREATED_ON));
+
+        mvc
+                .perform(get("/api/v2/user/location/latest?userId=" + userId))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(etag)));
+    }
+
+    @Test
+    void getLatestLocation_shouldAnswerNotModifiedWithoutReadingLocation() throws Exception {
+        var userId = UUID.randomUUID();
+
+        mvc
+                .perform(get("/api/v2/user/location/latest?userId=" + userId)
+                        .header("If-None-Match", VERSION_ETAG))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", VERSION_ETAG))
+                .andExpect(content().string(""));
+
+        verify(userService, never()).getUserLatestLocation(any(), anyLong());
+    }
+
+    @Test
+    void getLatestLocation_shouldReturnWeakETagForEveryFormat() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.getUserLatestLocation(eq(userId), anyLong())).thenReturn(new UserSingleLocationDto(userId,
+                "email@email.com", "firstName", "secondName", new LocationDto(82.15485, 52.16456)));
+
+        mvc
+                .perform(get("/api/v2/user/location/latest?userId=" + userId)
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string("ETag", VERSION_ETAG))
+                .andExpect(header().string("Vary", "Accept"));
+    }
+
+    @Test
+    void getLocationsInRange_shouldAnswerNotModifiedWithoutReadingLocations() throws Exception {
+        var userId = UUID.randomUUID();
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s",
+                        userId, "2022-11-23T08:11:10.500", "2022-11-26T08:11:10.500"))
+                        .header("If-None-Match", VERSION_ETAG))
+                .andExpect(status().isNotModified());
+
+        verify(userService, never()).writeUserLocationsRange(any(), any(), any(), any());
+    }
+
     @Test
     void getLatestLocation_shouldFailWhenMissingUserIdParameter() throws Exception {
         mvc
@@ -182,13 +293,22 @@ public class JitpayWebUnitTests {
                         new LocationTimedDto(
                                 LocalDateTime.of(2022, 11, 26, 10, 10, 10, 10),
                                 new LocationDto(85.15443, 22.12366))));
-        when(userService.getUserLocationsRange(any(UUID.class), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(mocked);
+        doAnswer(invocation -> {
+            invocation.<JsonGenerator>getArgument(3)
+                    .writeObject(new GetUserLocationRangeResponseDto(userId, mocked.locations()));
+            return null;
+        }).when(userService).writeUserLocationsRange(any(UUID.class), any(LocalDateTime.class),
+                any(LocalDateTime.class), any(JsonGenerator.class));
         var from = "2022-11-23T08:11:10.500";
         var to = "2022-11-26T08:11:10.500";
 
-        mvc
+        var result = mvc
                 .perform(get("/api/v2/user/location/range?userId=" + userId + "&from=" + from + "&to=" + to))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc
+                .perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$.locations.length()").value(2));
@@ -207,4 +327,548 @@ public class JitpayWebUnitTests {
                         .value("Bad request. There are some parameters missing"));
     }
 
+    @Test
+    void putLocationsBatch_shouldReturnOkWithPerUserResults() throws Exception {
+        var userId = UUID.randomUUID();
+        var missingUserId = UUID.randomUUID();
+        when(userService.putUserLocations(any(PutUserLocationBatchRequestDto.class)))
+                .thenReturn(new PutUserLocationBatchResponseDto(List.of(
+                        new UserLocationBatchResultDto(userId, LocationWriteStatus.APPLIED, 2),
+                        new UserLocationBatchResultDto(missingUserId, LocationWriteStatus.USER_NOT_FOUND, 1))));
+
+        var batchJson = String.format("""
+                {
+                	"locations": [
+                		{"userId": "%1$s", "createdOn": "2022-11-25T10:10:10.100", "location": {"latitude": 82.15485, "longitude": 52.16456}},
+                		{"userId": "%1$s", "createdOn": "2022-11-25T10:10:11.100", "location": {"latitude": 82.15486, "longitude": 52.16457}},
+                		{"userId": "%2$s", "createdOn": "2022-11-25T10:10:12.100", "location": {"latitude": 82.15487, "longitude": 52.16458}}
+                	]
+                }""", userId, missingUserId);
+
+        mvc
+                .perform(post("/api/v2/user/locations/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batchJson)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.results.length()").value(2))
+                .andExpect(jsonPath("$.results[0].status").value("APPLIED"))
+                .andExpect(jsonPath("$.results[1].status").value("USER_NOT_FOUND"));
+    }
+
+    @Test
+    void putLocationsBatch_shouldFailWhenLocationIsInvalid() throws Exception {
+        var batchJson = """
+                {
+                	"locations": [
+                		{"createdOn": "2022-11-25T10:10:10.100", "location": {"latitude": 82.15485, "longitude": 52.16456}}
+                	]
+                }""";
+
+        mvc
+                .perform(post("/api/v2/user/locations/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batchJson)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.validationErrors['locations[0].userId']").value("userId cannot be empty"));
+    }
+
+    @Test
+    void putLocation_shouldReturnMinimalAckByDefault() throws Exception {
+        var userId = UUID.randomUUID();
+        var createdOn = LocalDateTime.of(2022, 11, 25, 10, 10, 10, 100_000_000);
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenReturn(new LocationAckDto(userId, createdOn, LocationWriteStatus.APPLIED));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Preference-Applied", "return=minimal"))
+                .andExpect(jsonPath("$.userId").value(userId.toString()))
+                .andExpect(jsonPath("$.status").value("APPLIED"))
+                .andExpect(jsonPath("$.email").doesNotExist());
+        verify(userService, never()).putUserLocation(any(PutUserLocationRequestDto.class));
+    }
+
+    @Test
+    void putLocation_shouldReturnUserWhenRepresentationPreferred() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocation(any(PutUserLocationRequestDto.class)))
+                .thenReturn(new UserDto(userId, "email@email.com", "firstName", "secondName"));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Prefer", "return=representation")
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Preference-Applied", "return=representation"))
+                .andExpect(jsonPath("$.email").value("email@email.com"));
+    }
+
+    @Test
+    void putLocation_shouldReturnNotFoundForUnknownUser() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenThrow(new JITPayUserNotFoundException("User not found", userId));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("User not found"));
+    }
+
+    @Test
+    void putLocation_shouldReturnAcceptedWhenQueued() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenReturn(new LocationAckDto(userId, LocalDateTime.now(), LocationWriteStatus.QUEUED));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("QUEUED"));
+    }
+
+    @Test
+    void putLocation_shouldReturnServiceUnavailableWhenIngestionIsOverloaded() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenThrow(new JITPayIngestionOverloadedException("Location ingestion queue is full",
+                        Duration.ofMillis(100)));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void putLocation_shouldReturnGatewayTimeoutWithoutRetryAfterWhenOutcomeIsUnknown() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenThrow(new JITPayWriteOutcomeUnknownException("Location write was not confirmed in time"));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isGatewayTimeout())
+                .andExpect(header().doesNotExist("Retry-After"));
+    }
+
+    @Test
+    void putLocation_shouldReturnTooManyRequestsWhenUserIsOverRate() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenThrow(new JITPayRateLimitedException("Location rate of user exceeded",
+                        Duration.ofMillis(1_500)));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(locationJson(userId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"))
+                .andExpect(jsonPath("$.message").value("Too many requests. Location rate of user exceeded"));
+    }
+
+    @Test
+    void getLatestLocationsBulk_shouldStreamEntryPerUser() throws Exception {
+        var userId = UUID.randomUUID();
+        var missingUserId = UUID.randomUUID();
+        when(userService.getUsersLatestLocations(any())).thenReturn(Stream.of(
+                new UserLatestLocationResultDto(userId, UserLatestLocationResultDto.Status.FOUND,
+                        new UserSingleLocationDto(userId, "email@email.com", "firstName", "secondName",
+                                new LocationDto(82.15485, 52.16456))),
+                new UserLatestLocationResultDto(missingUserId, UserLatestLocationResultDto.Status.NOT_FOUND, null)));
+
+        var result = mvc
+                .perform(post("/api/v2/user/location/latest/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("{\"userIds\": [\"%s\", \"%s\"]}", userId, missingUserId))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc
+                .perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[0].status").value("FOUND"))
+                .andExpect(jsonPath("$[0].user.location.latitude").value(82.15485))
+                .andExpect(jsonPath("$[1].userId").value(missingUserId.toString()))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[1].user").doesNotExist());
+    }
+
+    @Test
+    void getLatestLocationsBulk_shouldFailWhenUserIdsAreEmpty() throws Exception {
+        mvc
+                .perform(post("/api/v2/user/location/latest/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"userIds\": []}")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(userService, never()).getUsersLatestLocations(any());
+    }
+
+    @Test
+    void getLocationsInRange_shouldReturnPageWithNextCursor() throws Exception {
+        var userId = UUID.randomUUID();
+        GetUserLocationRangeResponseDto mocked = new GetUserLocationRangeResponseDto(userId,
+                List.of(new LocationTimedDto(
+                        LocalDateTime.of(2022, 11, 25, 10, 10, 10, 10),
+                        new LocationDto(82.15485, 52.16456))),
+                "next");
+        when(userService.getUserLocationsRangePage(any(UUID.class), any(LocalDateTime.class),
+                any(LocalDateTime.class), any(), any())).thenReturn(mocked);
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s&limit=1",
+                        userId, from, to)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.locations.length()").value(1))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+
+        verify(userService, never()).writeUserLocationsRange(any(), any(), any(), any());
+    }
+
+    @Test
+    void getLocationsInRange_shouldFailWhenCursorIsMalformed() throws Exception {
+        when(userService.getUserLocationsRangePage(any(UUID.class), any(LocalDateTime.class),
+                any(LocalDateTime.class), any(), any()))
+                .thenThrow(new JITPayBadRequestException("cursor is malformed"));
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s&cursor=abc",
+                        UUID.randomUUID(), from, to)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Bad request. cursor is malformed"));
+    }
+
+    @Test
+    void getLocationsInRange_shouldStreamLocationsWhenRequested() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.streamUserLocationsRange(any(UUID.class), any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenReturn(Stream.of(
+                        new LocationTimedDto(
+                                LocalDateTime.of(2022, 11, 25, 10, 10, 10, 10),
+                                new LocationDto(82.15485, 52.16456)),
+                        new LocationTimedDto(
+                                LocalDateTime.of(2022, 11, 26, 10, 10, 10, 10),
+                                new LocationDto(85.15443, 22.12366))));
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        var result = mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s&stream=true",
+                        userId, from, to)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc
+                .perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.userId").value(userId.toString()))
+                .andExpect(jsonPath("$.locations.length()").value(2))
+                .andExpect(jsonPath("$.locations[1].location.latitude").value(85.15443));
+    }
+
+    @Test
+    void getLocationsInRange_shouldReturnNotFoundBeforeStreaming() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.streamUserLocationsRange(any(UUID.class), any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenThrow(new JITPayUserNotFoundException("User not found", userId));
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s&stream=true",
+                        userId, from, to)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void getLocationsInRange_shouldReturnSimplifiedTrackWithDroppedPoints() throws Exception {
+        var userId = UUID.randomUUID();
+        GetUserLocationRangeResponseDto mocked = new GetUserLocationRangeResponseDto(userId,
+                List.of(new LocationTimedDto(
+                        LocalDateTime.of(2022, 11, 25, 10, 10, 10, 10),
+                        new LocationDto(82.15485, 52.16456))),
+                null, 42);
+        when(userService.getUserLocationsRangeSimplified(any(UUID.class), any(LocalDateTime.class),
+                any(LocalDateTime.class), any(), any())).thenReturn(mocked);
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s&tolerance=5",
+                        userId, from, to)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.locations.length()").value(1))
+                .andExpect(jsonPath("$.droppedPoints").value(42))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    void getLocationsInRange_shouldFailWhenSimplifyingPage() throws Exception {
+        var from = "2022-11-23T08:11:10.500";
+        var to = "2022-11-26T08:11:10.500";
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/range?userId=%s&from=%s&to=%s&maxPoints=10&limit=5",
+                        UUID.randomUUID(), from, to)))
+                .andExpect(status().isBadRequest());
+
+        verify(userService, never()).getUserLocationsRangeSimplified(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void getUsersNearLocation_shouldReturnUsersOrderedByDistance() throws Exception {
+        var nearUserId = UUID.randomUUID();
+        var farUserId = UUID.randomUUID();
+        GetUsersNearLocationResponseDto mocked = new GetUsersNearLocationResponseDto(List.of(
+                new UserNearLocationDto(nearUserId, "near@email.com", "firstName", "secondName",
+                        new LocationDto(52.52, 13.405), 12.5),
+                new UserNearLocationDto(farUserId, "far@email.com", "firstName", "secondName",
+                        new LocationDto(52.53, 13.41), 1150.25)));
+        when(userService.getUsersNearLocation(52.52, 13.405, 2000, 10)).thenReturn(mocked);
+
+        mvc
+                .perform(get("/api/v2/user/location/near?lat=52.52&lon=13.405&radius=2000&limit=10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(2))
+                .andExpect(jsonPath("$.users[0].userId").value(nearUserId.toString()))
+                .andExpect(jsonPath("$.users[0].distance").value(12.5))
+                .andExpect(jsonPath("$.users[1].userId").value(farUserId.toString()));
+    }
+
+    @Test
+    void getUsersNearLocation_shouldFailWhenRadiusIsInvalid() throws Exception {
+        when(userService.getUsersNearLocation(52.52, 13.405, -1, null))
+                .thenThrow(new JITPayBadRequestException("radius should be positive"));
+
+        mvc
+                .perform(get("/api/v2/user/location/near?lat=52.52&lon=13.405&radius=-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getNearestUserPositions_shouldReturnPositionsWithDistance() throws Exception {
+        var userId = UUID.randomUUID();
+        GetUserPositionsResponseDto mocked = new GetUserPositionsResponseDto(List.of(
+                new UserPositionDto(userId, new LocationDto(52.52, 13.405), 12.5)));
+        when(userService.getNearestUserPositions(52.52, 13.405, null, 5)).thenReturn(mocked);
+
+        mvc
+                .perform(get("/api/v2/user/location/nearest?lat=52.52&lon=13.405&count=5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users[0].userId").value(userId.toString()))
+                .andExpect(jsonPath("$.users[0].location.latitude").value(52.52))
+                .andExpect(jsonPath("$.users[0].distance").value(12.5));
+    }
+
+    @Test
+    void getUserPositionsWithin_shouldOmitDistance() throws Exception {
+        var userId = UUID.randomUUID();
+        GetUserPositionsResponseDto mocked = new GetUserPositionsResponseDto(List.of(
+                new UserPositionDto(userId, new LocationDto(52.52, 13.405), null)));
+        when(userService.getUserPositionsWithin(52.3, 13.0, 52.7, 13.8, null)).thenReturn(mocked);
+
+        mvc
+                .perform(get("/api/v2/user/location/within?minLat=52.3&minLon=13.0&maxLat=52.7&maxLon=13.8"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users[0].userId").value(userId.toString()))
+                .andExpect(jsonPath("$.users[0].distance").doesNotExist());
+    }
+
+    @Test
+    void putLocation_shouldFailWhenLatitudeIsOutOfRange() throws Exception {
+        var userJson = String.format("""
+                {
+                	"userId": "%s",
+                	"createdOn": "2022-11-25T10:10:10.100",
+                	"location": {"latitude": 95.0, "longitude": 52.16456}
+                }""", UUID.randomUUID());
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(userJson))
+                .andExpect(status().isBadRequest());
+
+        verify(userService, never()).putUserLocationAcknowledged(any());
+    }
+
+    @Test
+    void streamLatestLocations_shouldWriteLocationEvents() throws Exception {
+        var userId = UUID.randomUUID();
+        var otherUserId = UUID.randomUUID();
+        when(userService.subscribeToLatestLocations(eq(List.of(userId, otherUserId)), any(LocationSubscriber.class)))
+                .thenReturn(mock(LocationSubscription.class));
+
+        var result = mvc
+                .perform(get(String.format("/api/v2/user/location/stream?userId=%s&userId=%s", userId, otherUserId))
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var captor = ArgumentCaptor.forClass(LocationSubscriber.class);
+        verify(userService).subscribeToLatestLocations(anyList(), captor.capture());
+        captor.getValue().onLocations(List.of(new UserLocationEventDto(userId,
+                LocalDateTime.of(2022, 11, 25, 10, 10, 10), new LocationDto(52.52, 13.405))));
+
+        assertThat(result.getResponse().getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+        assertThat(result.getResponse().getContentAsString())
+                .contains("event:location")
+                .contains(userId.toString())
+                .contains("\"latitude\":52.52");
+    }
+
+    @Test
+    void streamLatestLocations_shouldFailWhenTooManyUsers() throws Exception {
+        when(userService.subscribeToLatestLocations(anyList(), any(LocationSubscriber.class)))
+                .thenThrow(new JITPayBadRequestException("userId should be given between 1 and 1000 times"));
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/stream?userId=%s", UUID.randomUUID())))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getLatestLocation_shouldAnswerCborWhenAccepted() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.getUserLatestLocation(eq(userId), anyLong())).thenReturn(new UserSingleLocationDto(userId,
+                "email@email.com", "firstName", "secondName", new LocationDto(82.15485, 52.16456)));
+
+        var response = mvc
+                .perform(get("/api/v2/user/location/latest?userId=" + userId)
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string("Vary", "Accept"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        var tree = new ObjectMapper(new CBORFactory()).readTree(response);
+        assertThat(tree.get("userId").asText()).isEqualTo(userId.toString());
+        assertThat(tree.get("location").get("latitude").asDouble()).isEqualTo(82.15485);
+    }
+
+    @Test
+    void putLocation_shouldAcceptSmileBody() throws Exception {
+        var userId = UUID.randomUUID();
+        var createdOn = LocalDateTime.of(2022, 11, 25, 10, 10, 10, 100_000_000);
+        when(userService.putUserLocationAcknowledged(any(PutUserLocationRequestDto.class)))
+                .thenReturn(new LocationAckDto(userId, createdOn, LocationWriteStatus.APPLIED));
+        var smileBody = new ObjectMapper(new SmileFactory())
+                .writeValueAsBytes(new ObjectMapper().readTree(locationJson(userId)));
+
+        mvc
+                .perform(post("/api/v2/user/location")
+                        .contentType(MediaTypeConstants.APPLICATION_SMILE)
+                        .content(smileBody)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.userId").value(userId.toString()))
+                .andExpect(jsonPath("$.status").value("APPLIED"));
+
+        var captor = ArgumentCaptor.forClass(PutUserLocationRequestDto.class);
+        verify(userService).putUserLocationAcknowledged(captor.capture());
+        assertThat(captor.getValue().createdOn()).isEqualTo(createdOn);
+    }
+
+    @Test
+    void getLatestLocationsBulk_shouldStreamCborWhenAccepted() throws Exception {
+        var userId = UUID.randomUUID();
+        when(userService.getUsersLatestLocations(anyList())).thenReturn(Stream.of(
+                new UserLatestLocationResultDto(userId, UserLatestLocationResultDto.Status.FOUND,
+                        new UserSingleLocationDto(userId, "email@email.com", "firstName", "secondName",
+                                new LocationDto(82.15485, 52.16456)))));
+
+        var result = mvc
+                .perform(post("/api/v2/user/location/latest/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("{\"userIds\": [\"%s\"]}", userId))
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var response = mvc
+                .perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        var tree = new ObjectMapper(new CBORFactory()).readTree(response);
+        assertThat(tree.get(0).get("status").asText()).isEqualTo("FOUND");
+        assertThat(tree.get(0).get("user").get("location").get("latitude").asDouble()).isEqualTo(82.15485);
+    }
+
+    @Test
+    void getLocationSummary_shouldReturnSummaryPerWindow() throws Exception {
+        var userId = UUID.randomUUID();
+        var windowStart = LocalDateTime.of(2022, 11, 25, 0, 0);
+        GetUserLocationSummaryResponseDto mocked = new GetUserLocationSummaryResponseDto(userId, TimeGranularity.DAY,
+                List.of(new LocationSummaryDto(windowStart, 12, 52.5, 13.4, 52.6, 13.5,
+                        windowStart.plusHours(8), windowStart.plusHours(18), 15_250.5)));
+        when(userService.getUserLocationSummary(eq(userId), eq("day"), any(LocalDateTime.class),
+                any(LocalDateTime.class))).thenReturn(mocked);
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/summary?userId=%s&from=%s&to=%s",
+                        userId, "2022-11-25T00:00:00.000", "2022-11-26T00:00:00.000")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.granularity").value("DAY"))
+                .andExpect(jsonPath("$.summaries.length()").value(1))
+                .andExpect(jsonPath("$.summaries[0].windowStart").value("2022-11-25T00:00:00.000"))
+                .andExpect(jsonPath("$.summaries[0].count").value(12))
+                .andExpect(jsonPath("$.summaries[0].maxLatitude").value(52.6))
+                .andExpect(jsonPath("$.summaries[0].distance").value(15_250.5));
+    }
+
+    @Test
+    void getLocationSummary_shouldFailWhenGranularityIsUnknown() throws Exception {
+        when(userService.getUserLocationSummary(any(UUID.class), eq("week"), any(LocalDateTime.class),
+                any(LocalDateTime.class))).thenThrow(new JITPayBadRequestException("granularity should be hour or day"));
+
+        mvc
+                .perform(get(String.format("/api/v2/user/location/summary?userId=%s&granularity=week&from=%s&to=%s",
+                        UUID.randomUUID(), "2022-11-25T00:00:00.000", "2022-11-26T00:00:00.000")))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static String locationJson(UUID userId) {
+        return String.format("""
+                {
+                	"userId": "%s",
+                	"createdOn": "2022-11-25T10:10:10.100",
+                	"location": {"latitude": 82.15485, "longitude": 52.16456}
+                }""", userId);
+    }
+
 }